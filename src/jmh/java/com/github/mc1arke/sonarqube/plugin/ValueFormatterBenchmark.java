@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares constructing a new {@link DecimalFormat} or {@link SimpleDateFormat} for every value, as the analysis
+ * summary and Pull Request loader used to, against the formatters shared through {@link ValueFormatter}. Run with
+ * {@code -prof gc} to compare the allocation rate of each approach.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValueFormatterBenchmark {
+
+    private static final DateTimeFormatter SONARQUBE_DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ENGLISH).withZone(ZoneOffset.ofHours(1));
+
+    @Param({"100", "10000"})
+    private int values;
+
+    private double[] decimals;
+    private String[] dates;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        decimals = new double[values];
+        dates = new String[values];
+        for (int i = 0; i < values; i++) {
+            decimals[i] = random.nextDouble() * 100;
+            dates[i] = SONARQUBE_DATE_TIME.format(Instant.ofEpochSecond(1500000000L + random.nextInt(100000000)));
+        }
+    }
+
+    @Benchmark
+    public void decimalFormatPerValue(Blackhole blackhole) {
+        for (double decimal : decimals) {
+            // the construction performed by AnalysisDetails before each coverage and duplication value was formatted
+            NumberFormat decimalFormat = new DecimalFormat("#0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+            blackhole.consume(decimalFormat.format(decimal));
+        }
+    }
+
+    @Benchmark
+    public void sharedDecimalFormat(Blackhole blackhole) {
+        for (double decimal : decimals) {
+            blackhole.consume(ValueFormatter.formatDecimal(decimal));
+        }
+    }
+
+    @Benchmark
+    public void simpleDateFormatPerValue(Blackhole blackhole) throws ParseException {
+        for (String date : dates) {
+            // the parsing performed by CommunityProjectPullRequestsLoader before each Pull Request date was read
+            blackhole.consume(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").parse(date).getTime());
+        }
+    }
+
+    @Benchmark
+    public void sharedDateTimeFormatter(Blackhole blackhole) {
+        for (String date : dates) {
+            blackhole.consume(ValueFormatter.parseSonarqubeDateTime(date));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.rules.RuleType;
+import org.sonar.core.issue.DefaultIssue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares counting the open issues of an analysis with a separate stream over every issue for each rule type, as the
+ * summary used to, against accumulating all counts in a single {@link IssueAggregation} pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IssueAggregationBenchmark {
+
+    private static final List<String> CLOSED_ISSUE_STATUS = Arrays.asList(Issue.STATUS_CLOSED, Issue.STATUS_RESOLVED);
+
+    @Param({"100", "10000", "100000"})
+    private int issues;
+
+    private List<PostAnalysisIssueVisitor.ComponentIssue> componentIssues;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        RuleType[] ruleTypes = RuleType.values();
+        List<String> statuses = Issue.STATUSES;
+        componentIssues = new ArrayList<>(issues);
+        for (int i = 0; i < issues; i++) {
+            DefaultIssue issue = new DefaultIssue().setKey("issue" + i)
+                    .setStatus(statuses.get(random.nextInt(statuses.size())))
+                    .setType(ruleTypes[random.nextInt(ruleTypes.length)])
+                    .setSeverity(Severity.ALL.get(random.nextInt(Severity.ALL.size())));
+            componentIssues.add(new PostAnalysisIssueVisitor.ComponentIssue(null, issue));
+        }
+    }
+
+    @Benchmark
+    public void streamForEachRuleType(Blackhole blackhole) {
+        Map<RuleType, Long> issueCounts = countRuleByType(componentIssues);
+        blackhole.consume(issueCounts.values().stream().mapToLong(l -> l).sum());
+        blackhole.consume(issueCounts);
+    }
+
+    @Benchmark
+    public void aggregateInSinglePass(Blackhole blackhole) {
+        IssueAggregation issueAggregation = IssueAggregation.of(componentIssues);
+        blackhole.consume(issueAggregation.getOpenIssueCount());
+        blackhole.consume(issueAggregation.getOpenIssueCountsByType());
+    }
+
+    // the counting performed by AnalysisDetails before issues were aggregated in a single pass
+    private static Map<RuleType, Long> countRuleByType(List<PostAnalysisIssueVisitor.ComponentIssue> componentIssues) {
+        return Arrays.stream(RuleType.values()).collect(Collectors.toMap(k -> k,
+                                                                         k -> componentIssues
+                                                                                 .stream()
+                                                                                 .map(PostAnalysisIssueVisitor.ComponentIssue::getIssue)
+                                                                                 .filter(i -> !CLOSED_ISSUE_STATUS
+                                                                                         .contains(i.status()))
+                                                                                 .filter(i -> k == i.type()).count()));
+    }
+}
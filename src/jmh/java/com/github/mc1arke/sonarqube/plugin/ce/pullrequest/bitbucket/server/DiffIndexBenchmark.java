@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.server;
+
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Diff;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffLine;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffPage;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.File;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Hunk;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Segment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares anchoring every issue of an analysis by scanning the whole diff, as the decorator used to, against building
+ * a {@link DiffIndex} once and looking each issue up in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiffIndexBenchmark {
+
+    private static final String[] SEGMENT_TYPES = {"CONTEXT", "REMOVED", "ADDED"};
+
+    @Param({"10", "200"})
+    private int files;
+
+    @Param({"50", "500"})
+    private int linesPerFile;
+
+    @Param({"100", "1000"})
+    private int issues;
+
+    private DiffPage diffPage;
+    private String[] issuePaths;
+    private int[] issueLines;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Diff> diffs = new ArrayList<>(files);
+        for (int file = 0; file < files; file++) {
+            List<Hunk> hunks = new ArrayList<>();
+            int line = 1;
+            while (line < linesPerFile) {
+                List<Segment> segments = new ArrayList<>();
+                for (String type : SEGMENT_TYPES) {
+                    int segmentLength = 1 + random.nextInt(10);
+                    List<DiffLine> diffLines = new ArrayList<>(segmentLength);
+                    for (int i = 0; i < segmentLength; i++) {
+                        diffLines.add(new DiffLine(line, line, "line " + line, false, Collections.emptyList()));
+                        line++;
+                    }
+                    segments.add(new Segment(type, diffLines, false));
+                }
+                hunks.add(new Hunk(null, line, 0, line, 0, segments));
+                line += random.nextInt(20);
+            }
+            diffs.add(new Diff("from", "to", hunks, null, new File(null, null, null, path(file), null)));
+        }
+        diffPage = new DiffPage("from", "to", false, diffs);
+
+        issuePaths = new String[issues];
+        issueLines = new int[issues];
+        for (int i = 0; i < issues; i++) {
+            issuePaths[i] = path(random.nextInt(files + files / 10 + 1));
+            issueLines[i] = random.nextInt(linesPerFile + 1);
+        }
+    }
+
+    @Benchmark
+    public void scanDiffForEachIssue(Blackhole blackhole) {
+        for (int i = 0; i < issues; i++) {
+            blackhole.consume(scanIssueType(diffPage, issuePaths[i], issueLines[i]));
+        }
+    }
+
+    @Benchmark
+    public void indexDiffOnce(Blackhole blackhole) {
+        DiffIndex diffIndex = DiffIndex.of(diffPage);
+        for (int i = 0; i < issues; i++) {
+            blackhole.consume(diffIndex.getSegmentType(issuePaths[i], issueLines[i]));
+        }
+    }
+
+    private static String path(int file) {
+        return "src/main/java/com/example/File" + file + ".java";
+    }
+
+    // the lookup performed by BitbucketServerPullRequestDecorator before the diff was indexed
+    private static String scanIssueType(DiffPage diffPage, String issuePath, int issueLine) {
+        String issueType = "CONTEXT";
+        List<Diff> diffs = diffPage.getDiffs().stream()
+                .filter(diff -> diff.getDestination() != null)
+                .filter(diff -> issuePath.equals(diff.getDestination().getToString()))
+                .collect(Collectors.toList());
+
+        for (Diff diff : diffs) {
+            for (Hunk hunk : diff.getHunks()) {
+                for (Segment segment : hunk.getSegments()) {
+                    Optional<DiffLine> optionalLine = segment.getLines().stream().filter(diffLine -> diffLine.getDestination() == issueLine).findFirst();
+                    if (optionalLine.isPresent()) {
+                        issueType = segment.getType();
+                        break;
+                    }
+                }
+            }
+        }
+        return issueType;
+    }
+}
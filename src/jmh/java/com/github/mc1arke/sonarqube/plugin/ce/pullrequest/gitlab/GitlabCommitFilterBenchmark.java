@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab;
+
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PostAnalysisIssueVisitor;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.Change;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.issue.Issue;
+import org.sonar.ce.task.projectanalysis.component.Component;
+import org.sonar.ce.task.projectanalysis.scm.Changeset;
+import org.sonar.ce.task.projectanalysis.scm.ScmInfo;
+import org.sonar.ce.task.projectanalysis.scm.ScmInfoRepository;
+import org.sonar.core.issue.DefaultIssue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares selecting the issues raised against lines changed by a Merge Request by resolving SCM details for every issue
+ * and searching a list of the Merge Request's commits, as the Gitlab decorator used to, against indexing the lines added
+ * in the Merge Request's diff and checking each issue's line against that index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GitlabCommitFilterBenchmark {
+
+    private static final int LINES_PER_FILE = 500;
+    private static final Comparator<PostAnalysisIssueVisitor.ComponentIssue> ISSUE_ORDER =
+            Comparator.comparing((PostAnalysisIssueVisitor.ComponentIssue i) -> i.getIssue().getLine(), Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(i -> i.getIssue().key(), Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    @Param({"1000"})
+    private int commits;
+
+    @Param({"10000"})
+    private int issues;
+
+    @Param({"100", "1000"})
+    private int files;
+
+    private List<String> commitList;
+    private ScmInfoRepository scmInfoRepository;
+    private List<Change> changes;
+    private Map<Component, String> paths;
+    private PostAnalysisIssueVisitor postAnalysisIssueVisitor;
+    private List<PostAnalysisIssueVisitor.ComponentIssue> openIssues;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        commitList = new ArrayList<>(commits);
+        for (int i = 0; i < commits; i++) {
+            commitList.add(String.format("%040x", random.nextLong()));
+        }
+        Set<String> commitSet = new HashSet<>(commitList);
+
+        Map<Component, ScmInfo> scmInfos = new IdentityHashMap<>();
+        paths = new IdentityHashMap<>();
+        changes = new ArrayList<>(files);
+        List<Component> components = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            Changeset[] changesets = new Changeset[LINES_PER_FILE];
+            StringBuilder diff = new StringBuilder("@@ -1,0 +1," + LINES_PER_FILE + " @@\n");
+            for (int line = 0; line < LINES_PER_FILE; line++) {
+                // roughly a quarter of each file was last changed outside of the Merge Request
+                String revision = random.nextInt(4) == 0 ? "base" + random.nextInt(commits) :
+                                  commitList.get(random.nextInt(commits));
+                changesets[line] = Changeset.newChangesetBuilder().setDate(0L).setRevision(revision).build();
+                diff.append(commitSet.contains(revision) ? '+' : ' ').append("line ").append(line + 1).append('\n');
+            }
+            Component component = createComponent();
+            components.add(component);
+            scmInfos.put(component, new ArrayScmInfo(changesets));
+            String path = "src/main/java/File" + i + ".java";
+            paths.put(component, path);
+            changes.add(new Change(path, false, diff.toString(), false, false));
+        }
+        scmInfoRepository = component -> {
+            // each lookup is timed, so add no more than the cache hit the Compute Engine repository performs
+            return Optional.ofNullable(scmInfos.get(component));
+        };
+
+        postAnalysisIssueVisitor = new PostAnalysisIssueVisitor(() -> new MapSettings().asConfig());
+        postAnalysisIssueVisitor.start();
+        for (int i = 0; i < issues; i++) {
+            DefaultIssue issue = new DefaultIssue().setKey("issue" + i).setStatus(Issue.STATUS_OPEN)
+                    .setLine(1 + random.nextInt(LINES_PER_FILE));
+            postAnalysisIssueVisitor.onIssue(components.get(random.nextInt(files)), issue);
+        }
+        openIssues = postAnalysisIssueVisitor.getOpenIssues();
+    }
+
+    @TearDown
+    public void tearDown() {
+        postAnalysisIssueVisitor.stop();
+    }
+
+    @Benchmark
+    public void scmInfoPerIssueAndCommitList(Blackhole blackhole) {
+        blackhole.consume(filterPerIssue(openIssues));
+    }
+
+    @Benchmark
+    public void changedLineIndex(Blackhole blackhole) {
+        // the diff is retrieved once per analysis, so parsing it is timed alongside the lookups
+        ChangedLineIndex changedLines = ChangedLineIndex.of(changes);
+        List<PostAnalysisIssueVisitor.ComponentIssue> result = new ArrayList<>();
+        for (PostAnalysisIssueVisitor.ComponentIssue issue : openIssues.stream().sorted(ISSUE_ORDER).collect(Collectors.toList())) {
+            Integer line = issue.getIssue().getLine();
+            if (null != line && changedLines.isChanged(paths.get(issue.getComponent()), line)) {
+                result.add(issue);
+            }
+        }
+        blackhole.consume(result);
+    }
+
+    // the filtering performed by GitlabServerPullRequestDecorator before the Merge Request diff was indexed
+    private List<PostAnalysisIssueVisitor.ComponentIssue> filterPerIssue(List<PostAnalysisIssueVisitor.ComponentIssue> issues) {
+        return issues.stream()
+                .sorted(ISSUE_ORDER)
+                .filter(issue -> issue.getIssue().getLine() != null)
+                .filter(issue -> scmInfoRepository.getScmInfo(issue.getComponent())
+                        .filter(i -> i.hasChangesetForLine(issue.getIssue().getLine()))
+                        .map(i -> i.getChangesetForLine(issue.getIssue().getLine()))
+                        .map(Changeset::getRevision)
+                        .filter(commitList::contains)
+                        .isPresent())
+                .collect(Collectors.toList());
+    }
+
+    private static Component createComponent() {
+        // only the identity of each component is needed to look up SCM details and paths
+        return (Component) Proxy.newProxyInstance(Component.class.getClassLoader(), new Class<?>[]{Component.class},
+                                                  (proxy, method, args) -> {
+                                                      if ("hashCode".equals(method.getName())) {
+                                                          return System.identityHashCode(proxy);
+                                                      } else if ("equals".equals(method.getName())) {
+                                                          return proxy == args[0];
+                                                      }
+                                                      return null;
+                                                  });
+    }
+
+    private static class ArrayScmInfo implements ScmInfo {
+
+        private final Changeset[] changesets;
+
+        ArrayScmInfo(Changeset[] changesets) {
+            super();
+            this.changesets = changesets;
+        }
+
+        @Override
+        public Changeset getLatestChangeset() {
+            return changesets[0];
+        }
+
+        @Override
+        public Changeset getChangesetForLine(int lineNumber) {
+            return changesets[lineNumber - 1];
+        }
+
+        @Override
+        public boolean hasChangesetForLine(int lineNumber) {
+            return lineNumber > 0 && lineNumber <= changesets.length;
+        }
+
+        @Override
+        public Changeset[] getAllChangesets() {
+            return changesets;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Compares rendering an issue summary for every issue by building and formatting a node tree with the formatters as
+ * they were before nodes dispatched to their own formatter, against formatting the same tree with the current
+ * formatters either to a string or into a single re-used buffer, and against filling the slots of a summary
+ * {@link Template} compiled once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MarkdownRenderingBenchmark {
+
+    private static final String BASE_IMAGE_URL = "https://raw.githubusercontent.com/mc1arke/images";
+    private static final String ISSUES_URL = "http://localhost:9000/project/issues?id=project&pullRequest=5";
+    private static final String[] TYPES = {"BUG", "VULNERABILITY", "CODE_SMELL", "SECURITY_HOTSPOT"};
+    private static final String[] SEVERITIES = {"BLOCKER", "CRITICAL", "MAJOR", "MINOR", "INFO"};
+
+    @Param({"100", "1000"})
+    private int issues;
+
+    private FormatterFactory legacyFormatterFactory;
+    private FormatterFactory formatterFactory;
+    private Template template;
+
+    @Setup
+    public void setUp() {
+        legacyFormatterFactory = new LegacyMarkdownFormatterFactory();
+        formatterFactory = new MarkdownFormatterFactory();
+        template = Template.compile(createDocument(Template.slot(0), Template.slot(1), Template.slot(2),
+                                                   Template.slot(3)), formatterFactory);
+    }
+
+    @Benchmark
+    public void formatTreeWithTypeChecks(Blackhole blackhole) {
+        for (int i = 0; i < issues; i++) {
+            blackhole.consume(legacyFormatterFactory.documentFormatter()
+                                      .format(createDocument(type(i), severity(i), "message " + i, "key" + i),
+                                              legacyFormatterFactory));
+        }
+    }
+
+    @Benchmark
+    public void formatTreeWithNodeDispatch(Blackhole blackhole) {
+        for (int i = 0; i < issues; i++) {
+            blackhole.consume(formatterFactory.documentFormatter()
+                                      .format(createDocument(type(i), severity(i), "message " + i, "key" + i),
+                                              formatterFactory));
+        }
+    }
+
+    @Benchmark
+    public void formatTreeIntoSharedBuffer(Blackhole blackhole) throws IOException {
+        StringBuilder output = new StringBuilder(1024);
+        for (int i = 0; i < issues; i++) {
+            output.setLength(0);
+            formatterFactory.documentFormatter()
+                    .format(createDocument(type(i), severity(i), "message " + i, "key" + i), formatterFactory, output);
+            blackhole.consume(output);
+        }
+    }
+
+    @Benchmark
+    public void renderCompiledTemplate(Blackhole blackhole) {
+        for (int i = 0; i < issues; i++) {
+            blackhole.consume(template.render(type(i), severity(i), "message " + i, "key" + i));
+        }
+    }
+
+    private static String type(int issue) {
+        return TYPES[issue % TYPES.length];
+    }
+
+    private static String severity(int issue) {
+        return SEVERITIES[issue % SEVERITIES.length];
+    }
+
+    private static Document createDocument(String type, String severity, String message, String key) {
+        return new Document(
+                new Paragraph(new Text("**Type:** " + type + " "),
+                              new Image(type, BASE_IMAGE_URL + "/checks/IssueType/" + type + ".svg")),
+                new Paragraph(new Text("**Severity:** " + severity + " "),
+                              new Image(severity, BASE_IMAGE_URL + "/checks/Severity/" + severity + ".svg")),
+                new Paragraph(new Text("**Message:** " + message)),
+                new Link(ISSUES_URL + "&issues=" + key + "&open=" + key, new Text("View in SonarQube")));
+    }
+
+    // the formatting performed by MarkdownFormatterFactory and BaseFormatter before nodes dispatched to their formatter
+    private static final class LegacyMarkdownFormatterFactory implements FormatterFactory {
+
+        @Override
+        public Formatter<Document> documentFormatter() {
+            return legacy((node, formatterFactory) -> childContents(node, formatterFactory));
+        }
+
+        @Override
+        public Formatter<Heading> headingFormatter() {
+            return legacy((node, formatterFactory) -> {
+                StringBuilder output = new StringBuilder();
+                IntStream.range(0, node.getLevel()).forEach(i -> output.append("#"));
+                return output.append(" ").append(childContents(node, formatterFactory))
+                        .append(System.lineSeparator()).toString();
+            });
+        }
+
+        @Override
+        public Formatter<Image> imageFormatter() {
+            return legacy((node, formatterFactory) -> String.format("![%s](%s)", node.getAltText(),
+                                                                    node.getSource()));
+        }
+
+        @Override
+        public Formatter<Link> linkFormatter() {
+            return legacy((node, formatterFactory) -> String.format("[%s](%s)", node.getChildren().isEmpty() ?
+                                                                                node.getUrl() :
+                                                                                childContents(node, formatterFactory),
+                                                                    node.getUrl()));
+        }
+
+        @Override
+        public Formatter<List> listFormatter() {
+            return legacy((node, formatterFactory) -> {
+                StringBuilder output = new StringBuilder();
+                node.getChildren().forEach(i -> output.append("- ")
+                        .append(listItemFormatter().format((ListItem) i, formatterFactory))
+                        .append(System.lineSeparator()));
+                output.append(System.lineSeparator());
+                return output.toString();
+            });
+        }
+
+        @Override
+        public Formatter<ListItem> listItemFormatter() {
+            return legacy((node, formatterFactory) -> childContents(node, formatterFactory));
+        }
+
+        @Override
+        public Formatter<Paragraph> paragraphFormatter() {
+            return legacy((node, formatterFactory) -> childContents(node, formatterFactory) +
+                                                      System.lineSeparator() + System.lineSeparator());
+        }
+
+        @Override
+        public Formatter<Text> textFormatter() {
+            return legacy((node, formatterFactory) -> node.getContent());
+        }
+
+        private static <N extends Node> Formatter<N> legacy(LegacyFormatter<N> formatter) {
+            return new Formatter<N>() {
+                @Override
+                public String format(N node, FormatterFactory formatterFactory) {
+                    return formatter.format(node, formatterFactory);
+                }
+
+                @Override
+                public void format(N node, FormatterFactory formatterFactory, Appendable output) throws IOException {
+                    output.append(formatter.format(node, formatterFactory));
+                }
+            };
+        }
+
+        private static String childContents(Node node, FormatterFactory formatterFactory) {
+            StringBuilder output = new StringBuilder();
+            node.getChildren()
+                    .forEach(n -> output.append(formatterFor(formatterFactory, n).format(n, formatterFactory)));
+            return output.toString();
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <N extends Node> Formatter<N> formatterFor(FormatterFactory formatterFactory, N node) {
+            if (node instanceof Document) {
+                return (Formatter<N>) formatterFactory.documentFormatter();
+            } else if (node instanceof Heading) {
+                return (Formatter<N>) formatterFactory.headingFormatter();
+            } else if (node instanceof Image) {
+                return (Formatter<N>) formatterFactory.imageFormatter();
+            } else if (node instanceof List) {
+                return (Formatter<N>) formatterFactory.listFormatter();
+            } else if (node instanceof ListItem) {
+                return (Formatter<N>) formatterFactory.listItemFormatter();
+            } else if (node instanceof Paragraph) {
+                return (Formatter<N>) formatterFactory.paragraphFormatter();
+            } else if (node instanceof Text) {
+                return (Formatter<N>) formatterFactory.textFormatter();
+            } else if (node instanceof Link) {
+                return (Formatter<N>) formatterFactory.linkFormatter();
+            } else {
+                throw new IllegalArgumentException("Unknown node type: " + node.getClass().getName());
+            }
+        }
+
+        @FunctionalInterface
+        private interface LegacyFormatter<N extends Node> {
+
+            String format(N node, FormatterFactory formatterFactory);
+        }
+    }
+}
@@ -21,9 +21,14 @@ package com.github.mc1arke.sonarqube.plugin;
 import com.github.mc1arke.sonarqube.plugin.ce.CommunityBranchEditionProvider;
 import com.github.mc1arke.sonarqube.plugin.ce.CommunityReportAnalysisComponentProvider;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PullRequestBuildStatusDecorator;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PullRequestDecorationExecutor;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.cloud.BitbucketCloudPullRequestDecorator;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.server.BitbucketServerPullRequestDecorator;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.GitlabServerPullRequestDecorator;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.InstallationTokenCache;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.RepositoryInstallationCache;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.DefaultHttpClientProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
 import com.github.mc1arke.sonarqube.plugin.scanner.CommunityBranchConfigurationLoader;
 import com.github.mc1arke.sonarqube.plugin.scanner.CommunityBranchParamsValidator;
 import com.github.mc1arke.sonarqube.plugin.scanner.CommunityProjectBranchesLoader;
@@ -63,7 +68,9 @@ public class CommunityBranchPlugin implements Plugin, CoreExtension {
     public void load(CoreExtension.Context context) {
         LOGGER.info("Loading extensions for side " + context.getRuntime().getSonarQubeSide());
         if (SonarQubeSide.COMPUTE_ENGINE == context.getRuntime().getSonarQubeSide()) {
-            context.addExtensions(CommunityReportAnalysisComponentProvider.class, CommunityBranchEditionProvider.class);
+            context.addExtensions(CommunityReportAnalysisComponentProvider.class, CommunityBranchEditionProvider.class,
+                                  DefaultHttpClientProvider.class, JsonCodec.class, PullRequestDecorationExecutor.class,
+                                  InstallationTokenCache.class, RepositoryInstallationCache.class);
         } else if (SonarQubeSide.SERVER == context.getRuntime().getSonarQubeSide()) {
             context.addExtensions(CommunityBranchFeatureExtension.class, CommunityBranchSupportDelegate.class,
 
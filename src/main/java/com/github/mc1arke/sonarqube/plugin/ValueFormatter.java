@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Number and date formats shared by the scanner and Compute Engine components. Date formats are immutable
+ * {@link DateTimeFormatter}s and so are shared between all threads, whilst the (non thread-safe) decimal format is
+ * created once per thread and re-used for every value that thread formats.
+ */
+public final class ValueFormatter {
+
+    private static final DateTimeFormatter SONARQUBE_DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ENGLISH);
+    private static final DateTimeFormatter UTC_DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+    private static final ThreadLocal<NumberFormat> DECIMAL_FORMAT = ThreadLocal.withInitial(
+            () -> new DecimalFormat("#0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH)));
+    private static final int DECIMAL_CAPACITY = 16;
+
+    private ValueFormatter() {
+        super();
+    }
+
+    /**
+     * @return the value with two decimal places, such as {@code 12.50}.
+     */
+    public static String formatDecimal(double value) {
+        return DECIMAL_FORMAT.get().format(value, new StringBuffer(DECIMAL_CAPACITY), new FieldPosition(0)).toString();
+    }
+
+    /**
+     * @return the value with two decimal places, such as {@code 12.50}.
+     */
+    public static String formatDecimal(Number value) {
+        return DECIMAL_FORMAT.get().format(value, new StringBuffer(DECIMAL_CAPACITY), new FieldPosition(0)).toString();
+    }
+
+    /**
+     * Parses a date and time in the format used by the SonarQube web services, such as
+     * {@code 2019-04-04T19:44:27+0100}.
+     *
+     * @return the number of milliseconds since the epoch.
+     * @throws DateTimeParseException if the value is not in the expected format.
+     */
+    public static long parseSonarqubeDateTime(String value) {
+        return OffsetDateTime.parse(value, SONARQUBE_DATE_TIME).toInstant().toEpochMilli();
+    }
+
+    /**
+     * @return the instant formatted as an ISO-8601 date and time in UTC, such as {@code 2019-04-04T18:44:27Z}.
+     */
+    public static String formatUtcDateTime(Instant instant) {
+        return UTC_DATE_TIME.format(instant);
+    }
+}
@@ -20,6 +20,7 @@ package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
 
 
 import com.github.mc1arke.sonarqube.plugin.SonarqubeCompatibility;
+import com.github.mc1arke.sonarqube.plugin.ValueFormatter;
 import org.apache.commons.lang.StringUtils;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Document;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.FormatterFactory;
@@ -27,15 +28,14 @@ import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Heading;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Image;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Link;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.ListItem;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Node;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Paragraph;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Template;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Text;
 import org.sonar.api.ce.posttask.Analysis;
 import org.sonar.api.ce.posttask.Project;
 import org.sonar.api.ce.posttask.QualityGate;
 import org.sonar.api.ce.posttask.QualityGate.EvaluationStatus;
 import org.sonar.api.config.Configuration;
-import org.sonar.api.issue.Issue;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.measures.Metric;
 import org.sonar.api.rules.RuleType;
@@ -44,26 +44,23 @@ import org.sonar.ce.task.projectanalysis.component.TreeRootHolder;
 import org.sonar.ce.task.projectanalysis.measure.Measure;
 import org.sonar.ce.task.projectanalysis.measure.MeasureRepository;
 import org.sonar.ce.task.projectanalysis.metric.MetricRepository;
-import org.sonar.core.issue.DefaultIssue;
 import org.sonar.server.measure.Rating;
 
 import java.math.BigDecimal;
 import java.net.URLEncoder;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class AnalysisDetails {
 
-    private static final List<String> CLOSED_ISSUE_STATUS = Arrays.asList(Issue.STATUS_CLOSED, Issue.STATUS_RESOLVED);
-
     private static final List<BigDecimal> COVERAGE_LEVELS =
             Arrays.asList(BigDecimal.valueOf(100), BigDecimal.valueOf(90), BigDecimal.valueOf(60),
                           BigDecimal.valueOf(50), BigDecimal.valueOf(40), BigDecimal.valueOf(25));
@@ -75,23 +72,34 @@ public class AnalysisDetails {
 
     public static final String IMAGE_URL_BASE = "com.github.mc1arke.sonarqube.plugin.branch.image-url-base";
 
+    private static final int MAX_REMEMBERED_ISSUE_SUMMARIES = 10000;
+    private static final String DEFAULT_IMAGE_URL_BASE =
+            "https://raw.githubusercontent.com/b-dzoba/sonarqube-community-branch-plugin/master/src/main/resources/pr-decoration-images";
+
     private final String publicRootURL;
     private final BranchDetails branchDetails;
-    private final MeasuresHolder measuresHolder;
-    private final PostAnalysisIssueVisitor postAnalysisIssueVisitor;
+    private final Map<String, MeasureWrapper> measures;
+    private final AnalysisIssues analysisIssues;
     private final QualityGate qualityGate;
     private final Analysis analysis;
     private final Project project;
     private final Configuration configuration;
-
-    AnalysisDetails(BranchDetails branchDetails, PostAnalysisIssueVisitor postAnalysisIssueVisitor,
+    private final Map<IssueSummaryKey, String> issueSummaries = new ConcurrentHashMap<>();
+    private volatile RenderContext renderContext;
+    private volatile IssueSummaryTemplate issueSummaryTemplate;
+
+    /**
+     * Creates the details of an analysis for decoration, reading the measures used in the analysis summary up-front
+     * so the details can still be used once the analysis task's repositories have been discarded.
+     */
+    AnalysisDetails(BranchDetails branchDetails, AnalysisIssues analysisIssues,
                     QualityGate qualityGate, MeasuresHolder measuresHolder, Analysis analysis, Project project,
                     Configuration configuration, String publicRootURL) {
         super();
         this.publicRootURL = publicRootURL;
         this.branchDetails = branchDetails;
-        this.measuresHolder = measuresHolder;
-        this.postAnalysisIssueVisitor = postAnalysisIssueVisitor;
+        this.measures = loadMeasures(measuresHolder);
+        this.analysisIssues = analysisIssues;
         this.qualityGate = qualityGate;
         this.analysis = analysis;
         this.project = project;
@@ -130,15 +138,13 @@ public class AnalysisDetails {
         double duplications =
                 findMeasure(CoreMetrics.DUPLICATED_LINES_DENSITY_KEY).map(MeasureWrapper::getDoubleValue).orElse(0D);
 
-        NumberFormat decimalFormat = new DecimalFormat("#0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
-
-        Map<RuleType, Long> issueCounts = countRuleByType();
-        long issueTotal = issueCounts.values().stream().mapToLong(l -> l).sum();
+        IssueAggregation issueAggregation = analysisIssues.getIssueAggregation();
+        long issueTotal = issueAggregation.getOpenIssueCount();
 
         List<QualityGate.Condition> failedConditions = findFailedConditions();
 
-        String baseImageUrl = configuration.get(IMAGE_URL_BASE)
-                .orElse("https://raw.githubusercontent.com/b-dzoba/sonarqube-community-branch-plugin/master/src/main/resources/pr-decoration-images");
+        RenderContext renderContext = getRenderContext();
+        String baseImageUrl = renderContext.baseImageUrl;
 
         Document document = new Document(new Paragraph((QualityGate.Status.OK == getQualityGateStatus() ?
                                                         new Image("Passed", baseImageUrl +
@@ -151,66 +157,115 @@ public class AnalysisDetails {
                                                  failedConditions.stream().map(c -> new ListItem(new Text(format(c))))
                                                          .toArray(ListItem[]::new)),
                                          new Heading(1, new Text("Analysis Details")), new Heading(2, new Text(
-                issueTotal + " Issue" + (issueCounts.values().stream().mapToLong(l -> l).sum() == 1 ? "" : "s"))),
+                issueTotal + " Issue" + (issueTotal == 1 ? "" : "s"))),
                                          new com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.List(
                                                  com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.List.Style.BULLET,
                                                  new ListItem(new Image("Bug",
                                                                         baseImageUrl + "/common/bug.svg?sanitize=true"),
                                                               new Text(" "), new Text(
-                                                         pluralOf(issueCounts.get(RuleType.BUG), "Bug", "Bugs"))),
+                                                         pluralOf(issueAggregation.getOpenIssueCount(RuleType.BUG), "Bug", "Bugs"))),
                                                  new ListItem(new Image("Vulnerability", baseImageUrl +
                                                                                          "/common/vulnerability.svg?sanitize=true"),
                                                               new Text(" "), new Text(pluralOf(
-                                                         issueCounts.get(RuleType.VULNERABILITY) +
-                                                         issueCounts.get(RuleType.SECURITY_HOTSPOT), "Vulnerability",
+                                                         issueAggregation.getOpenIssueCount(RuleType.VULNERABILITY) +
+                                                         issueAggregation.getOpenIssueCount(RuleType.SECURITY_HOTSPOT), "Vulnerability",
                                                          "Vulnerabilities"))), new ListItem(new Image("Code Smell",
                                                                                                       baseImageUrl +
                                                                                                       "/common/vulnerability.svg?sanitize=true"),
                                                                                             new Text(" "), new Text(
-                                                 pluralOf(issueCounts.get(RuleType.CODE_SMELL), "Code Smell",
+                                                 pluralOf(issueAggregation.getOpenIssueCount(RuleType.CODE_SMELL), "Code Smell",
                                                           "Code Smells")))),
                                          new Heading(2, new Text("Coverage and Duplications")),
                                          new com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.List(
                                                  com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.List.Style.BULLET,
                                                  new ListItem(createCoverageImage(newCoverage, baseImageUrl),
                                                               new Text(" "), new Text(
-                                                         Optional.ofNullable(newCoverage).map(decimalFormat::format)
+                                                         Optional.ofNullable(newCoverage).map(ValueFormatter::formatDecimal)
                                                                  .map(i -> i + "% Coverage")
                                                                  .orElse("No coverage information") + " (" +
-                                                         decimalFormat.format(coverage) + "% Estimated after merge)")),
+                                                         ValueFormatter.formatDecimal(coverage) + "% Estimated after merge)")),
                                                  new ListItem(createDuplicateImage(newDuplications, baseImageUrl),
                                                               new Text(" "), new Text(
-                                                         Optional.ofNullable(newDuplications).map(decimalFormat::format)
+                                                         Optional.ofNullable(newDuplications).map(ValueFormatter::formatDecimal)
                                                                  .map(i -> i + "% Duplicated Code")
                                                                  .orElse("No duplication information") + " (" +
-                                                         decimalFormat.format(duplications) +
+                                                         ValueFormatter.formatDecimal(duplications) +
                                                          "% Estimated after merge)"))),
-                                         new Link(publicRootURL + "/dashboard?id=" + URLEncoder.encode(project.getKey()) + "&pullRequest=" + branchDetails.getBranchName(), new Text("View in SonarQube")));
+                                         new Link(renderContext.dashboardUrl, new Text("View in SonarQube")));
 
         return formatterFactory.documentFormatter().format(document, formatterFactory);
     }
 
+    /**
+     * Renders the summary for an issue. Summaries are remembered for the rest of the analysis by issue key and
+     * formatter type, so decorators that render the same issue again (such as when retrying a failed request) re-use
+     * the previously rendered summary. Only a limited number of summaries are remembered so analyses with a very large
+     * number of issues do not hold every summary in memory.
+     */
     public String createAnalysisIssueSummary(PostAnalysisIssueVisitor.ComponentIssue componentIssue, FormatterFactory formatterFactory) {
-        final DefaultIssue issue = componentIssue.getIssue();
+        final PostAnalysisIssueVisitor.LightIssue issue = componentIssue.getIssue();
+        if (null == issue.key()) {
+            return renderAnalysisIssueSummary(issue, formatterFactory);
+        }
+        IssueSummaryKey summaryKey = new IssueSummaryKey(formatterFactory.getClass(), issue.key());
+        String summary = issueSummaries.get(summaryKey);
+        if (null == summary) {
+            summary = renderAnalysisIssueSummary(issue, formatterFactory);
+            if (issueSummaries.size() < MAX_REMEMBERED_ISSUE_SUMMARIES) {
+                issueSummaries.putIfAbsent(summaryKey, summary);
+            }
+        }
+        return summary;
+    }
 
-        String baseImageUrl = configuration.get(IMAGE_URL_BASE)
-                .orElse("https://raw.githubusercontent.com/b-dzoba/sonarqube-community-branch-plugin/master/src/main/resources/pr-decoration-images");
+    private String renderAnalysisIssueSummary(PostAnalysisIssueVisitor.LightIssue issue, FormatterFactory formatterFactory) {
+        IssueSummaryTemplate template = issueSummaryTemplate;
+        if (null == template || template.formatterFactory != formatterFactory) {
+            template = createIssueSummaryTemplate(formatterFactory);
+            issueSummaryTemplate = template;
+        }
 
         Long effort = issue.effortInMinutes();
-        Node effortNode = (null == effort ? new Text("") : new Paragraph(new Text(String.format("**Duration (min):** %s", effort))));
-
         String resolution = issue.resolution();
-        Node resolutionNode = (StringUtils.isBlank(resolution) ? new Text("") : new Paragraph(new Text(String.format("**Resolution:** %s ", resolution))));
-
-        Document document = new Document(
-                new Paragraph(new Text(String.format("**Type:** %s ", issue.type().name())), new Image(issue.type().name(), String.format("%s/checks/IssueType/%s.svg?sanitize=true", baseImageUrl, issue.type().name().toLowerCase()))),
-                new Paragraph(new Text(String.format("**Severity:** %s ", issue.severity())), new Image(issue.severity(), String.format("%s/checks/Severity/%s.svg?sanitize=true", baseImageUrl, issue.severity().toLowerCase()))),
-                new Paragraph(new Text(String.format("**Message:** %s", issue.getMessage()))),
-                effortNode,
-                resolutionNode,
-                new Link(publicRootURL + "/project/issues?id=" + URLEncoder.encode(project.getKey()) + "&pullRequest=" + branchDetails.getBranchName() + "&issues=" + issue.key() + "&open=" + issue.key(), new Text("View in SonarQube"))
-        );
-        return formatterFactory.documentFormatter().format(document, formatterFactory);
+        String type = issue.type().name();
+
+        return template.summary.render(type, type.toLowerCase(), issue.severity(), issue.severity().toLowerCase(),
+                                       String.valueOf(issue.getMessage()),
+                                       (null == effort ? "" : template.effort.render(String.valueOf(effort))),
+                                       (StringUtils.isBlank(resolution) ? "" : template.resolution.render(resolution)),
+                                       issue.key());
+    }
+
+    private IssueSummaryTemplate createIssueSummaryTemplate(FormatterFactory formatterFactory) {
+        RenderContext renderContext = getRenderContext();
+        String baseImageUrl = renderContext.baseImageUrl;
+
+        Template summary = Template.compile(new Document(
+                new Paragraph(new Text("**Type:** " + Template.slot(0) + " "), new Image(Template.slot(0), baseImageUrl + "/checks/IssueType/" + Template.slot(1) + ".svg?sanitize=true")),
+                new Paragraph(new Text("**Severity:** " + Template.slot(2) + " "), new Image(Template.slot(2), baseImageUrl + "/checks/Severity/" + Template.slot(3) + ".svg?sanitize=true")),
+                new Paragraph(new Text("**Message:** " + Template.slot(4))),
+                new Text(Template.slot(5)),
+                new Text(Template.slot(6)),
+                new Link(renderContext.issuesUrl + "&issues=" + Template.slot(7) + "&open=" + Template.slot(7), new Text("View in SonarQube"))
+        ), formatterFactory);
+        Template effort = Template.compile(new Document(new Paragraph(new Text("**Duration (min):** " + Template.slot(0)))), formatterFactory);
+        Template resolution = Template.compile(new Document(new Paragraph(new Text("**Resolution:** " + Template.slot(0) + " "))), formatterFactory);
+
+        return new IssueSummaryTemplate(formatterFactory, summary, effort, resolution);
+    }
+
+    private RenderContext getRenderContext() {
+        RenderContext context = renderContext;
+        if (null == context) {
+            String encodedProjectKey = URLEncoder.encode(project.getKey());
+            context = new RenderContext(configuration.get(IMAGE_URL_BASE).orElse(DEFAULT_IMAGE_URL_BASE),
+                                        publicRootURL + "/dashboard?id=" + encodedProjectKey + "&pullRequest=" +
+                                        branchDetails.getBranchName(),
+                                        publicRootURL + "/project/issues?id=" + encodedProjectKey + "&pullRequest=" +
+                                        branchDetails.getBranchName());
+            renderContext = context;
+        }
+        return context;
     }
 
     public Optional<String> getSCMPathForIssue(PostAnalysisIssueVisitor.ComponentIssue componentIssue) {
@@ -221,8 +276,12 @@ public class AnalysisDetails {
         return Optional.empty();
     }
 
-    public PostAnalysisIssueVisitor getPostAnalysisIssueVisitor() {
-        return postAnalysisIssueVisitor;
+    public AnalysisIssues getAnalysisIssues() {
+        return analysisIssues;
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
     }
 
     private static Image createCoverageImage(BigDecimal coverage, String baseImageUrl) {
@@ -276,27 +335,24 @@ public class AnalysisDetails {
                 .collect(Collectors.toList());
     }
 
+    private static Map<String, MeasureWrapper> loadMeasures(MeasuresHolder measuresHolder) {
+        Map<String, MeasureWrapper> measures = new HashMap<>();
+        for (String metricKey : Arrays.asList(CoreMetrics.COVERAGE_KEY, CoreMetrics.DUPLICATED_LINES_DENSITY_KEY)) {
+            measuresHolder.getMeasureRepository().getRawMeasure(measuresHolder.getTreeRootHolder().getRoot(),
+                                                                measuresHolder.getMetricRepository().getByKey(metricKey))
+                    .ifPresent(measure -> measures.put(metricKey, new MeasureWrapper(measure)));
+        }
+        return Collections.unmodifiableMap(measures);
+    }
+
     private Optional<MeasureWrapper> findMeasure(String metricKey) {
-        return measuresHolder.getMeasureRepository().getRawMeasure(measuresHolder.getTreeRootHolder().getRoot(),
-                                                                   measuresHolder.getMetricRepository()
-                                                                           .getByKey(metricKey))
-                .map(MeasureWrapper::new);
+        return Optional.ofNullable(measures.get(metricKey));
     }
 
     public Optional<QualityGate.Condition> findQualityGateCondition(String metricKey) {
         return qualityGate.getConditions().stream().filter(c -> metricKey.equals(c.getMetricKey())).findFirst();
     }
 
-    private Map<RuleType, Long> countRuleByType() {
-        return Arrays.stream(RuleType.values()).collect(Collectors.toMap(k -> k,
-                                                                         k -> postAnalysisIssueVisitor.getIssues()
-                                                                                 .stream()
-                                                                                 .map(PostAnalysisIssueVisitor.ComponentIssue::getIssue)
-                                                                                 .filter(i -> !CLOSED_ISSUE_STATUS
-                                                                                         .contains(i.status()))
-                                                                                 .filter(i -> k == i.type()).count()));
-    }
-
     private static String pluralOf(long value, String singleLabel, String multiLabel) {
         return value + " " + (1 == value ? singleLabel : multiLabel);
     }
@@ -310,11 +366,10 @@ public class AnalysisDetails {
                             condition.getOperator() == QualityGate.Operator.GREATER_THAN ? "is worse than" :
                             "is better than", Rating.valueOf(Integer.parseInt(condition.getErrorThreshold())));
         } else if (metric.getType() == Metric.ValueType.PERCENT) {
-            NumberFormat numberFormat = new DecimalFormat("#0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
-            return String.format("%s%% %s (%s %s%%)", numberFormat.format(new BigDecimal(condition.getValue())),
+            return String.format("%s%% %s (%s %s%%)", ValueFormatter.formatDecimal(new BigDecimal(condition.getValue())),
                                  metric.getName(),
                                  condition.getOperator() == QualityGate.Operator.GREATER_THAN ? "is greater than" :
-                                 "is less than", numberFormat.format(new BigDecimal(condition.getErrorThreshold())));
+                                 "is less than", ValueFormatter.formatDecimal(new BigDecimal(condition.getErrorThreshold())));
         } else {
             return String.format("%s %s (%s %s)", condition.getValue(), metric.getName(),
                                  condition.getOperator() == QualityGate.Operator.GREATER_THAN ? "is greater than" :
@@ -407,4 +462,69 @@ public class AnalysisDetails {
 
     }
 
+    /**
+     * The issue summary compiled for a single formatter, with the project and Pull Request details already rendered.
+     */
+    private static class IssueSummaryTemplate {
+
+        private final FormatterFactory formatterFactory;
+        private final Template summary;
+        private final Template effort;
+        private final Template resolution;
+
+        IssueSummaryTemplate(FormatterFactory formatterFactory, Template summary, Template effort,
+                             Template resolution) {
+            super();
+            this.formatterFactory = formatterFactory;
+            this.summary = summary;
+            this.effort = effort;
+            this.resolution = resolution;
+        }
+    }
+
+    /**
+     * Values used in every summary rendered for the analysis, resolved the first time a summary is rendered.
+     */
+    private static final class RenderContext {
+
+        private final String baseImageUrl;
+        private final String dashboardUrl;
+        private final String issuesUrl;
+
+        RenderContext(String baseImageUrl, String dashboardUrl, String issuesUrl) {
+            super();
+            this.baseImageUrl = baseImageUrl;
+            this.dashboardUrl = dashboardUrl;
+            this.issuesUrl = issuesUrl;
+        }
+    }
+
+    private static final class IssueSummaryKey {
+
+        private final Class<? extends FormatterFactory> formatterType;
+        private final String issueKey;
+
+        IssueSummaryKey(Class<? extends FormatterFactory> formatterType, String issueKey) {
+            super();
+            this.formatterType = formatterType;
+            this.issueKey = issueKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            IssueSummaryKey that = (IssueSummaryKey) o;
+            return formatterType == that.formatterType && issueKey.equals(that.issueKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(formatterType, issueKey);
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The issues visited during an analysis, captured once the analysis has finished so a decoration can read them after
+ * the analysis task (and the {@link PostAnalysisIssueVisitor} scoped to it) has been stopped. Any issues spilled to disk
+ * by the visitor are kept until this snapshot has been closed.
+ */
+public class AnalysisIssues implements Closeable {
+
+    private final List<PostAnalysisIssueVisitor.ComponentIssue> issues;
+    private final List<PostAnalysisIssueVisitor.ComponentIssue> openIssues;
+    private final Map<String, List<PostAnalysisIssueVisitor.ComponentIssue>> openIssuesByScmPath;
+    private final IssueAggregation issueAggregation;
+    private final Runnable release;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    AnalysisIssues(List<PostAnalysisIssueVisitor.ComponentIssue> issues,
+                   List<PostAnalysisIssueVisitor.ComponentIssue> openIssues,
+                   Map<String, List<PostAnalysisIssueVisitor.ComponentIssue>> openIssuesByScmPath,
+                   IssueAggregation issueAggregation, Runnable release) {
+        super();
+        this.issues = issues;
+        this.openIssues = openIssues;
+        this.openIssuesByScmPath = openIssuesByScmPath;
+        this.issueAggregation = issueAggregation;
+        this.release = release;
+    }
+
+    public List<PostAnalysisIssueVisitor.ComponentIssue> getIssues() {
+        return issues;
+    }
+
+    /**
+     * @return all issues that have not been closed or resolved, in the order they were visited.
+     */
+    public List<PostAnalysisIssueVisitor.ComponentIssue> getOpenIssues() {
+        return openIssues;
+    }
+
+    /**
+     * @return open issues raised against files with a known SCM path, grouped by that path in the order each file
+     * was first visited.
+     */
+    public Map<String, List<PostAnalysisIssueVisitor.ComponentIssue>> getOpenIssuesByScmPath() {
+        return openIssuesByScmPath;
+    }
+
+    public IssueAggregation getIssueAggregation() {
+        return issueAggregation;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+}
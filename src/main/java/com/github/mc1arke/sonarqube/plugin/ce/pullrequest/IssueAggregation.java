@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
+
+import org.sonar.api.issue.Issue;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.rules.RuleType;
+import org.sonar.ce.task.projectanalysis.component.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Issue counts for an analysis, accumulated in a single pass over the issues. Every issue is counted by status, whilst
+ * issues that are still open are also counted by rule type, severity and the SCM path of the file they were raised
+ * against.
+ */
+public final class IssueAggregation {
+
+    private static final RuleType[] RULE_TYPES = RuleType.values();
+
+    private final long[] countsByStatus = new long[Issue.STATUSES.size()];
+    private final long[] openCountsByType = new long[RULE_TYPES.length];
+    private final long[] openCountsBySeverity = new long[Severity.ALL.size()];
+    private final Map<String, long[]> openCountsByScmPath = new HashMap<>();
+    private long count;
+    private long openCount;
+
+    IssueAggregation() {
+        super();
+    }
+
+    IssueAggregation(IssueAggregation source) {
+        super();
+        System.arraycopy(source.countsByStatus, 0, countsByStatus, 0, countsByStatus.length);
+        System.arraycopy(source.openCountsByType, 0, openCountsByType, 0, openCountsByType.length);
+        System.arraycopy(source.openCountsBySeverity, 0, openCountsBySeverity, 0, openCountsBySeverity.length);
+        source.openCountsByScmPath.forEach((path, counter) -> openCountsByScmPath.put(path, counter.clone()));
+        count = source.count;
+        openCount = source.openCount;
+    }
+
+    public static IssueAggregation of(Collection<PostAnalysisIssueVisitor.ComponentIssue> componentIssues) {
+        IssueAggregation issueAggregation = new IssueAggregation();
+        for (PostAnalysisIssueVisitor.ComponentIssue componentIssue : componentIssues) {
+            issueAggregation.add(componentIssue);
+        }
+        return issueAggregation;
+    }
+
+    void add(PostAnalysisIssueVisitor.ComponentIssue componentIssue) {
+        PostAnalysisIssueVisitor.LightIssue issue = componentIssue.getIssue();
+        if (null == issue) {
+            return;
+        }
+        count++;
+
+        String status = issue.status();
+        int statusIndex = Issue.STATUSES.indexOf(status);
+        if (statusIndex >= 0) {
+            countsByStatus[statusIndex]++;
+        }
+        if (!isOpen(status)) {
+            return;
+        }
+
+        openCount++;
+        if (null != issue.type()) {
+            openCountsByType[issue.type().ordinal()]++;
+        }
+        int severityIndex = Severity.ALL.indexOf(issue.severity());
+        if (severityIndex >= 0) {
+            openCountsBySeverity[severityIndex]++;
+        }
+        getScmPath(componentIssue.getComponent())
+                .ifPresent(path -> openCountsByScmPath.computeIfAbsent(path, k -> new long[1])[0]++);
+    }
+
+    public long getIssueCount() {
+        return count;
+    }
+
+    /**
+     * @param status one of the values in {@link Issue#STATUSES}. Any other value has no issues counted against it.
+     */
+    public long getIssueCount(String status) {
+        int statusIndex = Issue.STATUSES.indexOf(status);
+        return statusIndex < 0 ? 0 : countsByStatus[statusIndex];
+    }
+
+    public long getOpenIssueCount() {
+        return openCount;
+    }
+
+    public long getOpenIssueCount(RuleType ruleType) {
+        return openCountsByType[ruleType.ordinal()];
+    }
+
+    /**
+     * @param severity one of the values in {@link Severity#ALL}.
+     */
+    public long getOpenIssueCount(String severity) {
+        int severityIndex = Severity.ALL.indexOf(severity);
+        if (severityIndex < 0) {
+            throw new IllegalArgumentException("Unknown severity value: " + severity);
+        }
+        return openCountsBySeverity[severityIndex];
+    }
+
+    public Map<RuleType, Long> getOpenIssueCountsByType() {
+        Map<RuleType, Long> openIssueCountsByType = new EnumMap<>(RuleType.class);
+        for (RuleType ruleType : RULE_TYPES) {
+            openIssueCountsByType.put(ruleType, openCountsByType[ruleType.ordinal()]);
+        }
+        return Collections.unmodifiableMap(openIssueCountsByType);
+    }
+
+    public long getOpenIssueCountForScmPath(String scmPath) {
+        long[] counter = openCountsByScmPath.get(scmPath);
+        return null == counter ? 0 : counter[0];
+    }
+
+    static boolean isOpen(String status) {
+        return !Issue.STATUS_CLOSED.equals(status) && !Issue.STATUS_RESOLVED.equals(status);
+    }
+
+    static Optional<String> getScmPath(Component component) {
+        if (null == component || Component.Type.FILE != component.getType() ||
+            null == component.getReportAttributes()) {
+            return Optional.empty();
+        }
+        return component.getReportAttributes().getScmPath();
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
+
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.RuleType;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+import org.sonar.ce.task.projectanalysis.component.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only list of the issues visited during an analysis. The first {@code memoryThreshold} issues are held on
+ * the heap, with any further issues encoded into a temporary file that is read back on demand and deleted when the
+ * store is closed. Components are not encoded with each issue, but are referenced by their position in a table of
+ * the distinct components that issues have been raised against.
+ */
+final class IssueStore extends AbstractList<PostAnalysisIssueVisitor.ComponentIssue> implements Closeable {
+
+    private static final Logger LOGGER = Loggers.get(IssueStore.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int memoryThreshold;
+    private final List<PostAnalysisIssueVisitor.ComponentIssue> heapIssues = new ArrayList<>();
+    private final List<Component> components = new ArrayList<>();
+    private final Map<Component, Integer> componentIds = new IdentityHashMap<>();
+    private final ByteArrayOutputStream writeBuffer = new ByteArrayOutputStream(BUFFER_SIZE);
+    private final DataOutputStream writeOutput = new DataOutputStream(writeBuffer);
+
+    private FileChannel spillChannel;
+    private boolean closed;
+    private long[] spillOffsets = new long[0];
+    private int spillCount;
+    private long spillSize;
+    private long flushedSize;
+    private ByteBuffer readBuffer;
+    private long readBufferOffset;
+
+    IssueStore(int memoryThreshold) {
+        super();
+        this.memoryThreshold = Math.max(0, memoryThreshold);
+    }
+
+    synchronized int append(PostAnalysisIssueVisitor.ComponentIssue componentIssue) {
+        if (heapIssues.size() < memoryThreshold) {
+            heapIssues.add(componentIssue);
+        } else {
+            spill(componentIssue);
+        }
+        return size() - 1;
+    }
+
+    @Override
+    public synchronized PostAnalysisIssueVisitor.ComponentIssue get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (index < heapIssues.size()) {
+            return heapIssues.get(index);
+        }
+        if (closed) {
+            throw new IllegalStateException("Spilled issues have been deleted as the issue store has been closed");
+        }
+        try {
+            return read(index - heapIssues.size());
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not read spilled issue", ex);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return heapIssues.size() + spillCount;
+    }
+
+    IndexList newIndexList() {
+        return new IndexList(this);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (null == spillChannel) {
+            return;
+        }
+        try {
+            spillChannel.close();
+        } catch (IOException ex) {
+            LOGGER.warn("Could not delete spilled issues", ex);
+        }
+        spillChannel = null;
+    }
+
+    private void spill(PostAnalysisIssueVisitor.ComponentIssue componentIssue) {
+        if (closed) {
+            throw new IllegalStateException("Issues can not be added to the issue store once it has been closed");
+        }
+        try {
+            if (null == spillChannel) {
+                spillChannel = FileChannel.open(Files.createTempFile("pull-request-issues", ".bin"),
+                                                StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                StandardOpenOption.DELETE_ON_CLOSE);
+                LOGGER.info(String.format("Spilling issues beyond the first %s to disk", memoryThreshold));
+            }
+            if (spillCount == spillOffsets.length) {
+                spillOffsets = Arrays.copyOf(spillOffsets, Math.max(1024, spillCount * 2));
+            }
+            spillOffsets[spillCount] = spillSize;
+
+            int startSize = writeBuffer.size();
+            encode(componentIssue, writeOutput);
+            writeOutput.flush();
+            spillSize += writeBuffer.size() - startSize;
+            spillCount++;
+
+            if (writeBuffer.size() >= BUFFER_SIZE) {
+                flush();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not spill issue to disk", ex);
+        }
+    }
+
+    private void flush() throws IOException {
+        if (writeBuffer.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(writeBuffer.toByteArray());
+        while (buffer.hasRemaining()) {
+            flushedSize += spillChannel.write(buffer, flushedSize);
+        }
+        writeBuffer.reset();
+    }
+
+    private PostAnalysisIssueVisitor.ComponentIssue read(int spillIndex) throws IOException {
+        flush();
+        long start = spillOffsets[spillIndex];
+        long end = (spillIndex + 1 < spillCount ? spillOffsets[spillIndex + 1] : spillSize);
+        int length = (int) (end - start);
+
+        if (null == readBuffer || start < readBufferOffset || end > readBufferOffset + readBuffer.limit()) {
+            if (null == readBuffer || readBuffer.capacity() < length) {
+                readBuffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, length));
+            }
+            readBuffer.clear();
+            readBufferOffset = start;
+            while (readBuffer.hasRemaining() && readBufferOffset + readBuffer.position() < spillSize) {
+                if (spillChannel.read(readBuffer, readBufferOffset + readBuffer.position()) < 0) {
+                    break;
+                }
+            }
+            readBuffer.flip();
+        }
+
+        return decode(new DataInputStream(
+                new ByteArrayInputStream(readBuffer.array(), (int) (start - readBufferOffset), length)));
+    }
+
+    private void encode(PostAnalysisIssueVisitor.ComponentIssue componentIssue, DataOutput output) throws IOException {
+        Component component = componentIssue.getComponent();
+        Integer componentId = (null == component ? Integer.valueOf(-1) : componentIds.get(component));
+        if (null == componentId) {
+            componentId = components.size();
+            components.add(component);
+            componentIds.put(component, componentId);
+        }
+        output.writeInt(componentId);
+
+        PostAnalysisIssueVisitor.LightIssue issue = componentIssue.getIssue();
+        output.writeBoolean(null != issue);
+        if (null == issue) {
+            return;
+        }
+        writeString(output, issue.key());
+        writeString(output, null == issue.ruleKey() ? null : issue.ruleKey().toString());
+        writeString(output, issue.severity());
+        writeString(output, null == issue.type() ? null : issue.type().name());
+        writeString(output, issue.status());
+        writeString(output, issue.resolution());
+        output.writeBoolean(null != issue.getLine());
+        if (null != issue.getLine()) {
+            output.writeInt(issue.getLine());
+        }
+        writeString(output, issue.getMessage());
+        output.writeBoolean(null != issue.effortInMinutes());
+        if (null != issue.effortInMinutes()) {
+            output.writeLong(issue.effortInMinutes());
+        }
+    }
+
+    private PostAnalysisIssueVisitor.ComponentIssue decode(DataInput input) throws IOException {
+        int componentId = input.readInt();
+        Component component = (componentId < 0 ? null : components.get(componentId));
+        if (!input.readBoolean()) {
+            return new PostAnalysisIssueVisitor.ComponentIssue(component, (PostAnalysisIssueVisitor.LightIssue) null);
+        }
+        String key = readString(input);
+        String ruleKey = readString(input);
+        String severity = readString(input);
+        String type = readString(input);
+        String status = readString(input);
+        String resolution = readString(input);
+        Integer line = (input.readBoolean() ? input.readInt() : null);
+        String message = readString(input);
+        Long effortInMinutes = (input.readBoolean() ? input.readLong() : null);
+        return new PostAnalysisIssueVisitor.ComponentIssue(component, new PostAnalysisIssueVisitor.LightIssue(
+                key, null == ruleKey ? null : RuleKey.parse(ruleKey), severity,
+                null == type ? null : RuleType.valueOf(type), status, resolution, line, message, effortInMinutes));
+    }
+
+    private static void writeString(DataOutput output, String value) throws IOException {
+        if (null == value) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A subset of the issues in the store, held as the positions of those issues rather than references to them.
+     */
+    static final class IndexList extends AbstractList<PostAnalysisIssueVisitor.ComponentIssue> {
+
+        private final IssueStore issueStore;
+        private int[] indexes = new int[16];
+        private int size;
+
+        private IndexList(IssueStore issueStore) {
+            super();
+            this.issueStore = issueStore;
+        }
+
+        void add(int index) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+            indexes[size++] = index;
+        }
+
+        @Override
+        public PostAnalysisIssueVisitor.ComponentIssue get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return issueStore.get(indexes[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -18,33 +18,144 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
 
+import org.sonar.api.Startable;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rules.RuleType;
 import org.sonar.ce.task.projectanalysis.component.Component;
+import org.sonar.ce.task.projectanalysis.component.ConfigurationRepository;
 import org.sonar.ce.task.projectanalysis.issue.IssueVisitor;
 import org.sonar.core.issue.DefaultIssue;
 
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-public class PostAnalysisIssueVisitor extends IssueVisitor {
+/**
+ * Collects the issues raised during an analysis, indexing open issues as they are visited so decorators can retrieve
+ * counts and per-file groupings without re-scanning every issue in the analysis. Only the issue fields needed for
+ * decoration are retained, and once more issues than the configured threshold have been visited the remainder are
+ * spilled to a temporary file rather than kept on the Compute Engine heap.
+ */
+public class PostAnalysisIssueVisitor extends IssueVisitor implements Startable {
+
+    public static final String ISSUE_SPILL_THRESHOLD =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.issue-spill-threshold";
 
-    private final List<ComponentIssue> collectedIssues = new ArrayList<>();
+    private final ConfigurationRepository configurationRepository;
+    private final IssueAggregation issueAggregation = new IssueAggregation();
+    private final Map<String, IssueStore.IndexList> openIssuesByScmPath = new LinkedHashMap<>();
+    private IssueStore issueStore;
+    private IssueStore.IndexList openIssues;
+    private int retainCount;
+    private boolean stopped;
+
+    public PostAnalysisIssueVisitor(ConfigurationRepository configurationRepository) {
+        super();
+        this.configurationRepository = configurationRepository;
+    }
 
     @Override
     public void onIssue(Component component, DefaultIssue defaultIssue) {
-        collectedIssues.add(new ComponentIssue(component, defaultIssue));
+        ComponentIssue componentIssue = new ComponentIssue(component, defaultIssue);
+        IssueStore store = getIssueStore();
+        int index = store.append(componentIssue);
+        issueAggregation.add(componentIssue);
+
+        if (null == defaultIssue || !IssueAggregation.isOpen(defaultIssue.status())) {
+            return;
+        }
+
+        openIssues.add(index);
+        IssueAggregation.getScmPath(component)
+                .ifPresent(path -> openIssuesByScmPath.computeIfAbsent(path, k -> store.newIndexList()).add(index));
     }
 
     public List<ComponentIssue> getIssues() {
-        return Collections.unmodifiableList(collectedIssues);
+        return Collections.unmodifiableList(getIssueStore());
+    }
+
+    /**
+     * @return all issues that have not been closed or resolved, in the order they were visited.
+     */
+    public List<ComponentIssue> getOpenIssues() {
+        getIssueStore();
+        return Collections.unmodifiableList(openIssues);
+    }
+
+    /**
+     * @return open issues raised against files with a known SCM path, grouped by that path in the order each file
+     * was first visited.
+     */
+    public Map<String, List<ComponentIssue>> getOpenIssuesByScmPath() {
+        return Collections.unmodifiableMap(openIssuesByScmPath);
+    }
+
+    /**
+     * @return counts of the issues visited so far, kept up to date as each issue is visited.
+     */
+    public IssueAggregation getIssueAggregation() {
+        return issueAggregation;
+    }
+
+    @Override
+    public void start() {
+        // nothing to do, the issue store is only created once the first issue is visited
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopped = true;
+        closeIfReleased();
+    }
+
+    /**
+     * Captures the issues visited so far so they remain available once the analysis container has been stopped, such
+     * as for a decoration that completes after the analysis task has returned. Any issues spilled to disk are only
+     * deleted once the visitor has been stopped and every snapshot has been closed.
+     *
+     * @return the visited issues, which must be closed once they are no longer needed
+     */
+    public synchronized AnalysisIssues snapshot() {
+        IssueStore store = getIssueStore();
+        Map<String, List<ComponentIssue>> openIssuesByPath = new LinkedHashMap<>();
+        openIssuesByScmPath.forEach((path, issues) -> openIssuesByPath.put(path, Collections.unmodifiableList(issues)));
+        retainCount++;
+        return new AnalysisIssues(Collections.unmodifiableList(store), Collections.unmodifiableList(openIssues),
+                                  Collections.unmodifiableMap(openIssuesByPath), new IssueAggregation(issueAggregation),
+                                  this::release);
+    }
+
+    private synchronized void release() {
+        retainCount--;
+        closeIfReleased();
+    }
+
+    private void closeIfReleased() {
+        if (stopped && 0 == retainCount && null != issueStore) {
+            issueStore.close();
+        }
+    }
+
+    private synchronized IssueStore getIssueStore() {
+        if (null == issueStore) {
+            issueStore = new IssueStore(
+                    configurationRepository.getConfiguration().getInt(ISSUE_SPILL_THRESHOLD).orElse(100000));
+            openIssues = issueStore.newIndexList();
+        }
+        return issueStore;
     }
 
     public static class ComponentIssue {
 
         private final Component component;
-        private final DefaultIssue issue;
+        private final LightIssue issue;
 
         ComponentIssue(Component component, DefaultIssue issue) {
+            this(component, null == issue ? null : new LightIssue(issue));
+        }
+
+        ComponentIssue(Component component, LightIssue issue) {
             super();
             this.component = component;
             this.issue = issue;
@@ -54,8 +165,81 @@ public class PostAnalysisIssueVisitor extends IssueVisitor {
             return component;
         }
 
-        public DefaultIssue getIssue() {
+        public LightIssue getIssue() {
             return issue;
         }
     }
+
+    /**
+     * The fields of a {@link DefaultIssue} used when decorating a Pull Request, copied out of the issue so the rest of
+     * its state (change log, comments, locations etc.) is not retained once the issue has been visited. Accessors are
+     * named after their {@link DefaultIssue} equivalents.
+     */
+    public static class LightIssue {
+
+        private final String key;
+        private final RuleKey ruleKey;
+        private final String severity;
+        private final RuleType type;
+        private final String status;
+        private final String resolution;
+        private final Integer line;
+        private final String message;
+        private final Long effortInMinutes;
+
+        LightIssue(DefaultIssue issue) {
+            this(issue.key(), issue.ruleKey(), issue.severity(), issue.type(), issue.status(), issue.resolution(),
+                 issue.getLine(), issue.getMessage(), issue.effortInMinutes());
+        }
+
+        LightIssue(String key, RuleKey ruleKey, String severity, RuleType type, String status, String resolution,
+                   Integer line, String message, Long effortInMinutes) {
+            super();
+            this.key = key;
+            this.ruleKey = ruleKey;
+            this.severity = severity;
+            this.type = type;
+            this.status = status;
+            this.resolution = resolution;
+            this.line = line;
+            this.message = message;
+            this.effortInMinutes = effortInMinutes;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        public RuleKey ruleKey() {
+            return ruleKey;
+        }
+
+        public String severity() {
+            return severity;
+        }
+
+        public RuleType type() {
+            return type;
+        }
+
+        public String status() {
+            return status;
+        }
+
+        public String resolution() {
+            return resolution;
+        }
+
+        public Integer getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Long effortInMinutes() {
+            return effortInMinutes;
+        }
+    }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
+
+import org.sonar.api.Startable;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compute Engine scoped executor that allows Pull Request decoration to be completed after the analysis task has
+ * returned, so the Compute Engine worker is not held whilst waiting on the ALM. Decoration remains synchronous unless
+ * explicitly enabled in {@code sonar.properties}.
+ */
+public class PullRequestDecorationExecutor implements Startable {
+
+    public static final String ASYNC_DECORATION_ENABLED =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.decoration.async.enabled";
+    public static final String ASYNC_DECORATION_THREADS =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.decoration.async.threads";
+    public static final String ASYNC_DECORATION_QUEUE_SIZE =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.decoration.async.queue-size";
+    public static final String ASYNC_DECORATION_SHUTDOWN_TIMEOUT =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.decoration.async.shutdown-timeout";
+
+    private static final Logger LOGGER = Loggers.get(PullRequestDecorationExecutor.class);
+
+    private final Configuration configuration;
+    private final Map<String, CompletableFuture<Void>> pendingDecorations = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executorService;
+    private volatile boolean stopping;
+
+    public PullRequestDecorationExecutor(Configuration configuration) {
+        super();
+        this.configuration = configuration;
+    }
+
+    @Override
+    public void start() {
+        if (!configuration.getBoolean(ASYNC_DECORATION_ENABLED).orElse(false)) {
+            LOGGER.debug("Asynchronous Pull Request decoration is disabled");
+            return;
+        }
+
+        int threads = configuration.getInt(ASYNC_DECORATION_THREADS).orElse(2);
+        int queueSize = configuration.getInt(ASYNC_DECORATION_QUEUE_SIZE).orElse(25);
+        LOGGER.info(String.format("Decorating Pull Requests asynchronously using %s threads and a queue of %s",
+                                  threads, queueSize));
+
+        // a full queue results in the decoration being run on the submitting thread, which throttles the Compute
+        // Engine rather than dropping the decoration. Decorations still waiting once the shutdown timeout has passed
+        // are rejected instead, since the Compute Engine is being stopped
+        executorService = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                                                 new ArrayBlockingQueue<>(queueSize), new DecorationThreadFactory(),
+                                                 (task, executor) -> {
+                                                     if (executor.isShutdown()) {
+                                                         throw new RejectedExecutionException(
+                                                                 "Decoration executor has been shut down");
+                                                     }
+                                                     LOGGER.debug("Decoration queue is full. Decorating on the calling thread");
+                                                     task.run();
+                                                 });
+    }
+
+    @Override
+    public void stop() {
+        if (null == executorService) {
+            return;
+        }
+
+        // decorations for the same Pull Request are only handed to the executor once the previous one completes, so
+        // all submitted decorations are waited on before the executor is shut down to stop later ones being rejected
+        stopping = true;
+        int timeout = configuration.getInt(ASYNC_DECORATION_SHUTDOWN_TIMEOUT).orElse(60);
+        CompletableFuture<?>[] pending = pendingDecorations.values().toArray(new CompletableFuture<?>[0]);
+        LOGGER.info(String.format("Waiting up to %ss for queued decorations of %s Pull Requests to complete", timeout,
+                                  pending.length));
+        try {
+            CompletableFuture.allOf(pending).get(timeout, TimeUnit.SECONDS);
+            executorService.shutdown();
+        } catch (TimeoutException | ExecutionException ex) {
+            LOGGER.warn(String.format("Decorations of %s Pull Requests were abandoned during shutdown",
+                                      pendingDecorations.size()));
+            abandonQueuedDecorations();
+        } catch (InterruptedException ex) {
+            abandonQueuedDecorations();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the executor without running the decorations still in its queue, releasing the resources each of them
+     * holds. Any decoration waiting on one of these for the same Pull Request is then rejected, as is any waiting on a
+     * decoration that is still running once that completes, so every submitted decoration releases its resources.
+     */
+    private void abandonQueuedDecorations() {
+        for (Runnable queued : executorService.shutdownNow()) {
+            if (queued instanceof DecorationTask) {
+                ((DecorationTask) queued).abandon();
+            }
+        }
+    }
+
+    /**
+     * Runs the decoration, either immediately on the calling thread or in the background if asynchronous decoration
+     * has been enabled. Decorations sharing the same key are run in the order they were submitted so an older
+     * analysis of a Pull Request can never overwrite the comments from a newer one.
+     *
+     * @param key identifier of the Pull Request being decorated
+     * @param decoration the work to perform, which must not rely on anything scoped to the analysis task
+     */
+    public void submit(String key, Runnable decoration) {
+        submit(key, decoration, () -> {
+        });
+    }
+
+    /**
+     * Runs the decoration as {@link #submit(String, Runnable)}, closing the given resources once the decoration has
+     * completed or failed, so anything the decoration reads from is kept available until it is no longer needed.
+     *
+     * @param key identifier of the Pull Request being decorated
+     * @param decoration the work to perform, which must not rely on anything scoped to the analysis task
+     * @param resources released once the decoration has finished
+     */
+    public void submit(String key, Runnable decoration, Closeable resources) {
+        if (null == executorService) {
+            try {
+                decoration.run();
+            } finally {
+                release(key, resources);
+            }
+            return;
+        }
+
+        if (stopping) {
+            LOGGER.warn(String.format("Pull Request %s will not be decorated as the Compute Engine is stopping", key));
+            release(key, resources);
+            return;
+        }
+
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        DecorationTask task = new DecorationTask(key, decoration, resources, completion);
+        CompletableFuture<Void> previous = pendingDecorations.put(key, completion);
+        if (null == previous) {
+            dispatch(task);
+        } else {
+            previous.thenRun(() -> dispatch(task));
+        }
+    }
+
+    private void dispatch(DecorationTask task) {
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException ex) {
+            task.abandon();
+        }
+    }
+
+    private static void release(String key, Closeable resources) {
+        try {
+            resources.close();
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn(String.format("Could not release resources used to decorate Pull Request %s", key), ex);
+        }
+    }
+
+    /**
+     * A decoration handed to the executor, which always releases its resources and signals the next decoration of the
+     * same Pull Request, whether it is run or abandoned without being run.
+     */
+    private final class DecorationTask implements Runnable {
+
+        private final String key;
+        private final Runnable decoration;
+        private final Closeable resources;
+        private final CompletableFuture<Void> completion;
+
+        DecorationTask(String key, Runnable decoration, Closeable resources, CompletableFuture<Void> completion) {
+            this.key = key;
+            this.decoration = decoration;
+            this.resources = resources;
+            this.completion = completion;
+        }
+
+        @Override
+        public void run() {
+            try {
+                decoration.run();
+            } catch (RuntimeException ex) {
+                LOGGER.error(String.format("Could not decorate Pull Request %s", key), ex);
+            } finally {
+                finish();
+            }
+        }
+
+        void abandon() {
+            LOGGER.warn(String.format("Pull Request %s was not decorated as the Compute Engine is stopping", key));
+            finish();
+        }
+
+        private void finish() {
+            release(key, resources);
+            pendingDecorations.remove(key, completion);
+            completion.complete(null);
+        }
+    }
+
+    private static class DecorationThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "pull-request-decoration-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -46,13 +46,15 @@ public class PullRequestPostAnalysisTask implements PostProjectAnalysisTask,
     private final MetricRepository metricRepository;
     private final MeasureRepository measureRepository;
     private final TreeRootHolder treeRootHolder;
+    private final PullRequestDecorationExecutor pullRequestDecorationExecutor;
 
     public PullRequestPostAnalysisTask(Server server,
                                        ConfigurationRepository configurationRepository,
                                        List<PullRequestBuildStatusDecorator> pullRequestDecorators,
                                        PostAnalysisIssueVisitor postAnalysisIssueVisitor,
                                        MetricRepository metricRepository, MeasureRepository measureRepository,
-                                       TreeRootHolder treeRootHolder) {
+                                       TreeRootHolder treeRootHolder,
+                                       PullRequestDecorationExecutor pullRequestDecorationExecutor) {
         super();
         this.server = server;
         this.configurationRepository = configurationRepository;
@@ -61,6 +63,7 @@ public class PullRequestPostAnalysisTask implements PostProjectAnalysisTask,
         this.metricRepository = metricRepository;
         this.measureRepository = measureRepository;
         this.treeRootHolder = treeRootHolder;
+        this.pullRequestDecorationExecutor = pullRequestDecorationExecutor;
     }
 
     @Override
@@ -118,16 +121,25 @@ public class PullRequestPostAnalysisTask implements PostProjectAnalysisTask,
 
         String commitId = revision.get();
 
-        AnalysisDetails analysisDetails =
-                new AnalysisDetails(new AnalysisDetails.BranchDetails(optionalBranchName.get(), commitId),
-                                    postAnalysisIssueVisitor, qualityGate,
-                                    new AnalysisDetails.MeasuresHolder(metricRepository, measureRepository,
-                                                                       treeRootHolder), analysis,
-                                    projectAnalysis.getProject(), configuration, server.getPublicRootUrl());
+        AnalysisIssues analysisIssues = postAnalysisIssueVisitor.snapshot();
+        AnalysisDetails analysisDetails;
+        try {
+            analysisDetails =
+                    new AnalysisDetails(new AnalysisDetails.BranchDetails(optionalBranchName.get(), commitId),
+                                        analysisIssues, qualityGate,
+                                        new AnalysisDetails.MeasuresHolder(metricRepository, measureRepository,
+                                                                           treeRootHolder), analysis,
+                                        projectAnalysis.getProject(), configuration, server.getPublicRootUrl());
+        } catch (RuntimeException ex) {
+            analysisIssues.close();
+            throw ex;
+        }
 
         PullRequestBuildStatusDecorator pullRequestDecorator = optionalPullRequestDecorator.get();
         LOGGER.info("using pull request decorator " + pullRequestDecorator.name());
-        pullRequestDecorator.decorateQualityGateStatus(analysisDetails);
+        pullRequestDecorationExecutor.submit(analysisDetails.getAnalysisProjectKey() + ":" + optionalBranchName.get(),
+                                             () -> pullRequestDecorator.decorateQualityGateStatus(analysisDetails),
+                                             analysisIssues);
     }
 
     private static Optional<PullRequestBuildStatusDecorator> findCurrentPullRequestStatusDecorator(
@@ -9,16 +9,15 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Collections;
 import java.util.List;
 
 public class BitbucketCloudApiClient {
@@ -27,24 +26,27 @@ public class BitbucketCloudApiClient {
 
   private final String commentsUrl;
   private final CloseableHttpClient httpClient;
+  private final Header authHeader;
 
-  public BitbucketCloudApiClient(String workspace, String repoSlug, String prId, String username, String password) {
-    this("https://api.bitbucket.org/2.0", workspace, repoSlug, prId, username, password);
+  public BitbucketCloudApiClient(CloseableHttpClient httpClient, String workspace, String repoSlug, String prId, String username, String password) {
+    this(httpClient, "https://api.bitbucket.org/2.0", workspace, repoSlug, prId, username, password);
   }
 
-  BitbucketCloudApiClient(String baseUrl, String workspace, String repoSlug, String prId, String username, String password) {
+  BitbucketCloudApiClient(CloseableHttpClient httpClient, String baseUrl, String workspace, String repoSlug, String prId, String username, String password) {
     commentsUrl = String.format("%s/repositories/%s/%s/pullrequests/%s/comments", baseUrl, workspace, repoSlug, prId);
-    Header authHeader = new BasicHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes()));
-    httpClient = HttpClientBuilder.create().setDefaultHeaders(Collections.singletonList(authHeader)).build();
+    // the client is shared with other decorators, so credentials are attached to each request rather than the client
+    authHeader = new BasicHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes()));
+    this.httpClient = httpClient;
   }
 
   public void createComment(String text, String path, Integer line) throws IOException {
     ObjectNode request = objectMapper.createObjectNode();
-    request.set("content", objectMapper.createObjectNode().put("raw", "[](https://[SONAR])" + text));
+    request.set("content", objectMapper.createObjectNode().put("raw", text));
     if (path != null) {
       request.set("inline", objectMapper.createObjectNode().put("to", line).put("path", path));
     }
     HttpPost httpPost = new HttpPost(commentsUrl);
+    httpPost.setHeader(authHeader);
     httpPost.setHeader("Content-Type", "application/json");
     httpPost.setEntity(new StringEntity(request.toString()));
     try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
@@ -52,29 +54,61 @@ public class BitbucketCloudApiClient {
     }
   }
 
-  public void deleteComments() throws IOException {
-    for (String commentId : getCommentIds()) {
-      deleteComment(commentId);
+  public void updateComment(String commentId, String text) throws IOException {
+    ObjectNode request = objectMapper.createObjectNode();
+    request.set("content", objectMapper.createObjectNode().put("raw", text));
+    HttpPut httpPut = new HttpPut(commentsUrl + "/" + commentId);
+    httpPut.setHeader(authHeader);
+    httpPut.setHeader("Content-Type", "application/json");
+    httpPut.setEntity(new StringEntity(request.toString()));
+    try (CloseableHttpResponse response = httpClient.execute(httpPut)) {
+      EntityUtils.consume(response.getEntity());
     }
   }
 
-  List<String> getCommentIds() throws IOException {
-    String commentsUrl = this.commentsUrl + "?q=%28deleted%20=%20false%20AND%20content.raw%20~%20%22[SONAR]%22%29";
-    List<String> commentIds = new ArrayList<>();
+  /**
+   * @return the comments carrying a fingerprint marker, along with those marked by earlier versions of the plugin
+   */
+  public List<Comment> getComments() throws IOException {
+    String commentsUrl = this.commentsUrl + "?q=%28deleted%20=%20false%20AND%20%28content.raw%20~%20%22[SONAR]%22%20OR%20content.raw%20~%20%22%23sonarqube:%22%29%29";
+    List<Comment> comments = new ArrayList<>();
     while (StringUtils.isNotEmpty(commentsUrl)) {
       HttpGet httpGet = new HttpGet(commentsUrl);
+      httpGet.setHeader(authHeader);
       try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
         JsonNode jsonResponse = objectMapper.readTree(EntityUtils.toString(response.getEntity()));
-        jsonResponse.path("values").forEach(v -> commentIds.add(v.path("id").asText()));
+        jsonResponse.path("values").forEach(v -> comments.add(new Comment(v.path("id").asText(), v.path("content").path("raw").asText(null))));
         commentsUrl = jsonResponse.path("next").textValue();
       }
     }
-    return commentIds;
+    return comments;
   }
 
-  private void deleteComment(String commentId) throws IOException {
-    try (CloseableHttpResponse response = httpClient.execute(new HttpDelete(commentsUrl + "/" + commentId))) {
+  public void deleteComment(String commentId) throws IOException {
+    HttpDelete httpDelete = new HttpDelete(commentsUrl + "/" + commentId);
+    httpDelete.setHeader(authHeader);
+    try (CloseableHttpResponse response = httpClient.execute(httpDelete)) {
       EntityUtils.consume(response.getEntity());
     }
   }
-}
\ No newline at end of file
+
+  public static class Comment {
+
+    private final String id;
+    private final String text;
+
+    Comment(String id, String text) {
+      super();
+      this.id = id;
+      this.text = text;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getText() {
+      return text;
+    }
+  }
+}
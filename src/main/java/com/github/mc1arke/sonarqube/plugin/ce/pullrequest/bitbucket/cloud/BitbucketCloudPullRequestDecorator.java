@@ -3,16 +3,18 @@ package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.cloud;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.AnalysisDetails;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PostAnalysisIssueVisitor;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PullRequestBuildStatusDecorator;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.HttpClientProvider;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.MarkdownFormatterFactory;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentFingerprint;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentReconciler;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentReconciliation;
 import org.sonar.api.config.Configuration;
-import org.sonar.api.issue.Issue;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
-import org.sonar.ce.task.projectanalysis.component.ConfigurationRepository;
-import org.sonar.core.issue.DefaultIssue;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class BitbucketCloudPullRequestDecorator implements PullRequestBuildStatusDecorator {
 
@@ -23,11 +25,11 @@ public class BitbucketCloudPullRequestDecorator implements PullRequestBuildStatu
   private static final Logger LOGGER = Loggers.get(BitbucketCloudPullRequestDecorator.class);
   private static final MarkdownFormatterFactory MARKDOWN_FORMATTER_FACTORY = new MarkdownFormatterFactory();
 
-  private final ConfigurationRepository configurationRepository;
+  private final HttpClientProvider httpClientProvider;
 
-  public BitbucketCloudPullRequestDecorator(ConfigurationRepository configurationRepository) {
+  public BitbucketCloudPullRequestDecorator(HttpClientProvider httpClientProvider) {
     super();
-    this.configurationRepository = configurationRepository;
+    this.httpClientProvider = httpClientProvider;
   }
 
   private static String getMandatoryProperty(String propertyName, Configuration configuration) {
@@ -45,7 +47,7 @@ public class BitbucketCloudPullRequestDecorator implements PullRequestBuildStatu
     LOGGER.info("Starting decoration");
 
     try {
-      Configuration configuration = configurationRepository.getConfiguration();
+      Configuration configuration = analysisDetails.getConfiguration();
       final String workspace = getMandatoryProperty(PULL_REQUEST_BITBUCKET_CLOUD_WORKSPACE, configuration);
       final String userSlug = getMandatoryProperty(PULL_REQUEST_BITBUCKET_CLOUD_USERNAME, configuration);
       final String password = getMandatoryProperty(PULL_REQUEST_BITBUCKET_CLOUD_PASSWORD, configuration);
@@ -57,31 +59,43 @@ public class BitbucketCloudPullRequestDecorator implements PullRequestBuildStatu
       final boolean fileCommentEnabled = Boolean.parseBoolean(getMandatoryProperty(PULL_REQUEST_FILE_COMMENT_ENABLED, configuration));
       final boolean deleteCommentsEnabled = Boolean.parseBoolean(getMandatoryProperty(PULL_REQUEST_DELETE_COMMENTS_ENABLED, configuration));
 
-      BitbucketCloudApiClient client = new BitbucketCloudApiClient(workspace, repoSlug, pullRequestId, userSlug, password);
+      BitbucketCloudApiClient client = new BitbucketCloudApiClient(httpClientProvider.getHttpClient(), workspace, repoSlug, pullRequestId, userSlug, password);
 
-      if (deleteCommentsEnabled) {
-        LOGGER.debug("Deleting old comments");
-        client.deleteComments();
-      }
+      List<BitbucketCloudApiClient.Comment> existingComments = deleteCommentsEnabled ? client.getComments() : Collections.emptyList();
 
+      List<PendingComment> pendingComments = new ArrayList<>();
       if (summaryCommentEnabled) {
-        LOGGER.debug("Creating summary comment");
         String analysisSummary = analysisDetails.createAnalysisSummary(MARKDOWN_FORMATTER_FACTORY);
-        client.createComment(analysisSummary, null, null);
+        pendingComments.add(new PendingComment(CommentFingerprint.forSummary(analysisSummary), analysisSummary, null, null));
       }
 
       if (fileCommentEnabled) {
-        List<PostAnalysisIssueVisitor.ComponentIssue> componentIssues = analysisDetails.getPostAnalysisIssueVisitor().getIssues().stream()
-            .filter(this::isOpen).collect(Collectors.toList());
+        List<PostAnalysisIssueVisitor.ComponentIssue> componentIssues = analysisDetails.getAnalysisIssues().getOpenIssues();
         for (PostAnalysisIssueVisitor.ComponentIssue componentIssue : componentIssues) {
-          LOGGER.debug("Creating issue comment");
-          DefaultIssue issue = componentIssue.getIssue();
+          PostAnalysisIssueVisitor.LightIssue issue = componentIssue.getIssue();
           String analysisIssueSummary = analysisDetails.createAnalysisIssueSummary(componentIssue, MARKDOWN_FORMATTER_FACTORY);
           String issuePath = analysisDetails.getSCMPathForIssue(componentIssue).orElse(null);
           Integer issueLine = issue.getLine();
-          client.createComment(analysisIssueSummary, issuePath, issueLine);
+          pendingComments.add(new PendingComment(CommentFingerprint.forIssue(issue.key(), issuePath, issueLine, analysisIssueSummary), analysisIssueSummary, issuePath, issueLine));
         }
       }
+
+      CommentReconciliation<BitbucketCloudApiClient.Comment, PendingComment> reconciliation =
+          CommentReconciler.reconcile(pendingComments, PendingComment::getFingerprint, existingComments, BitbucketCloudApiClient.Comment::getText);
+      LOGGER.info(String.format("Pull Request comments: %s", reconciliation));
+
+      for (BitbucketCloudApiClient.Comment comment : reconciliation.getCommentsToDelete()) {
+        LOGGER.debug("Deleting outdated comment");
+        client.deleteComment(comment.getId());
+      }
+      for (CommentReconciliation.Update<BitbucketCloudApiClient.Comment, PendingComment> update : reconciliation.getCommentsToUpdate()) {
+        LOGGER.debug("Updating comment");
+        client.updateComment(update.getExistingComment().getId(), update.getComment().getMarkedText());
+      }
+      for (PendingComment pendingComment : reconciliation.getCommentsToCreate()) {
+        LOGGER.debug("Creating comment");
+        client.createComment(pendingComment.getMarkedText(), pendingComment.getPath(), pendingComment.getLine());
+      }
     } catch (Throwable ex) {
       LOGGER.error("Decoration failed", ex);
     }
@@ -89,8 +103,34 @@ public class BitbucketCloudPullRequestDecorator implements PullRequestBuildStatu
     LOGGER.info("Decoration completed");
   }
 
-  private boolean isOpen(PostAnalysisIssueVisitor.ComponentIssue issue) {
-    String status = issue.getIssue().getStatus();
-    return !Issue.STATUS_CLOSED.equals(status) && !Issue.STATUS_RESOLVED.equals(status);
+  private static class PendingComment {
+
+    private final CommentFingerprint fingerprint;
+    private final String text;
+    private final String path;
+    private final Integer line;
+
+    PendingComment(CommentFingerprint fingerprint, String text, String path, Integer line) {
+      this.fingerprint = fingerprint;
+      this.text = text;
+      this.path = path;
+      this.line = line;
+    }
+
+    CommentFingerprint getFingerprint() {
+      return fingerprint;
+    }
+
+    String getMarkedText() {
+      return fingerprint.mark(text);
+    }
+
+    String getPath() {
+      return path;
+    }
+
+    Integer getLine() {
+      return line;
+    }
   }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2019 Michael Clarke
+ * Copyright (C) 2020 Michael Clarke
  *
  * This program is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
@@ -16,20 +16,18 @@
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  *
  */
-package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4;
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response;
 
-import org.junit.Test;
+/**
+ * A single page of a Bitbucket Server collection, following the <code>isLastPage</code>/<code>nextPageStart</code>
+ * paging contract used across its REST API.
+ */
+public interface PagedResponse<T> {
 
-import static org.junit.Assert.assertNotSame;
+    boolean isLastPage();
 
-public class DefaultGraphqlProviderTest {
+    int getNextPageStart();
 
-    @Test
-    public void newInstancesShouldBeReturnedOnRepeatCalls() {
-        DefaultGraphqlProvider testCase = new DefaultGraphqlProvider();
+    T[] getValues();
 
-        assertNotSame(testCase.createGraphQLTemplate(), testCase.createGraphQLTemplate());
-        assertNotSame(testCase.createInputObject(), testCase.createInputObject());
-        assertNotSame(testCase.createRequestBuilder(), testCase.createRequestBuilder());
-    }
 }
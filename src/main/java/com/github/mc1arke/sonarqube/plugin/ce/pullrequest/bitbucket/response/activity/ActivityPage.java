@@ -22,8 +22,9 @@ import java.io.Serializable;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.PagedResponse;
 
-public class ActivityPage implements Serializable {
+public class ActivityPage implements PagedResponse<Activity>, Serializable {
     private final int size;
 
     private final int limit;
@@ -54,6 +55,7 @@ public class ActivityPage implements Serializable {
         return limit;
     }
 
+    @Override
     public boolean isLastPage() {
         return isLastPage;
     }
@@ -62,10 +64,12 @@ public class ActivityPage implements Serializable {
         return start;
     }
 
+    @Override
     public int getNextPageStart() {
         return nextPageStart;
     }
 
+    @Override
     public Activity[] getValues() {
         return values;
     }
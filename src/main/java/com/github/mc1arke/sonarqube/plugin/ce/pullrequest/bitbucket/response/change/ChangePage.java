@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.change;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.PagedResponse;
+
+public class ChangePage implements PagedResponse<Change>, Serializable {
+    private final boolean isLastPage;
+
+    private final int start;
+
+    private final int nextPageStart;
+
+    private final Change[] values;
+
+    @JsonCreator
+    public ChangePage(@JsonProperty("isLastPage") final boolean isLastPage, @JsonProperty("start") final int start, @JsonProperty("nextPageStart") final int nextPageStart, @JsonProperty("values") final Change[] values) {
+        this.isLastPage = isLastPage;
+        this.start = start;
+        this.nextPageStart = nextPageStart;
+        this.values = values;
+    }
+
+    @Override
+    public boolean isLastPage() {
+        return isLastPage;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    @Override
+    public int getNextPageStart() {
+        return nextPageStart;
+    }
+
+    @Override
+    public Change[] getValues() {
+        return values;
+    }
+}
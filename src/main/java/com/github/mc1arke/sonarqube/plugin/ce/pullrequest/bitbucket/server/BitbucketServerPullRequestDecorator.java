@@ -18,49 +18,59 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.server;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.AnalysisDetails;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PostAnalysisIssueVisitor;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PullRequestBuildStatusDecorator;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.PagedResponse;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.activity.Activity;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.activity.ActivityPage;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.Anchor;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.FileComment;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.CommentUpdate;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.SummaryComment;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.activity.Comment;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Diff;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffLine;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.change.Change;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.change.ChangePage;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffPage;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Hunk;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Segment;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.HttpClientProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.MarkdownFormatterFactory;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentFingerprint;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentReconciler;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentReconciliation;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.sonar.api.config.Configuration;
-import org.sonar.api.issue.Issue;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
-import org.sonar.ce.task.projectanalysis.component.ConfigurationRepository;
-import org.sonar.core.issue.DefaultIssue;
 
 import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class BitbucketServerPullRequestDecorator implements PullRequestBuildStatusDecorator {
@@ -77,17 +87,22 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
 
     public static final String PULL_REQUEST_BITBUCKET_COMMENT_USER_SLUG = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.bitbucket.comment.userSlug";
 
+    public static final String PULL_REQUEST_BITBUCKET_ACTIVITY_PAGE_SIZE = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.bitbucket.activity-page-size";
+
+    public static final String PULL_REQUEST_BITBUCKET_CHANGES_PAGE_SIZE = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.bitbucket.changes-page-size";
+
+    public static final String PULL_REQUEST_BITBUCKET_PREFETCH_PAGES = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.bitbucket.prefetch-pages";
+
     private static final Logger LOGGER = Loggers.get(BitbucketServerPullRequestDecorator.class);
-    private static final List<String> OPEN_ISSUE_STATUSES =
-            Issue.STATUSES.stream().filter(s -> !Issue.STATUS_CLOSED.equals(s) && !Issue.STATUS_RESOLVED.equals(s))
-                    .collect(Collectors.toList());
+    private static final MarkdownFormatterFactory MARKDOWN_FORMATTER_FACTORY = new MarkdownFormatterFactory();
 
     private static final String REST_API = "/rest/api/1.0/";
     private static final String USER_PR_API = "users/%s/repos/%s/pull-requests/%s/";
     private static final String PROJECT_PR_API = "projects/%s/repos/%s/pull-requests/%s/";
     private static final String COMMENTS_API = "comments";
     private static final String DIFF_API = "diff";
-    private static final String ACTIVITIES = "activities?limit=%s";
+    private static final String CHANGES_API = "changes";
+    private static final String ACTIVITIES = "activities";
 
     private static final String FULL_PR_COMMENT_API = "%s" + REST_API + PROJECT_PR_API + COMMENTS_API;
     private static final String FULL_PR_COMMENT_USER_API = "%s" + REST_API + USER_PR_API + COMMENTS_API;
@@ -98,12 +113,17 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
     private static final String FULL_PR_DIFF_API = "%s" + REST_API + PROJECT_PR_API + DIFF_API;
     private static final String FULL_PR_DIFF_USER_API = "%s" + REST_API + USER_PR_API + DIFF_API;
 
+    private static final String FULL_PR_CHANGES_API = "%s" + REST_API + PROJECT_PR_API + CHANGES_API;
+    private static final String FULL_PR_CHANGES_USER_API = "%s" + REST_API + USER_PR_API + CHANGES_API;
 
-    private final ConfigurationRepository configurationRepository;
 
-    public BitbucketServerPullRequestDecorator(ConfigurationRepository configurationRepository) {
+    private final HttpClientProvider httpClientProvider;
+    private final JsonCodec jsonCodec;
+
+    public BitbucketServerPullRequestDecorator(HttpClientProvider httpClientProvider, JsonCodec jsonCodec) {
         super();
-        this.configurationRepository = configurationRepository;
+        this.httpClientProvider = httpClientProvider;
+        this.jsonCodec = jsonCodec;
     }
 
     @Override
@@ -111,7 +131,7 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
         LOGGER.info("starting to analyze with " + analysisDetails.toString());
 
         try {
-            Configuration configuration = configurationRepository.getConfiguration();
+            Configuration configuration = analysisDetails.getConfiguration();
             final String hostURL = getMandatoryProperty(PULL_REQUEST_BITBUCKET_URL, configuration);
             final String apiToken = getMandatoryProperty(PULL_REQUEST_BITBUCKET_TOKEN, configuration);
             final String repositorySlug = getMandatoryProperty(PULL_REQUEST_BITBUCKET_REPOSITORY_SLUG, configuration);
@@ -123,50 +143,75 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
             final boolean summaryCommentEnabled = Boolean.parseBoolean(getMandatoryProperty(PULL_REQUEST_COMMENT_SUMMARY_ENABLED, configuration));
             final boolean fileCommentEnabled = Boolean.parseBoolean(getMandatoryProperty(PULL_REQUEST_FILE_COMMENT_ENABLED, configuration));
             final boolean deleteCommentsEnabled = Boolean.parseBoolean(getMandatoryProperty(PULL_REQUEST_DELETE_COMMENTS_ENABLED, configuration));
+            final int activityPageSize = configuration.getInt(PULL_REQUEST_BITBUCKET_ACTIVITY_PAGE_SIZE).orElse(250);
+            final int changesPageSize = configuration.getInt(PULL_REQUEST_BITBUCKET_CHANGES_PAGE_SIZE).orElse(500);
+            final boolean prefetchPages = configuration.getBoolean(PULL_REQUEST_BITBUCKET_PREFETCH_PAGES).orElse(false);
 
             final String commentUrl;
             final String activityUrl;
+            final String changesUrl;
             final String diffUrl;
             if (StringUtils.isNotBlank(userSlug)) {
                 commentUrl = String.format(FULL_PR_COMMENT_USER_API, hostURL, userSlug, repositorySlug, pullRequestId);
                 diffUrl = String.format(FULL_PR_DIFF_USER_API, hostURL, userSlug, repositorySlug, pullRequestId);
-                activityUrl = String.format(FULL_PR_ACTIVITIES_USER_API, hostURL, userSlug, repositorySlug, pullRequestId, 250);
+                changesUrl = String.format(FULL_PR_CHANGES_USER_API, hostURL, userSlug, repositorySlug, pullRequestId);
+                activityUrl = String.format(FULL_PR_ACTIVITIES_USER_API, hostURL, userSlug, repositorySlug, pullRequestId);
             } else if (StringUtils.isNotBlank(projectKey)) {
                 commentUrl = String.format(FULL_PR_COMMENT_API, hostURL, projectKey, repositorySlug, pullRequestId);
                 diffUrl = String.format(FULL_PR_DIFF_API, hostURL, projectKey, repositorySlug, pullRequestId);
-                activityUrl = String.format(FULL_PR_ACTIVITIES_API, hostURL, projectKey, repositorySlug, pullRequestId, 250);
+                changesUrl = String.format(FULL_PR_CHANGES_API, hostURL, projectKey, repositorySlug, pullRequestId);
+                activityUrl = String.format(FULL_PR_ACTIVITIES_API, hostURL, projectKey, repositorySlug, pullRequestId);
             } else {
                 throw new IllegalStateException(String.format("Property userSlug (%s) for /user repo or projectKey (%s) for /projects repo needs to be set.", PULL_REQUEST_BITBUCKET_USER_SLUG, PULL_REQUEST_BITBUCKET_PROJECT_KEY));
             }
             LOGGER.debug(String.format("Comment URL is: %s ", commentUrl));
             LOGGER.debug(String.format("Activity URL is: %s ", activityUrl));
+            LOGGER.debug(String.format("Changes URL is: %s ", changesUrl));
             LOGGER.debug(String.format("Diff URL is: %s ", diffUrl));
 
             Map<String, String> headers = new HashMap<>();
             headers.put("Authorization", String.format("Bearer %s", apiToken));
             headers.put("Accept", "application/json");
 
-            deleteComments(activityUrl, commentUrl, commentUserSlug, headers, deleteCommentsEnabled);
-            String analysisSummary = analysisDetails.createAnalysisSummary(new MarkdownFormatterFactory());
-            StringEntity summaryCommentEntity = new StringEntity(new ObjectMapper().writeValueAsString(new SummaryComment(analysisSummary)), ContentType.APPLICATION_JSON);
-            postComment(commentUrl, headers, summaryCommentEntity, summaryCommentEnabled);
-
-            DiffPage diffPage = getPage(diffUrl, headers, DiffPage.class);
-            List<PostAnalysisIssueVisitor.ComponentIssue> componentIssues = analysisDetails.getPostAnalysisIssueVisitor().getIssues().stream().filter(i -> OPEN_ISSUE_STATUSES.contains(i.getIssue().status())).collect(Collectors.toList());
-            for (PostAnalysisIssueVisitor.ComponentIssue componentIssue : componentIssues) {
-                final DefaultIssue issue = componentIssue.getIssue();
-                String analysisIssueSummary = analysisDetails.createAnalysisIssueSummary(componentIssue, new MarkdownFormatterFactory());
-                String issuePath = analysisDetails.getSCMPathForIssue(componentIssue).orElse(StringUtils.EMPTY);
-                int issueLine = issue.getLine() != null ? issue.getLine() : 0;
-                String issueType = getIssueType(diffPage, issuePath, issueLine);
-                String fileType = "TO";
-                if (issueType.equals("CONTEXT")) {
-                    fileType = "FROM";
+            List<Comment> existingComments = getExistingComments(activityUrl, commentUserSlug, headers, deleteCommentsEnabled, activityPageSize, prefetchPages);
+
+            List<PendingComment> pendingComments = new ArrayList<>();
+            if (summaryCommentEnabled) {
+                String analysisSummary = analysisDetails.createAnalysisSummary(MARKDOWN_FORMATTER_FACTORY);
+                CommentFingerprint fingerprint = CommentFingerprint.forSummary(analysisSummary);
+                pendingComments.add(new PendingComment(fingerprint, fingerprint.mark(analysisSummary), new SummaryComment(fingerprint.mark(analysisSummary))));
+            }
+
+            if (fileCommentEnabled) {
+                List<PostAnalysisIssueVisitor.ComponentIssue> componentIssues = analysisDetails.getAnalysisIssues().getOpenIssues();
+                Set<String> issuePaths = analysisDetails.getAnalysisIssues().getOpenIssuesByScmPath().keySet();
+                DiffIndex diffIndex = getDiffIndex(changesUrl, diffUrl, headers, issuePaths, changesPageSize, prefetchPages);
+                for (PostAnalysisIssueVisitor.ComponentIssue componentIssue : componentIssues) {
+                    final PostAnalysisIssueVisitor.LightIssue issue = componentIssue.getIssue();
+                    String analysisIssueSummary = analysisDetails.createAnalysisIssueSummary(componentIssue, MARKDOWN_FORMATTER_FACTORY);
+                    String issuePath = analysisDetails.getSCMPathForIssue(componentIssue).orElse(StringUtils.EMPTY);
+                    int issueLine = issue.getLine() != null ? issue.getLine() : 0;
+                    String issueType = diffIndex.getSegmentType(issuePath, issueLine);
+                    String fileType = "TO";
+                    if (issueType.equals("CONTEXT")) {
+                        fileType = "FROM";
+                    }
+                    CommentFingerprint fingerprint = CommentFingerprint.forIssue(issue.key(), issuePath, issueLine, analysisIssueSummary);
+                    pendingComments.add(new PendingComment(fingerprint, fingerprint.mark(analysisIssueSummary),
+                            new FileComment(fingerprint.mark(analysisIssueSummary), new Anchor(issueLine, issueType, issuePath, fileType))));
                 }
-                StringEntity fileCommentEntity = new StringEntity(
-                        new ObjectMapper().writeValueAsString(new FileComment(analysisIssueSummary, new Anchor(issueLine, issueType, issuePath, fileType))), ContentType.APPLICATION_JSON
-                );
-                postComment(commentUrl, headers, fileCommentEntity, fileCommentEnabled);
+            }
+
+            CommentReconciliation<Comment, PendingComment> reconciliation = CommentReconciler.reconcile(pendingComments, PendingComment::getFingerprint, existingComments, Comment::getText);
+            LOGGER.info(String.format("Pull Request comments: %s", reconciliation));
+
+            deleteComments(commentUrl, headers, reconciliation.getCommentsToDelete());
+            for (CommentReconciliation.Update<Comment, PendingComment> update : reconciliation.getCommentsToUpdate()) {
+                updateComment(commentUrl, headers, update.getExistingComment(), update.getComment().getText());
+            }
+            for (PendingComment pendingComment : reconciliation.getCommentsToCreate()) {
+                StringEntity commentEntity = new StringEntity(jsonCodec.write(pendingComment.getComment()), ContentType.APPLICATION_JSON);
+                postComment(commentUrl, headers, commentEntity, true);
             }
         } catch (IOException ex) {
             throw new IllegalStateException("Could not decorate Pull Request on Bitbucket Server", ex);
@@ -174,66 +219,146 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
 
     }
 
-    protected String getIssueType(DiffPage diffPage, String issuePath, int issueLine) {
-        String issueType = "CONTEXT";
-        List<Diff> diffs = diffPage.getDiffs().stream()
-                .filter(diff -> diff.getDestination() != null)
-                .filter(diff -> issuePath.equals(diff.getDestination().getToString()))
-                .collect(Collectors.toList());
-
-        if (!diffs.isEmpty()) {
-            for (Diff diff : diffs) {
-                List<Hunk> hunks = diff.getHunks();
-                if (!hunks.isEmpty()) {
-                    issueType = getExtractIssueType(issueLine, issueType, hunks);
+    protected List<Comment> getExistingComments(String activityUrl, String userSlug, Map<String, String> headers, boolean deleteCommentsEnabled, int pageSize, boolean prefetch) {
+        if (!deleteCommentsEnabled) {
+            return Collections.emptyList();
+        }
+        if (StringUtils.isEmpty(userSlug)) {
+            LOGGER.info("No comments deleted cause property comment.userSlug is not set.");
+            return Collections.emptyList();
+        }
+        List<Comment> comments = new ArrayList<>();
+        int pages = forEachPage(activityUrl, headers, ActivityPage.class, pageSize, prefetch, activityPage -> comments.addAll(getCommentsToDelete(userSlug, activityPage)));
+        LOGGER.debug(String.format("Found %s existing comments in %s pages of activities", comments.size(), pages));
+        return comments;
+    }
+
+    /**
+     * Builds an index of the diff for only those files an issue has been raised against, walking the Pull Request's
+     * changes page by page rather than requesting the complete diff in one response, which Bitbucket truncates for
+     * large Pull Requests.
+     */
+    protected DiffIndex getDiffIndex(String changesUrl, String diffUrl, Map<String, String> headers, Set<String> paths, int pageSize, boolean prefetch) {
+        DiffIndex.Builder diffIndex = DiffIndex.builder();
+        if (paths.isEmpty()) {
+            return diffIndex.build();
+        }
+        int pages = forEachPage(changesUrl, headers, ChangePage.class, pageSize, prefetch, changePage -> {
+            for (Change change : changePage.getValues()) {
+                if (null != change.getPath() && paths.contains(change.getPath().getToString())) {
+                    diffIndex.add(getPage(diffUrl + "/" + encodePath(change.getPath().getToString()), headers, DiffPage.class));
                 }
             }
-        }
-        return issueType;
+        });
+        LOGGER.debug(String.format("Indexed diffs from %s pages of changes", pages));
+        return diffIndex.build();
     }
 
-    private String getExtractIssueType(int issueLine, String issueType, List<Hunk> hunks) {
-        for (Hunk hunk : hunks) {
-            List<Segment> segments = hunk.getSegments();
-            for (Segment segment : segments) {
-                Optional<DiffLine> optionalLine = segment.getLines().stream().filter(diffLine -> diffLine.getDestination() == issueLine).findFirst();
-                if (optionalLine.isPresent()) {
-                    issueType = segment.getType();
-                    break;
+    /**
+     * Passes each page of a paged Bitbucket resource to the consumer in turn, so only the current page (and, when
+     * prefetching, the next one) is held in memory. With prefetching enabled the next page is requested as soon as
+     * the current one has been received, overlapping the request with processing of the current page.
+     *
+     * @return the number of pages retrieved
+     */
+    protected <P extends PagedResponse<?>> int forEachPage(String url, Map<String, String> headers, Class<P> type, int pageSize, boolean prefetch, Consumer<P> pageConsumer) {
+        ExecutorService prefetchExecutor = prefetch ? Executors.newSingleThreadExecutor() : null;
+        try {
+            int pages = 0;
+            P page = getPage(pageUrl(url, 0, pageSize), headers, type);
+            while (null != page) {
+                pages++;
+                Supplier<P> nextPage = null;
+                if (!page.isLastPage()) {
+                    String nextPageUrl = pageUrl(url, page.getNextPageStart(), pageSize);
+                    if (null == prefetchExecutor) {
+                        nextPage = () -> getPage(nextPageUrl, headers, type);
+                    } else {
+                        Future<P> prefetchedPage = prefetchExecutor.submit(() -> getPage(nextPageUrl, headers, type));
+                        nextPage = () -> awaitPage(prefetchedPage);
+                    }
+                }
+                if (null != page.getValues()) {
+                    pageConsumer.accept(page);
                 }
+                page = null == nextPage ? null : nextPage.get();
+            }
+            return pages;
+        } finally {
+            if (null != prefetchExecutor) {
+                prefetchExecutor.shutdownNow();
             }
         }
-        return issueType;
     }
 
-    protected boolean deleteComments(String activityUrl, String commentUrl, String userSlug, Map<String, String> headers, boolean deleteCommentsEnabled) {
-        if (!deleteCommentsEnabled) {
-            return false;
+    private static <P> P awaitPage(Future<P> page) {
+        try {
+            return page.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Could not retrieve page from Bitbucket Server", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted whilst retrieving page from Bitbucket Server", ex);
         }
-        if (StringUtils.isEmpty(userSlug)) {
-            LOGGER.info("No comments deleted cause property comment.userSlug is not set.");
-            return false;
+    }
+
+    private static String pageUrl(String url, int start, int limit) {
+        return String.format("%s%sstart=%s&limit=%s", url, url.contains("?") ? "&" : "?", start, limit);
+    }
+
+    private static String encodePath(String path) {
+        try {
+            List<String> components = new ArrayList<>();
+            for (String component : path.split("/")) {
+                components.add(URLEncoder.encode(component, StandardCharsets.UTF_8.name()).replace("+", "%20"));
+            }
+            return String.join("/", components);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("Could not encode path " + path, ex);
         }
+    }
+
+    protected boolean deleteComments(String commentUrl, Map<String, String> headers, List<Comment> commentsToDelete) {
         boolean commentsRemoved = false;
-        final ActivityPage activityPage = getPage(activityUrl, headers, ActivityPage.class);
-        if (activityPage != null) {
-            final List<Comment> commentsToDelete = getCommentsToDelete(userSlug, activityPage);
-            LOGGER.debug(String.format("Deleting %s comments", commentsToDelete));
-            for (Comment comment : commentsToDelete) {
-                try {
-                    boolean commentDeleted = deleteComment(commentUrl, headers, comment);
-                    if (commentDeleted) {
-                        commentsRemoved = true;
-                    }
-                } catch (IOException ex) {
-                    LOGGER.error("Could not delete comment from Bitbucket Server", ex);
+        LOGGER.debug(String.format("Deleting %s comments", commentsToDelete));
+        for (Comment comment : commentsToDelete) {
+            try {
+                boolean commentDeleted = deleteComment(commentUrl, headers, comment);
+                if (commentDeleted) {
+                    commentsRemoved = true;
                 }
+            } catch (IOException ex) {
+                LOGGER.error("Could not delete comment from Bitbucket Server", ex);
             }
-
         }
         return commentsRemoved;
     }
 
+    protected boolean updateComment(String commentUrl, Map<String, String> headers, Comment comment, String text) throws IOException {
+        boolean commentUpdated = false;
+        HttpPut httpPut = new HttpPut(String.format(commentUrl + "/%s", comment.getId()));
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            httpPut.addHeader(entry.getKey(), entry.getValue());
+        }
+        httpPut.setEntity(new StringEntity(jsonCodec.write(new CommentUpdate(text, comment.getVersion())), ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse httpResponse = httpClientProvider.getHttpClient().execute(httpPut)) {
+            if (null == httpResponse) {
+                LOGGER.error("HttpResponse for updating comment was null");
+            } else if (httpResponse.getStatusLine().getStatusCode() != 200) {
+                LOGGER.error(IOUtils.toString(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8.name()));
+                LOGGER.error("An error was returned in the response from the Bitbucket API. See the previous log messages for details");
+            } else {
+                EntityUtils.consume(httpResponse.getEntity());
+                LOGGER.debug(String.format("Comment %s version %s updated", comment.getId(), comment.getVersion()));
+                commentUpdated = true;
+            }
+        }
+        return commentUpdated;
+    }
+
     private boolean deleteComment(String commentUrl, Map<String, String> headers, Comment comment) throws IOException {
         boolean commentDeleted = false;
         String deleteCommentUrl = commentUrl + "/%s?version=%s";
@@ -242,14 +367,14 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
         for (Map.Entry<String, String> entry : headers.entrySet()) {
             httpDelete.addHeader(entry.getKey(), entry.getValue());
         }
-        try (CloseableHttpClient closeableHttpClient = HttpClients.createDefault()) {
-            HttpResponse deleteResponse = closeableHttpClient.execute(httpDelete);
+        try (CloseableHttpResponse deleteResponse = httpClientProvider.getHttpClient().execute(httpDelete)) {
             if (null == deleteResponse) {
                 LOGGER.error("HttpResponse for deleting comment was null");
             } else if (deleteResponse.getStatusLine().getStatusCode() != 204) {
                 LOGGER.error(IOUtils.toString(deleteResponse.getEntity().getContent(), StandardCharsets.UTF_8.name()));
                 LOGGER.error("An error was returned in the response from the Bitbucket API. See the previous log messages for details");
             } else {
+                EntityUtils.consume(deleteResponse.getEntity());
                 LOGGER.debug(String.format("Comment %s version %s deleted", comment.getId(), comment.getVersion()));
                 commentDeleted = true;
             }
@@ -268,13 +393,12 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
 
     protected <T> T getPage(String diffUrl, Map<String, String> headers, Class<T> type) {
         T page = null;
-        try (CloseableHttpClient closeableHttpClient = HttpClients.createDefault()) {
-            LOGGER.debug(String.format("Getting page %s", type));
-            HttpGet httpGet = new HttpGet(diffUrl);
-            for (Map.Entry<String, String> entry : headers.entrySet()) {
-                httpGet.addHeader(entry.getKey(), entry.getValue());
-            }
-            HttpResponse httpResponse = closeableHttpClient.execute(httpGet);
+        LOGGER.debug(String.format("Getting page %s", type));
+        HttpGet httpGet = new HttpGet(diffUrl);
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            httpGet.addHeader(entry.getKey(), entry.getValue());
+        }
+        try (CloseableHttpResponse httpResponse = httpClientProvider.getHttpClient().execute(httpGet)) {
             if (null == httpResponse) {
                 LOGGER.error(String.format("HttpResponse for getting page %s was null", type));
             } else if (httpResponse.getStatusLine().getStatusCode() != 200) {
@@ -283,15 +407,18 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
                 throw new IllegalStateException(String.format("Error response returned from Bitbucket Server. Expected HTTP Status 200 but got %s", httpResponse.getStatusLine().getStatusCode()) );
             } else {
                 HttpEntity entity = httpResponse.getEntity();
-                page = new ObjectMapper()
-                        .configure(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT, true)
-                        .configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true)
-                        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-                        .readValue(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8.name()), type);
-                LOGGER.debug(new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(page));
+                try (PushbackInputStream inputStream = new PushbackInputStream(entity.getContent())) {
+                    int firstByte = inputStream.read();
+                    if (-1 != firstByte) {
+                        inputStream.unread(firstByte);
+                        page = jsonCodec.read(inputStream, type);
+                    }
+                }
+                jsonCodec.debug(LOGGER, page);
             }
         } catch (IOException ex) {
-            LOGGER.error(String.format("Could not get %s from Bitbucket Server", type.getName()), ex);
+            // a missing page would otherwise be treated as the end of the paged resource, silently truncating it
+            throw new IllegalStateException(String.format("Could not get %s from Bitbucket Server", type.getName()), ex);
         }
         return type.cast(page);
     }
@@ -303,10 +430,11 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
             httpPost.addHeader(entry.getKey(), entry.getValue());
         }
         httpPost.setEntity(requestEntity);
-        LOGGER.debug(EntityUtils.toString(requestEntity));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(EntityUtils.toString(requestEntity));
+        }
         if (sendRequest) {
-            try (CloseableHttpClient closeableHttpClient = HttpClients.createDefault()) {
-                HttpResponse httpResponse = closeableHttpClient.execute(httpPost);
+            try (CloseableHttpResponse httpResponse = httpClientProvider.getHttpClient().execute(httpPost)) {
                 if (null == httpResponse) {
                     LOGGER.error("HttpResponse for posting comment was null");
                 } else if (httpResponse.getStatusLine().getStatusCode() != 201) {
@@ -314,7 +442,11 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
                     LOGGER.error(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8.name()));
                 } else {
                     HttpEntity entity = httpResponse.getEntity();
-                    LOGGER.debug(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8.name()));
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8.name()));
+                    } else {
+                        EntityUtils.consume(entity);
+                    }
                     commentPosted = true;
                 }
             }
@@ -331,4 +463,29 @@ public class BitbucketServerPullRequestDecorator implements PullRequestBuildStat
     public String name() {
         return "BitbucketServer";
     }
+
+    private static class PendingComment {
+
+        private final CommentFingerprint fingerprint;
+        private final String text;
+        private final Object comment;
+
+        PendingComment(CommentFingerprint fingerprint, String text, Object comment) {
+            this.fingerprint = fingerprint;
+            this.text = text;
+            this.comment = comment;
+        }
+
+        CommentFingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        Object getComment() {
+            return comment;
+        }
+    }
 }
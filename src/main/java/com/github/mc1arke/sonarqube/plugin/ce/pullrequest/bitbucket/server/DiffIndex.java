@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.server;
+
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Diff;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffLine;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffPage;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Hunk;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Segment;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Segment types of every destination line in a Pull Request diff, keyed by file path and held as sorted line arrays so
+ * each issue can be anchored with a binary search rather than a scan of the whole diff.
+ */
+public final class DiffIndex {
+
+    static final String CONTEXT = "CONTEXT";
+
+    private final Map<String, FileLines> files;
+
+    private DiffIndex(Map<String, FileLines> files) {
+        super();
+        this.files = files;
+    }
+
+    public static DiffIndex of(DiffPage diffPage) {
+        return builder().add(diffPage).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A line keeps the type of the first segment it appears in within a hunk, but a later hunk covering the same line
+     * replaces it, matching the order Bitbucket returns segments in.
+     */
+    private static void indexHunk(Hunk hunk, TreeMap<Integer, String> lines) {
+        if (null == hunk.getSegments()) {
+            return;
+        }
+        Set<Integer> seenInHunk = new HashSet<>();
+        for (Segment segment : hunk.getSegments()) {
+            if (null == segment.getLines()) {
+                continue;
+            }
+            for (DiffLine diffLine : segment.getLines()) {
+                if (seenInHunk.add(diffLine.getDestination())) {
+                    lines.put(diffLine.getDestination(), segment.getType());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the type of the segment containing the given destination line, or <code>CONTEXT</code> if the line is not
+     * part of the diff
+     */
+    public String getSegmentType(String path, int line) {
+        FileLines fileLines = files.get(path);
+        if (null == fileLines) {
+            return CONTEXT;
+        }
+        int index = Arrays.binarySearch(fileLines.lines, line);
+        return index < 0 ? CONTEXT : fileLines.types[index];
+    }
+
+    /**
+     * Accumulates diffs retrieved page by page, or file by file, into a single index.
+     */
+    public static final class Builder {
+
+        private final Map<String, TreeMap<Integer, String>> linesByPath = new HashMap<>();
+
+        private Builder() {
+            super();
+        }
+
+        public Builder add(DiffPage diffPage) {
+            if (null == diffPage || null == diffPage.getDiffs()) {
+                return this;
+            }
+            for (Diff diff : diffPage.getDiffs()) {
+                if (null == diff.getDestination() || null == diff.getHunks()) {
+                    continue;
+                }
+                TreeMap<Integer, String> lines = linesByPath.computeIfAbsent(diff.getDestination().getToString(), k -> new TreeMap<>());
+                for (Hunk hunk : diff.getHunks()) {
+                    indexHunk(hunk, lines);
+                }
+            }
+            return this;
+        }
+
+        public DiffIndex build() {
+            Map<String, FileLines> files = new HashMap<>(linesByPath.size() * 2);
+            for (Map.Entry<String, TreeMap<Integer, String>> entry : linesByPath.entrySet()) {
+                files.put(entry.getKey(), new FileLines(entry.getValue()));
+            }
+            return new DiffIndex(files);
+        }
+    }
+
+    private static final class FileLines {
+
+        private final int[] lines;
+        private final String[] types;
+
+        FileLines(TreeMap<Integer, String> sortedLines) {
+            lines = new int[sortedLines.size()];
+            types = new String[sortedLines.size()];
+            int i = 0;
+            for (Map.Entry<Integer, String> entry : sortedLines.entrySet()) {
+                lines[i] = entry.getKey();
+                types[i] = entry.getValue();
+                i++;
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github;
+
+import org.sonar.api.Startable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compute Engine scoped cache of Github App installation tokens, so the JWT signing and installation lookups needed to
+ * mint a token are performed once per token lifetime rather than once per analysis. Tokens are refreshed in the
+ * background once they get close to expiry, and concurrent requests for the same token share a single retrieval.
+ */
+public class InstallationTokenCache implements InstallationTokenCacheMBean, Startable {
+
+    static final Duration DEFAULT_TOKEN_LIFETIME = Duration.ofHours(1);
+    static final Duration REFRESH_BEFORE_EXPIRY = Duration.ofMinutes(10);
+    static final Duration MINIMUM_REMAINING_LIFETIME = Duration.ofMinutes(1);
+
+    private static final Logger LOGGER = Loggers.get(InstallationTokenCache.class);
+    private static final String MBEAN_NAME = "com.github.mc1arke.sonarqube.plugin:type=GithubInstallationTokenCache";
+
+    private final Clock clock;
+    private final ExecutorService refreshExecutor;
+    private final ConcurrentMap<Key, CompletableFuture<CachedToken>> tokens = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, Boolean> refreshing = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong refreshFailures = new AtomicLong();
+
+    public InstallationTokenCache() {
+        this(Clock.systemUTC(), Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "github-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    InstallationTokenCache(Clock clock, ExecutorService refreshExecutor) {
+        super();
+        this.clock = clock;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Returns a cached token for the given App and repository if one is available with enough remaining lifetime,
+     * otherwise retrieves one through the loader. Only one retrieval is performed for a key at any time: other callers
+     * wait for its result.
+     */
+    public RepositoryAuthenticationToken getToken(String apiUrl, String appId, String apiPrivateKey, String projectPath,
+                                                  TokenLoader loader) throws IOException, GeneralSecurityException {
+        Key key = new Key(apiUrl, appId, apiPrivateKey, projectPath);
+        while (true) {
+            CompletableFuture<CachedToken> existing = tokens.get(key);
+            if (null != existing && existing.isDone() && !existing.isCompletedExceptionally()) {
+                CachedToken cachedToken = existing.join();
+                Instant now = clock.instant();
+                if (cachedToken.isUsable(now)) {
+                    hits.incrementAndGet();
+                    if (cachedToken.isDueForRefresh(now)) {
+                        refreshInBackground(key, loader);
+                    }
+                    return cachedToken.getToken();
+                }
+                tokens.remove(key, existing);
+                continue;
+            }
+
+            if (null != existing && !existing.isDone()) {
+                hits.incrementAndGet();
+                return await(existing).getToken();
+            }
+
+            CompletableFuture<CachedToken> retrieval = new CompletableFuture<>();
+            if (null == existing ? null != tokens.putIfAbsent(key, retrieval) : !tokens.replace(key, existing, retrieval)) {
+                continue;
+            }
+
+            misses.incrementAndGet();
+            removeExpiredTokens();
+            try {
+                CachedToken cachedToken = load(loader);
+                retrieval.complete(cachedToken);
+                return cachedToken.getToken();
+            } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+                tokens.remove(key, retrieval);
+                retrieval.completeExceptionally(ex);
+                throw ex;
+            }
+        }
+    }
+
+    private void refreshInBackground(Key key, TokenLoader loader) {
+        if (null != refreshing.putIfAbsent(key, Boolean.TRUE)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    tokens.put(key, CompletableFuture.completedFuture(load(loader)));
+                    refreshes.incrementAndGet();
+                } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+                    refreshFailures.incrementAndGet();
+                    LOGGER.warn("Could not refresh Github installation token. The current token will be used until it expires", ex);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            refreshing.remove(key);
+            LOGGER.debug("Github installation token refresh rejected", ex);
+        }
+    }
+
+    private CachedToken load(TokenLoader loader) throws IOException, GeneralSecurityException {
+        Instant loadedAt = clock.instant();
+        RepositoryAuthenticationToken token = loader.load();
+        Instant expiresAt = null == token.getExpiresAt() ? loadedAt.plus(DEFAULT_TOKEN_LIFETIME) : token.getExpiresAt();
+        return new CachedToken(token, expiresAt);
+    }
+
+    private void removeExpiredTokens() {
+        Instant now = clock.instant();
+        tokens.values().removeIf(token -> token.isDone() && !token.isCompletedExceptionally() && !token.join().isUsable(now));
+    }
+
+    private static CachedToken await(CompletableFuture<CachedToken> retrieval) throws IOException, GeneralSecurityException {
+        try {
+            return retrieval.get();
+        } catch (ExecutionException | CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Could not retrieve Github installation token", cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted whilst waiting for Github installation token", ex);
+        }
+    }
+
+    @Override
+    public void start() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(new StandardMBean(this, InstallationTokenCacheMBean.class), objectName);
+        } catch (JMException ex) {
+            LOGGER.warn("Could not register Github installation token cache statistics with JMX", ex);
+        }
+    }
+
+    @Override
+    public void stop() {
+        refreshExecutor.shutdownNow();
+        tokens.clear();
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException ex) {
+            LOGGER.warn("Could not unregister Github installation token cache statistics from JMX", ex);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    @Override
+    public long getRefreshFailures() {
+        return refreshFailures.get();
+    }
+
+    @Override
+    public int getSize() {
+        return tokens.size();
+    }
+
+    @Override
+    public String toString() {
+        return "InstallationTokenCache[size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() +
+               ", refreshes=" + getRefreshes() + ", refreshFailures=" + getRefreshFailures() + "]";
+    }
+
+    @FunctionalInterface
+    public interface TokenLoader {
+
+        RepositoryAuthenticationToken load() throws IOException, GeneralSecurityException;
+
+    }
+
+    private static final class CachedToken {
+
+        private final RepositoryAuthenticationToken token;
+        private final Instant expiresAt;
+
+        CachedToken(RepositoryAuthenticationToken token, Instant expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+
+        RepositoryAuthenticationToken getToken() {
+            return token;
+        }
+
+        boolean isUsable(Instant now) {
+            return now.plus(MINIMUM_REMAINING_LIFETIME).isBefore(expiresAt);
+        }
+
+        boolean isDueForRefresh(Instant now) {
+            return !now.plus(REFRESH_BEFORE_EXPIRY).isBefore(expiresAt);
+        }
+    }
+
+    /**
+     * The private key is held as a digest so a token minted with one key is never handed to a project configured with
+     * another, without keeping a copy of the key itself.
+     */
+    private static final class Key {
+
+        private final String apiUrl;
+        private final String appId;
+        private final byte[] privateKeyDigest;
+        private final String projectPath;
+
+        Key(String apiUrl, String appId, String apiPrivateKey, String projectPath) {
+            this.apiUrl = apiUrl;
+            this.appId = appId;
+            this.privateKeyDigest = digest(apiPrivateKey);
+            this.projectPath = projectPath;
+        }
+
+        private static byte[] digest(String value) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("Could not create digest of Github private key", ex);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(apiUrl, key.apiUrl) && Objects.equals(appId, key.appId) &&
+                   Arrays.equals(privateKeyDigest, key.privateKeyDigest) && Objects.equals(projectPath, key.projectPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(apiUrl, appId, Arrays.hashCode(privateKeyDigest), projectPath);
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2019 Michael Clarke
+ * Copyright (C) 2020 Michael Clarke
  *
  * This program is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
@@ -16,17 +16,21 @@
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  *
  */
-package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4;
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github;
 
-import io.aexp.nodes.graphql.GraphQLRequestEntity;
-import io.aexp.nodes.graphql.GraphQLTemplate;
-import io.aexp.nodes.graphql.InputObject;
+/**
+ * Effectiveness of the Github installation token cache, published over JMX.
+ */
+public interface InstallationTokenCacheMBean {
+
+    long getHits();
+
+    long getMisses();
 
-interface GraphqlProvider {
+    long getRefreshes();
 
-    GraphQLTemplate createGraphQLTemplate();
+    long getRefreshFailures();
 
-    GraphQLRequestEntity.RequestBuilder createRequestBuilder();
+    int getSize();
 
-    <T> InputObject.Builder<T> createInputObject();
 }
@@ -18,15 +18,23 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github;
 
+import java.time.Instant;
+
 public class RepositoryAuthenticationToken {
 
     private final String repositoryId;
     private final String authenticationToken;
+    private final Instant expiresAt;
 
     public RepositoryAuthenticationToken(String repositoryId, String authenticationToken) {
+        this(repositoryId, authenticationToken, null);
+    }
+
+    public RepositoryAuthenticationToken(String repositoryId, String authenticationToken, Instant expiresAt) {
         super();
         this.repositoryId = repositoryId;
         this.authenticationToken = authenticationToken;
+        this.expiresAt = expiresAt;
     }
 
     public String getRepositoryId() {
@@ -36,4 +44,11 @@ public class RepositoryAuthenticationToken {
     public String getAuthenticationToken() {
         return authenticationToken;
     }
+
+    /**
+     * @return the time the token stops being accepted by Github, or null if this is not known
+     */
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2019 Michael Clarke
+ * Copyright (C) 2020 Michael Clarke
  *
  * This program is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
@@ -16,26 +16,27 @@
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  *
  */
-package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4;
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github;
 
-import io.aexp.nodes.graphql.GraphQLRequestEntity;
-import io.aexp.nodes.graphql.GraphQLTemplate;
-import io.aexp.nodes.graphql.InputObject;
+/**
+ * The Github App installation with access to a repository, and the repository's GraphQL node ID.
+ */
+public class RepositoryInstallation {
 
-final class DefaultGraphqlProvider implements GraphqlProvider {
+    private final String accessTokensUrl;
+    private final String repositoryNodeId;
 
-    @Override
-    public GraphQLTemplate createGraphQLTemplate() {
-        return new GraphQLTemplate();
+    public RepositoryInstallation(String accessTokensUrl, String repositoryNodeId) {
+        super();
+        this.accessTokensUrl = accessTokensUrl;
+        this.repositoryNodeId = repositoryNodeId;
     }
 
-    @Override
-    public GraphQLRequestEntity.RequestBuilder createRequestBuilder() {
-        return GraphQLRequestEntity.Builder();
+    public String getAccessTokensUrl() {
+        return accessTokensUrl;
     }
 
-    @Override
-    public <T> InputObject.Builder<T> createInputObject() {
-        return new InputObject.Builder<>();
+    public String getRepositoryNodeId() {
+        return repositoryNodeId;
     }
 }
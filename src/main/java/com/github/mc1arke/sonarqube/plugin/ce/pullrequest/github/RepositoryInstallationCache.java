@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github;
+
+import org.sonar.api.config.Configuration;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compute Engine scoped record of which Github App installation each repository belongs to, so a new installation
+ * token can be requested directly rather than looking the installation up again. Entries are held for a configurable
+ * period, and can be removed early if the installation no longer accepts token requests.
+ */
+public class RepositoryInstallationCache {
+
+    public static final String INSTALLATION_CACHE_TTL =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.github.installation-cache-ttl";
+
+    private final Duration timeToLive;
+    private final Clock clock;
+    private final ConcurrentMap<Key, Entry> installations = new ConcurrentHashMap<>();
+
+    public RepositoryInstallationCache(Configuration configuration) {
+        this(Duration.ofMinutes(configuration.getLong(INSTALLATION_CACHE_TTL).orElse(360L)), Clock.systemUTC());
+    }
+
+    RepositoryInstallationCache(Duration timeToLive, Clock clock) {
+        super();
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+    }
+
+    public Optional<RepositoryInstallation> get(String apiUrl, String appId, String projectPath) {
+        Key key = new Key(apiUrl, appId, projectPath);
+        Entry entry = installations.get(key);
+        if (null == entry) {
+            return Optional.empty();
+        }
+        if (!clock.instant().isBefore(entry.expiresAt)) {
+            installations.remove(key, entry);
+            return Optional.empty();
+        }
+        return Optional.of(entry.installation);
+    }
+
+    public void put(String apiUrl, String appId, String projectPath, RepositoryInstallation installation) {
+        Instant now = clock.instant();
+        installations.values().removeIf(entry -> !now.isBefore(entry.expiresAt));
+        installations.put(new Key(apiUrl, appId, projectPath), new Entry(installation, now.plus(timeToLive)));
+    }
+
+    public void invalidate(String apiUrl, String appId, String projectPath) {
+        installations.remove(new Key(apiUrl, appId, projectPath));
+    }
+
+    int size() {
+        return installations.size();
+    }
+
+    private static final class Entry {
+
+        private final RepositoryInstallation installation;
+        private final Instant expiresAt;
+
+        Entry(RepositoryInstallation installation, Instant expiresAt) {
+            this.installation = installation;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Key {
+
+        private final String apiUrl;
+        private final String appId;
+        private final String projectPath;
+
+        Key(String apiUrl, String appId, String projectPath) {
+            this.apiUrl = apiUrl;
+            this.appId = appId;
+            this.projectPath = projectPath;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(apiUrl, key.apiUrl) && Objects.equals(appId, key.appId) &&
+                   Objects.equals(projectPath, key.projectPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(apiUrl, appId, projectPath);
+        }
+    }
+}
@@ -18,34 +18,42 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v3;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.GithubApplicationAuthenticationProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.InstallationTokenCache;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.RepositoryAuthenticationToken;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.RepositoryInstallation;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.RepositoryInstallationCache;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v3.model.AppInstallation;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v3.model.AppToken;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v3.model.InstallationRepositories;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v3.model.Repository;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.impl.DefaultJwtBuilder;
 import org.bouncycastle.openssl.PEMKeyPair;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.URLConnection;
+import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
+import java.util.Optional;
 
 public class RestApplicationAuthenticationProvider implements GithubApplicationAuthenticationProvider {
 
+    private static final Logger LOGGER = Loggers.get(RestApplicationAuthenticationProvider.class);
+
     private static final String ACCEPT_HEADER = "Accept";
     private static final String AUTHORIZATION_HEADER = "Authorization";
     private static final String BEARER_AUTHORIZATION_HEADER_PREFIX = "Bearer ";
@@ -54,83 +62,108 @@ public class RestApplicationAuthenticationProvider implements GithubApplicationA
 
     private final Clock clock;
     private final UrlConnectionProvider urlProvider;
-
-    public RestApplicationAuthenticationProvider(Clock clock) {
-        this(clock, new DefaultUrlConnectionProvider());
+    private final InstallationTokenCache installationTokenCache;
+    private final RepositoryInstallationCache repositoryInstallationCache;
+    private final JsonCodec jsonCodec;
+
+    public RestApplicationAuthenticationProvider(Clock clock, InstallationTokenCache installationTokenCache,
+                                                 RepositoryInstallationCache repositoryInstallationCache,
+                                                 JsonCodec jsonCodec) {
+        this(clock, new DefaultUrlConnectionProvider(), installationTokenCache, repositoryInstallationCache,
+             jsonCodec);
     }
 
-    RestApplicationAuthenticationProvider(Clock clock, UrlConnectionProvider urlProvider) {
+    RestApplicationAuthenticationProvider(Clock clock, UrlConnectionProvider urlProvider,
+                                          InstallationTokenCache installationTokenCache,
+                                          RepositoryInstallationCache repositoryInstallationCache,
+                                          JsonCodec jsonCodec) {
         super();
         this.clock = clock;
         this.urlProvider = urlProvider;
+        this.installationTokenCache = installationTokenCache;
+        this.repositoryInstallationCache = repositoryInstallationCache;
+        this.jsonCodec = jsonCodec;
     }
 
     @Override
     public RepositoryAuthenticationToken getInstallationToken(String apiUrl, String appId, String apiPrivateKey,
-                                                              String projectPath) throws IOException {
+                                                              String projectPath)
+            throws IOException, GeneralSecurityException {
+        return installationTokenCache.getToken(apiUrl, appId, apiPrivateKey, projectPath,
+                                               () -> retrieveInstallationToken(apiUrl, appId, apiPrivateKey,
+                                                                               projectPath));
+    }
+
+    private RepositoryAuthenticationToken retrieveInstallationToken(String apiUrl, String appId, String apiPrivateKey,
+                                                                    String projectPath) throws IOException {
 
         Instant issued = clock.instant().minus(10, ChronoUnit.SECONDS);
         Instant expiry = issued.plus(2, ChronoUnit.MINUTES);
         String jwtToken = new DefaultJwtBuilder().setIssuedAt(Date.from(issued)).setExpiration(Date.from(expiry))
                 .claim("iss", appId).signWith(createPrivateKey(apiPrivateKey), SignatureAlgorithm.RS256).compact();
 
-        ObjectMapper objectMapper = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        Optional<RepositoryInstallation> cachedInstallation =
+                repositoryInstallationCache.get(apiUrl, appId, projectPath);
+        if (cachedInstallation.isPresent()) {
+            try {
+                AppToken appToken = createAccessToken(cachedInstallation.get().getAccessTokensUrl(), jwtToken);
+                return createRepositoryAuthenticationToken(cachedInstallation.get().getRepositoryNodeId(), appToken);
+            } catch (FileNotFoundException ex) {
+                LOGGER.debug(String.format("Installation for %s no longer available. Looking up installation again",
+                                           projectPath), ex);
+                repositoryInstallationCache.invalidate(apiUrl, appId, projectPath);
+            }
+        }
 
-        URLConnection appConnection = urlProvider.createUrlConnection(apiUrl + "/app/installations");
-        appConnection.setRequestProperty(ACCEPT_HEADER, APP_PREVIEW_ACCEPT_HEADER);
-        appConnection.setRequestProperty(AUTHORIZATION_HEADER, BEARER_AUTHORIZATION_HEADER_PREFIX + jwtToken);
+        AppInstallation installation;
+        URLConnection installationConnection =
+                urlProvider.createUrlConnection(apiUrl + "/repos/" + projectPath + "/installation");
+        installationConnection.setRequestProperty(ACCEPT_HEADER, APP_PREVIEW_ACCEPT_HEADER);
+        installationConnection.setRequestProperty(AUTHORIZATION_HEADER, BEARER_AUTHORIZATION_HEADER_PREFIX + jwtToken);
+        try (Reader reader = new InputStreamReader(installationConnection.getInputStream())) {
+            installation = jsonCodec.read(reader, AppInstallation.class);
+        } catch (FileNotFoundException ex) {
+            throw new IllegalStateException(
+                    "No token could be found with access to the requested repository with the given application ID and key",
+                    ex);
+        }
 
-        AppInstallation[] appInstallations;
-        try (Reader reader = new InputStreamReader(appConnection.getInputStream())) {
-            appInstallations = objectMapper.readerFor(AppInstallation[].class).readValue(reader);
+        AppToken appToken = createAccessToken(installation.getAccessTokensUrl(), jwtToken);
+
+        URLConnection repositoryConnection = urlProvider.createUrlConnection(apiUrl + "/repos/" + projectPath);
+        ((HttpURLConnection) repositoryConnection).setRequestMethod("GET");
+        repositoryConnection.setRequestProperty(ACCEPT_HEADER, APP_PREVIEW_ACCEPT_HEADER);
+        repositoryConnection
+                .setRequestProperty(AUTHORIZATION_HEADER, BEARER_AUTHORIZATION_HEADER_PREFIX + appToken.getToken());
+        Repository repository;
+        try (Reader reader = new InputStreamReader(repositoryConnection.getInputStream())) {
+            repository = jsonCodec.read(reader, Repository.class);
         }
 
+        repositoryInstallationCache.put(apiUrl, appId, projectPath,
+                                        new RepositoryInstallation(installation.getAccessTokensUrl(),
+                                                                   repository.getNodeId()));
 
-        for (AppInstallation installation : appInstallations) {
-            URLConnection accessTokenConnection = urlProvider.createUrlConnection(installation.getAccessTokensUrl());
-            ((HttpURLConnection) accessTokenConnection).setRequestMethod("POST");
-            accessTokenConnection.setRequestProperty(ACCEPT_HEADER, APP_PREVIEW_ACCEPT_HEADER);
-            accessTokenConnection
-                    .setRequestProperty(AUTHORIZATION_HEADER, BEARER_AUTHORIZATION_HEADER_PREFIX + jwtToken);
-
-
-            try (Reader reader = new InputStreamReader(accessTokenConnection.getInputStream())) {
-                AppToken appToken = objectMapper.readerFor(AppToken.class).readValue(reader);
-
-                URLConnection installationRepositoriesConnection =
-                        urlProvider.createUrlConnection(installation.getRepositoriesUrl());
-                ((HttpURLConnection) installationRepositoriesConnection).setRequestMethod("GET");
-                installationRepositoriesConnection.setRequestProperty(ACCEPT_HEADER, APP_PREVIEW_ACCEPT_HEADER);
-                installationRepositoriesConnection.setRequestProperty(AUTHORIZATION_HEADER,
-                                                                      BEARER_AUTHORIZATION_HEADER_PREFIX +
-                                                                      appToken.getToken());
-                String repositoryNodeId = null;
-                try (Reader installationRepositoriesReader = new InputStreamReader(
-                        installationRepositoriesConnection.getInputStream())) {
-                    InstallationRepositories installationRepositories =
-                            objectMapper.readerFor(InstallationRepositories.class)
-                                    .readValue(installationRepositoriesReader);
-                    for (Repository repository : installationRepositories.getRepositories()) {
-                        if (projectPath.equals(repository.getFullName())) {
-                            repositoryNodeId = repository.getNodeId();
-                            break;
-                        }
-                    }
-                    if (null == repositoryNodeId) {
-                        continue;
-                    }
-
-                }
-
-                return new RepositoryAuthenticationToken(repositoryNodeId, appToken.getToken());
+        return createRepositoryAuthenticationToken(repository.getNodeId(), appToken);
+    }
 
-            }
-        }
+    private AppToken createAccessToken(String accessTokensUrl, String jwtToken) throws IOException {
+        URLConnection accessTokenConnection = urlProvider.createUrlConnection(accessTokensUrl);
+        ((HttpURLConnection) accessTokenConnection).setRequestMethod("POST");
+        accessTokenConnection.setRequestProperty(ACCEPT_HEADER, APP_PREVIEW_ACCEPT_HEADER);
+        accessTokenConnection.setRequestProperty(AUTHORIZATION_HEADER, BEARER_AUTHORIZATION_HEADER_PREFIX + jwtToken);
 
-        throw new IllegalStateException(
-                "No token could be found with access to the requested repository with the given application ID and key");
+        try (Reader reader = new InputStreamReader(accessTokenConnection.getInputStream())) {
+            return jsonCodec.read(reader, AppToken.class);
+        }
     }
 
+    private static RepositoryAuthenticationToken createRepositoryAuthenticationToken(String repositoryNodeId,
+                                                                                     AppToken appToken) {
+        return new RepositoryAuthenticationToken(repositoryNodeId, appToken.getToken(),
+                                                 null == appToken.getExpiresAt() ? null :
+                                                 Instant.parse(appToken.getExpiresAt()));
+    }
 
     private static PrivateKey createPrivateKey(String apiPrivateKey) throws IOException {
         try (PEMParser pemParser = new PEMParser(new StringReader(apiPrivateKey))) {
@@ -24,15 +24,25 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 public class AppToken {
 
     private final String token;
+    private final String expiresAt;
+
+    public AppToken(String token) {
+        this(token, null);
+    }
 
     @JsonCreator
-    public AppToken(@JsonProperty("token") String token) {
+    public AppToken(@JsonProperty("token") String token, @JsonProperty("expires_at") String expiresAt) {
         super();
         this.token = token;
+        this.expiresAt = expiresAt;
     }
 
     public String getToken() {
         return token;
     }
 
+    public String getExpiresAt() {
+        return expiresAt;
+    }
+
 }
@@ -18,21 +18,25 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.mc1arke.sonarqube.plugin.ValueFormatter;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.AnalysisDetails;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PostAnalysisIssueVisitor;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.CheckRunProvider;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.GithubApplicationAuthenticationProvider;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.RepositoryAuthenticationToken;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4.model.CheckAnnotationLevel;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4.model.CheckConclusionState;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4.model.CheckRun;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4.model.RequestableCheckStatusState;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.HttpClientProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.MarkdownFormatterFactory;
-import io.aexp.nodes.graphql.Argument;
-import io.aexp.nodes.graphql.Arguments;
-import io.aexp.nodes.graphql.GraphQLRequestEntity;
-import io.aexp.nodes.graphql.GraphQLResponseEntity;
-import io.aexp.nodes.graphql.GraphQLTemplate;
-import io.aexp.nodes.graphql.InputObject;
-import io.aexp.nodes.graphql.internal.Error;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
 import org.sonar.api.ce.posttask.QualityGate;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.config.PropertyDefinition;
@@ -42,60 +46,75 @@ import org.sonar.api.rule.Severity;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 import org.sonar.ce.task.projectanalysis.component.Component;
-import org.sonar.ce.task.projectanalysis.component.ConfigurationRepository;
 
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.text.SimpleDateFormat;
 import java.time.Clock;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class GraphqlCheckRunProvider implements CheckRunProvider {
 
+    public static final String ANNOTATION_BATCH_SIZE =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.github.annotation-batch-size";
+    public static final String ANNOTATION_CONCURRENCY =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.github.annotation-concurrency";
+    public static final String ANNOTATION_RETRIES =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.github.annotation-retries";
+    public static final String ANNOTATION_RETRY_DELAY =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.github.annotation-retry-delay";
+
+    /**
+     * Github rejects any check run create or update request carrying more annotations than this.
+     */
+    static final int MAX_ANNOTATIONS_PER_REQUEST = 50;
+
+    /**
+     * HTTP statuses Github returns when a request was rejected before being processed, so can safely be sent again.
+     */
+    private static final List<Integer> RETRYABLE_STATUSES = Arrays.asList(429, 502, 503);
+
     private static final Logger LOGGER = Loggers.get(GraphqlCheckRunProvider.class);
-    private static final String DATE_TIME_PATTERN = "yyyy-MM-dd'T'HH:mm:ssXXX";
 
-    private final GraphqlProvider graphqlProvider;
+    private static final String CREATE_CHECK_RUN_MUTATION =
+            "mutation CreateCheckRun($input: CreateCheckRunInput!) { createCheckRun(input: $input) { checkRun { id } } }";
+    private static final String UPDATE_CHECK_RUN_MUTATION =
+            "mutation UpdateCheckRun($input: UpdateCheckRunInput!) { updateCheckRun(input: $input) { checkRun { id } } }";
+
+    private final HttpClientProvider httpClientProvider;
     private final Clock clock;
     private final GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider;
     private final Server server;
-    private final ConfigurationRepository configurationRepository;
     private final PropertyDefinitions propertyDefinitions;
+    private final JsonCodec jsonCodec;
 
-    public GraphqlCheckRunProvider(Clock clock,
+    public GraphqlCheckRunProvider(HttpClientProvider httpClientProvider, Clock clock,
                                    GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider,
-                                   Server server, ConfigurationRepository configurationRepository,
-                                   PropertyDefinitions propertyDefinitions) {
-        this(new DefaultGraphqlProvider(), clock, githubApplicationAuthenticationProvider, server,
-             configurationRepository, propertyDefinitions);
-    }
-
-    GraphqlCheckRunProvider(GraphqlProvider graphqlProvider, Clock clock,
-                            GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider,
-                            Server server, ConfigurationRepository configurationRepository,
-                            PropertyDefinitions propertyDefinitions) {
+                                   Server server, PropertyDefinitions propertyDefinitions, JsonCodec jsonCodec) {
         super();
-        this.graphqlProvider = graphqlProvider;
+        this.httpClientProvider = httpClientProvider;
         this.clock = clock;
         this.githubApplicationAuthenticationProvider = githubApplicationAuthenticationProvider;
         this.server = server;
-        this.configurationRepository = configurationRepository;
         this.propertyDefinitions = propertyDefinitions;
+        this.jsonCodec = jsonCodec;
     }
 
     @Override
     public void createCheckRun(AnalysisDetails analysisDetails) throws IOException, GeneralSecurityException {
-        Configuration configuration = configurationRepository.getConfiguration();
+        Configuration configuration = analysisDetails.getConfiguration();
         String apiUrl = getMandatoryProperty("sonar.pullrequest.github.endpoint", configuration, propertyDefinitions);
         String apiPrivateKey =
                 getMandatoryProperty("sonar.alm.github.app.privateKey.secured", configuration, propertyDefinitions);
@@ -110,75 +129,223 @@ public class GraphqlCheckRunProvider implements CheckRunProvider {
         headers.put("Authorization", "Bearer " + repositoryAuthenticationToken.getAuthenticationToken());
         headers.put("Accept", "application/vnd.github.antiope-preview+json");
 
-        List<InputObject<Object>> annotations = analysisDetails.getPostAnalysisIssueVisitor().getIssues().stream()
-                .filter(i -> i.getComponent().getReportAttributes().getScmPath().isPresent())
-                .filter(i -> i.getComponent().getType() == Component.Type.FILE).map(componentIssue -> {
-                    InputObject<Object> issueLocation = graphqlProvider.createInputObject()
-                            .put("startLine", Optional.ofNullable(componentIssue.getIssue().getLine()).orElse(0))
-                            .put("endLine", Optional.ofNullable(componentIssue.getIssue().getLine()).orElse(0) + 1)
-                            .build();
-                    return graphqlProvider.createInputObject()
-                            .put("path", componentIssue.getComponent().getReportAttributes().getScmPath().get())
-                            .put("location", issueLocation)
-                            .put("annotationLevel", mapToGithubAnnotationLevel(componentIssue.getIssue().severity()))
-                            .put("message", componentIssue.getIssue().getMessage().replaceAll("\"", "\\\\\"")).build();
-                }).collect(Collectors.toList());
-
-        InputObject<Object> checkRunOutputContent = graphqlProvider.createInputObject().put("title", "Quality Gate " +
-                                                                                                     (analysisDetails
-                                                                                                              .getQualityGateStatus() ==
-                                                                                                      QualityGate.Status.OK ?
-                                                                                                      "success" :
-                                                                                                      "failed"))
-                .put("summary", analysisDetails.createAnalysisSummary(new MarkdownFormatterFactory()))
-                .put("annotations", annotations).build();
-
-        SimpleDateFormat startedDateFormat = new SimpleDateFormat(DATE_TIME_PATTERN);
-        startedDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-
-        InputObject<Object> repositoryInputObject =
-                graphqlProvider.createInputObject().put("repositoryId", repositoryAuthenticationToken.getRepositoryId())
-                        .put("name", appName + " Results").put("headSha", analysisDetails.getCommitSha())
-                        .put("status", RequestableCheckStatusState.COMPLETED).put("conclusion", QualityGate.Status.OK ==
-                                                                                                analysisDetails
-                                                                                                        .getQualityGateStatus() ?
-                                                                                                CheckConclusionState.SUCCESS :
-                                                                                                CheckConclusionState.FAILURE)
-                        .put("detailsUrl", String.format("%s/dashboard?id=%s&pullRequest=%s", server.getPublicRootUrl(),
-                                                         URLEncoder.encode(analysisDetails.getAnalysisProjectKey(),
-                                                                           StandardCharsets.UTF_8.name()), URLEncoder
-                                                                 .encode(analysisDetails.getBranchName(),
-                                                                         StandardCharsets.UTF_8.name())))
-                        .put("startedAt", startedDateFormat.format(analysisDetails.getAnalysisDate()))
-                        .put("completedAt", DateTimeFormatter.ofPattern(DATE_TIME_PATTERN).withZone(ZoneId.of("UTC"))
-                                .format(clock.instant())).put("externalId", analysisDetails.getAnalysisId())
-                        .put("output", checkRunOutputContent).build();
-
-
-        GraphQLRequestEntity graphQLRequestEntity =
-                graphqlProvider.createRequestBuilder().url(apiUrl + "/graphql").headers(headers)
-                        .request(CreateCheckRun.class)
-                        .arguments(new Arguments("createCheckRun", new Argument<>("input", repositoryInputObject)))
-                        .requestMethod(GraphQLTemplate.GraphQLMethod.MUTATE).build();
-
-        LOGGER.debug("Using request: " + graphQLRequestEntity.getRequest());
-
-        GraphQLTemplate graphQLTemplate = graphqlProvider.createGraphQLTemplate();
-
-        GraphQLResponseEntity<CreateCheckRun> response =
-                graphQLTemplate.mutate(graphQLRequestEntity, CreateCheckRun.class);
-
-        LOGGER.debug("Received response: " + response.toString());
-
-        if (null != response.getErrors() && response.getErrors().length > 0) {
-            List<String> errors = new ArrayList<>();
-            for (Error error : response.getErrors()) {
-                errors.add("- " + error.toString());
-            }
+        List<PostAnalysisIssueVisitor.ComponentIssue> issues =
+                analysisDetails.getAnalysisIssues().getIssues().stream()
+                        .filter(i -> i.getComponent().getReportAttributes().getScmPath().isPresent())
+                        .filter(i -> i.getComponent().getType() == Component.Type.FILE).collect(Collectors.toList());
+
+        int batchSize = Math.max(1, Math.min(MAX_ANNOTATIONS_PER_REQUEST,
+                                             configuration.getInt(ANNOTATION_BATCH_SIZE)
+                                                     .orElse(MAX_ANNOTATIONS_PER_REQUEST)));
+        List<List<PostAnalysisIssueVisitor.ComponentIssue>> issueBatches = partition(issues, batchSize);
+
+        String title = "Quality Gate " +
+                       (analysisDetails.getQualityGateStatus() == QualityGate.Status.OK ? "success" : "failed");
+        String summary = analysisDetails.createAnalysisSummary(new MarkdownFormatterFactory());
+        String detailsUrl = String.format("%s/dashboard?id=%s&pullRequest=%s", server.getPublicRootUrl(),
+                                          URLEncoder.encode(analysisDetails.getAnalysisProjectKey(),
+                                                            StandardCharsets.UTF_8.name()),
+                                          URLEncoder.encode(analysisDetails.getBranchName(),
+                                                            StandardCharsets.UTF_8.name()));
+        String startedAt = ValueFormatter.formatUtcDateTime(analysisDetails.getAnalysisDate().toInstant());
+        String completedAt = ValueFormatter.formatUtcDateTime(clock.instant());
+        List<PostAnalysisIssueVisitor.ComponentIssue> firstBatch =
+                issueBatches.isEmpty() ? Collections.emptyList() : issueBatches.get(0);
+        boolean completeOnCreation = issueBatches.size() <= 1;
+        String conclusion = (QualityGate.Status.OK == analysisDetails.getQualityGateStatus() ?
+                             CheckConclusionState.SUCCESS : CheckConclusionState.FAILURE).name();
+
+        GraphqlMutationEntity createCheckRunRequest =
+                new GraphqlMutationEntity(CREATE_CHECK_RUN_MUTATION, generator -> {
+                    generator.writeStartObject();
+                    generator.writeStringField("repositoryId", repositoryAuthenticationToken.getRepositoryId());
+                    generator.writeStringField("name", appName + " Results");
+                    generator.writeStringField("headSha", analysisDetails.getCommitSha());
+                    if (completeOnCreation) {
+                        generator.writeStringField("status", RequestableCheckStatusState.COMPLETED.name());
+                        generator.writeStringField("conclusion", conclusion);
+                    } else {
+                        generator.writeStringField("status", RequestableCheckStatusState.IN_PROGRESS.name());
+                    }
+                    generator.writeStringField("detailsUrl", detailsUrl);
+                    generator.writeStringField("startedAt", startedAt);
+                    if (completeOnCreation) {
+                        generator.writeStringField("completedAt", completedAt);
+                    }
+                    generator.writeStringField("externalId", analysisDetails.getAnalysisId());
+                    writeOutput(generator, title, summary, firstBatch);
+                    generator.writeEndObject();
+                });
+
+        MutationResponse response = execute(apiUrl, headers, createCheckRunRequest);
+        if (!response.getErrors().isEmpty()) {
             throw new IllegalStateException(
                     "An error was returned in the response from the Github API:" + System.lineSeparator() +
-                    errors.stream().collect(Collectors.joining(System.lineSeparator())));
+                    String.join(System.lineSeparator(), response.getErrors()));
+        }
+
+        if (!completeOnCreation) {
+            String checkRunId = Optional.ofNullable(response.getData()).map(d -> d.get("createCheckRun"))
+                    .map(d -> jsonCodec.convert(d, CreateCheckRun.class)).map(CreateCheckRun::getCheckRun)
+                    .map(CheckRun::getId).orElseThrow(() -> new IllegalStateException(
+                            "No check run ID was returned from the Github API so remaining annotations cannot be added"));
+
+            List<GraphqlMutationEntity> updateRequests = new ArrayList<>();
+            for (List<PostAnalysisIssueVisitor.ComponentIssue> issueBatch : issueBatches
+                    .subList(1, issueBatches.size())) {
+                updateRequests.add(new GraphqlMutationEntity(UPDATE_CHECK_RUN_MUTATION, generator -> {
+                    generator.writeStartObject();
+                    generator.writeStringField("repositoryId", repositoryAuthenticationToken.getRepositoryId());
+                    generator.writeStringField("checkRunId", checkRunId);
+                    writeOutput(generator, title, summary, issueBatch);
+                    generator.writeEndObject();
+                }));
+            }
+
+            GraphqlMutationEntity completeCheckRunRequest =
+                    new GraphqlMutationEntity(UPDATE_CHECK_RUN_MUTATION, generator -> {
+                        generator.writeStartObject();
+                        generator.writeStringField("repositoryId", repositoryAuthenticationToken.getRepositoryId());
+                        generator.writeStringField("checkRunId", checkRunId);
+                        generator.writeStringField("status", RequestableCheckStatusState.COMPLETED.name());
+                        generator.writeStringField("conclusion", conclusion);
+                        generator.writeStringField("completedAt", completedAt);
+                        writeOutput(generator, title, summary, Collections.emptyList());
+                        generator.writeEndObject();
+                    });
+
+            uploadAnnotations(apiUrl, headers, updateRequests, completeCheckRunRequest,
+                              configuration.getInt(ANNOTATION_CONCURRENCY).orElse(4),
+                              configuration.getInt(ANNOTATION_RETRIES).orElse(3),
+                              configuration.getInt(ANNOTATION_RETRY_DELAY).orElse(1000));
+        }
+    }
+
+    private static void writeOutput(JsonGenerator generator, String title, String summary,
+                                    List<PostAnalysisIssueVisitor.ComponentIssue> issues) throws IOException {
+        generator.writeObjectFieldStart("output");
+        generator.writeStringField("title", title);
+        generator.writeStringField("summary", summary);
+        generator.writeArrayFieldStart("annotations");
+        for (PostAnalysisIssueVisitor.ComponentIssue componentIssue : issues) {
+            int line = Optional.ofNullable(componentIssue.getIssue().getLine()).orElse(0);
+            generator.writeStartObject();
+            generator.writeStringField("path", componentIssue.getComponent().getReportAttributes().getScmPath().get());
+            generator.writeObjectFieldStart("location");
+            generator.writeNumberField("startLine", line);
+            generator.writeNumberField("endLine", line + 1);
+            generator.writeEndObject();
+            generator.writeStringField("annotationLevel",
+                                       mapToGithubAnnotationLevel(componentIssue.getIssue().severity()).name());
+            generator.writeStringField("message", componentIssue.getIssue().getMessage());
+            generator.writeEndObject();
         }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private MutationResponse execute(String apiUrl, Map<String, String> headers, GraphqlMutationEntity request)
+            throws IOException {
+        HttpPost httpPost = new HttpPost(apiUrl + "/graphql");
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            httpPost.addHeader(entry.getKey(), entry.getValue());
+        }
+        httpPost.setEntity(request);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Using request: " + EntityUtils.toString(request, StandardCharsets.UTF_8));
+        }
+
+        try (CloseableHttpResponse httpResponse = httpClientProvider.getHttpClient().execute(httpPost)) {
+            String body = IOUtils.toString(httpResponse.getEntity().getContent(), StandardCharsets.UTF_8.name());
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Received response: " + body);
+            }
+
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                return new MutationResponse(null, Collections.singletonList(
+                        String.format("- Github returned HTTP status %s: %s", statusCode, body)),
+                                            RETRYABLE_STATUSES.contains(statusCode));
+            }
+
+            JsonNode response = jsonCodec.readTree(body);
+            List<String> errors = new ArrayList<>();
+            for (JsonNode error : response.path("errors")) {
+                errors.add("- " + error.path("message").asText());
+            }
+            return new MutationResponse(response.get("data"), errors, false);
+        }
+    }
+
+    /**
+     * Sends the annotation batches that did not fit in the initial check run request. Batches are dispatched in order,
+     * but up to <code>concurrency</code> of them may be awaiting a response from Github at any time. The check run is
+     * only marked as complete once every batch has been accepted, so the conclusion is never reported on a partially
+     * annotated check run.
+     */
+    private void uploadAnnotations(String apiUrl, Map<String, String> headers, List<GraphqlMutationEntity> requests,
+                                   GraphqlMutationEntity completionRequest, int concurrency, int retries,
+                                   int retryDelay) throws IOException {
+        ExecutorService executorService =
+                Executors.newFixedThreadPool(Math.max(1, Math.min(concurrency, requests.size())));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (GraphqlMutationEntity request : requests) {
+                futures.add(executorService.submit(() -> {
+                    sendUpdate(apiUrl, headers, request, retries, retryDelay);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            sendUpdate(apiUrl, headers, completionRequest, retries, retryDelay);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted whilst adding annotations to the Github check run", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Could not add annotations to the Github check run", ex.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Annotations are appended to the check run on each update, so a request is only sent again when Github has
+     * rejected it before processing. An I/O failure may occur after Github has applied the update, so is not retried
+     * to avoid duplicating annotations.
+     */
+    private void sendUpdate(String apiUrl, Map<String, String> headers, GraphqlMutationEntity request, int retries,
+                            int retryDelay) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            MutationResponse response = execute(apiUrl, headers, request);
+            List<String> errors = response.getErrors();
+
+            if (errors.isEmpty()) {
+                return;
+            }
+            if (!response.isRetryable() || attempt >= retries) {
+                throw new IllegalStateException(
+                        "An error was returned in the response from the Github API:" + System.lineSeparator() +
+                        String.join(System.lineSeparator(), errors));
+            }
+            LOGGER.warn(String.format("Could not add annotations to check run on attempt %d of %d: %s", attempt + 1,
+                                      retries + 1, String.join(", ", errors)));
+            Thread.sleep((long) retryDelay * (attempt + 1));
+        }
+    }
+
+    private static <T> List<List<T>> partition(List<T> items, int size) {
+        List<List<T>> partitions = new ArrayList<>();
+        for (int i = 0; i < items.size(); i += size) {
+            partitions.add(items.subList(i, Math.min(items.size(), i + size)));
+        }
+        return partitions;
     }
 
     private static CheckAnnotationLevel mapToGithubAnnotationLevel(String sonarqubeSeverity) {
@@ -204,4 +371,29 @@ public class GraphqlCheckRunProvider implements CheckRunProvider {
                         .map(v -> "".equals(v) ? null : v).orElseThrow(() -> new IllegalStateException(
                                 String.format("%s must be specified in the project configuration", propertyName))));
     }
+
+    private static final class MutationResponse {
+
+        private final JsonNode data;
+        private final List<String> errors;
+        private final boolean retryable;
+
+        MutationResponse(JsonNode data, List<String> errors, boolean retryable) {
+            this.data = data;
+            this.errors = errors;
+            this.retryable = retryable;
+        }
+
+        JsonNode getData() {
+            return data;
+        }
+
+        List<String> getErrors() {
+            return errors;
+        }
+
+        boolean isRetryable() {
+            return retryable;
+        }
+    }
 }
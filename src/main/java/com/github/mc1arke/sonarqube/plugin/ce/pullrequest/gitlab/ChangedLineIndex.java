@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab;
+
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.Change;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lines added or modified by a Merge Request, keyed by the path of the file in the source branch and held as sorted,
+ * non-overlapping ranges so checking whether an issue was raised against a changed line is a binary search rather than
+ * a lookup of the file's SCM history. Where Gitlab did not return the diff of a file, every line of that file is
+ * treated as changed, and where Gitlab did not list every changed file, every line of any unlisted file is treated as
+ * changed, so issues are reported rather than silently dropped.
+ */
+public final class ChangedLineIndex {
+
+    private static final Pattern HUNK_HEADER = Pattern.compile("@@ -\\d+(?:,\\d+)? \\+(\\d+)(?:,\\d+)? @@");
+
+    private final Map<String, LineRanges> files;
+    private final boolean incomplete;
+
+    private ChangedLineIndex(Map<String, LineRanges> files, boolean incomplete) {
+        super();
+        this.files = files;
+        this.incomplete = incomplete;
+    }
+
+    public static ChangedLineIndex of(Iterable<Change> changes) {
+        Builder builder = builder();
+        if (null != changes) {
+            for (Change change : changes) {
+                builder.add(change);
+            }
+        }
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return whether the given line of the file was added or modified by the Merge Request
+     */
+    public boolean isChanged(String path, int line) {
+        LineRanges lineRanges = files.get(path);
+        return null == lineRanges ? incomplete : lineRanges.contains(line);
+    }
+
+    /**
+     * Accumulates the changes of a Merge Request into a single index, reading each diff a line at a time so only the
+     * resulting ranges are retained.
+     */
+    public static final class Builder {
+
+        private final Map<String, LineRanges.Builder> rangesByPath = new HashMap<>();
+        private final Set<String> omittedDiffPaths = new HashSet<>();
+        private boolean incomplete;
+
+        private Builder() {
+            super();
+        }
+
+        /**
+         * @param incomplete whether files may have been changed by the Merge Request without being added to the index
+         */
+        public Builder incomplete(boolean incomplete) {
+            this.incomplete = incomplete;
+            return this;
+        }
+
+        public Builder add(Change change) {
+            if (null == change || change.isDeletedFile() || null == change.getNewPath()) {
+                return this;
+            }
+            if (change.isTooLarge() || change.isCollapsed()) {
+                omittedDiffPaths.add(change.getNewPath());
+                return this;
+            }
+            if (null == change.getDiff()) {
+                return this;
+            }
+            LineRanges.Builder ranges = rangesByPath.computeIfAbsent(change.getNewPath(), k -> new LineRanges.Builder());
+            String diff = change.getDiff();
+            int newLine = 0;
+            boolean inHunk = false;
+            int start = 0;
+            while (start < diff.length()) {
+                int end = diff.indexOf('\n', start);
+                if (end < 0) {
+                    end = diff.length();
+                }
+                if (start < end) {
+                    char marker = diff.charAt(start);
+                    if ('@' == marker) {
+                        Matcher matcher = HUNK_HEADER.matcher(diff).region(start, end);
+                        if (matcher.lookingAt()) {
+                            newLine = Integer.parseInt(matcher.group(1));
+                            inHunk = true;
+                        }
+                    } else if (inHunk && '+' == marker) {
+                        ranges.add(newLine++);
+                    } else if (inHunk && ' ' == marker) {
+                        newLine++;
+                    }
+                    // file headers before the first hunk, removed lines, and "\ No newline at end of file" markers
+                    // don't correspond to lines in the new file
+                }
+                start = end + 1;
+            }
+            return this;
+        }
+
+        public ChangedLineIndex build() {
+            Map<String, LineRanges> files = new HashMap<>(rangesByPath.size() * 2);
+            for (Map.Entry<String, LineRanges.Builder> entry : rangesByPath.entrySet()) {
+                files.put(entry.getKey(), entry.getValue().build());
+            }
+            for (String path : omittedDiffPaths) {
+                files.put(path, LineRanges.ALL);
+            }
+            return new ChangedLineIndex(files, incomplete);
+        }
+    }
+
+    private static final class LineRanges {
+
+        private static final LineRanges ALL = new LineRanges(new int[]{Integer.MIN_VALUE}, new int[]{Integer.MAX_VALUE});
+
+        private final int[] starts;
+        private final int[] ends;
+
+        private LineRanges(int[] starts, int[] ends) {
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        boolean contains(int line) {
+            int index = Arrays.binarySearch(starts, line);
+            if (index >= 0) {
+                return true;
+            }
+            int preceding = -index - 2;
+            return preceding >= 0 && line <= ends[preceding];
+        }
+
+        private static final class Builder {
+
+            private int[] starts = new int[8];
+            private int[] ends = new int[8];
+            private int size;
+
+            void add(int line) {
+                if (size > 0 && ends[size - 1] + 1 == line) {
+                    ends[size - 1] = line;
+                    return;
+                }
+                if (size == starts.length) {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    ends = Arrays.copyOf(ends, size * 2);
+                }
+                starts[size] = line;
+                ends[size] = line;
+                size++;
+            }
+
+            LineRanges build() {
+                int[] sortedStarts = Arrays.copyOf(starts, size);
+                int[] sortedEnds = Arrays.copyOf(ends, size);
+                if (!isSorted(sortedStarts)) {
+                    return merge(sortedStarts, sortedEnds);
+                }
+                return new LineRanges(sortedStarts, sortedEnds);
+            }
+
+            private static boolean isSorted(int[] values) {
+                for (int i = 1; i < values.length; i++) {
+                    if (values[i] <= values[i - 1]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * Hunks are returned in line order for each file, but a file reported in more than one change (such as a
+             * rename alongside an edit) may have its ranges added out of order, so they're sorted and coalesced.
+             */
+            private static LineRanges merge(int[] starts, int[] ends) {
+                Integer[] order = new Integer[starts.length];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> Integer.compare(starts[a], starts[b]));
+                int[] mergedStarts = new int[starts.length];
+                int[] mergedEnds = new int[ends.length];
+                int size = 0;
+                for (int i : order) {
+                    if (size > 0 && starts[i] <= mergedEnds[size - 1] + 1) {
+                        mergedEnds[size - 1] = Math.max(mergedEnds[size - 1], ends[i]);
+                    } else {
+                        mergedStarts[size] = starts[i];
+                        mergedEnds[size] = ends[i];
+                        size++;
+                    }
+                }
+                return new LineRanges(Arrays.copyOf(mergedStarts, size), Arrays.copyOf(mergedEnds, size));
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import java.time.Clock;
+import java.util.Optional;
+
+/**
+ * Paces requests to Gitlab based on the {@code RateLimit-*} headers returned with each response, and the
+ * {@code Retry-After} header returned when a request has been rejected for exceeding the rate limit. Requests are
+ * sent without delay until the remaining allowance drops below a fifth of the limit, after which they are spread
+ * evenly over the time left until the limit resets.
+ */
+public class GitlabRateLimiter {
+
+    static final int TOO_MANY_REQUESTS = 429;
+
+    private static final Logger LOGGER = Loggers.get(GitlabRateLimiter.class);
+    private static final String RATE_LIMIT_LIMIT = "RateLimit-Limit";
+    private static final String RATE_LIMIT_REMAINING = "RateLimit-Remaining";
+    private static final String RATE_LIMIT_RESET = "RateLimit-Reset";
+    private static final String RETRY_AFTER = "Retry-After";
+    private static final long DEFAULT_RETRY_AFTER = 1000;
+
+    private final Clock clock;
+    private final Sleeper sleeper;
+    private long pausedUntil;
+    private long nextRequestAt;
+    private long interval;
+
+    public GitlabRateLimiter() {
+        this(Clock.systemUTC(), Thread::sleep);
+    }
+
+    GitlabRateLimiter(Clock clock, Sleeper sleeper) {
+        super();
+        this.clock = clock;
+        this.sleeper = sleeper;
+    }
+
+    /**
+     * Blocks the calling thread until the next request can be sent without exceeding the rate limit.
+     */
+    public void acquire() {
+        long wait = reserve();
+        if (wait > 0) {
+            LOGGER.debug(String.format("Waiting %sms before next request to respect Gitlab rate limit", wait));
+            try {
+                sleeper.sleep(wait);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted whilst waiting for Gitlab rate limit", ex);
+            }
+        }
+    }
+
+    /**
+     * Records the rate limit details from a Gitlab response.
+     *
+     * @return true if the request was rejected by the rate limit and should be retried
+     */
+    public synchronized boolean update(HttpResponse response) {
+        long now = clock.millis();
+        Optional<Long> reset = getLongHeader(response, RATE_LIMIT_RESET).map(r -> r * 1000);
+
+        if (response.getStatusLine().getStatusCode() == TOO_MANY_REQUESTS) {
+            long retryAt = getLongHeader(response, RETRY_AFTER).map(r -> now + r * 1000)
+                    .orElseGet(() -> reset.orElse(now + DEFAULT_RETRY_AFTER));
+            pausedUntil = Math.max(pausedUntil, retryAt);
+            LOGGER.info(String.format("Gitlab rate limit exceeded. Pausing requests for %sms", retryAt - now));
+            return true;
+        }
+
+        Optional<Long> remaining = getLongHeader(response, RATE_LIMIT_REMAINING);
+        Optional<Long> limit = getLongHeader(response, RATE_LIMIT_LIMIT);
+        if (!remaining.isPresent() || !reset.isPresent()) {
+            interval = 0;
+        } else if (remaining.get() <= 0) {
+            pausedUntil = Math.max(pausedUntil, reset.get());
+        } else if (limit.isPresent() && remaining.get() * 5 < limit.get()) {
+            interval = Math.max(0, reset.get() - now) / remaining.get();
+        } else {
+            interval = 0;
+        }
+        return false;
+    }
+
+    synchronized long reserve() {
+        long now = clock.millis();
+        long start = Math.max(now, Math.max(pausedUntil, nextRequestAt));
+        nextRequestAt = start + interval;
+        return start - now;
+    }
+
+    private static Optional<Long> getLongHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if (null == header) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Long.parseLong(header.getValue().trim()));
+        } catch (NumberFormatException ex) {
+            LOGGER.debug(String.format("Could not parse %s header value '%s'", name, header.getValue()));
+            return Optional.empty();
+        }
+    }
+
+    @FunctionalInterface
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+}
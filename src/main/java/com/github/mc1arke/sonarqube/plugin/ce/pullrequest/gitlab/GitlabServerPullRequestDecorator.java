@@ -19,83 +19,118 @@
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.AnalysisDetails;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PostAnalysisIssueVisitor;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PullRequestBuildStatusDecorator;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.Commit;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.Discussion;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.DraftNote;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.MergeRequest;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.MergeRequestChanges;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.Note;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.User;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.HttpClientProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.MarkdownFormatterFactory;
-import org.apache.commons.io.IOUtils;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentFingerprint;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentReconciler;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentReconciliation;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.sonar.api.ce.posttask.QualityGate;
 import org.sonar.api.config.Configuration;
-import org.sonar.api.issue.Issue;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.platform.Server;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
-import org.sonar.ce.task.projectanalysis.component.ConfigurationRepository;
-import org.sonar.ce.task.projectanalysis.scm.Changeset;
-import org.sonar.ce.task.projectanalysis.scm.ScmInfoRepository;
 
 public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusDecorator {
 
     private static final Logger LOGGER = Loggers.get(GitlabServerPullRequestDecorator.class);
-    private static final List<String> OPEN_ISSUE_STATUSES =
-            Issue.STATUSES.stream().filter(s -> !Issue.STATUS_CLOSED.equals(s) && !Issue.STATUS_RESOLVED.equals(s))
-                    .collect(Collectors.toList());
+    private static final MarkdownFormatterFactory MARKDOWN_FORMATTER_FACTORY = new MarkdownFormatterFactory();
     public static final String PULLREQUEST_GITLAB_URL = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.gitlab.url";
     public static final String PULLREQUEST_GITLAB_TOKEN = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.gitlab.token";
     public static final String PULLREQUEST_GITLAB_REPOSITORY_SLUG = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.gitlab.repositorySlug";
+    public static final String PULLREQUEST_GITLAB_CONCURRENCY = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.gitlab.concurrency";
+    public static final String PULLREQUEST_GITLAB_FETCH_TIMEOUT = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.gitlab.fetch-timeout";
+    public static final String PULLREQUEST_GITLAB_DRAFT_NOTES = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.gitlab.draft-notes";
+    public static final String PULLREQUEST_GITLAB_GRAPHQL = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.gitlab.graphql";
+    public static final String PULLREQUEST_GITLAB_GRAPHQL_BATCH_SIZE = "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.gitlab.graphql.batch-size";
+
+    private static final int MAX_REQUEST_ATTEMPTS = 3;
+    private static final int DELETE_BATCH_SIZE = 20;
+    private static final int PAGE_SIZE = 100;
+    private static final Pattern LINK_HEADER_PATTERN = Pattern.compile("<([^>]+)>;[\\s]*rel=\"([a-z]+)\"");
+    private static final Comparator<PostAnalysisIssueVisitor.ComponentIssue> ISSUE_ORDER =
+            Comparator.comparing((PostAnalysisIssueVisitor.ComponentIssue i) -> i.getIssue().getLine(), Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(i -> i.getIssue().key(), Comparator.nullsFirst(Comparator.naturalOrder()));
 
 
-    private final ConfigurationRepository configurationRepository;
     private final Server server;
-    private final ScmInfoRepository scmInfoRepository;
+    private final HttpClientProvider httpClientProvider;
+    private final JsonCodec jsonCodec;
+    private final GitlabRateLimiter rateLimiter = new GitlabRateLimiter();
 
-    public GitlabServerPullRequestDecorator(Server server, ConfigurationRepository configurationRepository, ScmInfoRepository scmInfoRepository) {
+    public GitlabServerPullRequestDecorator(Server server, HttpClientProvider httpClientProvider, JsonCodec jsonCodec) {
         super();
-        this.configurationRepository = configurationRepository;
         this.server = server;
-        this.scmInfoRepository = scmInfoRepository;
+        this.httpClientProvider = httpClientProvider;
+        this.jsonCodec = jsonCodec;
     }
 
     @Override
     public void decorateQualityGateStatus(AnalysisDetails analysis) {
         LOGGER.info("starting to analyze with " + analysis.toString());
         String revision = analysis.getCommitSha();
+        Configuration configuration = analysis.getConfiguration();
+
+        // every request made concurrently during this decoration shares the one pool, so no more than the configured
+        // number of requests are ever in progress against Gitlab at once
+        int concurrency = configuration.getInt(PULLREQUEST_GITLAB_CONCURRENCY).orElse(4);
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, concurrency));
 
         try {
-            Configuration configuration = configurationRepository.getConfiguration();
             final String hostURL = getMandatoryProperty(PULLREQUEST_GITLAB_URL, configuration);
             final String apiToken = getMandatoryProperty(PULLREQUEST_GITLAB_TOKEN, configuration);
             final String repositorySlug = getMandatoryProperty(PULLREQUEST_GITLAB_REPOSITORY_SLUG, configuration);
@@ -106,16 +141,19 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
             final boolean deleteCommentsEnabled = Boolean.parseBoolean(getMandatoryProperty(PULL_REQUEST_DELETE_COMMENTS_ENABLED, configuration));
 
             final String restURL = String.format("%s/api/v4", hostURL);
+            final String graphqlURL = String.format("%s/api/graphql", hostURL);
             final String userURL = restURL + "/user";
             final String projectURL = restURL + String.format("/projects/%s", URLEncoder.encode(repositorySlug, StandardCharsets.UTF_8.name()));
             final String statusUrl = projectURL + String.format("/statuses/%s", revision);
             final String mergeRequestURl = projectURL + String.format("/merge_requests/%s", pullRequestId);
-            final String prCommitsURL = mergeRequestURl + "/commits";
+            // the raw diffs are requested so Gitlab doesn't apply its collapse limits and omit the diffs of larger files
+            final String mergeRequestChangesURL = mergeRequestURl + "/changes?access_raw_diffs=true";
             final String mergeRequestDiscussionURL = mergeRequestURl + "/discussions";
+            final String mergeRequestDraftNotesURL = mergeRequestURl + "/draft_notes";
 
 
             LOGGER.info(String.format("Status url is: %s ", statusUrl));
-            LOGGER.info(String.format("PR commits url is: %s ", prCommitsURL));
+            LOGGER.info(String.format("MR changes url is: %s ", mergeRequestChangesURL));
             LOGGER.info(String.format("MR discussion url is: %s ", mergeRequestDiscussionURL));
             LOGGER.info(String.format("User url is: %s ", userURL));
 
@@ -123,76 +161,122 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
             headers.put("PRIVATE-TOKEN", apiToken);
             headers.put("Accept", "application/json");
 
-            User user = getSingle(userURL, headers, User.class);
+            int fetchTimeout = configuration.getInt(PULLREQUEST_GITLAB_FETCH_TIMEOUT).orElse(120000);
+            boolean draftNotesEnabled = configuration.getBoolean(PULLREQUEST_GITLAB_DRAFT_NOTES).orElse(false);
+            boolean graphqlEnabled = configuration.getBoolean(PULLREQUEST_GITLAB_GRAPHQL).orElse(false);
+            int graphqlBatchSize = configuration.getInt(PULLREQUEST_GITLAB_GRAPHQL_BATCH_SIZE).orElse(20);
+
+            // none of the Merge Request details depend on each other, so they're all requested at once
+            User user;
+            ChangedLineIndex changedLines;
+            MergeRequest mergeRequest;
+            List<DiscussionNote> discussionNotes;
+            try (FetchStage fetchStage = new FetchStage(executorService, fetchTimeout)) {
+                Fetch<User> userFetch = fetchStage.submit("user", () -> getSingle(userURL, headers, User.class));
+                Fetch<ChangedLineIndex> changedLinesFetch = fetchStage.submit("Merge Request changes", () -> fileCommentEnabled ?
+                        getChangedLines(mergeRequestChangesURL, headers) : ChangedLineIndex.builder().build());
+                Fetch<MergeRequest> mergeRequestFetch = fetchStage.submit("Merge Request", () -> getSingle(mergeRequestURl, headers, MergeRequest.class));
+                Fetch<List<DiscussionNote>> discussionNotesFetch = fetchStage.submit("Merge Request discussions", () -> {
+                    List<DiscussionNote> notes = new ArrayList<>();
+                    forEachPagedItem(mergeRequestDiscussionURL, headers, deleteCommentsEnabled, Discussion.class, discussion -> {
+                        LOGGER.debug(String.format("Discussion in MR: %s ", discussion.getId()));
+                        for (Note note : discussion.getNotes()) {
+                            if (!note.isSystem() && note.getAuthor() != null) {
+                                notes.add(new DiscussionNote(mergeRequestDiscussionURL + String.format("/%s/notes/%s",
+                                        discussion.getId(),
+                                        note.getId()), note.getAuthor().getUsername(), note.getBody()));
+                            }
+                        }
+                    });
+                    return notes;
+                });
+
+                user = userFetch.join();
+                changedLines = changedLinesFetch.join();
+                mergeRequest = mergeRequestFetch.join();
+                discussionNotes = discussionNotesFetch.join();
+            }
             LOGGER.info(String.format("Using user: %s ", user.getUsername()));
 
-            List<String> commits = getPagedList(prCommitsURL, headers, deleteCommentsEnabled, new TypeReference<List<Commit>>() {
-            }).stream().map(Commit::getId).collect(Collectors.toList());
-            MergeRequest mergeRequest = getSingle(mergeRequestURl, headers, MergeRequest.class);
-
-            List<Discussion> discussions = getPagedList(mergeRequestDiscussionURL, headers, deleteCommentsEnabled, new TypeReference<List<Discussion>>() {
-            });
-
-            LOGGER.info(String.format("Discussions in MR: %s ", discussions
-                    .stream()
-                    .map(Discussion::getId)
-                    .collect(Collectors.joining(", "))));
-
-            for (Discussion discussion : discussions) {
-                for (Note note : discussion.getNotes()) {
-                    if (!note.isSystem() && note.getAuthor() != null && note.getAuthor().getUsername().equals(user.getUsername())) {
-                        //delete only our own comments
-                        deleteCommitDiscussionNote(mergeRequestDiscussionURL + String.format("/%s/notes/%s",
-                                discussion.getId(),
-                                note.getId()),
-                                headers, deleteCommentsEnabled);
-                    }
-                }
-            }
+            //only reconcile our own comments
+            List<DiscussionNote> existingNotes = discussionNotes.stream()
+                    .filter(note -> user.getUsername().equals(note.getAuthor()))
+                    .collect(Collectors.toList());
 
             QualityGate.Condition newCoverageCondition = analysis.findQualityGateCondition(CoreMetrics.NEW_COVERAGE_KEY)
                     .orElseThrow(() -> new IllegalStateException("Could not find New Coverage Condition in analysis"));
             String coverageValue = newCoverageCondition.getStatus().equals(QualityGate.EvaluationStatus.NO_VALUE) ? "0" : newCoverageCondition.getValue();
 
 
-            List<PostAnalysisIssueVisitor.ComponentIssue> openIssues = analysis.getPostAnalysisIssueVisitor().getIssues().stream().filter(i -> OPEN_ISSUE_STATUSES.contains(i.getIssue().getStatus())).collect(Collectors.toList());
+            List<PendingNote> pendingNotes = new ArrayList<>();
+            if (summaryCommentEnabled) {
+                String summaryComment = analysis.createAnalysisSummary(MARKDOWN_FORMATTER_FACTORY);
+                pendingNotes.add(new PendingNote(CommentFingerprint.forSummary(summaryComment), null, summaryComment, Collections.emptyList()));
+            }
 
-            String summaryComment = analysis.createAnalysisSummary(new MarkdownFormatterFactory());
-            List<NameValuePair> summaryContentParams = Collections.singletonList(new BasicNameValuePair("body", summaryComment));
+            List<PostAnalysisIssueVisitor.ComponentIssue> openIssues = fileCommentEnabled ?
+                    analysis.getAnalysisIssues().getOpenIssues().stream().sorted(ISSUE_ORDER).collect(Collectors.toList()) : Collections.emptyList();
+            for (PostAnalysisIssueVisitor.ComponentIssue issue : openIssues) {
+                String path = analysis.getSCMPathForIssue(issue).orElse(null);
+                Integer line = issue.getIssue().getLine();
+                if (path == null || line == null) {
+                    //only if we have a path and line number
+                    continue;
+                }
+                if (changedLines.isChanged(path, line)) {
+                    //only if the line was changed by this MR
+                    String fileComment = analysis.createAnalysisIssueSummary(issue, MARKDOWN_FORMATTER_FACTORY);
+
+                    List<NameValuePair> positionParams = Arrays.asList(
+                            new BasicNameValuePair("position[base_sha]", mergeRequest.getDiffRefs().getBaseSha()),
+                            new BasicNameValuePair("position[start_sha]", mergeRequest.getDiffRefs().getStartSha()),
+                            new BasicNameValuePair("position[head_sha]", mergeRequest.getDiffRefs().getHeadSha()),
+                            new BasicNameValuePair("position[new_path]", path),
+                            new BasicNameValuePair("position[new_line]", String.valueOf(line)),
+                            new BasicNameValuePair("position[position_type]", "text"));
+                    pendingNotes.add(new PendingNote(CommentFingerprint.forIssue(issue.getIssue().key(), path, line, mergeRequest.getDiffRefs().getHeadSha(), fileComment), path, fileComment, positionParams));
+                } else {
+                    LOGGER.info(String.format("Skipping %s:%d since the line was not changed by the MR", path, line));
+                }
+            }
+
+            CommentReconciliation<DiscussionNote, PendingNote> reconciliation = CommentReconciler.reconcile(pendingNotes, PendingNote::getFingerprint, existingNotes, DiscussionNote::getBody);
+            LOGGER.info(String.format("Merge Request comments: %s", reconciliation));
+
+            deleteCommitDiscussionNotes(reconciliation.getCommentsToDelete().stream().map(DiscussionNote::getUrl).collect(Collectors.toList()), headers, deleteCommentsEnabled, executorService);
+
+            runConcurrently(executorService, reconciliation.getCommentsToUpdate().stream().map(update -> (RequestTask) () ->
+                    updateCommitDiscussionNote(update.getExistingComment().getUrl(), headers, update.getComment().getParams().get(0))
+            ).collect(Collectors.toList()));
 
             postStatus(statusUrl, headers, analysis, coverageValue, true);
 
-            postCommitComment(mergeRequestDiscussionURL, headers, summaryContentParams, summaryCommentEnabled);
+            // comments are grouped by file and posted in line order within each file, so the order of threads on any
+            // line of the diff is the same on every analysis regardless of how many files are published in parallel
+            Map<String, List<List<NameValuePair>>> fileComments = new TreeMap<>();
+            for (PendingNote pendingNote : reconciliation.getCommentsToCreate()) {
+                if (null == pendingNote.getPath()) {
+                    postCommitComment(mergeRequestDiscussionURL, headers, pendingNote.getParams(), true);
+                } else {
+                    fileComments.computeIfAbsent(pendingNote.getPath(), k -> new ArrayList<>()).add(pendingNote.getParams());
+                }
+            }
 
-            for (PostAnalysisIssueVisitor.ComponentIssue issue : openIssues) {
-                String path = analysis.getSCMPathForIssue(issue).orElse(null);
-                if (path != null && issue.getIssue().getLine() != null) {
-                    //only if we have a path and line number
-                    String fileComment = analysis.createAnalysisIssueSummary(issue, new MarkdownFormatterFactory());
-                    if (scmInfoRepository.getScmInfo(issue.getComponent())
-                            .filter(i -> i.hasChangesetForLine(issue.getIssue().getLine()))
-                            .map(i -> i.getChangesetForLine(issue.getIssue().getLine()))
-                            .map(Changeset::getRevision)
-                            .filter(commits::contains)
-                            .isPresent()) {
-                        //only if the change is on a commit, that belongs to this MR
-
-                        List<NameValuePair> fileContentParams = Arrays.asList(
-                                new BasicNameValuePair("body", fileComment),
-                                new BasicNameValuePair("position[base_sha]", mergeRequest.getDiffRefs().getBaseSha()),
-                                new BasicNameValuePair("position[start_sha]", mergeRequest.getDiffRefs().getStartSha()),
-                                new BasicNameValuePair("position[head_sha]", mergeRequest.getDiffRefs().getHeadSha()),
-                                new BasicNameValuePair("position[new_path]", path),
-                                new BasicNameValuePair("position[new_line]", String.valueOf(issue.getIssue().getLine())),
-                                new BasicNameValuePair("position[position_type]", "text"));
-                        postCommitComment(mergeRequestDiscussionURL, headers, fileContentParams, fileCommentEnabled);
-                    } else {
-                        LOGGER.info(String.format("Skipping %s:%d since the commit does not belong to the MR", path, issue.getIssue().getLine()));
+            if (draftNotesEnabled) {
+                publishDraftNotes(mergeRequestDraftNotesURL, headers, fileComments.values(), executorService);
+            } else if (graphqlEnabled) {
+                createDiffNotes(graphqlURL, apiToken, "gid://gitlab/MergeRequest/" + mergeRequest.getId(), fileComments.values(), graphqlBatchSize, executorService);
+            } else {
+                runConcurrently(executorService, fileComments.values().stream().map(comments -> (RequestTask) () -> {
+                    for (List<NameValuePair> fileContentParams : comments) {
+                        postCommitComment(mergeRequestDiscussionURL, headers, fileContentParams, true);
                     }
-                }
+                }).collect(Collectors.toList()));
             }
         } catch (IOException ex) {
             throw new IllegalStateException("Could not decorate Pull Request on Gitlab Server", ex);
+        } finally {
+            executorService.shutdownNow();
         }
 
     }
@@ -202,60 +286,100 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
         for (Map.Entry<String, String> entry : headers.entrySet()) {
             httpGet.addHeader(entry.getKey(), entry.getValue());
         }
-        HttpResponse httpResponse = HttpClients.createDefault().execute(httpGet);
-        if (null != httpResponse && httpResponse.getStatusLine().getStatusCode() != 200) {
-            LOGGER.error(httpResponse.toString());
-            LOGGER.error(EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8));
-            throw new IllegalStateException("An error was returned in the response from the Gitlab API. See the previous log messages for details");
-        } else if (null != httpResponse) {
-            LOGGER.debug(httpResponse.toString());
-            HttpEntity entity = httpResponse.getEntity();
-            X user = new ObjectMapper()
-                    .configure(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT, true)
-                    .configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true)
-                    .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-                    .readValue(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8), type);
+        try (CloseableHttpResponse httpResponse = execute(httpGet)) {
+            if (null != httpResponse && httpResponse.getStatusLine().getStatusCode() != 200) {
+                LOGGER.error(httpResponse.toString());
+                LOGGER.error(EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8));
+                throw new IllegalStateException("An error was returned in the response from the Gitlab API. See the previous log messages for details");
+            } else if (null != httpResponse) {
+                LOGGER.debug(httpResponse.toString());
+                HttpEntity entity = httpResponse.getEntity();
+                X user;
+                try (InputStream inputStream = entity.getContent()) {
+                    user = jsonCodec.read(inputStream, type);
+                }
 
-            LOGGER.info(type + " received");
+                LOGGER.info(type + " received");
 
-            return user;
-        } else {
-            throw new IOException("No response reveived");
+                return user;
+            } else {
+                throw new IOException("No response reveived");
+            }
         }
     }
 
-    private <X> List<X> getPagedList(String commitDiscussionURL, Map<String, String> headers, boolean sendRequest, TypeReference<List<X>> typeRef) throws IOException {
-        HttpGet httpGet = new HttpGet(commitDiscussionURL);
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
-            httpGet.addHeader(entry.getKey(), entry.getValue());
+    /**
+     * Indexes the lines added by the Merge Request, treating any file missing from an overflowed changes list as changed.
+     */
+    private ChangedLineIndex getChangedLines(String mergeRequestChangesUrl, Map<String, String> headers) throws IOException {
+        MergeRequestChanges mergeRequestChanges = getSingle(mergeRequestChangesUrl, headers, MergeRequestChanges.class);
+        if (mergeRequestChanges.isOverflow()) {
+            LOGGER.warn("Gitlab did not list every file changed by the Merge Request. All issues in unlisted files will be reported");
         }
+        ChangedLineIndex.Builder builder = ChangedLineIndex.builder().incomplete(mergeRequestChanges.isOverflow());
+        if (null != mergeRequestChanges.getChanges()) {
+            mergeRequestChanges.getChanges().forEach(builder::add);
+        }
+        return builder.build();
+    }
 
-        List<X> discussions = new ArrayList<>();
+    /**
+     * Walks each page of a Gitlab list endpoint in turn, passing every element to the consumer as it is read from the
+     * response so only a single element from a single page is held in memory at any time.
+     */
+    private <X> void forEachPagedItem(String url, Map<String, String> headers, boolean sendRequest, Class<X> type, Consumer<X> consumer) throws IOException {
+        if (!sendRequest) {
+            return;
+        }
+
+        Optional<String> nextURL = Optional.of(url + (url.contains("?") ? "&" : "?") + "per_page=" + PAGE_SIZE);
+        while (nextURL.isPresent()) {
+            HttpGet httpGet = new HttpGet(nextURL.get());
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                httpGet.addHeader(entry.getKey(), entry.getValue());
+            }
+
+            try (CloseableHttpResponse httpResponse = execute(httpGet)) {
+                if (null == httpResponse) {
+                    throw new IOException("No response reveived");
+                } else if (httpResponse.getStatusLine().getStatusCode() != 200) {
+                    LOGGER.error(httpResponse.toString());
+                    LOGGER.error(EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8));
+                    throw new IllegalStateException("An error was returned in the response from the Gitlab API. See the previous log messages for details");
+                }
 
-        if (sendRequest) {
-            HttpResponse httpResponse = HttpClients.createDefault().execute(httpGet);
-            if (null != httpResponse && httpResponse.getStatusLine().getStatusCode() != 200) {
-                LOGGER.error(httpResponse.toString());
-                LOGGER.error(EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8));
-                throw new IllegalStateException("An error was returned in the response from the Gitlab API. See the previous log messages for details");
-            } else if (null != httpResponse) {
                 LOGGER.debug(httpResponse.toString());
-                HttpEntity entity = httpResponse.getEntity();
-                List<X> pagedDiscussions = new ObjectMapper()
-                        .configure(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT, true)
-                        .configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true)
-                        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-                        .readValue(IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8), typeRef);
-                discussions.addAll(pagedDiscussions);
-                LOGGER.info("MR discussions received");
-                Optional<String> nextURL = getNextUrl(httpResponse);
-                if (nextURL.isPresent()) {
-                    LOGGER.info("Getting next page");
-                    discussions.addAll(getPagedList(nextURL.get(), headers, sendRequest, typeRef));
+                try (MappingIterator<X> iterator = jsonCodec.readValues(httpResponse.getEntity().getContent(), type)) {
+                    while (iterator.hasNext()) {
+                        consumer.accept(iterator.next());
+                    }
                 }
+                nextURL = getNextUrl(httpResponse);
+                LOGGER.debug(String.format("%s page received", type.getSimpleName()));
             }
         }
-        return discussions;
+    }
+
+    private void deleteCommitDiscussionNotes(List<String> noteUrls, Map<String, String> headers, boolean sendRequest, ExecutorService executorService) throws IOException {
+        if (noteUrls.isEmpty()) {
+            return;
+        }
+
+        List<RequestTask> batches = new ArrayList<>();
+        for (int i = 0; i < noteUrls.size(); i += DELETE_BATCH_SIZE) {
+            List<String> batch = noteUrls.subList(i, Math.min(i + DELETE_BATCH_SIZE, noteUrls.size()));
+            batches.add(() -> {
+                for (String noteUrl : batch) {
+                    deleteCommitDiscussionNote(noteUrl, headers, sendRequest);
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        runConcurrently(executorService, batches);
+        long durationMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        LOGGER.info(String.format("Deleted %s notes in %sms (%.1f notes/s)", noteUrls.size(), durationMillis,
+                noteUrls.size() * 1000D / durationMillis));
     }
 
     private void deleteCommitDiscussionNote(String commitDiscussionNoteURL, Map<String, String> headers, boolean sendRequest) throws IOException {
@@ -268,8 +392,23 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
         if (sendRequest) {
             LOGGER.info("Deleting {} with headers {}", commitDiscussionNoteURL, headers);
 
-            HttpResponse httpResponse = HttpClients.createDefault().execute(httpDelete);
-            validateGitlabResponse(httpResponse, 204, "Commit discussions note deleted");
+            try (CloseableHttpResponse httpResponse = execute(httpDelete)) {
+                validateGitlabResponse(httpResponse, 204, "Commit discussions note deleted");
+            }
+        }
+    }
+
+    private void updateCommitDiscussionNote(String commitDiscussionNoteURL, Map<String, String> headers, NameValuePair body) throws IOException {
+        //https://docs.gitlab.com/ee/api/discussions.html#modify-an-existing-merge-request-thread-note
+        HttpPut httpPut = new HttpPut(commitDiscussionNoteURL);
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            httpPut.addHeader(entry.getKey(), entry.getValue());
+        }
+        httpPut.setEntity(new UrlEncodedFormEntity(Collections.singletonList(body)));
+
+        LOGGER.info("Updating {}", commitDiscussionNoteURL);
+        try (CloseableHttpResponse httpResponse = execute(httpPut)) {
+            validateGitlabResponse(httpResponse, 200, "Commit discussions note updated");
         }
     }
 
@@ -284,11 +423,217 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
         if (sendRequest) {
             LOGGER.info("Posting {} with headers {} to {}", params, headers, commitCommentUrl);
 
-            HttpResponse httpResponse = HttpClients.createDefault().execute(httpPost);
-            validateGitlabResponse(httpResponse, 201, "Comment posted");
+            try (CloseableHttpResponse httpResponse = execute(httpPost)) {
+                validateGitlabResponse(httpResponse, 201, "Comment posted");
+            }
+        }
+    }
+
+    /**
+     * Creates every file comment as a draft note, then publishes all of them with a single request, so Gitlab sends
+     * one set of notifications and refreshes the Merge Request once rather than for every comment. Drafts are only
+     * visible to their author until published, so any left behind by an earlier analysis are removed first, and if any
+     * draft can't be created then those already created are removed rather than being left for a later publish.
+     */
+    private void publishDraftNotes(String draftNotesUrl, Map<String, String> headers, Collection<List<List<NameValuePair>>> fileComments, ExecutorService executorService) throws IOException {
+        if (fileComments.isEmpty()) {
+            return;
+        }
+
+        List<String> staleDraftNoteUrls = new ArrayList<>();
+        forEachPagedItem(draftNotesUrl, headers, true, DraftNote.class, draftNote -> staleDraftNoteUrls.add(draftNotesUrl + "/" + draftNote.getId()));
+        deleteCommitDiscussionNotes(staleDraftNoteUrls, headers, true, executorService);
+
+        List<String> draftNoteUrls = Collections.synchronizedList(new ArrayList<>());
+        try {
+            runConcurrently(executorService, fileComments.stream().map(comments -> (RequestTask) () -> {
+                for (List<NameValuePair> fileContentParams : comments) {
+                    draftNoteUrls.add(draftNotesUrl + "/" + postDraftNote(draftNotesUrl, headers, fileContentParams).getId());
+                }
+            }).collect(Collectors.toList()));
+        } catch (IOException | RuntimeException ex) {
+            List<String> createdDraftNoteUrls;
+            synchronized (draftNoteUrls) {
+                createdDraftNoteUrls = new ArrayList<>(draftNoteUrls);
+            }
+            for (String draftNoteUrl : createdDraftNoteUrls) {
+                deleteDraftNote(draftNoteUrl, headers);
+            }
+            throw ex;
+        }
+
+        //https://docs.gitlab.com/ee/api/draft_notes.html#publish-all-pending-draft-notes
+        HttpPost httpPost = new HttpPost(draftNotesUrl + "/bulk_publish");
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            httpPost.addHeader(entry.getKey(), entry.getValue());
+        }
+
+        LOGGER.info("Publishing {} draft notes", draftNoteUrls.size());
+        try (CloseableHttpResponse httpResponse = execute(httpPost)) {
+            validateGitlabResponse(httpResponse, 204, "Draft notes published");
         }
     }
 
+    private DraftNote postDraftNote(String draftNotesUrl, Map<String, String> headers, List<NameValuePair> params) throws IOException {
+        //https://docs.gitlab.com/ee/api/draft_notes.html#create-a-draft-note
+        HttpPost httpPost = new HttpPost(draftNotesUrl);
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            httpPost.addHeader(entry.getKey(), entry.getValue());
+        }
+        // draft notes take the same position as a discussion, but their content is sent as 'note' rather than 'body'
+        httpPost.setEntity(new UrlEncodedFormEntity(params.stream()
+                .map(param -> "body".equals(param.getName()) ? new BasicNameValuePair("note", param.getValue()) : param)
+                .collect(Collectors.toList())));
+
+        LOGGER.debug("Posting draft {} to {}", params, draftNotesUrl);
+        try (CloseableHttpResponse httpResponse = execute(httpPost)) {
+            if (null == httpResponse) {
+                throw new IOException("No response reveived");
+            } else if (httpResponse.getStatusLine().getStatusCode() != 201) {
+                LOGGER.error(httpResponse.toString());
+                LOGGER.error(EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8));
+                throw new IllegalStateException("An error was returned in the response from the Gitlab API. See the previous log messages for details");
+            }
+            LOGGER.debug(httpResponse.toString());
+            try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+                return jsonCodec.read(inputStream, DraftNote.class);
+            }
+        }
+    }
+
+    private void deleteDraftNote(String draftNoteUrl, Map<String, String> headers) {
+        //https://docs.gitlab.com/ee/api/draft_notes.html#delete-a-draft-note
+        HttpDelete httpDelete = new HttpDelete(draftNoteUrl);
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            httpDelete.addHeader(entry.getKey(), entry.getValue());
+        }
+
+        try (CloseableHttpResponse httpResponse = execute(httpDelete)) {
+            validateGitlabResponse(httpResponse, 204, "Draft note deleted");
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn(String.format("Could not delete draft note %s", draftNoteUrl), ex);
+        }
+    }
+
+    /**
+     * Creates file comments through Gitlab's GraphQL API, sending a batch of aliased createDiffNote mutations in each
+     * request rather than a request per comment. A comment Gitlab rejects doesn't prevent the rest of its batch from
+     * being created, so each rejection is logged against the file and line it was for, and the decoration is only
+     * failed once every batch has been sent. The notes for a file are never split across batches sent in parallel, so
+     * they're created in line order as with the REST API: a file's notes are kept in a single batch where they fit,
+     * and a file with more notes than a batch holds has its batches sent one after another.
+     */
+    private void createDiffNotes(String graphqlUrl, String apiToken, String noteableId, Collection<List<List<NameValuePair>>> fileComments, int batchSize, ExecutorService executorService) throws IOException {
+        int notesPerBatch = Math.max(1, batchSize);
+        int noteCount = 0;
+        List<List<List<DiffNoteInput>>> batchSequences = new ArrayList<>();
+        List<DiffNoteInput> sharedBatch = new ArrayList<>();
+        for (List<List<NameValuePair>> comments : fileComments) {
+            List<DiffNoteInput> fileNotes = comments.stream()
+                    .map(params -> new DiffNoteInput(noteableId, params))
+                    .collect(Collectors.toList());
+            noteCount += fileNotes.size();
+            if (!sharedBatch.isEmpty() && sharedBatch.size() + fileNotes.size() > notesPerBatch) {
+                batchSequences.add(Collections.singletonList(sharedBatch));
+                sharedBatch = new ArrayList<>();
+            }
+            if (fileNotes.size() > notesPerBatch) {
+                List<List<DiffNoteInput>> fileBatches = new ArrayList<>();
+                for (int i = 0; i < fileNotes.size(); i += notesPerBatch) {
+                    fileBatches.add(fileNotes.subList(i, Math.min(i + notesPerBatch, fileNotes.size())));
+                }
+                batchSequences.add(fileBatches);
+            } else {
+                sharedBatch.addAll(fileNotes);
+            }
+        }
+        if (!sharedBatch.isEmpty()) {
+            batchSequences.add(Collections.singletonList(sharedBatch));
+        }
+        if (batchSequences.isEmpty()) {
+            return;
+        }
+
+        AtomicInteger failures = new AtomicInteger();
+        runConcurrently(executorService, batchSequences.stream().map(batches -> (RequestTask) () -> {
+            for (List<DiffNoteInput> batch : batches) {
+                failures.addAndGet(createDiffNoteBatch(graphqlUrl, apiToken, batch));
+            }
+        }).collect(Collectors.toList()));
+
+        int requestCount = batchSequences.stream().mapToInt(List::size).sum();
+        LOGGER.info(String.format("Created %s diff notes in %s GraphQL requests", noteCount - failures.get(), requestCount));
+        if (failures.get() > 0) {
+            throw new IllegalStateException(String.format("%s of %s diff notes could not be created through the Gitlab GraphQL API. See the previous log messages for details",
+                    failures.get(), noteCount));
+        }
+    }
+
+    /**
+     * @return the number of diff notes in the batch that Gitlab did not create
+     */
+    private int createDiffNoteBatch(String graphqlUrl, String apiToken, List<DiffNoteInput> batch) throws IOException {
+        //https://docs.gitlab.com/ee/api/graphql/reference/#mutationcreatediffnote
+        StringBuilder declarations = new StringBuilder();
+        StringBuilder mutations = new StringBuilder();
+        Map<String, Object> variables = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String alias = "note" + i;
+            declarations.append(i == 0 ? "" : ", ").append('$').append(alias).append(": CreateDiffNoteInput!");
+            mutations.append(' ').append(alias).append(": createDiffNote(input: $").append(alias).append(") { errors }");
+            variables.put(alias, batch.get(i).getInput());
+        }
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("query", "mutation CreateDiffNotes(" + declarations + ") {" + mutations + " }");
+        request.put("variables", variables);
+
+        HttpPost httpPost = new HttpPost(graphqlUrl);
+        httpPost.addHeader("Authorization", "Bearer " + apiToken);
+        httpPost.addHeader("Accept", "application/json");
+        httpPost.setEntity(new StringEntity(jsonCodec.write(request), ContentType.APPLICATION_JSON));
+
+        LOGGER.info("Creating {} diff notes through {}", batch.size(), graphqlUrl);
+        JsonNode response;
+        try (CloseableHttpResponse httpResponse = execute(httpPost)) {
+            if (null == httpResponse) {
+                throw new IOException("No response reveived");
+            } else if (httpResponse.getStatusLine().getStatusCode() != 200) {
+                LOGGER.error(httpResponse.toString());
+                LOGGER.error(EntityUtils.toString(httpResponse.getEntity(), StandardCharsets.UTF_8));
+                throw new IllegalStateException("An error was returned in the response from the Gitlab API. See the previous log messages for details");
+            }
+            LOGGER.debug(httpResponse.toString());
+            try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+                response = jsonCodec.read(inputStream, JsonNode.class);
+            }
+        }
+
+        // errors raised whilst resolving a mutation are reported at the top level against the alias of that mutation,
+        // whereas errors without a path (such as an invalid request) apply to every mutation in the batch
+        Map<String, List<String>> requestErrors = new HashMap<>();
+        for (JsonNode error : response.path("errors")) {
+            requestErrors.computeIfAbsent(error.path("path").path(0).asText(null), k -> new ArrayList<>()).add(error.path("message").asText());
+        }
+
+        int failures = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            String alias = "note" + i;
+            JsonNode result = response.path("data").path(alias);
+            List<String> errors = new ArrayList<>(requestErrors.getOrDefault(alias, Collections.emptyList()));
+            for (JsonNode error : result.path("errors")) {
+                errors.add(error.asText());
+            }
+            if (errors.isEmpty() && (result.isMissingNode() || result.isNull())) {
+                errors.addAll(requestErrors.getOrDefault(null, Collections.singletonList("No result returned")));
+            }
+            if (!errors.isEmpty()) {
+                LOGGER.error(String.format("Could not create diff note on %s:%s: %s", batch.get(i).getPath(), batch.get(i).getLine(), String.join("; ", errors)));
+                failures++;
+            }
+        }
+        return failures;
+    }
+
     private void postStatus(String statusPostUrl, Map<String, String> headers, AnalysisDetails analysis, String coverage, boolean sendRequest) throws IOException{
         //See https://docs.gitlab.com/ee/api/commits.html#post-the-build-status-to-a-commit
         statusPostUrl += "?name=SonarQube";
@@ -308,12 +653,14 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
             httpPost.addHeader(entry.getKey(), entry.getValue());
         }
         if (sendRequest) {
-            HttpResponse httpResponse = HttpClients.createDefault().execute(httpPost);
-            if (null != httpResponse && httpResponse.toString().contains("Cannot transition status")) {
-                // Workaround for https://gitlab.com/gitlab-org/gitlab-ce/issues/25807
-                LOGGER.debug("Transition status is already {}", status);
-            } else {
-                validateGitlabResponse(httpResponse, 201, "Comment posted");
+            try (CloseableHttpResponse httpResponse = execute(httpPost)) {
+                if (null != httpResponse && httpResponse.toString().contains("Cannot transition status")) {
+                    // Workaround for https://gitlab.com/gitlab-org/gitlab-ce/issues/25807
+                    LOGGER.debug("Transition status is already {}", status);
+                    EntityUtils.consume(httpResponse.getEntity());
+                } else {
+                    validateGitlabResponse(httpResponse, 201, "Comment posted");
+                }
             }
         }
     }
@@ -325,10 +672,57 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
             throw new IllegalStateException("An error was returned in the response from the Gitlab API. See the previous log messages for details");
         } else if (null != httpResponse) {
             LOGGER.debug(httpResponse.toString());
+            // fully read the body so the connection can be re-used rather than discarded when the response is closed
+            EntityUtils.consume(httpResponse.getEntity());
             LOGGER.info(successLogMessage);
         }
     }
 
+    private CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire();
+            CloseableHttpResponse httpResponse = httpClientProvider.getHttpClient().execute(request);
+            if (!rateLimiter.update(httpResponse) || attempt >= MAX_REQUEST_ATTEMPTS) {
+                return httpResponse;
+            }
+            EntityUtils.consume(httpResponse.getEntity());
+            httpResponse.close();
+        }
+    }
+
+    private static void runConcurrently(ExecutorService executorService, List<RequestTask> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (RequestTask task : tasks) {
+                futures.add(executorService.submit(() -> {
+                    task.run();
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted whilst waiting for requests to the Gitlab API", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Could not complete request to the Gitlab API", ex.getCause());
+        } finally {
+            // the remaining tasks are abandoned once any has failed, but the pool is left for later requests
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
     private static String getMandatoryProperty(String propertyName, Configuration configuration) {
         return configuration.get(propertyName).orElseThrow(() -> new IllegalStateException(
                 String.format("%s must be specified in the project configuration", propertyName)));
@@ -337,7 +731,7 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
     private static Optional<String> getNextUrl(HttpResponse httpResponse) {
         Header linkHeader = httpResponse.getFirstHeader("Link");
         if (linkHeader != null) {
-            Matcher matcher = Pattern.compile("<([^>]+)>;[\\s]*rel=\"([a-z]+)\"").matcher(linkHeader.getValue());
+            Matcher matcher = LINK_HEADER_PATTERN.matcher(linkHeader.getValue());
             while (matcher.find()) {
                 if (matcher.group(2).equals("next")) {
                     //found the next rel return the URL
@@ -352,4 +746,181 @@ public class GitlabServerPullRequestDecorator implements PullRequestBuildStatusD
     public String name() {
         return "GitlabServer";
     }
+
+    private static class DiscussionNote {
+
+        private final String url;
+        private final String author;
+        private final String body;
+
+        DiscussionNote(String url, String author, String body) {
+            this.url = url;
+            this.author = author;
+            this.body = body;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        String getAuthor() {
+            return author;
+        }
+
+        String getBody() {
+            return body;
+        }
+    }
+
+    private static class PendingNote {
+
+        private final CommentFingerprint fingerprint;
+        private final String path;
+        private final List<NameValuePair> params;
+
+        PendingNote(CommentFingerprint fingerprint, String path, String body, List<NameValuePair> positionParams) {
+            this.fingerprint = fingerprint;
+            this.path = path;
+            this.params = new ArrayList<>();
+            this.params.add(new BasicNameValuePair("body", fingerprint.mark(body)));
+            this.params.addAll(positionParams);
+        }
+
+        CommentFingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        List<NameValuePair> getParams() {
+            return params;
+        }
+    }
+
+    /**
+     * The GraphQL input for a file comment, built from the same form parameters used to create the comment through the
+     * REST API.
+     */
+    private static class DiffNoteInput {
+
+        private final String path;
+        private final String line;
+        private final Map<String, Object> input;
+
+        DiffNoteInput(String noteableId, List<NameValuePair> params) {
+            Map<String, String> values = new HashMap<>();
+            for (NameValuePair param : params) {
+                values.put(param.getName(), param.getValue());
+            }
+            this.path = values.get("position[new_path]");
+            this.line = values.get("position[new_line]");
+
+            Map<String, Object> position = new LinkedHashMap<>();
+            position.put("baseSha", values.get("position[base_sha]"));
+            position.put("startSha", values.get("position[start_sha]"));
+            position.put("headSha", values.get("position[head_sha]"));
+            position.put("paths", Collections.singletonMap("newPath", path));
+            position.put("newLine", Integer.parseInt(line));
+
+            this.input = new LinkedHashMap<>();
+            this.input.put("noteableId", noteableId);
+            this.input.put("body", values.get("body"));
+            this.input.put("position", position);
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        String getLine() {
+            return line;
+        }
+
+        Map<String, Object> getInput() {
+            return input;
+        }
+    }
+
+    /**
+     * Requests independent details from the Gitlab API in parallel, so the time spent waiting for them is that of the
+     * slowest request rather than the sum of every request. Each request has to complete within the timeout of it
+     * starting to run, so time spent waiting for a free thread in the pool isn't counted against it, and any request
+     * still outstanding when the stage is closed is cancelled.
+     */
+    private static final class FetchStage implements AutoCloseable {
+
+        private final ExecutorService executorService;
+        private final long timeoutMillis;
+        private final List<Future<?>> futures = new ArrayList<>();
+
+        FetchStage(ExecutorService executorService, long timeoutMillis) {
+            this.executorService = executorService;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        <T> Fetch<T> submit(String description, RequestSupplier<T> request) {
+            CompletableFuture<Long> started = new CompletableFuture<>();
+            Future<T> future = executorService.submit(() -> {
+                started.complete(System.nanoTime());
+                return request.get();
+            });
+            futures.add(future);
+            return new Fetch<>(description, future, started, timeoutMillis);
+        }
+
+        @Override
+        public void close() {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static final class Fetch<T> {
+
+        private final String description;
+        private final Future<T> future;
+        private final CompletableFuture<Long> started;
+        private final long timeoutMillis;
+
+        Fetch(String description, Future<T> future, CompletableFuture<Long> started, long timeoutMillis) {
+            this.description = description;
+            this.future = future;
+            this.started = started;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        T join() throws IOException {
+            try {
+                // requests are joined in the order they were submitted, so any ahead of this one in the pool have finished
+                long deadline = started.get() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted whilst waiting for requests to the Gitlab API", ex);
+            } catch (TimeoutException ex) {
+                future.cancel(true);
+                throw new IllegalStateException(String.format("Could not retrieve %s from the Gitlab API within %sms", description, timeoutMillis), ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                } else if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException("Could not complete request to the Gitlab API", ex.getCause());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RequestSupplier<T> {
+        T get() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RequestTask {
+        void run() throws IOException;
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class Change {
+    private final String newPath;
+
+    private final boolean deletedFile;
+
+    private final String diff;
+
+    private final boolean tooLarge;
+
+    private final boolean collapsed;
+
+    @JsonCreator
+    public Change(@JsonProperty("new_path") String newPath, @JsonProperty("deleted_file") boolean deletedFile, @JsonProperty("diff") String diff,
+                  @JsonProperty("too_large") boolean tooLarge, @JsonProperty("collapsed") boolean collapsed) {
+        this.newPath = newPath;
+        this.deletedFile = deletedFile;
+        this.diff = diff;
+        this.tooLarge = tooLarge;
+        this.collapsed = collapsed;
+    }
+
+    public String getNewPath() {
+        return newPath;
+    }
+
+    public boolean isDeletedFile() {
+        return deletedFile;
+    }
+
+    public String getDiff() {
+        return diff;
+    }
+
+    /**
+     * @return whether Gitlab omitted the diff as the file exceeded its diff size limits
+     */
+    public boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    /**
+     * @return whether Gitlab omitted the diff as the Merge Request's diffs had exceeded their collapse limits
+     */
+    public boolean isCollapsed() {
+        return collapsed;
+    }
+}
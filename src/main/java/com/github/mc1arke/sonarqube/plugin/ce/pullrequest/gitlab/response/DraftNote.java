@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2019 Michael Clarke
+ * Copyright (C) 2020 Michael Clarke
  *
  * This program is free software; you can redistribute it and/or
  * modify it under the terms of the GNU Lesser General Public
@@ -16,21 +16,20 @@
  * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
  *
  */
-package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v3.model;
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-public class InstallationRepositories {
-
-    private final Repository[] repositories;
+public class DraftNote {
+    private final long id;
 
     @JsonCreator
-    public InstallationRepositories(@JsonProperty("repositories") Repository[] repositories) {
-        this.repositories = repositories;
+    public DraftNote(@JsonProperty("id") long id) {
+        this.id = id;
     }
 
-    public Repository[] getRepositories() {
-        return repositories;
+    public long getId() {
+        return id;
     }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+public class MergeRequestChanges {
+    private final List<Change> changes;
+
+    private final boolean overflow;
+
+    @JsonCreator
+    public MergeRequestChanges(@JsonProperty("changes") List<Change> changes, @JsonProperty("overflow") boolean overflow) {
+        this.changes = changes;
+        this.overflow = overflow;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return whether Gitlab stopped listing changes once the Merge Request exceeded its limit on the number of files
+     */
+    public boolean isOverflow() {
+        return overflow;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.sonar.api.Startable;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compute Engine scoped HTTP transport backed by a single connection pool, so consecutive requests to the same ALM
+ * re-use kept-alive connections rather than performing a new TCP and TLS handshake for every call.
+ */
+public class DefaultHttpClientProvider implements HttpClientProvider, HttpConnectionPoolMBean, Startable {
+
+    public static final String HTTP_MAX_CONNECTIONS =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.http.max-connections";
+    public static final String HTTP_MAX_CONNECTIONS_PER_HOST =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.http.max-connections-per-host";
+    public static final String HTTP_CONNECT_TIMEOUT =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.http.connect-timeout";
+    public static final String HTTP_SOCKET_TIMEOUT =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.http.socket-timeout";
+    public static final String HTTP_CONNECTION_REQUEST_TIMEOUT =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.http.connection-request-timeout";
+    public static final String HTTP_KEEP_ALIVE =
+            "com.github.mc1arke.sonarqube.plugin.branch.pullrequest.http.keep-alive";
+
+    private static final Logger LOGGER = Loggers.get(DefaultHttpClientProvider.class);
+    private static final String MBEAN_NAME = "com.github.mc1arke.sonarqube.plugin:type=HttpConnectionPool";
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final AtomicLong connectionsEstablished = new AtomicLong();
+    private final AtomicLong requestsExecuted = new AtomicLong();
+
+    public DefaultHttpClientProvider(Configuration configuration) {
+        super();
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new CountingConnectionSocketFactory(PlainConnectionSocketFactory.getSocketFactory(),
+                                                                      connectionsEstablished))
+                .register("https",
+                          new CountingLayeredConnectionSocketFactory(SSLConnectionSocketFactory.getSocketFactory(),
+                                                                     connectionsEstablished)).build();
+
+        int keepAlive = configuration.getInt(HTTP_KEEP_ALIVE).orElse(30000);
+
+        this.connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        this.connectionManager.setMaxTotal(configuration.getInt(HTTP_MAX_CONNECTIONS).orElse(50));
+        this.connectionManager.setDefaultMaxPerRoute(configuration.getInt(HTTP_MAX_CONNECTIONS_PER_HOST).orElse(10));
+        this.connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig =
+                RequestConfig.custom().setConnectTimeout(configuration.getInt(HTTP_CONNECT_TIMEOUT).orElse(10000))
+                        .setSocketTimeout(configuration.getInt(HTTP_SOCKET_TIMEOUT).orElse(60000))
+                        .setConnectionRequestTimeout(
+                                configuration.getInt(HTTP_CONNECTION_REQUEST_TIMEOUT).orElse(30000)).build();
+
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> keepAlive)
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+                .addInterceptorFirst((HttpRequestInterceptor) (request, context) -> requestsExecuted.incrementAndGet())
+                .build();
+    }
+
+    @Override
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    @Override
+    public void start() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(new StandardMBean(this, HttpConnectionPoolMBean.class), objectName);
+        } catch (JMException ex) {
+            LOGGER.warn("Could not register HTTP connection pool statistics with JMX", ex);
+        }
+    }
+
+    @Override
+    public void stop() {
+        LOGGER.info(String.format("Closing HTTP connection pool after %s requests over %s connections",
+                                  getRequestsExecuted(), getConnectionsEstablished()));
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException ex) {
+            LOGGER.warn("Could not unregister HTTP connection pool statistics from JMX", ex);
+        }
+        try {
+            httpClient.close();
+        } catch (IOException ex) {
+            LOGGER.warn("Could not close HTTP connection pool", ex);
+        }
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    @Override
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    @Override
+    public int getPendingConnectionRequests() {
+        return connectionManager.getTotalStats().getPending();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return connectionManager.getTotalStats().getMax();
+    }
+
+    @Override
+    public long getConnectionsEstablished() {
+        return connectionsEstablished.get();
+    }
+
+    @Override
+    public long getRequestsExecuted() {
+        return requestsExecuted.get();
+    }
+
+    @Override
+    public String toString() {
+        PoolStats poolStats = connectionManager.getTotalStats();
+        return "HttpConnectionPool[leased=" + poolStats.getLeased() + ", available=" + poolStats.getAvailable() +
+               ", pending=" + poolStats.getPending() + ", max=" + poolStats.getMax() + ", connectionsEstablished=" +
+               getConnectionsEstablished() + ", requestsExecuted=" + getRequestsExecuted() + "]";
+    }
+
+    private static class CountingConnectionSocketFactory implements ConnectionSocketFactory {
+
+        private final ConnectionSocketFactory delegate;
+        private final AtomicLong counter;
+
+        CountingConnectionSocketFactory(ConnectionSocketFactory delegate, AtomicLong counter) {
+            super();
+            this.delegate = delegate;
+            this.counter = counter;
+        }
+
+        @Override
+        public Socket createSocket(HttpContext context) throws IOException {
+            return delegate.createSocket(context);
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            Socket socket = delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+            counter.incrementAndGet();
+            return socket;
+        }
+    }
+
+    private static class CountingLayeredConnectionSocketFactory extends CountingConnectionSocketFactory
+            implements LayeredConnectionSocketFactory {
+
+        private final LayeredConnectionSocketFactory delegate;
+
+        CountingLayeredConnectionSocketFactory(LayeredConnectionSocketFactory delegate, AtomicLong counter) {
+            super(delegate, counter);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                throws IOException {
+            return delegate.createLayeredSocket(socket, target, port, context);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.sonar.api.utils.log.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compute Engine scoped JSON codec shared by all ALM clients. The underlying mapper is configured once, and the
+ * {@link ObjectReader} and {@link ObjectWriter} for each model type are built on first use then re-used for every
+ * subsequent request and response of that type.
+ */
+public class JsonCodec {
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter debugWriter;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    public JsonCodec() {
+        super();
+        this.objectMapper = new ObjectMapper()
+                .configure(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT, true)
+                .configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.debugWriter = objectMapper.writerWithDefaultPrettyPrinter();
+    }
+
+    public ObjectReader readerFor(Class<?> type) {
+        return readers.computeIfAbsent(type, objectMapper::readerFor);
+    }
+
+    public ObjectWriter writerFor(Class<?> type) {
+        return writers.computeIfAbsent(type, objectMapper::writerFor);
+    }
+
+    public <T> T read(InputStream inputStream, Class<T> type) throws IOException {
+        return readerFor(type).readValue(inputStream);
+    }
+
+    public <T> T read(Reader reader, Class<T> type) throws IOException {
+        return readerFor(type).readValue(reader);
+    }
+
+    /**
+     * Reads each element of a JSON array in turn, rather than materialising the complete array, so callers can process
+     * large responses one element at a time.
+     */
+    public <T> MappingIterator<T> readValues(InputStream inputStream, Class<T> type) throws IOException {
+        return readerFor(type).readValues(inputStream);
+    }
+
+    public JsonNode readTree(String content) throws IOException {
+        return objectMapper.readTree(content);
+    }
+
+    public <T> T convert(Object value, Class<T> type) {
+        return objectMapper.convertValue(value, type);
+    }
+
+    public String write(Object value) throws IOException {
+        return writerFor(value.getClass()).writeValueAsString(value);
+    }
+
+    /**
+     * Logs the pretty-printed form of the value at debug level. The value is only serialised if debug logging is
+     * enabled for the given logger, and a failure to serialise it is logged rather than interrupting the caller.
+     */
+    public void debug(Logger logger, Object value) {
+        if (!logger.isDebugEnabled()) {
+            return;
+        }
+        try {
+            logger.debug(debugWriter.writeValueAsString(value));
+        } catch (IOException ex) {
+            logger.debug(String.format("Could not serialise %s for logging: %s", value.getClass().getName(), ex.getMessage()));
+        }
+    }
+}
@@ -18,33 +18,13 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
-abstract class BaseFormatter<N extends Node> implements Formatter<N> {
+import java.io.IOException;
 
-    String childContents(Node node, FormatterFactory formatterFactory) {
-        StringBuilder output = new StringBuilder();
-        node.getChildren().forEach(n -> output.append(formatterFor(formatterFactory, n).format(n, formatterFactory)));
-        return output.toString();
-    }
+abstract class BaseFormatter<N extends Node> implements Formatter<N> {
 
-    private static <N extends Node> Formatter<N> formatterFor(FormatterFactory formatterFactory, N node) {
-        if (node instanceof Document) {
-            return (Formatter<N>) formatterFactory.documentFormatter();
-        } else if (node instanceof Heading) {
-            return (Formatter<N>) formatterFactory.headingFormatter();
-        } else if (node instanceof Image) {
-            return (Formatter<N>) formatterFactory.imageFormatter();
-        } else if (node instanceof List) {
-            return (Formatter<N>) formatterFactory.listFormatter();
-        } else if (node instanceof ListItem) {
-            return (Formatter<N>) formatterFactory.listItemFormatter();
-        } else if (node instanceof Paragraph) {
-            return (Formatter<N>) formatterFactory.paragraphFormatter();
-        } else if (node instanceof Text) {
-            return (Formatter<N>) formatterFactory.textFormatter();
-        } else if (node instanceof Link) {
-            return (Formatter<N>) formatterFactory.linkFormatter();
-        } else {
-            throw new IllegalArgumentException("Unknown node type: " + node.getClass().getName());
+    void formatChildren(Node node, FormatterFactory formatterFactory, Appendable output) throws IOException {
+        for (Node child : node.getChildren()) {
+            child.format(formatterFactory, output);
         }
     }
 }
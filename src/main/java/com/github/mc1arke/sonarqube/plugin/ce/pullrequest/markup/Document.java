@@ -18,6 +18,8 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public final class Document extends Node {
 
     public Document(Node... children) {
@@ -29,4 +31,8 @@ public final class Document extends Node {
         return !(node instanceof Document);
     }
 
+    @Override
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        formatterFactory.documentFormatter().format(this, formatterFactory, output);
+    }
 }
@@ -18,7 +18,23 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public interface Formatter<N extends Node> {
 
-    String format(N node, FormatterFactory formatterFactory);
+    /**
+     * Writes the formatted node, including all its children, to the output so a whole document can be rendered into
+     * a single buffer or stream without creating intermediate strings for each node.
+     */
+    void format(N node, FormatterFactory formatterFactory, Appendable output) throws IOException;
+
+    default String format(N node, FormatterFactory formatterFactory) {
+        StringBuilder output = new StringBuilder();
+        try {
+            format(node, formatterFactory, output);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not format " + node.getClass().getSimpleName(), ex);
+        }
+        return output.toString();
+    }
 }
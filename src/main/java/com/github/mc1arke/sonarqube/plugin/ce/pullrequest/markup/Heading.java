@@ -18,6 +18,8 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public final class Heading extends Node {
 
     private final int level;
@@ -35,4 +37,9 @@ public final class Heading extends Node {
     boolean isValidChild(Node child) {
         return child instanceof Text || child instanceof Image || child instanceof Link;
     }
+
+    @Override
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        formatterFactory.headingFormatter().format(this, formatterFactory, output);
+    }
 }
@@ -18,6 +18,8 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public final class Image extends Node {
 
     private final String altText;
@@ -41,4 +43,9 @@ public final class Image extends Node {
     boolean isValidChild(Node child) {
         return false;
     }
+
+    @Override
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        formatterFactory.imageFormatter().format(this, formatterFactory, output);
+    }
 }
@@ -18,6 +18,8 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public final class Link extends Node {
 
     private final String url;
@@ -35,4 +37,9 @@ public final class Link extends Node {
     boolean isValidChild(Node child) {
         return child instanceof Text;
     }
+
+    @Override
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        formatterFactory.linkFormatter().format(this, formatterFactory, output);
+    }
 }
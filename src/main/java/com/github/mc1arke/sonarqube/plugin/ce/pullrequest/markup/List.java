@@ -18,6 +18,8 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public final class List extends Node {
 
     private final Style style;
@@ -36,6 +38,11 @@ public final class List extends Node {
         return style;
     }
 
+    @Override
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        formatterFactory.listFormatter().format(this, formatterFactory, output);
+    }
+
     public enum Style {
         BULLET;
     }
@@ -18,6 +18,8 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public final class ListItem extends Node {
 
     public ListItem(Node... children) {
@@ -28,4 +30,9 @@ public final class ListItem extends Node {
     boolean isValidChild(Node child) {
         return child instanceof Text || child instanceof Image|| child instanceof Link;
     }
+
+    @Override
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        formatterFactory.listItemFormatter().format(this, formatterFactory, output);
+    }
 }
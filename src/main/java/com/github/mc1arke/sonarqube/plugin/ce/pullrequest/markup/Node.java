@@ -18,6 +18,7 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -46,4 +47,12 @@ public abstract class Node {
 
     abstract boolean isValidChild(Node child);
 
+    /**
+     * Formats this node into the output with the matching formatter from the factory, so formatters can render child
+     * nodes without needing to inspect the type of each child.
+     */
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        throw new IllegalArgumentException("Unknown node type: " + getClass().getName());
+    }
+
 }
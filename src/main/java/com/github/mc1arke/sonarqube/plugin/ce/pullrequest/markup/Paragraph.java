@@ -18,6 +18,8 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public final class Paragraph extends Node {
 
     public Paragraph(Node... children) {
@@ -28,4 +30,9 @@ public final class Paragraph extends Node {
     boolean isValidChild(Node child) {
         return child instanceof Image || child instanceof Text || child instanceof Link;
     }
+
+    @Override
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        formatterFactory.paragraphFormatter().format(this, formatterFactory, output);
+    }
 }
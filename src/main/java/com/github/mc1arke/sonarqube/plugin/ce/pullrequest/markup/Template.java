@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2019 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
+
+import java.util.ArrayList;
+
+/**
+ * A {@link Document} formatted once, with placeholders left where the content varies each time the document is
+ * rendered. Placeholders are created with {@link #slot(int)} and can be used in any text, image or link value of the
+ * document. Rendering the template appends the pre-formatted content and the value for each slot to a single builder
+ * rather than creating and formatting the node tree again.
+ */
+public final class Template {
+
+    // characters from the Unicode private use area, so not expected in any content of a document
+    private static final char SLOT_START = '\uE000';
+    private static final char SLOT_END = '\uE001';
+
+    private final String[] segments;
+    private final int[] slots;
+    private final int slotCount;
+    private final int staticLength;
+
+    private Template(String[] segments, int[] slots) {
+        super();
+        this.segments = segments;
+        this.slots = slots;
+        int maxSlot = -1;
+        for (int slot : slots) {
+            maxSlot = Math.max(maxSlot, slot);
+        }
+        this.slotCount = maxSlot + 1;
+        int length = 0;
+        for (String segment : segments) {
+            length += segment.length();
+        }
+        this.staticLength = length;
+    }
+
+    /**
+     * @return a placeholder for the value at the given position in the values passed to {@link #render(String...)}.
+     */
+    public static String slot(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Slot index must not be negative: " + index);
+        }
+        return SLOT_START + Integer.toString(index) + SLOT_END;
+    }
+
+    public static Template compile(Document document, FormatterFactory formatterFactory) {
+        String formatted = formatterFactory.documentFormatter().format(document, formatterFactory);
+
+        java.util.List<String> segments = new ArrayList<>();
+        java.util.List<Integer> slots = new ArrayList<>();
+        int segmentStart = 0;
+        int slotStart = formatted.indexOf(SLOT_START);
+        while (slotStart >= 0) {
+            int slotEnd = formatted.indexOf(SLOT_END, slotStart);
+            if (slotEnd < 0) {
+                throw new IllegalArgumentException("Unterminated slot in formatted template");
+            }
+            segments.add(formatted.substring(segmentStart, slotStart));
+            slots.add(Integer.parseInt(formatted.substring(slotStart + 1, slotEnd)));
+            segmentStart = slotEnd + 1;
+            slotStart = formatted.indexOf(SLOT_START, segmentStart);
+        }
+        segments.add(formatted.substring(segmentStart));
+
+        return new Template(segments.toArray(new String[0]), slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    public String render(String... values) {
+        int length = staticLength;
+        for (int slot : slots) {
+            length += valueOf(values, slot).length();
+        }
+        return render(new StringBuilder(length), values).toString();
+    }
+
+    public StringBuilder render(StringBuilder output, String... values) {
+        if (values.length < slotCount) {
+            throw new IllegalArgumentException(
+                    String.format("Template requires %s values but %s were provided", slotCount, values.length));
+        }
+        output.append(segments[0]);
+        for (int i = 0; i < slots.length; i++) {
+            output.append(valueOf(values, slots[i])).append(segments[i + 1]);
+        }
+        return output;
+    }
+
+    private static String valueOf(String[] values, int slot) {
+        return (slot < values.length && null != values[slot] ? values[slot] : "");
+    }
+}
@@ -18,6 +18,8 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
+import java.io.IOException;
+
 public final class Text extends Node {
 
     private final String content;
@@ -35,4 +37,9 @@ public final class Text extends Node {
     boolean isValidChild(Node child) {
         return false;
     }
+
+    @Override
+    void format(FormatterFactory formatterFactory, Appendable output) throws IOException {
+        formatterFactory.textFormatter().format(this, formatterFactory, output);
+    }
 }
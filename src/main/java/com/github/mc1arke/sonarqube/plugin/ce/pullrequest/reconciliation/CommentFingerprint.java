@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Identifies the issue a comment was posted for, along with where it was posted and what it said. The fingerprint is
+ * embedded in each comment as an empty Markdown link, so it is invisible once rendered but can be read back from the
+ * comment body on a later analysis.
+ */
+public final class CommentFingerprint {
+
+    private static final String SUMMARY_KEY = "summary";
+    private static final Pattern MARKER_PATTERN = Pattern.compile("\\[]\\(#sonarqube:([^:)\\s]+):([0-9a-f]+):([0-9a-f]+)\\)");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int HASH_LENGTH = 8;
+
+    private final String key;
+    private final String location;
+    private final String content;
+
+    private CommentFingerprint(String key, String location, String content) {
+        super();
+        this.key = key;
+        this.location = location;
+        this.content = content;
+    }
+
+    public static CommentFingerprint forIssue(String issueKey, String path, Integer line, String body) {
+        return new CommentFingerprint(issueKey, hash(path + ":" + line), hash(body));
+    }
+
+    /**
+     * @param revision the version of the diff the comment is anchored to, such as the head commit of a Gitlab note's
+     *                 position, so a comment is re-created against a newer diff even if the issue's line is unchanged
+     */
+    public static CommentFingerprint forIssue(String issueKey, String path, Integer line, String revision, String body) {
+        return new CommentFingerprint(issueKey, hash(path + ":" + line + "@" + revision), hash(body));
+    }
+
+    public static CommentFingerprint forSummary(String body) {
+        return new CommentFingerprint(SUMMARY_KEY, hash(""), hash(body));
+    }
+
+    public static Optional<CommentFingerprint> parse(String commentBody) {
+        if (null == commentBody) {
+            return Optional.empty();
+        }
+        Matcher matcher = MARKER_PATTERN.matcher(commentBody);
+        if (!matcher.find()) {
+            return Optional.empty();
+        }
+        return Optional.of(new CommentFingerprint(matcher.group(1), matcher.group(2), matcher.group(3)));
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public boolean hasSameLocation(CommentFingerprint other) {
+        return key.equals(other.key) && location.equals(other.location);
+    }
+
+    public String toMarker() {
+        return "[](#sonarqube:" + key + ":" + location + ":" + content + ")";
+    }
+
+    /**
+     * @return the comment body prefixed with the hidden marker for this fingerprint
+     */
+    public String mark(String body) {
+        return toMarker() + body;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        CommentFingerprint that = (CommentFingerprint) o;
+        return key.equals(that.key) && location.equals(that.location) && content.equals(that.content);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, location, content);
+    }
+
+    @Override
+    public String toString() {
+        return toMarker();
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[HASH_LENGTH * 2];
+            for (int i = 0; i < HASH_LENGTH; i++) {
+                hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Could not create comment fingerprint", ex);
+        }
+    }
+}
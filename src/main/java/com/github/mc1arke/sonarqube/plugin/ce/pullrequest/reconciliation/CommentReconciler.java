@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Compares the comments already on a Pull Request with those generated for the latest analysis so that only comments
+ * which have changed need to be sent to the ALM:
+ * <ul>
+ *     <li>a comment for the same issue, in the same place and with the same content is left untouched</li>
+ *     <li>a comment for the same issue in the same place with different content is updated</li>
+ *     <li>a comment for an issue that has moved is deleted and re-created, since ALMs don't allow comments to be
+ *     moved</li>
+ *     <li>a comment for an issue that is no longer open, or that carries no fingerprint, is deleted</li>
+ *     <li>anything else is created</li>
+ * </ul>
+ */
+public final class CommentReconciler {
+
+    private CommentReconciler() {
+        super();
+    }
+
+    public static <E, D> CommentReconciliation<E, D> reconcile(Collection<D> comments,
+                                                               Function<D, CommentFingerprint> commentFingerprint,
+                                                               Collection<E> existingComments,
+                                                               Function<E, String> existingCommentBody) {
+        List<E> commentsToDelete = new ArrayList<>();
+        Map<String, FingerprintedComment<E>> existingCommentsByKey = new LinkedHashMap<>();
+        for (E existingComment : existingComments) {
+            Optional<CommentFingerprint> fingerprint =
+                    CommentFingerprint.parse(existingCommentBody.apply(existingComment));
+            if (!fingerprint.isPresent() || existingCommentsByKey.containsKey(fingerprint.get().getKey())) {
+                commentsToDelete.add(existingComment);
+            } else {
+                existingCommentsByKey.put(fingerprint.get().getKey(),
+                                          new FingerprintedComment<>(existingComment, fingerprint.get()));
+            }
+        }
+
+        List<D> commentsToCreate = new ArrayList<>();
+        List<CommentReconciliation.Update<E, D>> commentsToUpdate = new ArrayList<>();
+        int unchangedComments = 0;
+        for (D comment : comments) {
+            CommentFingerprint fingerprint = commentFingerprint.apply(comment);
+            FingerprintedComment<E> existingComment = existingCommentsByKey.remove(fingerprint.getKey());
+            if (null == existingComment) {
+                commentsToCreate.add(comment);
+            } else if (!existingComment.fingerprint.hasSameLocation(fingerprint)) {
+                commentsToDelete.add(existingComment.comment);
+                commentsToCreate.add(comment);
+            } else if (!existingComment.fingerprint.equals(fingerprint)) {
+                commentsToUpdate.add(new CommentReconciliation.Update<>(existingComment.comment, comment));
+            } else {
+                unchangedComments++;
+            }
+        }
+
+        existingCommentsByKey.values().forEach(c -> commentsToDelete.add(c.comment));
+
+        return new CommentReconciliation<>(commentsToCreate, commentsToUpdate, commentsToDelete, unchangedComments);
+    }
+
+    private static final class FingerprintedComment<E> {
+
+        private final E comment;
+        private final CommentFingerprint fingerprint;
+
+        FingerprintedComment(E comment, CommentFingerprint fingerprint) {
+            this.comment = comment;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes required to bring the comments on a Pull Request in line with the latest analysis.
+ *
+ * @param <E> the type used by the ALM to describe an existing comment
+ * @param <D> the type used to describe a comment that should be present after decoration
+ */
+public final class CommentReconciliation<E, D> {
+
+    private final List<D> commentsToCreate;
+    private final List<Update<E, D>> commentsToUpdate;
+    private final List<E> commentsToDelete;
+    private final int unchangedComments;
+
+    CommentReconciliation(List<D> commentsToCreate, List<Update<E, D>> commentsToUpdate, List<E> commentsToDelete,
+                          int unchangedComments) {
+        super();
+        this.commentsToCreate = Collections.unmodifiableList(commentsToCreate);
+        this.commentsToUpdate = Collections.unmodifiableList(commentsToUpdate);
+        this.commentsToDelete = Collections.unmodifiableList(commentsToDelete);
+        this.unchangedComments = unchangedComments;
+    }
+
+    public List<D> getCommentsToCreate() {
+        return commentsToCreate;
+    }
+
+    public List<Update<E, D>> getCommentsToUpdate() {
+        return commentsToUpdate;
+    }
+
+    public List<E> getCommentsToDelete() {
+        return commentsToDelete;
+    }
+
+    public int getUnchangedComments() {
+        return unchangedComments;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s comments to create, %s to update, %s to delete and %s unchanged",
+                             commentsToCreate.size(), commentsToUpdate.size(), commentsToDelete.size(),
+                             unchangedComments);
+    }
+
+    public static final class Update<E, D> {
+
+        private final E existingComment;
+        private final D comment;
+
+        Update(E existingComment, D comment) {
+            super();
+            this.existingComment = existingComment;
+            this.comment = comment;
+        }
+
+        public E getExistingComment() {
+            return existingComment;
+        }
+
+        public D getComment() {
+            return comment;
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package com.github.mc1arke.sonarqube.plugin.scanner;
 
+import com.github.mc1arke.sonarqube.plugin.ValueFormatter;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
@@ -38,8 +39,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -70,9 +70,8 @@ public class CommunityProjectPullRequestsLoader implements ProjectPullRequestsLo
             JsonObject jsonObject = jsonElement.getAsJsonObject();
             long parsedDate = 0;
             try {
-                parsedDate = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
-                        .parse(jsonObject.get("analysisDate").getAsString()).getTime();
-            } catch (ParseException e) {
+                parsedDate = ValueFormatter.parseSonarqubeDateTime(jsonObject.get("analysisDate").getAsString());
+            } catch (DateTimeParseException e) {
                 LOGGER.warn("Could not parse date from Pull Requests API response. Will use '0' date", e);
             }
             final String base = Optional.ofNullable(jsonObject.get("base")).map(JsonElement::getAsString).orElse(null);
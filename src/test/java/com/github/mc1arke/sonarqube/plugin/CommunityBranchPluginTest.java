@@ -20,6 +20,11 @@ package com.github.mc1arke.sonarqube.plugin;
 
 import com.github.mc1arke.sonarqube.plugin.ce.CommunityBranchEditionProvider;
 import com.github.mc1arke.sonarqube.plugin.ce.CommunityReportAnalysisComponentProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PullRequestDecorationExecutor;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.InstallationTokenCache;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.RepositoryInstallationCache;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.DefaultHttpClientProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
 import com.github.mc1arke.sonarqube.plugin.scanner.CommunityBranchConfigurationLoader;
 import com.github.mc1arke.sonarqube.plugin.scanner.CommunityBranchParamsValidator;
 import com.github.mc1arke.sonarqube.plugin.scanner.CommunityProjectBranchesLoader;
@@ -101,11 +106,14 @@ public class CommunityBranchPluginTest {
         testCase.load(context);
 
         final ArgumentCaptor<Class> argumentCaptor = ArgumentCaptor.forClass(Class.class);
-        verify(context, times(2)).addExtensions(argumentCaptor.capture(), argumentCaptor.capture());
+        verify(context, times(2)).addExtensions(argumentCaptor.capture(), argumentCaptor.capture(), argumentCaptor.capture(), argumentCaptor.capture(), argumentCaptor.capture(), argumentCaptor.capture(), argumentCaptor.capture());
 
 
-        assertEquals(Arrays.asList(CommunityReportAnalysisComponentProvider.class, CommunityBranchEditionProvider.class),
-                     argumentCaptor.getAllValues().subList(0, 2));
+        assertEquals(Arrays.asList(CommunityReportAnalysisComponentProvider.class, CommunityBranchEditionProvider.class,
+                                   DefaultHttpClientProvider.class, JsonCodec.class,
+                                   PullRequestDecorationExecutor.class, InstallationTokenCache.class,
+                                   RepositoryInstallationCache.class),
+                     argumentCaptor.getAllValues().subList(0, 7));
     }
 
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ValueFormatterTest {
+
+    @Test
+    public void testFormatDecimal() {
+        assertThat(ValueFormatter.formatDecimal(12.5)).isEqualTo("12.50");
+        assertThat(ValueFormatter.formatDecimal(0)).isEqualTo("0.00");
+        assertThat(ValueFormatter.formatDecimal(1234.567)).isEqualTo("1234.57");
+        assertThat(ValueFormatter.formatDecimal(new BigDecimal("98.7654"))).isEqualTo("98.77");
+    }
+
+    @Test
+    public void testFormatDecimalFromMultipleThreads() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int offset = i;
+                tasks.add(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        double value = offset * 1000 + j + 0.25;
+                        if (!String.format("%d.25", offset * 1000 + j).equals(ValueFormatter.formatDecimal(value))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                });
+            }
+            for (Future<Boolean> result : executorService.invokeAll(tasks)) {
+                assertThat(result.get()).isTrue();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParseSonarqubeDateTime() {
+        assertThat(ValueFormatter.parseSonarqubeDateTime("2019-04-04T19:44:27+0100"))
+                .isEqualTo(Instant.parse("2019-04-04T18:44:27Z").toEpochMilli());
+    }
+
+    @Test
+    public void testParseSonarqubeDateTimeInvalidValue() {
+        assertThatThrownBy(() -> ValueFormatter.parseSonarqubeDateTime(""))
+                .isInstanceOf(DateTimeParseException.class);
+    }
+
+    @Test
+    public void testFormatUtcDateTime() {
+        assertThat(ValueFormatter.formatUtcDateTime(Instant.parse("2019-04-04T18:44:27.123Z")))
+                .isEqualTo("2019-04-04T18:44:27Z");
+    }
+}
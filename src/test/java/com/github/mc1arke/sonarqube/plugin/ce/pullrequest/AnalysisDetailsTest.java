@@ -26,6 +26,7 @@ import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Image;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Link;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.List;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.ListItem;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.MarkdownFormatterFactory;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Paragraph;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup.Text;
 import org.junit.Before;
@@ -45,7 +46,6 @@ import org.sonar.ce.task.projectanalysis.measure.Measure;
 import org.sonar.ce.task.projectanalysis.measure.MeasureRepository;
 import org.sonar.ce.task.projectanalysis.metric.Metric;
 import org.sonar.ce.task.projectanalysis.metric.MetricRepository;
-import org.sonar.core.issue.DefaultIssue;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
@@ -59,13 +59,17 @@ import java.util.stream.Stream;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertSame;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 public class AnalysisDetailsTest {
 
@@ -74,15 +78,15 @@ public class AnalysisDetailsTest {
         AnalysisDetails.BranchDetails branchDetails = mock(AnalysisDetails.BranchDetails.class);
         doReturn("branchName").when(branchDetails).getBranchName();
 
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
         QualityGate qualityGate = mock(QualityGate.class);
         Analysis analysis = mock(Analysis.class);
         Project project = mock(Project.class);
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, null);
 
         assertEquals("branchName", testCase.getBranchName());
@@ -93,15 +97,15 @@ public class AnalysisDetailsTest {
         AnalysisDetails.BranchDetails branchDetails = mock(AnalysisDetails.BranchDetails.class);
         doReturn("commitId").when(branchDetails).getCommitId();
 
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
         QualityGate qualityGate = mock(QualityGate.class);
         Analysis analysis = mock(Analysis.class);
         Project project = mock(Project.class);
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, null);
 
         assertEquals("commitId", testCase.getCommitSha());
@@ -110,8 +114,8 @@ public class AnalysisDetailsTest {
     @Test
     public void testGetQualityGateStatus() {
         AnalysisDetails.BranchDetails branchDetails = mock(AnalysisDetails.BranchDetails.class);
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
         QualityGate qualityGate = mock(QualityGate.class);
         doReturn(QualityGate.Status.ERROR).when(qualityGate).getStatus();
         Analysis analysis = mock(Analysis.class);
@@ -119,7 +123,7 @@ public class AnalysisDetailsTest {
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, null);
 
         assertEquals(QualityGate.Status.ERROR, testCase.getQualityGateStatus());
@@ -128,8 +132,8 @@ public class AnalysisDetailsTest {
     @Test
     public void testGetAnalysisDate() {
         AnalysisDetails.BranchDetails branchDetails = mock(AnalysisDetails.BranchDetails.class);
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
         QualityGate qualityGate = mock(QualityGate.class);
         Analysis analysis = mock(Analysis.class);
         doReturn(new Date()).when(analysis).getDate();
@@ -137,7 +141,7 @@ public class AnalysisDetailsTest {
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, null);
 
         assertEquals(analysis.getDate(), testCase.getAnalysisDate());
@@ -146,8 +150,8 @@ public class AnalysisDetailsTest {
     @Test
     public void testGetAnalysisId() {
         AnalysisDetails.BranchDetails branchDetails = mock(AnalysisDetails.BranchDetails.class);
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
         QualityGate qualityGate = mock(QualityGate.class);
         Analysis analysis = mock(Analysis.class);
         doReturn("Analysis ID").when(analysis).getAnalysisUuid();
@@ -155,7 +159,7 @@ public class AnalysisDetailsTest {
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, null);
 
         assertEquals("Analysis ID", testCase.getAnalysisId());
@@ -164,8 +168,8 @@ public class AnalysisDetailsTest {
     @Test
     public void testGetAnalysisProjectKey() {
         AnalysisDetails.BranchDetails branchDetails = mock(AnalysisDetails.BranchDetails.class);
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
         QualityGate qualityGate = mock(QualityGate.class);
         Analysis analysis = mock(Analysis.class);
         Project project = mock(Project.class);
@@ -173,7 +177,7 @@ public class AnalysisDetailsTest {
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, null);
 
         assertEquals("Project Key", testCase.getAnalysisProjectKey());
@@ -185,39 +189,39 @@ public class AnalysisDetailsTest {
         doReturn("5").when(branchDetails).getBranchName();
 
         TreeRootHolder treeRootHolder = mock(TreeRootHolder.class);
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
         doReturn(treeRootHolder).when(measuresHolder).getTreeRootHolder();
 
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
-        DefaultIssue issue1 = mock(DefaultIssue.class);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
+        PostAnalysisIssueVisitor.LightIssue issue1 = mock(PostAnalysisIssueVisitor.LightIssue.class);
         doReturn(Issue.STATUS_CLOSED).when(issue1).status();
 
-        DefaultIssue issue2 = mock(DefaultIssue.class);
+        PostAnalysisIssueVisitor.LightIssue issue2 = mock(PostAnalysisIssueVisitor.LightIssue.class);
         doReturn(Issue.STATUS_OPEN).when(issue2).status();
         doReturn(RuleType.BUG).when(issue2).type();
 
-        DefaultIssue issue3 = mock(DefaultIssue.class);
+        PostAnalysisIssueVisitor.LightIssue issue3 = mock(PostAnalysisIssueVisitor.LightIssue.class);
         doReturn(Issue.STATUS_OPEN).when(issue3).status();
         doReturn(RuleType.SECURITY_HOTSPOT).when(issue3).type();
 
-        DefaultIssue issue4 = mock(DefaultIssue.class);
+        PostAnalysisIssueVisitor.LightIssue issue4 = mock(PostAnalysisIssueVisitor.LightIssue.class);
         doReturn(Issue.STATUS_OPEN).when(issue4).status();
         doReturn(RuleType.CODE_SMELL).when(issue4).type();
 
-        DefaultIssue issue5 = mock(DefaultIssue.class);
+        PostAnalysisIssueVisitor.LightIssue issue5 = mock(PostAnalysisIssueVisitor.LightIssue.class);
         doReturn(Issue.STATUS_OPEN).when(issue5).status();
         doReturn(RuleType.VULNERABILITY).when(issue5).type();
 
-        DefaultIssue issue6 = mock(DefaultIssue.class);
+        PostAnalysisIssueVisitor.LightIssue issue6 = mock(PostAnalysisIssueVisitor.LightIssue.class);
         doReturn(Issue.STATUS_OPEN).when(issue6).status();
         doReturn(RuleType.BUG).when(issue6).type();
 
-        doReturn(Stream.of(issue1, issue2, issue3, issue4, issue5, issue6).map(i -> {
+        doReturn(IssueAggregation.of(Stream.of(issue1, issue2, issue3, issue4, issue5, issue6).map(i -> {
             PostAnalysisIssueVisitor.ComponentIssue componentIssue =
                     mock(PostAnalysisIssueVisitor.ComponentIssue.class);
             doReturn(i).when(componentIssue).getIssue();
             return componentIssue;
-        }).collect(Collectors.toList())).when(postAnalysisIssueVisitor).getIssues();
+        }).collect(Collectors.toList()))).when(analysisIssues).getIssueAggregation();
 
         QualityGate.Condition condition1 = mock(QualityGate.Condition.class);
         doReturn(QualityGate.EvaluationStatus.ERROR).when(condition1).getStatus();
@@ -291,8 +295,9 @@ public class AnalysisDetailsTest {
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, "http://localhost:9000");
+        verify(measureRepository, times(2)).getRawMeasure(eq(rootComponent), any(Metric.class));
 
         Formatter<Document> formatter = mock(Formatter.class);
         doReturn("formatted content").when(formatter).format(any(), any());
@@ -300,6 +305,7 @@ public class AnalysisDetailsTest {
         doReturn(formatter).when(formatterFactory).documentFormatter();
 
         assertEquals("formatted content", testCase.createAnalysisSummary(formatterFactory));
+        verifyNoMoreInteractions(measureRepository);
 
         ArgumentCaptor<Document> documentArgumentCaptor = ArgumentCaptor.forClass(Document.class);
         verify(formatter).format(documentArgumentCaptor.capture(), eq(formatterFactory));
@@ -362,11 +368,11 @@ public class AnalysisDetailsTest {
         doReturn("5").when(branchDetails).getBranchName();
 
         TreeRootHolder treeRootHolder = mock(TreeRootHolder.class);
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
         doReturn(treeRootHolder).when(measuresHolder).getTreeRootHolder();
 
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
-        doReturn(new ArrayList<>()).when(postAnalysisIssueVisitor).getIssues();
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
+        doReturn(IssueAggregation.of(new ArrayList<>())).when(analysisIssues).getIssueAggregation();
 
         QualityGate.Condition duplicationsCondition = mock(QualityGate.Condition.class);
         doReturn("18").when(duplicationsCondition).getValue();
@@ -400,7 +406,7 @@ public class AnalysisDetailsTest {
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, "http://localhost:9000");
 
         Formatter<Document> formatter = mock(Formatter.class);
@@ -459,17 +465,18 @@ public class AnalysisDetailsTest {
         doReturn("5").when(branchDetails).getBranchName();
 
         TreeRootHolder treeRootHolder = mock(TreeRootHolder.class);
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
         doReturn(treeRootHolder).when(measuresHolder).getTreeRootHolder();
 
-        DefaultIssue issue = mock(DefaultIssue.class);
+        PostAnalysisIssueVisitor.LightIssue issue = mock(PostAnalysisIssueVisitor.LightIssue.class);
         doReturn(Issue.STATUS_OPEN).when(issue).status();
         doReturn(RuleType.BUG).when(issue).type();
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
 
         PostAnalysisIssueVisitor.ComponentIssue componentIssue = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
         doReturn(issue).when(componentIssue).getIssue();
-        doReturn(Collections.singletonList(componentIssue)).when(postAnalysisIssueVisitor).getIssues();
+        doReturn(IssueAggregation.of(Collections.singletonList(componentIssue))).when(analysisIssues)
+                .getIssueAggregation();
 
         QualityGate.Condition duplicationsCondition = mock(QualityGate.Condition.class);
         doReturn("10").when(duplicationsCondition).getValue();
@@ -505,7 +512,7 @@ public class AnalysisDetailsTest {
                 .get(eq(AnalysisDetails.IMAGE_URL_BASE));
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, "http://localhost:9000");
 
         Formatter<Document> formatter = mock(Formatter.class);
@@ -564,11 +571,11 @@ public class AnalysisDetailsTest {
         doReturn("5").when(branchDetails).getBranchName();
 
         TreeRootHolder treeRootHolder = mock(TreeRootHolder.class);
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
         doReturn(treeRootHolder).when(measuresHolder).getTreeRootHolder();
 
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
-        doReturn(new ArrayList<>()).when(postAnalysisIssueVisitor).getIssues();
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
+        doReturn(IssueAggregation.of(new ArrayList<>())).when(analysisIssues).getIssueAggregation();
 
         QualityGate.Condition duplicationsCondition = mock(QualityGate.Condition.class);
         doReturn("30").when(duplicationsCondition).getValue();
@@ -602,7 +609,7 @@ public class AnalysisDetailsTest {
         Configuration configuration = mock(Configuration.class);
 
         AnalysisDetails testCase =
-                new AnalysisDetails(branchDetails, postAnalysisIssueVisitor, qualityGate, measuresHolder, analysis,
+                new AnalysisDetails(branchDetails, analysisIssues, qualityGate, measuresHolder, analysis,
                                     project, configuration, "http://localhost:9000");
 
         Formatter<Document> formatter = mock(Formatter.class);
@@ -692,13 +699,23 @@ public class AnalysisDetailsTest {
     }
 
     @Test
-    public void testCorrectPostAnalysisIssueVisitorReturned() {
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+    public void testCorrectAnalysisIssuesReturned() {
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
         AnalysisDetails analysisDetails =
-                new AnalysisDetails(mock(AnalysisDetails.BranchDetails.class), postAnalysisIssueVisitor,
-                                    mock(QualityGate.class), mock(AnalysisDetails.MeasuresHolder.class),
+                new AnalysisDetails(mock(AnalysisDetails.BranchDetails.class), analysisIssues,
+                                    mock(QualityGate.class), mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS),
                                     mock(Analysis.class), mock(Project.class), mock(Configuration.class), null);
-        assertSame(postAnalysisIssueVisitor, analysisDetails.getPostAnalysisIssueVisitor());
+        assertSame(analysisIssues, analysisDetails.getAnalysisIssues());
+    }
+
+    @Test
+    public void testCorrectConfigurationReturned() {
+        Configuration configuration = mock(Configuration.class);
+        AnalysisDetails analysisDetails =
+                new AnalysisDetails(mock(AnalysisDetails.BranchDetails.class), mock(AnalysisIssues.class),
+                                    mock(QualityGate.class), mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS),
+                                    mock(Analysis.class), mock(Project.class), configuration, null);
+        assertSame(configuration, analysisDetails.getConfiguration());
     }
 
     @Test
@@ -708,9 +725,96 @@ public class AnalysisDetailsTest {
         assertEquals("commitId", branchDetails.getCommitId());
     }
 
+    @Test
+    public void testCreateAnalysisIssueSummary() {
+        Project project = mock(Project.class);
+        doReturn("Project Key").when(project).getKey();
+        Configuration configuration = mock(Configuration.class);
+        doReturn(Optional.of("http://images")).when(configuration).get(AnalysisDetails.IMAGE_URL_BASE);
+
+        AnalysisDetails testCase =
+                new AnalysisDetails(new AnalysisDetails.BranchDetails("5", "commitId"),
+                                    mock(AnalysisIssues.class), mock(QualityGate.class),
+                                    mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS), mock(Analysis.class), project,
+                                    configuration, "http://localhost:9000");
+        MarkdownFormatterFactory formatterFactory = new MarkdownFormatterFactory();
+
+        String lineBreak = System.lineSeparator() + System.lineSeparator();
+        assertEquals("**Type:** BUG ![BUG](http://images/checks/IssueType/bug.svg?sanitize=true)" + lineBreak +
+                     "**Severity:** MAJOR ![MAJOR](http://images/checks/Severity/major.svg?sanitize=true)" +
+                     lineBreak + "**Message:** first message" + lineBreak + "**Duration (min):** 10" + lineBreak +
+                     "**Resolution:** FIXED " + lineBreak +
+                     "[View in SonarQube](http://localhost:9000/project/issues?id=Project+Key&pullRequest=5&issues=key1&open=key1)",
+                     testCase.createAnalysisIssueSummary(
+                             createComponentIssue("key1", RuleType.BUG, "MAJOR", "first message", 10L, "FIXED"),
+                             formatterFactory));
+        assertEquals("**Type:** CODE_SMELL ![CODE_SMELL](http://images/checks/IssueType/code_smell.svg?sanitize=true)" +
+                     lineBreak + "**Severity:** INFO ![INFO](http://images/checks/Severity/info.svg?sanitize=true)" +
+                     lineBreak + "**Message:** second message" + lineBreak +
+                     "[View in SonarQube](http://localhost:9000/project/issues?id=Project+Key&pullRequest=5&issues=key2&open=key2)",
+                     testCase.createAnalysisIssueSummary(
+                             createComponentIssue("key2", RuleType.CODE_SMELL, "INFO", "second message", null, ""),
+                             formatterFactory));
+        assertEquals("**Type:** BUG ![BUG](http://images/checks/IssueType/bug.svg?sanitize=true)" + lineBreak +
+                     "**Severity:** MAJOR ![MAJOR](http://images/checks/Severity/major.svg?sanitize=true)" +
+                     lineBreak + "**Message:** null" + lineBreak +
+                     "[View in SonarQube](http://localhost:9000/project/issues?id=Project+Key&pullRequest=5&issues=key3&open=key3)",
+                     testCase.createAnalysisIssueSummary(
+                             createComponentIssue("key3", RuleType.BUG, "MAJOR", null, null, null),
+                             formatterFactory));
+        verify(configuration).get(AnalysisDetails.IMAGE_URL_BASE);
+    }
+
+    @Test
+    public void testIssueSummaryRememberedPerFormatterType() {
+        Project project = mock(Project.class);
+        doReturn("Project Key").when(project).getKey();
+        Configuration configuration = mock(Configuration.class);
+
+        AnalysisDetails testCase =
+                new AnalysisDetails(new AnalysisDetails.BranchDetails("5", "commitId"),
+                                    mock(AnalysisIssues.class), mock(QualityGate.class),
+                                    mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS), mock(Analysis.class), project,
+                                    configuration, "http://localhost:9000");
+
+        PostAnalysisIssueVisitor.ComponentIssue componentIssue =
+                createComponentIssue("key1", RuleType.BUG, "MAJOR", "message", null, null);
+        PostAnalysisIssueVisitor.ComponentIssue otherIssue =
+                createComponentIssue("key2", RuleType.BUG, "MAJOR", "message", null, null);
+
+        String summary = testCase.createAnalysisIssueSummary(componentIssue, new MarkdownFormatterFactory());
+        assertSame(summary, testCase.createAnalysisIssueSummary(componentIssue, new MarkdownFormatterFactory()));
+        assertNotEquals(summary, testCase.createAnalysisIssueSummary(otherIssue, new MarkdownFormatterFactory()));
+
+        Formatter<Document> formatter = mock(Formatter.class);
+        doReturn("other format").when(formatter).format(any(), any());
+        FormatterFactory formatterFactory = mock(FormatterFactory.class);
+        doReturn(formatter).when(formatterFactory).documentFormatter();
+        assertEquals("other format", testCase.createAnalysisIssueSummary(componentIssue, formatterFactory));
+
+        verify(componentIssue.getIssue(), times(2)).getMessage();
+        verify(configuration).get(AnalysisDetails.IMAGE_URL_BASE);
+        verify(project).getKey();
+    }
+
+    private static PostAnalysisIssueVisitor.ComponentIssue createComponentIssue(String key, RuleType type,
+                                                                                String severity, String message,
+                                                                                Long effort, String resolution) {
+        PostAnalysisIssueVisitor.LightIssue issue = mock(PostAnalysisIssueVisitor.LightIssue.class);
+        doReturn(key).when(issue).key();
+        doReturn(type).when(issue).type();
+        doReturn(severity).when(issue).severity();
+        doReturn(message).when(issue).getMessage();
+        doReturn(effort).when(issue).effortInMinutes();
+        doReturn(resolution).when(issue).resolution();
+        PostAnalysisIssueVisitor.ComponentIssue componentIssue = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
+        doReturn(issue).when(componentIssue).getIssue();
+        return componentIssue;
+    }
+
     @Test
     public void testReflectiveOperationPropagated() {
-        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class);
+        AnalysisDetails.MeasuresHolder measuresHolder = mock(AnalysisDetails.MeasuresHolder.class, RETURNS_DEEP_STUBS);
         MeasureRepository measureRepository = mock(MeasureRepository.class);
         doReturn(Optional.of(Measure.newMeasureBuilder().create(2))).when(measureRepository)
                 .getRawMeasure(any(), any());
@@ -722,7 +826,7 @@ public class AnalysisDetailsTest {
         doReturn(new ArrayList<>()).when(qualityGate).getConditions();
 
         AnalysisDetails testCase =
-                new AnalysisDetails(mock(AnalysisDetails.BranchDetails.class), mock(PostAnalysisIssueVisitor.class),
+                new AnalysisDetails(mock(AnalysisDetails.BranchDetails.class), mock(AnalysisIssues.class),
                                     qualityGate, measuresHolder, mock(Analysis.class), mock(Project.class),
                                     mock(Configuration.class), null);
         assertThatThrownBy(() -> testCase.createAnalysisSummary(mock(FormatterFactory.class)))
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
+
+import org.junit.Test;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.rules.RuleType;
+import org.sonar.ce.task.projectanalysis.component.Component;
+import org.sonar.ce.task.projectanalysis.component.ReportAttributes;
+import org.sonar.core.issue.DefaultIssue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IssueAggregationTest {
+
+    @Test
+    public void testIssuesCountedInSinglePass() {
+        Component file1 = createComponent(Component.Type.FILE, "path/one");
+        Component file2 = createComponent(Component.Type.FILE, "path/two");
+        Component directory = createComponent(Component.Type.DIRECTORY, "path");
+
+        IssueAggregation testCase = IssueAggregation.of(Arrays.asList(
+                createIssue(file1, Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR),
+                createIssue(file1, Issue.STATUS_CLOSED, RuleType.BUG, Severity.MAJOR),
+                createIssue(file2, Issue.STATUS_CONFIRMED, RuleType.CODE_SMELL, Severity.MINOR),
+                createIssue(file2, Issue.STATUS_RESOLVED, RuleType.VULNERABILITY, Severity.BLOCKER),
+                createIssue(file1, Issue.STATUS_REOPENED, RuleType.SECURITY_HOTSPOT, Severity.BLOCKER),
+                createIssue(directory, Issue.STATUS_OPEN, RuleType.CODE_SMELL, Severity.INFO),
+                new PostAnalysisIssueVisitor.ComponentIssue(file1, (DefaultIssue) null)));
+
+        assertThat(testCase.getIssueCount()).isEqualTo(6);
+        assertThat(testCase.getOpenIssueCount()).isEqualTo(4);
+
+        assertThat(testCase.getIssueCount(Issue.STATUS_OPEN)).isEqualTo(2);
+        assertThat(testCase.getIssueCount(Issue.STATUS_CLOSED)).isEqualTo(1);
+        assertThat(testCase.getIssueCount(Issue.STATUS_RESOLVED)).isEqualTo(1);
+        assertThat(testCase.getIssueCount(Issue.STATUS_CONFIRMED)).isEqualTo(1);
+        assertThat(testCase.getIssueCount(Issue.STATUS_REOPENED)).isEqualTo(1);
+        assertThat(testCase.getIssueCount("dummy")).isZero();
+
+        assertThat(testCase.getOpenIssueCountsByType())
+                .containsOnly(entry(RuleType.BUG, 1L), entry(RuleType.CODE_SMELL, 2L),
+                              entry(RuleType.VULNERABILITY, 0L), entry(RuleType.SECURITY_HOTSPOT, 1L));
+        assertThat(testCase.getOpenIssueCount(RuleType.CODE_SMELL)).isEqualTo(2);
+
+        assertThat(testCase.getOpenIssueCount(Severity.BLOCKER)).isEqualTo(1);
+        assertThat(testCase.getOpenIssueCount(Severity.CRITICAL)).isZero();
+        assertThat(testCase.getOpenIssueCount(Severity.MAJOR)).isEqualTo(1);
+        assertThat(testCase.getOpenIssueCount(Severity.MINOR)).isEqualTo(1);
+        assertThat(testCase.getOpenIssueCount(Severity.INFO)).isEqualTo(1);
+
+        assertThat(testCase.getOpenIssueCountForScmPath("path/one")).isEqualTo(2);
+        assertThat(testCase.getOpenIssueCountForScmPath("path/two")).isEqualTo(1);
+        assertThat(testCase.getOpenIssueCountForScmPath("path")).isZero();
+    }
+
+    @Test
+    public void testUnknownSeverityRejected() {
+        IssueAggregation testCase = IssueAggregation.of(Collections.emptyList());
+        assertThatThrownBy(() -> testCase.getOpenIssueCount("dummy")).isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unknown severity value: dummy");
+    }
+
+    private static Component createComponent(Component.Type type, String scmPath) {
+        ReportAttributes reportAttributes = mock(ReportAttributes.class);
+        when(reportAttributes.getScmPath()).thenReturn(Optional.of(scmPath));
+        Component component = mock(Component.class);
+        when(component.getType()).thenReturn(type);
+        when(component.getReportAttributes()).thenReturn(reportAttributes);
+        return component;
+    }
+
+    private static PostAnalysisIssueVisitor.ComponentIssue createIssue(Component component, String status,
+                                                                       RuleType type, String severity) {
+        DefaultIssue issue = mock(DefaultIssue.class);
+        when(issue.status()).thenReturn(status);
+        when(issue.type()).thenReturn(type);
+        when(issue.severity()).thenReturn(severity);
+        return new PostAnalysisIssueVisitor.ComponentIssue(component, issue);
+    }
+}
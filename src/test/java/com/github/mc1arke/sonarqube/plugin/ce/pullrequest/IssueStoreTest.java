@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
+
+import org.junit.Test;
+import org.sonar.api.rule.RuleKey;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.rules.RuleType;
+import org.sonar.ce.task.projectanalysis.component.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class IssueStoreTest {
+
+    @Test
+    public void testIssuesRetrievedFromHeapAndDisk() {
+        Component component1 = mock(Component.class);
+        Component component2 = mock(Component.class);
+
+        List<PostAnalysisIssueVisitor.ComponentIssue> expected = new ArrayList<>();
+        IssueStore testCase = new IssueStore(5);
+        for (int i = 0; i < 5000; i++) {
+            PostAnalysisIssueVisitor.LightIssue issue = new PostAnalysisIssueVisitor.LightIssue(
+                    "key" + i, RuleKey.of("java", "S" + i), Severity.ALL.get(i % Severity.ALL.size()),
+                    RuleType.values()[i % RuleType.values().length], "OPEN", (i % 2 == 0 ? null : "FIXED"),
+                    (i % 3 == 0 ? null : i), "message é " + i, (i % 4 == 0 ? null : (long) i));
+            Component component = (i % 7 == 0 ? null : (i % 2 == 0 ? component1 : component2));
+            PostAnalysisIssueVisitor.ComponentIssue componentIssue =
+                    new PostAnalysisIssueVisitor.ComponentIssue(component, i == 42 ? null : issue);
+            expected.add(componentIssue);
+            assertThat(testCase.append(componentIssue)).isEqualTo(i);
+        }
+
+        assertThat(testCase).hasSize(5000);
+        assertThat(testCase.get(3)).isSameAs(expected.get(3));
+        for (int i = 0; i < expected.size(); i++) {
+            assertIssue(testCase.get(i), expected.get(i));
+        }
+        assertIssue(testCase.get(10), expected.get(10));
+        assertIssue(testCase.get(4999), expected.get(4999));
+
+        testCase.close();
+    }
+
+    @Test
+    public void testIndexListReferencesStore() {
+        IssueStore testCase = new IssueStore(1);
+        IssueStore.IndexList indexList = testCase.newIndexList();
+        for (int i = 0; i < 40; i++) {
+            int index = testCase.append(new PostAnalysisIssueVisitor.ComponentIssue(null, createIssue("key" + i)));
+            if (i % 2 == 1) {
+                indexList.add(index);
+            }
+        }
+
+        assertThat(indexList).hasSize(20);
+        assertThat(indexList.get(0).getIssue().key()).isEqualTo("key1");
+        assertThat(indexList.get(19).getIssue().key()).isEqualTo("key39");
+        assertThatThrownBy(() -> indexList.get(20)).isInstanceOf(IndexOutOfBoundsException.class);
+
+        testCase.close();
+    }
+
+    @Test
+    public void testOutOfBoundsIndexRejected() {
+        IssueStore testCase = new IssueStore(0);
+        testCase.append(new PostAnalysisIssueVisitor.ComponentIssue(null, createIssue("key")));
+
+        assertThat(testCase.get(0).getIssue().key()).isEqualTo("key");
+        assertThatThrownBy(() -> testCase.get(1)).isInstanceOf(IndexOutOfBoundsException.class)
+                .hasMessage("Index: 1, Size: 1");
+        assertThatThrownBy(() -> testCase.get(-1)).isInstanceOf(IndexOutOfBoundsException.class);
+
+        testCase.close();
+        testCase.close();
+    }
+
+    @Test
+    public void testSpilledIssuesRejectedOnceClosed() {
+        IssueStore testCase = new IssueStore(1);
+        testCase.append(new PostAnalysisIssueVisitor.ComponentIssue(null, createIssue("key1")));
+        testCase.append(new PostAnalysisIssueVisitor.ComponentIssue(null, createIssue("key2")));
+
+        testCase.close();
+
+        assertThat(testCase.get(0).getIssue().key()).isEqualTo("key1");
+        assertThatThrownBy(() -> testCase.get(1)).isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessage("Spilled issues have been deleted as the issue store has been closed");
+        assertThatThrownBy(() -> testCase.append(new PostAnalysisIssueVisitor.ComponentIssue(null, createIssue("key3"))))
+                .isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessage("Issues can not be added to the issue store once it has been closed");
+    }
+
+    private static PostAnalysisIssueVisitor.LightIssue createIssue(String key) {
+        return new PostAnalysisIssueVisitor.LightIssue(key, null, null, null, null, null, null, null, null);
+    }
+
+    private static void assertIssue(PostAnalysisIssueVisitor.ComponentIssue actual,
+                                    PostAnalysisIssueVisitor.ComponentIssue expected) {
+        assertThat(actual.getComponent()).isSameAs(expected.getComponent());
+        if (null == expected.getIssue()) {
+            assertThat(actual.getIssue()).isNull();
+            return;
+        }
+        assertThat(actual.getIssue()).isEqualToComparingFieldByField(expected.getIssue());
+    }
+}
@@ -19,35 +19,221 @@
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
 
 import org.junit.Test;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.issue.Issue;
+import org.sonar.api.rule.Severity;
+import org.sonar.api.rules.RuleType;
 import org.sonar.ce.task.projectanalysis.component.Component;
+import org.sonar.ce.task.projectanalysis.component.ConfigurationRepository;
+import org.sonar.ce.task.projectanalysis.component.ReportAttributes;
 import org.sonar.core.issue.DefaultIssue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class PostAnalysisIssueVisitorTest {
 
     @Test
     public void checkAllIssuesCollected() {
-        PostAnalysisIssueVisitor testCase = new PostAnalysisIssueVisitor();
+        PostAnalysisIssueVisitor testCase = new PostAnalysisIssueVisitor(createConfigurationRepository(null));
 
-        List<PostAnalysisIssueVisitor.ComponentIssue> expected = new ArrayList<>();
+        List<DefaultIssue> expectedIssues = new ArrayList<>();
+        List<Component> expectedComponents = new ArrayList<>();
         for (int i = 0; i < 100; i++) {
-            DefaultIssue issue = (i == 10 ? null : mock(DefaultIssue.class));
+            DefaultIssue issue = (i == 10 ? null : createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR));
             Component component = (i == 5 ? null : mock(Component.class));
-            expected.add(new PostAnalysisIssueVisitor.ComponentIssue(component, issue));
+            expectedIssues.add(issue);
+            expectedComponents.add(component);
 
             testCase.onIssue(component, issue);
         }
 
 
-        assertThat(testCase.getIssues().size()).isEqualTo(expected.size());
-        for (int i = 0; i < expected.size(); i++) {
-            assertThat(testCase.getIssues().get(i).getIssue()).isEqualTo(expected.get(i).getIssue());
-            assertThat(testCase.getIssues().get(i).getComponent()).isEqualTo(expected.get(i).getComponent());
+        assertThat(testCase.getIssues().size()).isEqualTo(expectedIssues.size());
+        for (int i = 0; i < expectedIssues.size(); i++) {
+            assertThat(testCase.getIssues().get(i).getComponent()).isSameAs(expectedComponents.get(i));
+            if (null == expectedIssues.get(i)) {
+                assertThat(testCase.getIssues().get(i).getIssue()).isNull();
+            } else {
+                assertThat(testCase.getIssues().get(i).getIssue().key()).isEqualTo(expectedIssues.get(i).key());
+            }
         }
     }
+
+    @Test
+    public void checkIssuesBeyondThresholdSpilled() {
+        PostAnalysisIssueVisitor testCase = new PostAnalysisIssueVisitor(createConfigurationRepository(2));
+
+        Component file1 = createFile("path/one");
+        Component file2 = createFile("path/two");
+
+        DefaultIssue open1 = createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR);
+        DefaultIssue closed = createIssue(Issue.STATUS_CLOSED, RuleType.BUG, Severity.MAJOR);
+        DefaultIssue open2 = createIssue(Issue.STATUS_CONFIRMED, RuleType.CODE_SMELL, Severity.MINOR);
+        DefaultIssue open3 = createIssue(Issue.STATUS_REOPENED, RuleType.BUG, Severity.BLOCKER);
+
+        testCase.onIssue(file1, open1);
+        testCase.onIssue(file1, closed);
+        testCase.onIssue(file2, open2);
+        testCase.onIssue(file1, open3);
+
+        assertThat(testCase.getIssues()).extracting(i -> i.getIssue().key())
+                .containsExactly(open1.key(), closed.key(), open2.key(), open3.key());
+        assertThat(testCase.getOpenIssues()).extracting(i -> i.getIssue().key())
+                .containsExactly(open1.key(), open2.key(), open3.key());
+        assertThat(testCase.getOpenIssuesByScmPath().get("path/one")).extracting(i -> i.getIssue().key())
+                .containsExactly(open1.key(), open3.key());
+        assertThat(testCase.getOpenIssuesByScmPath().get("path/one").get(1).getComponent()).isSameAs(file1);
+        assertThat(testCase.getOpenIssuesByScmPath().get("path/two").get(0).getIssue().severity())
+                .isEqualTo(Severity.MINOR);
+
+        testCase.stop();
+    }
+
+    @Test
+    public void checkOpenIssuesIndexed() {
+        PostAnalysisIssueVisitor testCase = new PostAnalysisIssueVisitor(createConfigurationRepository(null));
+
+        Component file1 = createFile("path/one");
+        Component file2 = createFile("path/two");
+        Component project = mock(Component.class);
+        when(project.getType()).thenReturn(Component.Type.PROJECT);
+
+        DefaultIssue open1 = createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR);
+        DefaultIssue closed = createIssue(Issue.STATUS_CLOSED, RuleType.BUG, Severity.MAJOR);
+        DefaultIssue open2 = createIssue(Issue.STATUS_CONFIRMED, RuleType.CODE_SMELL, Severity.MINOR);
+        DefaultIssue resolved = createIssue(Issue.STATUS_RESOLVED, RuleType.VULNERABILITY, Severity.BLOCKER);
+        DefaultIssue open3 = createIssue(Issue.STATUS_REOPENED, RuleType.BUG, Severity.BLOCKER);
+        DefaultIssue open4 = createIssue(Issue.STATUS_OPEN, RuleType.CODE_SMELL, Severity.INFO);
+
+        testCase.onIssue(file1, open1);
+        testCase.onIssue(file1, closed);
+        testCase.onIssue(file2, open2);
+        testCase.onIssue(file2, resolved);
+        testCase.onIssue(file1, open3);
+        testCase.onIssue(project, open4);
+
+        assertThat(testCase.getIssues()).hasSize(6);
+        assertThat(testCase.getOpenIssues()).extracting(i -> i.getIssue().key())
+                .containsExactly(open1.key(), open2.key(), open3.key(), open4.key());
+
+        IssueAggregation issueAggregation = testCase.getIssueAggregation();
+        assertThat(issueAggregation.getIssueCount()).isEqualTo(6);
+        assertThat(issueAggregation.getOpenIssueCount()).isEqualTo(4);
+        assertThat(issueAggregation.getOpenIssueCount(RuleType.BUG)).isEqualTo(2);
+        assertThat(issueAggregation.getOpenIssueCount(Severity.BLOCKER)).isEqualTo(1);
+        assertThat(issueAggregation.getOpenIssueCountForScmPath("path/one")).isEqualTo(2);
+
+        assertThat(testCase.getOpenIssuesByScmPath()).containsOnlyKeys("path/one", "path/two");
+        assertThat(testCase.getOpenIssuesByScmPath().get("path/one")).extracting(i -> i.getIssue().key())
+                .containsExactly(open1.key(), open3.key());
+        assertThat(testCase.getOpenIssuesByScmPath().get("path/two")).extracting(i -> i.getIssue().key())
+                .containsExactly(open2.key());
+    }
+
+    @Test
+    public void checkSpilledIssuesReadableByAsyncDecorationAfterStop() throws InterruptedException {
+        PostAnalysisIssueVisitor testCase = new PostAnalysisIssueVisitor(createConfigurationRepository(1));
+        Component file = createFile("path/one");
+        DefaultIssue open1 = createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR);
+        DefaultIssue open2 = createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR);
+        DefaultIssue open3 = createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR);
+        testCase.onIssue(file, open1);
+        testCase.onIssue(file, open2);
+        testCase.onIssue(file, open3);
+
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.getBoolean(PullRequestDecorationExecutor.ASYNC_DECORATION_ENABLED)).thenReturn(Optional.of(true));
+        PullRequestDecorationExecutor executor = new PullRequestDecorationExecutor(configuration);
+        executor.start();
+
+        CountDownLatch analysisStopped = new CountDownLatch(1);
+        List<String> decoratedIssueKeys = Collections.synchronizedList(new ArrayList<>());
+        AnalysisIssues analysisIssues = testCase.snapshot();
+        executor.submit("key", () -> {
+            try {
+                analysisStopped.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            analysisIssues.getOpenIssues().forEach(i -> decoratedIssueKeys.add(i.getIssue().key()));
+        }, analysisIssues);
+
+        testCase.stop();
+        analysisStopped.countDown();
+        executor.stop();
+
+        assertThat(decoratedIssueKeys).containsExactly(open1.key(), open2.key(), open3.key());
+        assertThatThrownBy(() -> analysisIssues.getOpenIssues().get(2)).isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessage("Spilled issues have been deleted as the issue store has been closed");
+    }
+
+    @Test
+    public void checkSpilledIssuesDeletedOnStopWhenSnapshotClosed() {
+        PostAnalysisIssueVisitor testCase = new PostAnalysisIssueVisitor(createConfigurationRepository(0));
+        testCase.onIssue(createFile("path/one"), createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR));
+
+        AnalysisIssues analysisIssues = testCase.snapshot();
+        analysisIssues.close();
+        analysisIssues.close();
+        testCase.stop();
+
+        assertThatThrownBy(() -> testCase.getIssues().get(0)).isExactlyInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void checkSnapshotUnaffectedByLaterIssues() {
+        PostAnalysisIssueVisitor testCase = new PostAnalysisIssueVisitor(createConfigurationRepository(null));
+        Component file = createFile("path/one");
+        DefaultIssue open = createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR);
+        DefaultIssue closed = createIssue(Issue.STATUS_CLOSED, RuleType.BUG, Severity.MAJOR);
+        testCase.onIssue(file, open);
+        testCase.onIssue(file, closed);
+
+        AnalysisIssues analysisIssues = testCase.snapshot();
+        testCase.onIssue(createFile("path/two"), createIssue(Issue.STATUS_OPEN, RuleType.BUG, Severity.MAJOR));
+
+        assertThat(analysisIssues.getIssues()).extracting(i -> i.getIssue().key()).startsWith(open.key(), closed.key());
+        assertThat(analysisIssues.getOpenIssuesByScmPath()).containsOnlyKeys("path/one");
+        assertThat(analysisIssues.getIssueAggregation().getIssueCount()).isEqualTo(2);
+        assertThat(analysisIssues.getIssueAggregation().getOpenIssueCount()).isEqualTo(1);
+        assertThat(analysisIssues.getIssueAggregation().getOpenIssueCountForScmPath("path/two")).isZero();
+    }
+
+    private static ConfigurationRepository createConfigurationRepository(Integer spillThreshold) {
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.getInt(PostAnalysisIssueVisitor.ISSUE_SPILL_THRESHOLD))
+                .thenReturn(Optional.ofNullable(spillThreshold));
+        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
+        when(configurationRepository.getConfiguration()).thenReturn(configuration);
+        return configurationRepository;
+    }
+
+    private static Component createFile(String scmPath) {
+        ReportAttributes reportAttributes = mock(ReportAttributes.class);
+        when(reportAttributes.getScmPath()).thenReturn(Optional.of(scmPath));
+        Component component = mock(Component.class);
+        when(component.getType()).thenReturn(Component.Type.FILE);
+        when(component.getReportAttributes()).thenReturn(reportAttributes);
+        return component;
+    }
+
+    private static DefaultIssue createIssue(String status, RuleType type, String severity) {
+        DefaultIssue issue = mock(DefaultIssue.class);
+        when(issue.key()).thenReturn(UUID.randomUUID().toString());
+        when(issue.status()).thenReturn(status);
+        when(issue.type()).thenReturn(type);
+        when(issue.severity()).thenReturn(severity);
+        return issue;
+    }
 }
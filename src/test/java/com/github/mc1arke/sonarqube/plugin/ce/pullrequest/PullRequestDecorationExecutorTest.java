@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest;
+
+import org.junit.Test;
+import org.sonar.api.config.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PullRequestDecorationExecutorTest {
+
+    @Test
+    public void testDecorationRunOnCallingThreadWhenAsyncDisabled() {
+        PullRequestDecorationExecutor testCase = new PullRequestDecorationExecutor(mock(Configuration.class));
+        testCase.start();
+
+        AtomicReference<Thread> decorationThread = new AtomicReference<>();
+        testCase.submit("key", () -> decorationThread.set(Thread.currentThread()));
+        testCase.stop();
+
+        assertThat(decorationThread.get()).isSameAs(Thread.currentThread());
+    }
+
+    @Test
+    public void testDecorationRunInBackgroundAndDrainedOnStop() throws InterruptedException {
+        PullRequestDecorationExecutor testCase = new PullRequestDecorationExecutor(asyncConfiguration(2, 10));
+        testCase.start();
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Thread> decorationThread = new AtomicReference<>();
+        testCase.submit("key", () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            decorationThread.set(Thread.currentThread());
+        });
+
+        assertThat(decorationThread.get()).isNull();
+        release.countDown();
+        testCase.stop();
+
+        assertThat(decorationThread.get()).isNotNull().isNotSameAs(Thread.currentThread());
+    }
+
+    @Test
+    public void testDecorationsForSameKeyRunInSubmissionOrder() {
+        PullRequestDecorationExecutor testCase = new PullRequestDecorationExecutor(asyncConfiguration(4, 50));
+        testCase.start();
+
+        List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 20; i++) {
+            int index = i;
+            testCase.submit("key", () -> completed.add(index));
+        }
+        testCase.stop();
+
+        assertThat(completed).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19);
+    }
+
+    @Test
+    public void testFailedDecorationDoesNotBlockLaterDecorations() {
+        PullRequestDecorationExecutor testCase = new PullRequestDecorationExecutor(asyncConfiguration(1, 5));
+        testCase.start();
+
+        List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        testCase.submit("key", () -> {
+            throw new IllegalStateException("Whoops");
+        });
+        testCase.submit("key", () -> completed.add("second"));
+        testCase.stop();
+
+        assertThat(completed).containsExactly("second");
+    }
+
+    @Test
+    public void testDecorationRejectedAndResourcesReleasedOnceStopped() {
+        PullRequestDecorationExecutor testCase = new PullRequestDecorationExecutor(asyncConfiguration(1, 5));
+        testCase.start();
+        testCase.stop();
+
+        AtomicBoolean decorated = new AtomicBoolean();
+        AtomicBoolean released = new AtomicBoolean();
+        testCase.submit("key", () -> decorated.set(true), () -> released.set(true));
+
+        assertThat(decorated).isFalse();
+        assertThat(released).isTrue();
+    }
+
+    @Test
+    public void testQueuedDecorationsReleasedWhenShutdownTimeoutExpires() throws InterruptedException {
+        Configuration configuration = asyncConfiguration(1, 5);
+        when(configuration.getInt(PullRequestDecorationExecutor.ASYNC_DECORATION_SHUTDOWN_TIMEOUT)).thenReturn(Optional.of(1));
+        PullRequestDecorationExecutor testCase = new PullRequestDecorationExecutor(configuration);
+        testCase.start();
+
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        CountDownLatch slowReleased = new CountDownLatch(1);
+        testCase.submit("slow", () -> {
+            slowStarted.countDown();
+            try {
+                new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, slowReleased::countDown);
+        assertThat(slowStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<String> decorated = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch queuedReleased = new CountDownLatch(1);
+        testCase.submit("queued", () -> decorated.add("queued"), queuedReleased::countDown);
+        CountDownLatch chainedReleased = new CountDownLatch(1);
+        testCase.submit("slow", () -> decorated.add("chained"), chainedReleased::countDown);
+
+        testCase.stop();
+
+        assertThat(queuedReleased.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(slowReleased.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(chainedReleased.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(decorated).isEmpty();
+    }
+
+    private static Configuration asyncConfiguration(int threads, int queueSize) {
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.getBoolean(PullRequestDecorationExecutor.ASYNC_DECORATION_ENABLED)).thenReturn(Optional.of(true));
+        when(configuration.getInt(PullRequestDecorationExecutor.ASYNC_DECORATION_THREADS)).thenReturn(Optional.of(threads));
+        when(configuration.getInt(PullRequestDecorationExecutor.ASYNC_DECORATION_QUEUE_SIZE)).thenReturn(Optional.of(queueSize));
+        when(configuration.getInt(PullRequestDecorationExecutor.ASYNC_DECORATION_SHUTDOWN_TIMEOUT)).thenReturn(Optional.of(10));
+        return configuration;
+    }
+}
@@ -65,7 +65,7 @@ public class PullRequestPostAnalysisTaskTest {
         PullRequestPostAnalysisTask testCase =
                 new PullRequestPostAnalysisTask(server, configurationRepository, pullRequestBuildStatusDecorators,
                                                 postAnalysisIssueVisitor, metricRepository, measureRepository,
-                                                treeRootHolder);
+                                                treeRootHolder, new PullRequestDecorationExecutor(mock(Configuration.class)));
         testCase.finished(projectAnalysis);
 
         verify(branch).getType();
@@ -91,7 +91,7 @@ public class PullRequestPostAnalysisTaskTest {
         PullRequestPostAnalysisTask testCase =
                 new PullRequestPostAnalysisTask(server, configurationRepository, pullRequestBuildStatusDecorators,
                                                 postAnalysisIssueVisitor, metricRepository, measureRepository,
-                                                treeRootHolder);
+                                                treeRootHolder, new PullRequestDecorationExecutor(mock(Configuration.class)));
         testCase.finished(projectAnalysis);
 
         verify(branch).getName();
@@ -121,7 +121,7 @@ public class PullRequestPostAnalysisTaskTest {
         PullRequestPostAnalysisTask testCase =
                 new PullRequestPostAnalysisTask(server, configurationRepository, pullRequestBuildStatusDecorators,
                                                 postAnalysisIssueVisitor, metricRepository, measureRepository,
-                                                treeRootHolder);
+                                                treeRootHolder, new PullRequestDecorationExecutor(mock(Configuration.class)));
         testCase.finished(projectAnalysis);
 
         verify(configurationRepository).getConfiguration();
@@ -160,7 +160,7 @@ public class PullRequestPostAnalysisTaskTest {
         PullRequestPostAnalysisTask testCase =
                 new PullRequestPostAnalysisTask(server, configurationRepository, pullRequestBuildStatusDecorators,
                                                 postAnalysisIssueVisitor, metricRepository, measureRepository,
-                                                treeRootHolder);
+                                                treeRootHolder, new PullRequestDecorationExecutor(mock(Configuration.class)));
         testCase.finished(projectAnalysis);
 
         verify(configurationRepository).getConfiguration();
@@ -203,7 +203,7 @@ public class PullRequestPostAnalysisTaskTest {
         PullRequestPostAnalysisTask testCase =
                 new PullRequestPostAnalysisTask(server, configurationRepository, pullRequestBuildStatusDecorators,
                                                 postAnalysisIssueVisitor, metricRepository, measureRepository,
-                                                treeRootHolder);
+                                                treeRootHolder, new PullRequestDecorationExecutor(mock(Configuration.class)));
         testCase.finished(projectAnalysis);
 
         verify(configurationRepository).getConfiguration();
@@ -247,7 +247,7 @@ public class PullRequestPostAnalysisTaskTest {
         PullRequestPostAnalysisTask testCase =
                 new PullRequestPostAnalysisTask(server, configurationRepository, pullRequestBuildStatusDecorators,
                                                 postAnalysisIssueVisitor, metricRepository, measureRepository,
-                                                treeRootHolder);
+                                                treeRootHolder, new PullRequestDecorationExecutor(mock(Configuration.class)));
         testCase.finished(projectAnalysis);
 
         verify(configurationRepository).getConfiguration();
@@ -291,7 +291,7 @@ public class PullRequestPostAnalysisTaskTest {
         PullRequestPostAnalysisTask testCase =
                 new PullRequestPostAnalysisTask(server, configurationRepository, pullRequestBuildStatusDecorators,
                                                 postAnalysisIssueVisitor, metricRepository, measureRepository,
-                                                treeRootHolder);
+                                                treeRootHolder, new PullRequestDecorationExecutor(mock(Configuration.class)));
         testCase.finished(projectAnalysis);
 
         verify(configurationRepository).getConfiguration();
@@ -315,6 +315,8 @@ public class PullRequestPostAnalysisTaskTest {
         ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
         List<PullRequestBuildStatusDecorator> pullRequestBuildStatusDecorators = new ArrayList<>();
         PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
+        doReturn(analysisIssues).when(postAnalysisIssueVisitor).snapshot();
         MetricRepository metricRepository = mock(MetricRepository.class);
         MeasureRepository measureRepository = mock(MeasureRepository.class);
         TreeRootHolder treeRootHolder = mock(TreeRootHolder.class);
@@ -342,7 +344,7 @@ public class PullRequestPostAnalysisTaskTest {
         PullRequestPostAnalysisTask testCase =
                 new PullRequestPostAnalysisTask(server, configurationRepository, pullRequestBuildStatusDecorators,
                                                 postAnalysisIssueVisitor, metricRepository, measureRepository,
-                                                treeRootHolder);
+                                                treeRootHolder, new PullRequestDecorationExecutor(mock(Configuration.class)));
         testCase.finished(projectAnalysis);
 
         ArgumentCaptor<AnalysisDetails> analysisDetailsArgumentCaptor = ArgumentCaptor.forClass(AnalysisDetails.class);
@@ -351,10 +353,11 @@ public class PullRequestPostAnalysisTaskTest {
         verify(projectAnalysis).getAnalysis();
         verify(projectAnalysis).getQualityGate();
         verify(decorator2).decorateQualityGateStatus(analysisDetailsArgumentCaptor.capture());
+        verify(analysisIssues).close();
 
         AnalysisDetails analysisDetails =
                 new AnalysisDetails(new AnalysisDetails.BranchDetails("pull-request", "revision"),
-                                    postAnalysisIssueVisitor, qualityGate,
+                                    analysisIssues, qualityGate,
                                     new AnalysisDetails.MeasuresHolder(metricRepository, measureRepository,
                                                                        treeRootHolder), analysis, project,
                                     configuration, null);
@@ -365,7 +368,8 @@ public class PullRequestPostAnalysisTaskTest {
     public void testCorrectDescriptionReturnedForTask() {
         assertThat(new PullRequestPostAnalysisTask(mock(Server.class), mock(ConfigurationRepository.class), new ArrayList<>(),
                                                    mock(PostAnalysisIssueVisitor.class), mock(MetricRepository.class),
-                                                   mock(MeasureRepository.class), mock(TreeRootHolder.class))
+                                                   mock(MeasureRepository.class), mock(TreeRootHolder.class),
+                                                   mock(PullRequestDecorationExecutor.class))
                            .getDescription()).isEqualTo("Pull Request Decoration");
     }
 }
@@ -4,20 +4,23 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.apache.http.impl.client.HttpClients;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.List;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
 
 public class BitbucketCloudApiClientTest {
 
   @Rule
   public final WireMockRule wireMockRule = new WireMockRule(wireMockConfig());
 
-  private final BitbucketCloudApiClient client = new BitbucketCloudApiClient("http://localhost:8080", "company", "repo", "99", "user", "pwd");
+  private final BitbucketCloudApiClient client = new BitbucketCloudApiClient(HttpClients.createDefault(), "http://localhost:8080", "company", "repo", "99", "user", "pwd");
   private final String commentsPath = "/repositories/company/repo/pullrequests/99/comments";
   private final ObjectMapper objectMapper = new ObjectMapper();
 
@@ -28,14 +31,25 @@ public class BitbucketCloudApiClientTest {
     client.createComment("test comment", "path", 12);
 
     verify(postRequestedFor(urlEqualTo(commentsPath))
-        .withRequestBody(matchingJsonPath("$.content.raw", containing("test comment")))
+        .withRequestBody(matchingJsonPath("$.content.raw", equalTo("test comment")))
         .withRequestBody(matchingJsonPath("$.inline.path", equalTo("path")))
         .withRequestBody(matchingJsonPath("$.inline.to", equalTo("12"))));
   }
 
   @Test
-  public void deleteComments() throws IOException {
-    stubFor(get(urlEqualTo(commentsPath + "?q=%28deleted%20=%20false%20AND%20content.raw%20~%20%22[SONAR]%22%29"))
+  public void deleteComment() throws IOException {
+    stubFor(delete(urlEqualTo(commentsPath + "/comment1"))
+        .withBasicAuth("user", "pwd")
+        .willReturn(ok()));
+
+    client.deleteComment("comment1");
+
+    verify(deleteRequestedFor(urlEqualTo(commentsPath + "/comment1")));
+  }
+
+  @Test
+  public void getCommentsFollowsNextPage() throws IOException {
+    stubFor(get(urlEqualTo(commentsPath + "?q=%28deleted%20=%20false%20AND%20%28content.raw%20~%20%22[SONAR]%22%20OR%20content.raw%20~%20%22%23sonarqube:%22%29%29"))
         .withBasicAuth("user", "pwd")
         .willReturn(aResponse().withBody(pageWithComments("http://localhost:8080" + commentsPath + "/page2", "comment1", "comment2"))));
 
@@ -43,15 +57,37 @@ public class BitbucketCloudApiClientTest {
         .withBasicAuth("user", "pwd")
         .willReturn(aResponse().withBody(pageWithComments(null, "comment3"))));
 
-    stubFor(delete(urlMatching(commentsPath + "/comment[123]"))
+    List<BitbucketCloudApiClient.Comment> comments = client.getComments();
+
+    assertThat(comments).extracting(BitbucketCloudApiClient.Comment::getId).containsExactly("comment1", "comment2", "comment3");
+  }
+
+  @Test
+  public void getComments() throws IOException {
+    ObjectNode page = objectMapper.createObjectNode();
+    page.putNull("next");
+    page.set("values", objectMapper.createArrayNode()
+        .add(objectMapper.createObjectNode().put("id", "comment1")
+            .set("content", objectMapper.createObjectNode().put("raw", "[](https://[SONAR])text"))));
+    stubFor(get(urlEqualTo(commentsPath + "?q=%28deleted%20=%20false%20AND%20%28content.raw%20~%20%22[SONAR]%22%20OR%20content.raw%20~%20%22%23sonarqube:%22%29%29"))
         .withBasicAuth("user", "pwd")
-        .willReturn(ok()));
+        .willReturn(aResponse().withBody(page.toString())));
 
-    client.deleteComments();
+    List<BitbucketCloudApiClient.Comment> comments = client.getComments();
 
-    verify(deleteRequestedFor(urlEqualTo(commentsPath + "/comment1")));
-    verify(deleteRequestedFor(urlEqualTo(commentsPath + "/comment2")));
-    verify(deleteRequestedFor(urlEqualTo(commentsPath + "/comment3")));
+    assertThat(comments).hasSize(1);
+    assertThat(comments.get(0).getId()).isEqualTo("comment1");
+    assertThat(comments.get(0).getText()).isEqualTo("[](https://[SONAR])text");
+  }
+
+  @Test
+  public void updateComment() throws IOException {
+    stubFor(put(urlEqualTo(commentsPath + "/comment1")).willReturn(ok()));
+
+    client.updateComment("comment1", "updated comment");
+
+    verify(putRequestedFor(urlEqualTo(commentsPath + "/comment1"))
+        .withRequestBody(matchingJsonPath("$.content.raw", equalTo("updated comment"))));
   }
 
   private String pageWithComments(String nextPage, String... commentIds) {
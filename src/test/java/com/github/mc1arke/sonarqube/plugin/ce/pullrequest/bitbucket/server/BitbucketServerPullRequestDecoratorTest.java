@@ -3,18 +3,25 @@ package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.server;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.SummaryComment;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.activity.ActivityPage;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.activity.Comment;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffPage;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.HttpClientProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
+import com.github.tomakehurst.wiremock.http.Fault;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import org.apache.commons.io.FileUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.HttpClients;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
@@ -23,6 +30,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.hamcrest.core.IsNull.nullValue;
 import static org.hamcrest.core.Is.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class BitbucketServerPullRequestDecoratorTest {
 
@@ -47,9 +56,13 @@ public class BitbucketServerPullRequestDecoratorTest {
 
     private static final String COMMENTURL = "http://localhost:8089/comments";
 
+    private static final String CHANGESURL = "http://localhost:8089/changes";
+
     @Before
     public void setUp() {
-        bitbucketServerPullRequestDecorator = new BitbucketServerPullRequestDecorator(null);
+        HttpClientProvider httpClientProvider = mock(HttpClientProvider.class);
+        when(httpClientProvider.getHttpClient()).thenReturn(HttpClients.createDefault());
+        bitbucketServerPullRequestDecorator = new BitbucketServerPullRequestDecorator(httpClientProvider, new JsonCodec());
 
         headers = new HashMap<>();
         headers.put("Authorization", String.format("Bearer %s", APITOKEN));
@@ -133,11 +146,12 @@ public class BitbucketServerPullRequestDecoratorTest {
     }
 
     @Test
-    public void deleteComments() throws Exception {
-        assertThat(bitbucketServerPullRequestDecorator.deleteComments(ACTIVITYURL, COMMENTURL, "susi.sonar", headers, false), is(false));
+    public void getExistingComments() throws Exception {
+        assertThat(bitbucketServerPullRequestDecorator.getExistingComments(ACTIVITYURL, "susi.sonar", headers, false, 250, false).size(), is(0));
+        assertThat(bitbucketServerPullRequestDecorator.getExistingComments(ACTIVITYURL, "", headers, true, 250, false).size(), is(0));
 
         stubFor(
-                get(urlEqualTo("/activities"))
+                get(urlEqualTo("/activities?start=0&limit=250"))
                         .withHeader("Accept" , equalTo("application/json"))
                         .willReturn(
                                 aResponse()
@@ -147,6 +161,150 @@ public class BitbucketServerPullRequestDecoratorTest {
                         )
         );
 
+        List<Comment> comments = bitbucketServerPullRequestDecorator.getExistingComments(ACTIVITYURL, "susi.sonar", headers, true, 250, false);
+        assertThat(comments.isEmpty(), is(false));
+    }
+
+    @Test
+    public void getExistingCommentsAcrossPages() throws Exception {
+        stubFor(
+                get(urlEqualTo("/activities?start=0&limit=2"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody(activityPage(false, 2, 1, 2))
+                        )
+        );
+        stubFor(
+                get(urlEqualTo("/activities?start=2&limit=2"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody(activityPage(true, 0, 3))
+                        )
+        );
+
+        assertThat(bitbucketServerPullRequestDecorator.getExistingComments(ACTIVITYURL, "susi.sonar", headers, true, 2, false).size(), is(3));
+        assertThat(bitbucketServerPullRequestDecorator.getExistingComments(ACTIVITYURL, "susi.sonar", headers, true, 2, true).size(), is(3));
+        verify(2, getRequestedFor(urlEqualTo("/activities?start=2&limit=2")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getExistingCommentsPrefetchErrorPropagated() {
+        stubFor(
+                get(urlEqualTo("/activities?start=0&limit=2"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody(activityPage(false, 2, 1, 2))
+                        )
+        );
+        stubFor(
+                get(urlEqualTo("/activities?start=2&limit=2"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(500)
+                                        .withBody("{}")
+                        )
+        );
+
+        bitbucketServerPullRequestDecorator.getExistingComments(ACTIVITYURL, "susi.sonar", headers, true, 2, true);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getExistingCommentsFailedPagePropagated() {
+        stubFor(
+                get(urlEqualTo("/activities?start=0&limit=2"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody(activityPage(false, 2, 1, 2))
+                        )
+        );
+        stubFor(
+                get(urlEqualTo("/activities?start=2&limit=2"))
+                        .willReturn(
+                                aResponse()
+                                        .withFault(Fault.CONNECTION_RESET_BY_PEER)
+                        )
+        );
+
+        bitbucketServerPullRequestDecorator.getExistingComments(ACTIVITYURL, "susi.sonar", headers, true, 2, false);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getDiffIndexFailedChangesPagePropagated() {
+        String issuePath = "src/com/sonar/sample/classes/ClassWithInvalidMethodName.java";
+        stubFor(
+                get(urlEqualTo("/changes?start=0&limit=1"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody(changePage(false, 1, "src/Unrelated File.java"))
+                        )
+        );
+        stubFor(
+                get(urlEqualTo("/changes?start=1&limit=1"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody("{\"values\": [")
+                        )
+        );
+
+        bitbucketServerPullRequestDecorator.getDiffIndex(CHANGESURL, DIFFURL, headers, Collections.singleton(issuePath), 1, false);
+    }
+
+    @Test
+    public void getDiffIndexForIssueFilesOnly() throws Exception {
+        String issuePath = "src/com/sonar/sample/classes/ClassWithInvalidMethodName.java";
+        stubFor(
+                get(urlEqualTo("/changes?start=0&limit=1"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody(changePage(false, 1, "src/Unrelated File.java"))
+                        )
+        );
+        stubFor(
+                get(urlEqualTo("/changes?start=1&limit=1"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody(changePage(true, 0, issuePath))
+                        )
+        );
+        stubFor(
+                get(urlEqualTo("/diff/" + issuePath))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody(FileUtils.readFileToByteArray(new File("src/test/resources/bitbucket/diff.json")))
+                        )
+        );
+
+        assertThat(bitbucketServerPullRequestDecorator.getDiffIndex(CHANGESURL, DIFFURL, headers, Collections.emptySet(), 1, false).getSegmentType(issuePath, 15), is("CONTEXT"));
+        verify(0, getRequestedFor(urlMatching("/changes.*")));
+
+        DiffIndex diffIndex = bitbucketServerPullRequestDecorator.getDiffIndex(CHANGESURL, DIFFURL, headers, Collections.singleton(issuePath), 1, true);
+        assertThat(diffIndex.getSegmentType(issuePath, 15), is("ADDED"));
+        verify(1, getRequestedFor(urlMatching("/diff/.*")));
+    }
+
+    @Test
+    public void deleteComments() throws Exception {
+        List<Comment> comments = Collections.singletonList(new Comment(1, 2, "text", null));
+        assertThat(bitbucketServerPullRequestDecorator.deleteComments(COMMENTURL, headers, Collections.emptyList()), is(false));
+
         stubFor(
                 delete(urlMatching("/comments/([0-9]*)\\?version=([0-9]*)"))
                         .withHeader("Accept" , equalTo("application/json"))
@@ -158,7 +316,7 @@ public class BitbucketServerPullRequestDecoratorTest {
                         )
         );
 
-        assertThat(bitbucketServerPullRequestDecorator.deleteComments(ACTIVITYURL, COMMENTURL, "susi.sonar", headers, true), is(false));
+        assertThat(bitbucketServerPullRequestDecorator.deleteComments(COMMENTURL, headers, comments), is(false));
 
         stubFor(
                 delete(urlMatching("/comments/([0-9]*)\\?version=([0-9]*)"))
@@ -170,11 +328,41 @@ public class BitbucketServerPullRequestDecoratorTest {
                                         .withBody("{}")
                         )
         );
-        assertThat(bitbucketServerPullRequestDecorator.deleteComments(ACTIVITYURL, COMMENTURL, "susi.sonar", headers, true), is(true));
+        assertThat(bitbucketServerPullRequestDecorator.deleteComments(COMMENTURL, headers, comments), is(true));
+    }
+
+    @Test
+    public void updateComment() throws Exception {
+        Comment comment = new Comment(1, 2, "old text", null);
+
+        stubFor(
+                put(urlEqualTo("/comments/1"))
+                        .withHeader("Accept" , equalTo("application/json"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(409)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody("{}")
+                        )
+        );
+        assertThat(bitbucketServerPullRequestDecorator.updateComment(COMMENTURL, headers, comment, "new text"), is(false));
+
+        stubFor(
+                put(urlEqualTo("/comments/1"))
+                        .withHeader("Accept" , equalTo("application/json"))
+                        .withRequestBody(equalToJson("{\"text\": \"new text\", \"version\": 2}"))
+                        .willReturn(
+                                aResponse()
+                                        .withStatus(200)
+                                        .withHeader("Content-Type", "application/json")
+                                        .withBody("{}")
+                        )
+        );
+        assertThat(bitbucketServerPullRequestDecorator.updateComment(COMMENTURL, headers, comment, "new text"), is(true));
     }
 
     @Test
-    public void getIssueType() throws Exception{
+    public void getSegmentTypeFromDiffPage() throws Exception{
         stubFor(
                 get(urlEqualTo("/diff"))
                         .withHeader("Accept" , equalTo("application/json"))
@@ -185,17 +373,17 @@ public class BitbucketServerPullRequestDecoratorTest {
                                         .withBody(FileUtils.readFileToByteArray(new File("src/test/resources/bitbucket/diff.json")))
                         )
         );
-        DiffPage diffPage = bitbucketServerPullRequestDecorator.getPage(DIFFURL, headers, DiffPage.class);
+        DiffIndex diffIndex = DiffIndex.of(bitbucketServerPullRequestDecorator.getPage(DIFFURL, headers, DiffPage.class));
 
         // wrong file
-        String issueType = bitbucketServerPullRequestDecorator.getIssueType(diffPage, "src/DoesNotExist.java", 15);
+        String issueType = diffIndex.getSegmentType("src/DoesNotExist.java", 15);
         assertThat(issueType, is("CONTEXT"));
 
         // line not within diff
-        issueType = bitbucketServerPullRequestDecorator.getIssueType(diffPage, "src/com/sonar/sample/classes/ClassWithInvalidMethodName.java", 0);
+        issueType = diffIndex.getSegmentType("src/com/sonar/sample/classes/ClassWithInvalidMethodName.java", 0);
         assertThat(issueType, is("CONTEXT"));
 
-        issueType = bitbucketServerPullRequestDecorator.getIssueType(diffPage, "src/com/sonar/sample/classes/ClassWithInvalidMethodName.java", 15);
+        issueType = diffIndex.getSegmentType("src/com/sonar/sample/classes/ClassWithInvalidMethodName.java", 15);
         assertThat(issueType, is("ADDED"));
     }
 
@@ -228,4 +416,19 @@ public class BitbucketServerPullRequestDecoratorTest {
         );
         assertThat(bitbucketServerPullRequestDecorator.postComment(COMMENTURL, headers, summaryComment, true), is(true));
     }
+
+    private static String activityPage(boolean lastPage, int nextPageStart, int... commentIds) {
+        StringBuilder values = new StringBuilder();
+        for (int commentId : commentIds) {
+            if (values.length() > 0) {
+                values.append(',');
+            }
+            values.append(String.format("{\"id\": %s, \"action\": \"COMMENTED\", \"comment\": {\"id\": %s, \"version\": 0, \"text\": \"text\", \"author\": {\"slug\": \"susi.sonar\"}}}", commentId, commentId));
+        }
+        return String.format("{\"isLastPage\": %s, \"nextPageStart\": %s, \"values\": [%s]}", lastPage, nextPageStart, values);
+    }
+
+    private static String changePage(boolean lastPage, int nextPageStart, String path) {
+        return String.format("{\"isLastPage\": %s, \"nextPageStart\": %s, \"values\": [{\"type\": \"MODIFY\", \"path\": {\"toString\": \"%s\"}}]}", lastPage, nextPageStart, path);
+    }
 }
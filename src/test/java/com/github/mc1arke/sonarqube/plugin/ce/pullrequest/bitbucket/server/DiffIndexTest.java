@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.server;
+
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Diff;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffLine;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.DiffPage;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.File;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Hunk;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.response.diff.Segment;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DiffIndexTest {
+
+    @Test
+    public void testUnknownFileAndLineAreContext() {
+        DiffIndex diffIndex = DiffIndex.of(new DiffPage("from", "to", false, Collections.singletonList(
+                diff("src/Changed.java", hunk(segment("ADDED", 10, 11))))));
+
+        assertThat(diffIndex.getSegmentType("src/Other.java", 10)).isEqualTo("CONTEXT");
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 9)).isEqualTo("CONTEXT");
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 12)).isEqualTo("CONTEXT");
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 10)).isEqualTo("ADDED");
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 11)).isEqualTo("ADDED");
+    }
+
+    @Test
+    public void testFirstSegmentInHunkWins() {
+        DiffIndex diffIndex = DiffIndex.of(new DiffPage("from", "to", false, Collections.singletonList(
+                diff("src/Changed.java", hunk(segment("REMOVED", 5), segment("ADDED", 5, 6))))));
+
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 5)).isEqualTo("REMOVED");
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 6)).isEqualTo("ADDED");
+    }
+
+    @Test
+    public void testLaterHunkReplacesEarlierHunk() {
+        DiffIndex diffIndex = DiffIndex.of(new DiffPage("from", "to", false, Arrays.asList(
+                diff("src/Changed.java", hunk(segment("CONTEXT", 1, 2))),
+                diff("src/Changed.java", hunk(segment("ADDED", 2, 3))))));
+
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 1)).isEqualTo("CONTEXT");
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 2)).isEqualTo("ADDED");
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 3)).isEqualTo("ADDED");
+    }
+
+    @Test
+    public void testMissingDiffsAndDestinationsIgnored() {
+        assertThat(DiffIndex.of(null).getSegmentType("src/Changed.java", 1)).isEqualTo("CONTEXT");
+        assertThat(DiffIndex.of(new DiffPage("from", "to", false, null)).getSegmentType("src/Changed.java", 1)).isEqualTo("CONTEXT");
+
+        DiffIndex diffIndex = DiffIndex.of(new DiffPage("from", "to", false, Collections.singletonList(
+                new Diff("from", "to", Collections.singletonList(hunk(segment("ADDED", 1))), null, null))));
+        assertThat(diffIndex.getSegmentType("src/Changed.java", 1)).isEqualTo("CONTEXT");
+    }
+
+    private static Diff diff(String path, Hunk... hunks) {
+        return new Diff("from", "to", Arrays.asList(hunks), null, new File(null, null, null, path, null));
+    }
+
+    private static Hunk hunk(Segment... segments) {
+        return new Hunk(null, 0, 0, 0, 0, Arrays.asList(segments));
+    }
+
+    private static Segment segment(String type, int... destinationLines) {
+        DiffLine[] lines = new DiffLine[destinationLines.length];
+        for (int i = 0; i < destinationLines.length; i++) {
+            lines[i] = new DiffLine(destinationLines[i], destinationLines[i], "line", false, null);
+        }
+        return new Segment(type, Arrays.asList(lines), false);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class InstallationTokenCacheTest {
+
+    private static final Instant NOW = Instant.parse("2020-03-01T12:00:00Z");
+
+    private final Clock clock = mock(Clock.class);
+    private final ExecutorService refreshExecutor = mock(ExecutorService.class);
+    private final InstallationTokenCache testCase = new InstallationTokenCache(clock, refreshExecutor);
+
+    @Test
+    public void testTokenReusedUntilExpiry() throws Exception {
+        when(clock.instant()).thenReturn(NOW);
+        AtomicInteger loads = new AtomicInteger();
+        InstallationTokenCache.TokenLoader loader = () -> new RepositoryAuthenticationToken("repo", "token" + loads.incrementAndGet(), NOW.plus(Duration.ofHours(1)));
+
+        assertThat(testCase.getToken("url", "app", "key", "path", loader).getAuthenticationToken()).isEqualTo("token1");
+        assertThat(testCase.getToken("url", "app", "key", "path", loader).getAuthenticationToken()).isEqualTo("token1");
+        assertThat(testCase.getHits()).isEqualTo(1);
+        assertThat(testCase.getMisses()).isEqualTo(1);
+
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(59)).plusSeconds(30));
+        assertThat(testCase.getToken("url", "app", "key", "path", loader).getAuthenticationToken()).isEqualTo("token2");
+        assertThat(testCase.getMisses()).isEqualTo(2);
+        assertThat(testCase.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTokensKeyedByApplicationKeyAndRepository() throws Exception {
+        when(clock.instant()).thenReturn(NOW);
+        AtomicInteger loads = new AtomicInteger();
+        InstallationTokenCache.TokenLoader loader = () -> new RepositoryAuthenticationToken("repo", "token" + loads.incrementAndGet());
+
+        testCase.getToken("url", "app", "key", "path", loader);
+        testCase.getToken("url", "app", "other key", "path", loader);
+        testCase.getToken("url", "other app", "key", "path", loader);
+        testCase.getToken("url", "app", "key", "other path", loader);
+        testCase.getToken("other url", "app", "key", "path", loader);
+        testCase.getToken("url", "app", "key", "path", loader);
+
+        assertThat(loads.get()).isEqualTo(5);
+        assertThat(testCase.getSize()).isEqualTo(5);
+    }
+
+    @Test
+    public void testTokenRefreshedInBackgroundBeforeExpiry() throws Exception {
+        when(clock.instant()).thenReturn(NOW);
+        AtomicInteger loads = new AtomicInteger();
+        InstallationTokenCache.TokenLoader loader = () -> new RepositoryAuthenticationToken("repo", "token" + loads.incrementAndGet(), clock.instant().plus(Duration.ofHours(1)));
+
+        testCase.getToken("url", "app", "key", "path", loader);
+        verify(refreshExecutor, never()).execute(any());
+
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(55)));
+        assertThat(testCase.getToken("url", "app", "key", "path", loader).getAuthenticationToken()).isEqualTo("token1");
+        assertThat(testCase.getToken("url", "app", "key", "path", loader).getAuthenticationToken()).isEqualTo("token1");
+
+        ArgumentCaptor<Runnable> refreshCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(refreshExecutor, times(1)).execute(refreshCaptor.capture());
+        refreshCaptor.getValue().run();
+
+        assertThat(testCase.getToken("url", "app", "key", "path", loader).getAuthenticationToken()).isEqualTo("token2");
+        assertThat(testCase.getRefreshes()).isEqualTo(1);
+        assertThat(testCase.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailedRefreshKeepsCurrentToken() throws Exception {
+        when(clock.instant()).thenReturn(NOW);
+        AtomicInteger loads = new AtomicInteger();
+        InstallationTokenCache.TokenLoader loader = () -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new IOException("Unavailable");
+            }
+            return new RepositoryAuthenticationToken("repo", "token", NOW.plus(Duration.ofHours(1)));
+        };
+
+        testCase.getToken("url", "app", "key", "path", loader);
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(55)));
+        testCase.getToken("url", "app", "key", "path", loader);
+
+        ArgumentCaptor<Runnable> refreshCaptor = ArgumentCaptor.forClass(Runnable.class);
+        verify(refreshExecutor).execute(refreshCaptor.capture());
+        refreshCaptor.getValue().run();
+
+        assertThat(testCase.getRefreshFailures()).isEqualTo(1);
+        assertThat(testCase.getToken("url", "app", "key", "path", loader).getAuthenticationToken()).isEqualTo("token");
+        verify(refreshExecutor, times(2)).execute(any());
+    }
+
+    @Test
+    public void testFailedRetrievalNotCached() throws Exception {
+        when(clock.instant()).thenReturn(NOW);
+        AtomicInteger loads = new AtomicInteger();
+        InstallationTokenCache.TokenLoader loader = () -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("No token");
+            }
+            return new RepositoryAuthenticationToken("repo", "token");
+        };
+
+        assertThatThrownBy(() -> testCase.getToken("url", "app", "key", "path", loader)).isInstanceOf(IllegalStateException.class).hasMessage("No token");
+        assertThat(testCase.getSize()).isEqualTo(0);
+        assertThat(testCase.getToken("url", "app", "key", "path", loader).getAuthenticationToken()).isEqualTo("token");
+    }
+
+    @Test
+    public void testConcurrentRetrievalsShareSingleLoad() throws Exception {
+        InstallationTokenCache cache = new InstallationTokenCache();
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch releaseLoad = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        InstallationTokenCache.TokenLoader loader = () -> {
+            loads.incrementAndGet();
+            loadStarted.countDown();
+            try {
+                releaseLoad.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return new RepositoryAuthenticationToken("repo", "token");
+        };
+
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            Future<RepositoryAuthenticationToken> first = callers.submit(() -> cache.getToken("url", "app", "key", "path", loader));
+            assertThat(loadStarted.await(10, TimeUnit.SECONDS)).isTrue();
+            Future<RepositoryAuthenticationToken> second = callers.submit(() -> cache.getToken("url", "app", "key", "path", loader));
+            Future<RepositoryAuthenticationToken> third = callers.submit(() -> cache.getToken("url", "app", "key", "path", loader));
+            releaseLoad.countDown();
+
+            assertThat(second.get(10, TimeUnit.SECONDS)).isSameAs(first.get(10, TimeUnit.SECONDS));
+            assertThat(third.get(10, TimeUnit.SECONDS)).isSameAs(first.get(10, TimeUnit.SECONDS));
+            assertThat(loads.get()).isEqualTo(1);
+        } finally {
+            callers.shutdownNow();
+            cache.stop();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github;
+
+import org.junit.Test;
+import org.sonar.api.config.internal.MapSettings;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RepositoryInstallationCacheTest {
+
+    private static final Instant NOW = Instant.parse("2020-03-01T12:00:00Z");
+
+    @Test
+    public void testInstallationReturnedUntilExpiry() {
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        RepositoryInstallationCache testCase = new RepositoryInstallationCache(Duration.ofMinutes(30), clock);
+        RepositoryInstallation installation = new RepositoryInstallation("tokens_url", "node");
+
+        assertThat(testCase.get("url", "app", "owner/repo")).isEmpty();
+        testCase.put("url", "app", "owner/repo", installation);
+        assertThat(testCase.get("url", "app", "owner/repo")).containsSame(installation);
+        assertThat(testCase.get("url", "other app", "owner/repo")).isEmpty();
+        assertThat(testCase.get("url", "app", "owner/other")).isEmpty();
+
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(30)));
+        assertThat(testCase.get("url", "app", "owner/repo")).isEmpty();
+        assertThat(testCase.size()).isZero();
+    }
+
+    @Test
+    public void testExpiredInstallationsRemovedOnPut() {
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(NOW);
+        RepositoryInstallationCache testCase = new RepositoryInstallationCache(Duration.ofMinutes(30), clock);
+        testCase.put("url", "app", "owner/repo", new RepositoryInstallation("tokens_url", "node"));
+
+        when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(1)));
+        testCase.put("url", "app", "owner/other", new RepositoryInstallation("tokens_url", "other node"));
+
+        assertThat(testCase.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidate() {
+        RepositoryInstallationCache testCase = new RepositoryInstallationCache(new MapSettings().asConfig());
+        testCase.put("url", "app", "owner/repo", new RepositoryInstallation("tokens_url", "node"));
+
+        testCase.invalidate("url", "app", "owner/repo");
+
+        assertThat(testCase.get("url", "app", "owner/repo")).isEmpty();
+    }
+}
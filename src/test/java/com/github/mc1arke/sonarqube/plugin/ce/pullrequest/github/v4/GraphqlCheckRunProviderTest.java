@@ -18,21 +18,22 @@
  */
 package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.AnalysisDetails;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.AnalysisIssues;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PostAnalysisIssueVisitor;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.GithubApplicationAuthenticationProvider;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.RepositoryAuthenticationToken;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4.model.CheckAnnotationLevel;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4.model.CheckConclusionState;
-import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4.model.RequestableCheckStatusState;
-import io.aexp.nodes.graphql.Arguments;
-import io.aexp.nodes.graphql.GraphQLRequestEntity;
-import io.aexp.nodes.graphql.GraphQLResponseEntity;
-import io.aexp.nodes.graphql.GraphQLTemplate;
-import io.aexp.nodes.graphql.InputObject;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.HttpClientProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
+import com.github.tomakehurst.wiremock.http.Fault;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Rule;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
 import org.sonar.api.ce.posttask.QualityGate;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.config.PropertyDefinition;
@@ -40,9 +41,7 @@ import org.sonar.api.config.PropertyDefinitions;
 import org.sonar.api.platform.Server;
 import org.sonar.api.rule.Severity;
 import org.sonar.ce.task.projectanalysis.component.Component;
-import org.sonar.ce.task.projectanalysis.component.ConfigurationRepository;
 import org.sonar.ce.task.projectanalysis.component.ReportAttributes;
-import org.sonar.core.issue.DefaultIssue;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
@@ -57,40 +56,55 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-
+import java.util.stream.Collectors;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
-import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class GraphqlCheckRunProviderTest {
 
+    private static final String CREATE_CHECK_RUN = "mutation CreateCheckRun(";
+    private static final String UPDATE_CHECK_RUN = "mutation UpdateCheckRun(";
+    private static final String CREATED_RESPONSE =
+            "{\"data\": {\"createCheckRun\": {\"checkRun\": {\"id\": \"check run ID\"}}}}";
+    private static final String UPDATED_RESPONSE =
+            "{\"data\": {\"updateCheckRun\": {\"checkRun\": {\"id\": \"check run ID\"}}}}";
+
+    @Rule
+    public final WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort());
+
+    private final HttpClientProvider httpClientProvider = mock(HttpClientProvider.class);
+    private final Configuration configuration = mock(Configuration.class);
+
     @Test
     public void createCheckRunThrowsExceptionOnMissingProperty() {
-        GraphqlProvider graphqlProvider = mock(GraphqlProvider.class);
         Clock clock = mock(Clock.class);
         GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
                 mock(GithubApplicationAuthenticationProvider.class);
         Server server = mock(Server.class);
-        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
         AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
-
-        Configuration configuration = mock(Configuration.class);
-        when(configurationRepository.getConfiguration()).thenReturn(configuration);
+        when(analysisDetails.getConfiguration()).thenReturn(configuration);
 
         PropertyDefinitions propertyDefinitions = new PropertyDefinitions();
 
         GraphqlCheckRunProvider testCase =
-                new GraphqlCheckRunProvider(graphqlProvider, clock, githubApplicationAuthenticationProvider, server,
-                                            configurationRepository, propertyDefinitions);
+                new GraphqlCheckRunProvider(httpClientProvider, clock, githubApplicationAuthenticationProvider, server,
+                                            propertyDefinitions, new JsonCodec());
         assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails))
                 .isExactlyInstanceOf(IllegalStateException.class)
                 .hasMessage("sonar.pullrequest.github.endpoint must be specified in the project configuration");
@@ -98,24 +112,20 @@ public class GraphqlCheckRunProviderTest {
 
     @Test
     public void createCheckRunTreatsEmptyStringAsNullDefaultPropertyValue() {
-        GraphqlProvider graphqlProvider = mock(GraphqlProvider.class);
         Clock clock = mock(Clock.class);
         GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
                 mock(GithubApplicationAuthenticationProvider.class);
         Server server = mock(Server.class);
-        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
         AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
-
-        Configuration configuration = mock(Configuration.class);
-        when(configurationRepository.getConfiguration()).thenReturn(configuration);
+        when(analysisDetails.getConfiguration()).thenReturn(configuration);
 
         PropertyDefinition propertyDefinition =
                 PropertyDefinition.builder("sonar.pullrequest.github.endpoint").defaultValue("").build();
         PropertyDefinitions propertyDefinitions = new PropertyDefinitions(propertyDefinition);
 
         GraphqlCheckRunProvider testCase =
-                new GraphqlCheckRunProvider(graphqlProvider, clock, githubApplicationAuthenticationProvider, server,
-                                            configurationRepository, propertyDefinitions);
+                new GraphqlCheckRunProvider(httpClientProvider, clock, githubApplicationAuthenticationProvider, server,
+                                            propertyDefinitions, new JsonCodec());
         assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails))
                 .isExactlyInstanceOf(IllegalStateException.class)
                 .hasMessage("sonar.pullrequest.github.endpoint must be specified in the project configuration");
@@ -123,23 +133,19 @@ public class GraphqlCheckRunProviderTest {
 
     @Test
     public void createCheckRunOnMissingPropertyWithBlankDefault() {
-        GraphqlProvider graphqlProvider = mock(GraphqlProvider.class);
         Clock clock = mock(Clock.class);
         GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
                 mock(GithubApplicationAuthenticationProvider.class);
         Server server = mock(Server.class);
-        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
         AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
-
-        Configuration configuration = mock(Configuration.class);
-        when(configurationRepository.getConfiguration()).thenReturn(configuration);
+        when(analysisDetails.getConfiguration()).thenReturn(configuration);
 
         PropertyDefinition propertyDefinition = PropertyDefinition.builder("sonar.pullrequest.github.endpoint").build();
         PropertyDefinitions propertyDefinitions = new PropertyDefinitions(propertyDefinition);
 
         GraphqlCheckRunProvider testCase =
-                new GraphqlCheckRunProvider(graphqlProvider, clock, githubApplicationAuthenticationProvider, server,
-                                            configurationRepository, propertyDefinitions);
+                new GraphqlCheckRunProvider(httpClientProvider, clock, githubApplicationAuthenticationProvider, server,
+                                            propertyDefinitions, new JsonCodec());
         assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails))
                 .isExactlyInstanceOf(IllegalStateException.class)
                 .hasMessage("sonar.pullrequest.github.endpoint must be specified in the project configuration");
@@ -147,394 +153,393 @@ public class GraphqlCheckRunProviderTest {
 
     @Test
     public void createCheckRunExceptionOnErrorResponse() throws IOException, GeneralSecurityException {
-        GraphqlProvider graphqlProvider = mock(GraphqlProvider.class, RETURNS_DEEP_STUBS);
-        Clock clock = Clock.fixed(Instant.ofEpochSecond(1234567890), ZoneId.of("UTC"));
-        GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
-                mock(GithubApplicationAuthenticationProvider.class);
-        Server server = mock(Server.class);
-        when(server.getPublicRootUrl()).thenReturn("http://sonar.server/root");
-        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
-
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
-        when(postAnalysisIssueVisitor.getIssues()).thenReturn(new ArrayList<>());
+        wireMockRule.stubFor(post(urlEqualTo("/graphql"))
+                                     .willReturn(okJson("{\"errors\": [{\"message\":\"example message\", \"locations\": []}]}")));
 
-        AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
-        when(analysisDetails.getQualityGateStatus()).thenReturn(QualityGate.Status.OK);
-        when(analysisDetails.createAnalysisSummary(any())).thenReturn("dummy summary");
-        when(analysisDetails.getCommitSha()).thenReturn("commit SHA");
-        when(analysisDetails.getAnalysisProjectKey()).thenReturn("projectKey");
-        when(analysisDetails.getBranchName()).thenReturn("branchName");
-        when(analysisDetails.getAnalysisDate()).thenReturn(new Date(1234567890));
-        when(analysisDetails.getAnalysisId()).thenReturn("analysis ID");
-        when(analysisDetails.getPostAnalysisIssueVisitor()).thenReturn(postAnalysisIssueVisitor);
+        GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
+                mockAuthenticationProvider();
 
-        Configuration configuration = mock(Configuration.class);
         when(configuration.get(anyString()))
                 .then(i -> "sonar.pullrequest.github.endpoint".equals(i.getArguments()[0]) ? Optional.empty() :
                            Optional.of(i.getArguments()[0]));
-        when(configurationRepository.getConfiguration()).thenReturn(configuration);
-
-        RepositoryAuthenticationToken repositoryAuthenticationToken = mock(RepositoryAuthenticationToken.class);
-        when(repositoryAuthenticationToken.getAuthenticationToken()).thenReturn("dummyAuthToken");
-        when(repositoryAuthenticationToken.getRepositoryId()).thenReturn("repository ID");
-        when(githubApplicationAuthenticationProvider
-                     .getInstallationToken(anyString(), anyString(), anyString(), anyString()))
-                .thenReturn(repositoryAuthenticationToken);
-
-        when(graphqlProvider.createRequestBuilder()).thenReturn(GraphQLRequestEntity.Builder());
-
-        GraphQLResponseEntity<CreateCheckRun> graphQLResponseEntity =
-                new ObjectMapper().readerFor(GraphQLResponseEntity.class)
-                        .readValue("{\"errors\": [{\"message\":\"example message\", \"locations\": []}]}");
-        GraphQLTemplate graphQLTemplate = mock(GraphQLTemplate.class);
-        when(graphQLTemplate.mutate(any(), eq(CreateCheckRun.class))).thenReturn(graphQLResponseEntity);
-        when(graphqlProvider.createGraphQLTemplate()).thenReturn(graphQLTemplate);
 
         PropertyDefinition propertyDefinition =
-                PropertyDefinition.builder("sonar.pullrequest.github.endpoint").defaultValue("http://host.name")
+                PropertyDefinition.builder("sonar.pullrequest.github.endpoint").defaultValue(wireMockRule.baseUrl())
                         .build();
         PropertyDefinitions propertyDefinitions = new PropertyDefinitions(propertyDefinition);
 
         GraphqlCheckRunProvider testCase =
-                new GraphqlCheckRunProvider(graphqlProvider, clock, githubApplicationAuthenticationProvider, server,
-                                            configurationRepository, propertyDefinitions);
+                new GraphqlCheckRunProvider(createHttpClientProvider(), mock(Clock.class, i -> Instant.EPOCH),
+                                            githubApplicationAuthenticationProvider, mockServer(),
+                                            propertyDefinitions, new JsonCodec());
+
+        AnalysisDetails analysisDetails = createAnalysisDetails(QualityGate.Status.OK, Collections.emptyList());
         assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails)).hasMessage(
                 "An error was returned in the response from the Github API:" + System.lineSeparator() +
-                "- Error{message='example message', locations=[]}").isExactlyInstanceOf(IllegalStateException.class);
+                "- example message").isExactlyInstanceOf(IllegalStateException.class);
 
         verify(githubApplicationAuthenticationProvider)
-                .getInstallationToken(eq("http://host.name"), eq("sonar.alm.github.app.id"),
+                .getInstallationToken(eq(wireMockRule.baseUrl()), eq("sonar.alm.github.app.id"),
                                       eq("sonar.alm.github.app.privateKey.secured"),
                                       eq("sonar.pullrequest.github.repository"));
-
     }
 
+    @Test
+    public void createCheckRunExceptionOnHttpErrorStatus() throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql"))
+                                     .willReturn(aResponse().withStatus(502).withBody("Bad gateway")));
+
+        GraphqlCheckRunProvider testCase = createTestCase(new HashMap<>());
+
+        AnalysisDetails analysisDetails = createAnalysisDetails(QualityGate.Status.OK, Collections.emptyList());
+        assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails)).hasMessage(
+                "An error was returned in the response from the Github API:" + System.lineSeparator() +
+                "- Github returned HTTP status 502: Bad gateway").isExactlyInstanceOf(IllegalStateException.class);
+    }
 
     @Test
     public void createCheckRunExceptionOnInvalidIssueSeverity() throws IOException, GeneralSecurityException {
-        GraphqlProvider graphqlProvider = mock(GraphqlProvider.class, RETURNS_DEEP_STUBS);
-        Clock clock = Clock.fixed(Instant.ofEpochSecond(1234567890), ZoneId.of("UTC"));
-        GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
-                mock(GithubApplicationAuthenticationProvider.class);
-        when(githubApplicationAuthenticationProvider.getInstallationToken(any(), any(), any(), any()))
-                .thenReturn(mock(RepositoryAuthenticationToken.class));
-        Server server = mock(Server.class);
-        when(server.getPublicRootUrl()).thenReturn("http://sonar.server/root");
-        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).willReturn(okJson(CREATED_RESPONSE)));
 
-        ReportAttributes reportAttributes = mock(ReportAttributes.class);
-        when(reportAttributes.getScmPath()).thenReturn(Optional.of("path"));
+        PostAnalysisIssueVisitor.LightIssue lightIssue = mock(PostAnalysisIssueVisitor.LightIssue.class);
+        when(lightIssue.severity()).thenReturn("dummy");
+        when(lightIssue.getMessage()).thenReturn("message");
 
-        Component component = mock(Component.class);
-        when(component.getType()).thenReturn(Component.Type.FILE);
-        when(component.getReportAttributes()).thenReturn(reportAttributes);
+        GraphqlCheckRunProvider testCase = createTestCase(new HashMap<>());
 
-        DefaultIssue defaultIssue = mock(DefaultIssue.class);
-        when(defaultIssue.severity()).thenReturn("dummy");
+        AnalysisDetails analysisDetails = createAnalysisDetails(QualityGate.Status.OK, Collections
+                .singletonList(createComponentIssue(lightIssue, Component.Type.FILE, Optional.of("path"))));
+        assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails)).hasMessage("Unknown severity value: dummy")
+                .isExactlyInstanceOf(IllegalArgumentException.class);
+    }
 
-        PostAnalysisIssueVisitor.ComponentIssue componentIssue = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
-        when(componentIssue.getIssue()).thenReturn(defaultIssue);
-        when(componentIssue.getComponent()).thenReturn(component);
+    @Test
+    public void createCheckRunHappyPathOkStatus() throws IOException, GeneralSecurityException {
+        createCheckRunHappyPath(QualityGate.Status.OK);
+    }
 
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
-        when(postAnalysisIssueVisitor.getIssues()).thenReturn(Collections.singletonList(componentIssue));
+    @Test
+    public void createCheckRunHappyPathErrorStatus() throws IOException, GeneralSecurityException {
+        createCheckRunHappyPath(QualityGate.Status.ERROR);
+    }
 
-        AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
-        when(analysisDetails.getQualityGateStatus()).thenReturn(QualityGate.Status.OK);
-        when(analysisDetails.createAnalysisSummary(any())).thenReturn("dummy summary");
-        when(analysisDetails.getCommitSha()).thenReturn("commit SHA");
-        when(analysisDetails.getAnalysisProjectKey()).thenReturn("projectKey");
-        when(analysisDetails.getBranchName()).thenReturn("branchName");
-        when(analysisDetails.getAnalysisDate()).thenReturn(new Date(1234567890));
-        when(analysisDetails.getAnalysisId()).thenReturn("analysis ID");
-        when(analysisDetails.getPostAnalysisIssueVisitor()).thenReturn(postAnalysisIssueVisitor);
+    private void createCheckRunHappyPath(QualityGate.Status status) throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).willReturn(okJson(CREATED_RESPONSE)));
 
-        Configuration configuration = mock(Configuration.class);
-        when(configuration.get(anyString()))
-                .then(i -> "sonar.pullrequest.github.endpoint".equals(i.getArguments()[0]) ? Optional.empty() :
-                           Optional.of(i.getArguments()[0]));
-        when(configurationRepository.getConfiguration()).thenReturn(configuration);
+        List<PostAnalysisIssueVisitor.ComponentIssue> issueList =
+                Arrays.asList(createComponentIssue(createIssue(2, "issue \"1\"", Severity.INFO), Component.Type.FILE,
+                                                   Optional.of("path/to.file")),
+                              createComponentIssue(createIssue(null, "issue 2\nwith a new line", Severity.BLOCKER),
+                                                   Component.Type.FILE, Optional.of("path/to.file")),
+                              createComponentIssue(createIssue(9, "issue 3", Severity.CRITICAL), Component.Type.FILE,
+                                                   Optional.empty()),
+                              createComponentIssue(createIssue(2, "issue 4", Severity.CRITICAL),
+                                                   Component.Type.PROJECT, Optional.of("path/to.file")),
+                              createComponentIssue(createIssue(1999, "issue 5", Severity.MAJOR), Component.Type.FILE,
+                                                   Optional.of("other/file")),
+                              createComponentIssue(createIssue(42, "issue 6", Severity.MINOR), Component.Type.FILE,
+                                                   Optional.of("other/file")));
+
+        GraphqlCheckRunProvider testCase = createTestCase(new HashMap<>());
+        testCase.createCheckRun(createAnalysisDetails(status, issueList));
+
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo("/graphql"))
+                .withHeader("Authorization", equalTo("Bearer dummyAuthToken"))
+                .withHeader("Accept", equalTo("application/vnd.github.antiope-preview+json"))
+                .withHeader("Content-Type", containing("application/json")));
+
+        JsonNode request =
+                new ObjectMapper().readTree(wireMockRule.getAllServeEvents().get(0).getRequest().getBodyAsString());
+        assertEquals("mutation CreateCheckRun($input: CreateCheckRunInput!) { createCheckRun(input: $input) { checkRun { id } } }",
+                     request.get("query").asText());
+
+        JsonNode input = request.get("variables").get("input");
+        assertEquals("repository ID", input.get("repositoryId").asText());
+        assertEquals("sonar.alm.github.app.name Results", input.get("name").asText());
+        assertEquals("commit SHA", input.get("headSha").asText());
+        assertEquals("COMPLETED", input.get("status").asText());
+        assertEquals(status == QualityGate.Status.OK ? "SUCCESS" : "FAILURE", input.get("conclusion").asText());
+        assertEquals("http://sonar.server/root/dashboard?id=projectKey&pullRequest=branchName",
+                     input.get("detailsUrl").asText());
+        assertEquals("1970-01-15T06:56:07Z", input.get("startedAt").asText());
+        assertEquals("2009-02-13T23:31:30Z", input.get("completedAt").asText());
+        assertEquals("analysis ID", input.get("externalId").asText());
+
+        JsonNode output = input.get("output");
+        assertEquals("Quality Gate " + (status == QualityGate.Status.OK ? "success" : "failed"),
+                     output.get("title").asText());
+        assertEquals("dummy summary", output.get("summary").asText());
+
+        assertThat(output.get("annotations")).hasSize(4);
+        assertAnnotation(output.get("annotations").get(0), "path/to.file", 2, "NOTICE", "issue \"1\"");
+        assertAnnotation(output.get("annotations").get(1), "path/to.file", 0, "FAILURE", "issue 2\nwith a new line");
+        assertAnnotation(output.get("annotations").get(2), "other/file", 1999, "WARNING", "issue 5");
+        assertAnnotation(output.get("annotations").get(3), "other/file", 42, "WARNING", "issue 6");
+    }
 
+    @Test
+    public void createCheckRunUploadsAnnotationsInBatches() throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(CREATE_CHECK_RUN))
+                                     .willReturn(okJson(CREATED_RESPONSE)));
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(UPDATE_CHECK_RUN))
+                                     .willReturn(okJson(UPDATED_RESPONSE)));
+
+        GraphqlCheckRunProvider testCase = createTestCase(new HashMap<>());
+        testCase.createCheckRun(createAnalysisDetails(QualityGate.Status.OK, createComponentIssues(120)));
+
+        List<JsonNode> createRequests = getRequestInputs(CREATE_CHECK_RUN);
+        assertThat(createRequests).hasSize(1);
+        assertThat(getMessages(createRequests.get(0))).hasSize(50).startsWith("issue 0").endsWith("issue 49");
+        assertEquals("IN_PROGRESS", createRequests.get(0).get("status").asText());
+        assertThat(createRequests.get(0).has("conclusion")).isFalse();
+        assertThat(createRequests.get(0).has("completedAt")).isFalse();
+
+        List<JsonNode> allUpdateRequests = getRequestInputs(UPDATE_CHECK_RUN);
+        assertThat(allUpdateRequests).hasSize(3);
+        JsonNode completionRequest = allUpdateRequests.get(2);
+        assertEquals("check run ID", completionRequest.get("checkRunId").asText());
+        assertEquals("COMPLETED", completionRequest.get("status").asText());
+        assertEquals("SUCCESS", completionRequest.get("conclusion").asText());
+        assertEquals("2009-02-13T23:31:30Z", completionRequest.get("completedAt").asText());
+        assertEquals("dummy summary", completionRequest.get("output").get("summary").asText());
+        assertThat(getMessages(completionRequest)).isEmpty();
+
+        List<JsonNode> updateRequests = allUpdateRequests.subList(0, 2);
+        for (JsonNode updateRequest : updateRequests) {
+            assertThat(updateRequest.has("status")).isFalse();
+            assertThat(updateRequest.has("conclusion")).isFalse();
+            assertEquals("check run ID", updateRequest.get("checkRunId").asText());
+            assertEquals("repository ID", updateRequest.get("repositoryId").asText());
+            assertEquals("Quality Gate success", updateRequest.get("output").get("title").asText());
+            assertEquals("dummy summary", updateRequest.get("output").get("summary").asText());
+        }
+        assertThat(updateRequests.stream().map(GraphqlCheckRunProviderTest::getMessages).collect(Collectors.toList()))
+                .extracting(List::size).containsExactlyInAnyOrder(50, 20);
+        assertThat(updateRequests.stream().map(r -> getMessages(r).get(0)).collect(Collectors.toList()))
+                .containsExactlyInAnyOrder("issue 50", "issue 100");
+    }
 
-        PropertyDefinition propertyDefinition =
-                PropertyDefinition.builder("sonar.pullrequest.github.endpoint").defaultValue("http://host.name")
-                        .build();
-        PropertyDefinitions propertyDefinitions = new PropertyDefinitions(propertyDefinition);
+    @Test
+    public void createCheckRunHonoursSmallerBatchSize() throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(CREATE_CHECK_RUN))
+                                     .willReturn(okJson(CREATED_RESPONSE)));
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(UPDATE_CHECK_RUN))
+                                     .willReturn(okJson(UPDATED_RESPONSE)));
+
+        Map<String, Integer> settings = new HashMap<>();
+        settings.put(GraphqlCheckRunProvider.ANNOTATION_BATCH_SIZE, 10);
+        settings.put(GraphqlCheckRunProvider.ANNOTATION_CONCURRENCY, 1);
+        GraphqlCheckRunProvider testCase = createTestCase(settings);
+        testCase.createCheckRun(createAnalysisDetails(QualityGate.Status.OK, createComponentIssues(35)));
+
+        assertThat(getMessages(getRequestInputs(CREATE_CHECK_RUN).get(0))).hasSize(10);
+        List<JsonNode> updateRequests = getRequestInputs(UPDATE_CHECK_RUN);
+        assertThat(updateRequests).hasSize(4);
+        assertThat(getMessages(updateRequests.get(0))).startsWith("issue 10").hasSize(10);
+        assertThat(getMessages(updateRequests.get(1))).startsWith("issue 20").hasSize(10);
+        assertThat(getMessages(updateRequests.get(2))).startsWith("issue 30").hasSize(5);
+        assertThat(getMessages(updateRequests.get(3))).isEmpty();
+        assertEquals("COMPLETED", updateRequests.get(3).get("status").asText());
+    }
 
-        GraphqlCheckRunProvider testCase =
-                new GraphqlCheckRunProvider(graphqlProvider, clock, githubApplicationAuthenticationProvider, server,
-                                            configurationRepository, propertyDefinitions);
-        assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails)).hasMessage("Unknown severity value: dummy")
-                .isExactlyInstanceOf(IllegalArgumentException.class);
+    @Test
+    public void createCheckRunRetriesFailedAnnotationBatch() throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(CREATE_CHECK_RUN))
+                                     .willReturn(okJson(CREATED_RESPONSE)));
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(UPDATE_CHECK_RUN))
+                                     .inScenario("retry").whenScenarioStateIs(Scenario.STARTED)
+                                     .willReturn(aResponse().withStatus(502)).willSetStateTo("rate limited"));
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(UPDATE_CHECK_RUN))
+                                     .inScenario("retry").whenScenarioStateIs("rate limited")
+                                     .willReturn(aResponse().withStatus(429).withBody("secondary rate limit"))
+                                     .willSetStateTo("available"));
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(UPDATE_CHECK_RUN))
+                                     .inScenario("retry").whenScenarioStateIs("available")
+                                     .willReturn(okJson(UPDATED_RESPONSE)));
+
+        GraphqlCheckRunProvider testCase = createTestCase(new HashMap<>());
+        testCase.createCheckRun(createAnalysisDetails(QualityGate.Status.OK, createComponentIssues(51)));
+
+        List<JsonNode> updateRequests = getRequestInputs(UPDATE_CHECK_RUN);
+        assertThat(updateRequests).hasSize(4);
+        assertThat(updateRequests.subList(0, 3))
+                .allSatisfy(r -> assertThat(getMessages(r)).containsExactly("issue 50"));
+        assertEquals("COMPLETED", updateRequests.get(3).get("status").asText());
     }
 
+    @Test
+    public void createCheckRunFailsOnceAnnotationRetriesExhausted() throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(CREATE_CHECK_RUN))
+                                     .willReturn(okJson(CREATED_RESPONSE)));
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(UPDATE_CHECK_RUN))
+                                     .willReturn(aResponse().withStatus(503).withBody("Service unavailable")));
+
+        Map<String, Integer> settings = new HashMap<>();
+        settings.put(GraphqlCheckRunProvider.ANNOTATION_RETRIES, 1);
+        GraphqlCheckRunProvider testCase = createTestCase(settings);
+        AnalysisDetails analysisDetails = createAnalysisDetails(QualityGate.Status.OK, createComponentIssues(51));
+
+        assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails)).hasMessage(
+                "An error was returned in the response from the Github API:" + System.lineSeparator() +
+                "- Github returned HTTP status 503: Service unavailable")
+                .isExactlyInstanceOf(IllegalStateException.class);
+        assertThat(getRequestInputs(UPDATE_CHECK_RUN)).hasSize(2);
+    }
 
     @Test
-    public void createCheckRunHappyPathOkStatus() throws IOException, GeneralSecurityException {
-        createCheckRunHappyPath(QualityGate.Status.OK);
+    public void createCheckRunDoesNotRetryAnnotationBatchProcessedWithErrors()
+            throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(CREATE_CHECK_RUN))
+                                     .willReturn(okJson(CREATED_RESPONSE)));
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(UPDATE_CHECK_RUN))
+                                     .willReturn(okJson("{\"errors\": [{\"message\": \"example message\"}]}")));
+
+        GraphqlCheckRunProvider testCase = createTestCase(new HashMap<>());
+        AnalysisDetails analysisDetails = createAnalysisDetails(QualityGate.Status.OK, createComponentIssues(51));
+
+        assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails)).hasMessage(
+                "An error was returned in the response from the Github API:" + System.lineSeparator() +
+                "- example message").isExactlyInstanceOf(IllegalStateException.class);
+        assertThat(getRequestInputs(UPDATE_CHECK_RUN)).hasSize(1);
     }
 
     @Test
-    public void createCheckRunHappyPathErrorStatus() throws IOException, GeneralSecurityException {
-        createCheckRunHappyPath(QualityGate.Status.ERROR);
+    public void createCheckRunDoesNotRetryAnnotationBatchOnConnectionFailure()
+            throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(CREATE_CHECK_RUN))
+                                     .willReturn(okJson(CREATED_RESPONSE)));
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).withRequestBody(containing(UPDATE_CHECK_RUN))
+                                     .willReturn(aResponse().withFault(Fault.CONNECTION_RESET_BY_PEER)));
+
+        GraphqlCheckRunProvider testCase = createTestCase(new HashMap<>());
+        AnalysisDetails analysisDetails = createAnalysisDetails(QualityGate.Status.OK, createComponentIssues(51));
+
+        assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails)).isInstanceOf(IOException.class);
+        assertThat(getRequestInputs(UPDATE_CHECK_RUN)).hasSize(1);
     }
 
+    @Test
+    public void createCheckRunFailsWhenNoCheckRunIdReturnedForRemainingAnnotations()
+            throws IOException, GeneralSecurityException {
+        wireMockRule.stubFor(post(urlEqualTo("/graphql")).willReturn(okJson("{\"data\": {}}")));
 
-    private void createCheckRunHappyPath(QualityGate.Status status) throws IOException, GeneralSecurityException {
-        GraphqlProvider graphqlProvider = mock(GraphqlProvider.class);
-        Clock clock = Clock.fixed(Instant.ofEpochSecond(1234567890), ZoneId.of("UTC"));
-        GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
-                mock(GithubApplicationAuthenticationProvider.class);
-        Server server = mock(Server.class);
-        when(server.getPublicRootUrl()).thenReturn("http://sonar.server/root");
-        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
+        GraphqlCheckRunProvider testCase = createTestCase(new HashMap<>());
+        AnalysisDetails analysisDetails = createAnalysisDetails(QualityGate.Status.OK, createComponentIssues(51));
 
-        DefaultIssue issue1 = mock(DefaultIssue.class);
-        when(issue1.getLine()).thenReturn(2);
-        when(issue1.getMessage()).thenReturn("issue 1");
-        when(issue1.severity()).thenReturn(Severity.INFO);
+        assertThatThrownBy(() -> testCase.createCheckRun(analysisDetails)).hasMessage(
+                "No check run ID was returned from the Github API so remaining annotations cannot be added")
+                .isExactlyInstanceOf(IllegalStateException.class);
+        assertThat(getRequestInputs(UPDATE_CHECK_RUN)).isEmpty();
+    }
 
-        ReportAttributes reportAttributes = mock(ReportAttributes.class);
-        when(reportAttributes.getScmPath()).thenReturn(Optional.of("path/to.file"));
-        Component component1 = mock(Component.class);
-        when(component1.getReportAttributes()).thenReturn(reportAttributes);
-        when(component1.getType()).thenReturn(Component.Type.FILE);
-
-        PostAnalysisIssueVisitor.ComponentIssue componentIssue1 = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
-        when(componentIssue1.getComponent()).thenReturn(component1);
-        when(componentIssue1.getIssue()).thenReturn(issue1);
-
-        DefaultIssue issue2 = mock(DefaultIssue.class);
-        when(issue2.getLine()).thenReturn(null);
-        when(issue2.getMessage()).thenReturn("issue 2");
-
-        PostAnalysisIssueVisitor.ComponentIssue componentIssue2 = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
-        when(componentIssue2.getComponent()).thenReturn(component1);
-        when(componentIssue2.getIssue()).thenReturn(issue2);
-        when(issue2.severity()).thenReturn(Severity.BLOCKER);
-
-        ReportAttributes reportAttributes2 = mock(ReportAttributes.class);
-        when(reportAttributes2.getScmPath()).thenReturn(Optional.empty());
-        Component component2 = mock(Component.class);
-        when(component2.getReportAttributes()).thenReturn(reportAttributes);
-        when(component2.getType()).thenReturn(Component.Type.FILE);
-
-        DefaultIssue issue3 = mock(DefaultIssue.class);
-        when(issue3.getLine()).thenReturn(9);
-        when(issue3.severity()).thenReturn(Severity.CRITICAL);
-        when(issue3.getMessage()).thenReturn("issue 3");
-
-        PostAnalysisIssueVisitor.ComponentIssue componentIssue3 = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
-        when(componentIssue3.getComponent()).thenReturn(component2);
-        when(componentIssue3.getIssue()).thenReturn(issue3);
-
-        ReportAttributes reportAttributes3 = mock(ReportAttributes.class);
-        when(reportAttributes3.getScmPath()).thenReturn(Optional.empty());
-        Component component3 = mock(Component.class);
-        when(component3.getReportAttributes()).thenReturn(reportAttributes);
-        when(component3.getType()).thenReturn(Component.Type.PROJECT);
-
-        DefaultIssue issue4 = mock(DefaultIssue.class);
-        when(issue4.getLine()).thenReturn(2);
-        when(issue4.severity()).thenReturn(Severity.CRITICAL);
-        when(issue4.getMessage()).thenReturn("issue 4");
-
-        PostAnalysisIssueVisitor.ComponentIssue componentIssue4 = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
-        when(componentIssue4.getComponent()).thenReturn(component3);
-        when(componentIssue4.getIssue()).thenReturn(issue4);
-
-        DefaultIssue issue5 = mock(DefaultIssue.class);
-        when(issue5.getLine()).thenReturn(1999);
-        when(issue5.severity()).thenReturn(Severity.MAJOR);
-        when(issue5.getMessage()).thenReturn("issue 5");
-
-        PostAnalysisIssueVisitor.ComponentIssue componentIssue5 = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
-        when(componentIssue5.getComponent()).thenReturn(component2);
-        when(componentIssue5.getIssue()).thenReturn(issue5);
-
-        DefaultIssue issue6 = mock(DefaultIssue.class);
-        when(issue6.getLine()).thenReturn(42);
-        when(issue6.severity()).thenReturn(Severity.MINOR);
-        when(issue6.getMessage()).thenReturn("issue 6");
-
-        PostAnalysisIssueVisitor.ComponentIssue componentIssue6 = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
-        when(componentIssue6.getComponent()).thenReturn(component2);
-        when(componentIssue6.getIssue()).thenReturn(issue6);
+    private static void assertAnnotation(JsonNode annotation, String path, int line, String level, String message) {
+        assertEquals(path, annotation.get("path").asText());
+        assertEquals(line, annotation.get("location").get("startLine").asInt());
+        assertEquals(line + 1, annotation.get("location").get("endLine").asInt());
+        assertEquals(level, annotation.get("annotationLevel").asText());
+        assertEquals(message, annotation.get("message").asText());
+    }
 
-        List<PostAnalysisIssueVisitor.ComponentIssue> issueList =
-                Arrays.asList(componentIssue1, componentIssue2, componentIssue3, componentIssue4, componentIssue5,
-                              componentIssue6);
-        PostAnalysisIssueVisitor postAnalysisIssueVisitor = mock(PostAnalysisIssueVisitor.class);
-        when(postAnalysisIssueVisitor.getIssues()).thenReturn(issueList);
+    private List<JsonNode> getRequestInputs(String mutation) throws IOException {
+        List<JsonNode> inputs = new ArrayList<>();
+        for (LoggedRequest request : wireMockRule
+                .findAll(postRequestedFor(urlEqualTo("/graphql")).withRequestBody(containing(mutation)))) {
+            inputs.add(new ObjectMapper().readTree(request.getBodyAsString()).get("variables").get("input"));
+        }
+        return inputs;
+    }
 
-        AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
-        when(analysisDetails.getQualityGateStatus()).thenReturn(status);
-        when(analysisDetails.createAnalysisSummary(any())).thenReturn("dummy summary");
-        when(analysisDetails.getCommitSha()).thenReturn("commit SHA");
-        when(analysisDetails.getAnalysisProjectKey()).thenReturn("projectKey");
-        when(analysisDetails.getBranchName()).thenReturn("branchName");
-        when(analysisDetails.getAnalysisDate()).thenReturn(new Date(1234567890));
-        when(analysisDetails.getAnalysisId()).thenReturn("analysis ID");
-        when(analysisDetails.getPostAnalysisIssueVisitor()).thenReturn(postAnalysisIssueVisitor);
+    private static List<String> getMessages(JsonNode input) {
+        List<String> messages = new ArrayList<>();
+        for (JsonNode annotation : input.get("output").get("annotations")) {
+            messages.add(annotation.get("message").asText());
+        }
+        return messages;
+    }
 
-        Configuration configuration = mock(Configuration.class);
+    private GraphqlCheckRunProvider createTestCase(Map<String, Integer> settings)
+            throws IOException, GeneralSecurityException {
         when(configuration.get(anyString())).then(i -> "sonar.pullrequest.github.endpoint".equals(i.getArguments()[0]) ?
-                                                       Optional.of("http://host.name") :
+                                                       Optional.of(wireMockRule.baseUrl()) :
                                                        Optional.of(i.getArguments()[0]));
-        when(configurationRepository.getConfiguration()).thenReturn(configuration);
+        when(configuration.getInt(anyString())).then(i -> Optional.ofNullable(settings.get(i.getArguments()[0])));
+        when(configuration.getInt(GraphqlCheckRunProvider.ANNOTATION_RETRY_DELAY)).thenReturn(Optional.of(0));
+
+        Clock clock = Clock.fixed(Instant.ofEpochSecond(1234567890), ZoneId.of("UTC"));
+        return new GraphqlCheckRunProvider(createHttpClientProvider(), clock, mockAuthenticationProvider(),
+                                           mockServer(), new PropertyDefinitions(),
+                                           new JsonCodec());
+    }
+
+    private HttpClientProvider createHttpClientProvider() {
+        when(httpClientProvider.getHttpClient()).thenReturn(HttpClients.createDefault());
+        return httpClientProvider;
+    }
 
-        ArgumentCaptor<String> authenticationProviderArgumentCaptor = ArgumentCaptor.forClass(String.class);
+    private static GithubApplicationAuthenticationProvider mockAuthenticationProvider()
+            throws IOException, GeneralSecurityException {
         RepositoryAuthenticationToken repositoryAuthenticationToken = mock(RepositoryAuthenticationToken.class);
         when(repositoryAuthenticationToken.getAuthenticationToken()).thenReturn("dummyAuthToken");
         when(repositoryAuthenticationToken.getRepositoryId()).thenReturn("repository ID");
-        when(githubApplicationAuthenticationProvider
-                     .getInstallationToken(authenticationProviderArgumentCaptor.capture(),
-                                           authenticationProviderArgumentCaptor.capture(),
-                                           authenticationProviderArgumentCaptor.capture(),
-                                           authenticationProviderArgumentCaptor.capture()))
+        GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
+                mock(GithubApplicationAuthenticationProvider.class);
+        when(githubApplicationAuthenticationProvider.getInstallationToken(any(), any(), any(), any()))
                 .thenReturn(repositoryAuthenticationToken);
+        return githubApplicationAuthenticationProvider;
+    }
 
-        List<InputObject.Builder<Object>> inputObjectBuilders = new ArrayList<>();
-        List<InputObject<Object>> inputObjects = new ArrayList<>();
-        doAnswer(i -> {
-            InputObject.Builder<Object> builder = spy(new InputObject.Builder<>());
-            inputObjectBuilders.add(builder);
-            doAnswer(i2 -> {
-                InputObject<Object> inputObject = (InputObject<Object>) i2.callRealMethod();
-                inputObjects.add(inputObject);
-                return inputObject;
-            }).when(builder).build();
-            return builder;
-        }).when(graphqlProvider).createInputObject();
-
-        List<GraphQLRequestEntity.RequestBuilder> requestBuilders = new ArrayList<>();
-        List<GraphQLRequestEntity> requestEntities = new ArrayList<>();
-        doAnswer(i -> {
-            GraphQLRequestEntity.RequestBuilder requestBuilder = spy(GraphQLRequestEntity.Builder());
-            requestBuilders.add(requestBuilder);
-            doAnswer(i2 -> {
-                GraphQLRequestEntity graphQLRequestEntity = (GraphQLRequestEntity) i2.callRealMethod();
-                requestEntities.add(graphQLRequestEntity);
-                return graphQLRequestEntity;
-            }).when(requestBuilder).build();
-            return requestBuilder;
-        }).when(graphqlProvider).createRequestBuilder();
-
-        GraphQLResponseEntity<CreateCheckRun> graphQLResponseEntity =
-                new ObjectMapper().readerFor(GraphQLResponseEntity.class)
-                        .readValue(status == QualityGate.Status.ERROR ? "{\"errors\": []}" : "{\"response\": {}}}");
-
-        ArgumentCaptor<GraphQLRequestEntity> requestEntityArgumentCaptor =
-                ArgumentCaptor.forClass(GraphQLRequestEntity.class);
-
-        GraphQLTemplate graphQLTemplate = mock(GraphQLTemplate.class);
-        when(graphQLTemplate.mutate(requestEntityArgumentCaptor.capture(), eq(CreateCheckRun.class)))
-                .thenReturn(graphQLResponseEntity);
-        when(graphqlProvider.createGraphQLTemplate()).thenReturn(graphQLTemplate);
+    private static Server mockServer() {
+        Server server = mock(Server.class);
+        when(server.getPublicRootUrl()).thenReturn("http://sonar.server/root");
+        return server;
+    }
 
-        PropertyDefinitions propertyDefinitions = new PropertyDefinitions();
+    private static PostAnalysisIssueVisitor.LightIssue createIssue(Integer line, String message, String severity) {
+        PostAnalysisIssueVisitor.LightIssue issue = mock(PostAnalysisIssueVisitor.LightIssue.class);
+        when(issue.getLine()).thenReturn(line);
+        when(issue.getMessage()).thenReturn(message);
+        when(issue.severity()).thenReturn(severity);
+        return issue;
+    }
 
-        GraphqlCheckRunProvider testCase =
-                new GraphqlCheckRunProvider(graphqlProvider, clock, githubApplicationAuthenticationProvider, server,
-                                            configurationRepository, propertyDefinitions);
-        testCase.createCheckRun(analysisDetails);
-
-        assertEquals(1, requestBuilders.size());
-
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Authorization", "Bearer dummyAuthToken");
-        headers.put("Accept", "application/vnd.github.antiope-preview+json");
-
-
-        verify(requestBuilders.get(0)).url(eq("http://host.name/graphql"));
-        verify(requestBuilders.get(0)).headers(eq(headers));
-        verify(requestBuilders.get(0)).requestMethod(eq(GraphQLTemplate.GraphQLMethod.MUTATE));
-        verify(requestBuilders.get(0)).build();
-        assertEquals(requestEntities.get(0), requestEntityArgumentCaptor.getValue());
-
-        ArgumentCaptor<Arguments> argumentsArgumentCaptor = ArgumentCaptor.forClass(Arguments.class);
-        verify(requestBuilders.get(0)).arguments(argumentsArgumentCaptor.capture());
-        assertEquals("createCheckRun", argumentsArgumentCaptor.getValue().getDotPath());
-        assertEquals(1, argumentsArgumentCaptor.getValue().getArguments().size());
-        assertEquals("input", argumentsArgumentCaptor.getValue().getArguments().get(0).getKey());
-//        assertThat(argumentsArgumentCaptor.getValue().getArguments().get(0).getValue()).usingRecursiveComparison().isEqualTo(inputObjects.get(1));
-
-        assertEquals(
-                Arrays.asList("http://host.name", "sonar.alm.github.app.id", "sonar.alm.github.app.privateKey.secured",
-                              "sonar.pullrequest.github.repository"),
-                authenticationProviderArgumentCaptor.getAllValues());
-
-        List<InputObject<Object>> expectedAnnotationObjects = new ArrayList<>();
-        int position = 0;
-        for (int i = 0; i < issueList.size(); i++) {
-            if (issueList.get(i).getComponent().getType() != Component.Type.FILE ||
-                !issueList.get(i).getComponent().getReportAttributes().getScmPath().isPresent()) {
-                continue;
-            }
-            int line = (null == issueList.get(i).getIssue().getLine() ? 0 : issueList.get(i).getIssue().getLine());
-            verify(inputObjectBuilders.get(position)).put(eq("startLine"), eq(line));
-            verify(inputObjectBuilders.get(position)).put(eq("endLine"), eq(line + 1));
-            verify(inputObjectBuilders.get(position)).build();
-            position++;
-
-            String path = issueList.get(i).getComponent().getReportAttributes().getScmPath().get();
-            InputObject.Builder<Object> fileBuilder = inputObjectBuilders.get(position);
-            verify(fileBuilder).put(eq("path"), eq(path));
-            verify(fileBuilder).put(eq("location"), eq(inputObjects.get(position - 1)));
-            String sonarQubeSeverity = issueList.get(i).getIssue().severity();
-            verify(fileBuilder).put(eq("annotationLevel"),
-                                    eq(sonarQubeSeverity.equals(Severity.INFO) ? CheckAnnotationLevel.NOTICE :
-                                       sonarQubeSeverity.equals(Severity.MINOR) ||
-                                       sonarQubeSeverity.equals(Severity.MAJOR) ? CheckAnnotationLevel.WARNING :
-                                       CheckAnnotationLevel.FAILURE));
-            verify(fileBuilder).put(eq("message"), eq("issue " + (i + 1)));
-            verify(inputObjectBuilders.get(position)).build();
-
-            expectedAnnotationObjects.add(inputObjects.get(position));
-
-            position++;
-        }
+    private static PostAnalysisIssueVisitor.ComponentIssue createComponentIssue(
+            PostAnalysisIssueVisitor.LightIssue issue, Component.Type type, Optional<String> scmPath) {
+        ReportAttributes reportAttributes = mock(ReportAttributes.class);
+        when(reportAttributes.getScmPath()).thenReturn(scmPath);
+        Component component = mock(Component.class);
+        when(component.getReportAttributes()).thenReturn(reportAttributes);
+        when(component.getType()).thenReturn(type);
 
-        assertEquals(2 + position, inputObjectBuilders.size());
-
-        ArgumentCaptor<List<InputObject<Object>>> annotationArgumentCaptor = ArgumentCaptor.forClass(List.class);
-
-        verify(inputObjectBuilders.get(position))
-                .put(eq("title"), eq("Quality Gate " + (status == QualityGate.Status.OK ? "success" : "failed")));
-        verify(inputObjectBuilders.get(position)).put(eq("summary"), eq("dummy summary"));
-        verify(inputObjectBuilders.get(position)).put(eq("annotations"), annotationArgumentCaptor.capture());
-        verify(inputObjectBuilders.get(position)).build();
-
-        assertThat(annotationArgumentCaptor.getValue()).isEqualTo(expectedAnnotationObjects);
-
-        verify(inputObjectBuilders.get(position + 1)).put(eq("repositoryId"), eq("repository ID"));
-        verify(inputObjectBuilders.get(position + 1)).put(eq("name"), eq("sonar.alm.github.app.name Results"));
-        verify(inputObjectBuilders.get(position + 1)).put(eq("headSha"), eq("commit SHA"));
-        verify(inputObjectBuilders.get(position + 1)).put(eq("status"), eq(RequestableCheckStatusState.COMPLETED));
-        verify(inputObjectBuilders.get(position + 1)).put(eq("conclusion"), eq(status == QualityGate.Status.OK ?
-                                                                               CheckConclusionState.SUCCESS :
-                                                                               CheckConclusionState.FAILURE));
-        verify(inputObjectBuilders.get(position + 1))
-                .put(eq("detailsUrl"), eq("http://sonar.server/root/dashboard?id=projectKey&pullRequest=branchName"));
-        verify(inputObjectBuilders.get(position + 1)).put(eq("startedAt"), eq("1970-01-15T06:56:07Z"));
-        verify(inputObjectBuilders.get(position + 1)).put(eq("completedAt"), eq("2009-02-13T23:31:30Z"));
-        verify(inputObjectBuilders.get(position + 1)).put(eq("externalId"), eq("analysis ID"));
-        verify(inputObjectBuilders.get(position + 1)).put(eq("output"), eq(inputObjects.get(position)));
-        verify(inputObjectBuilders.get(position + 1)).build();
+        PostAnalysisIssueVisitor.ComponentIssue componentIssue = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
+        when(componentIssue.getComponent()).thenReturn(component);
+        when(componentIssue.getIssue()).thenReturn(issue);
+        return componentIssue;
     }
 
-    @Test
-    public void checkCorrectDefaultValuesInjected() {
-        Clock clock = mock(Clock.class);
-        GithubApplicationAuthenticationProvider githubApplicationAuthenticationProvider =
-                mock(GithubApplicationAuthenticationProvider.class);
-        Server server = mock(Server.class);
-        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
-        PropertyDefinitions propertyDefinitions = new PropertyDefinitions();
-        assertThat(new GraphqlCheckRunProvider(clock, githubApplicationAuthenticationProvider, server,
-                                               configurationRepository, propertyDefinitions)).usingRecursiveComparison()
-                .isEqualTo(new GraphqlCheckRunProvider(new DefaultGraphqlProvider(), clock,
-                                                       githubApplicationAuthenticationProvider, server,
-                                                       configurationRepository, propertyDefinitions));
+    private static List<PostAnalysisIssueVisitor.ComponentIssue> createComponentIssues(int issueCount) {
+        List<PostAnalysisIssueVisitor.ComponentIssue> issues = new ArrayList<>();
+        for (int i = 0; i < issueCount; i++) {
+            issues.add(createComponentIssue(createIssue(i + 1, "issue " + i, Severity.MAJOR), Component.Type.FILE,
+                                            Optional.of("path/to.file")));
+        }
+        return issues;
+    }
+
+    private AnalysisDetails createAnalysisDetails(QualityGate.Status status,
+                                                  List<PostAnalysisIssueVisitor.ComponentIssue> issues) {
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
+        when(analysisIssues.getIssues()).thenReturn(issues);
+
+        AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
+        when(analysisDetails.getQualityGateStatus()).thenReturn(status);
+        when(analysisDetails.createAnalysisSummary(any())).thenReturn("dummy summary");
+        when(analysisDetails.getCommitSha()).thenReturn("commit SHA");
+        when(analysisDetails.getAnalysisProjectKey()).thenReturn("projectKey");
+        when(analysisDetails.getBranchName()).thenReturn("branchName");
+        when(analysisDetails.getAnalysisDate()).thenReturn(new Date(1234567890));
+        when(analysisDetails.getAnalysisId()).thenReturn("analysis ID");
+        when(analysisDetails.getAnalysisIssues()).thenReturn(analysisIssues);
+        when(analysisDetails.getConfiguration()).thenReturn(configuration);
+        return analysisDetails;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.github.v4;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+
+public class GraphqlMutationEntityTest {
+
+    @Test
+    public void testInputWrittenAsVariable() throws IOException {
+        GraphqlMutationEntity testCase = new GraphqlMutationEntity("mutation Test($input: TestInput!) { test }", g -> {
+            g.writeStartObject();
+            g.writeStringField("message", "a \"quoted\" \\ message\nover two lines");
+            g.writeNumberField("line", 12);
+            g.writeEndObject();
+        });
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        testCase.writeTo(outputStream);
+
+        JsonNode request = new ObjectMapper().readTree(outputStream.toByteArray());
+        assertEquals("mutation Test($input: TestInput!) { test }", request.get("query").asText());
+        assertEquals("a \"quoted\" \\ message\nover two lines",
+                     request.get("variables").get("input").get("message").asText());
+        assertEquals(12, request.get("variables").get("input").get("line").asInt());
+    }
+
+    @Test
+    public void testEntityRepeatableAndChunked() throws IOException {
+        GraphqlMutationEntity testCase = new GraphqlMutationEntity("query", g -> g.writeString("input"));
+
+        assertThat(testCase.isRepeatable()).isTrue();
+        assertThat(testCase.isChunked()).isTrue();
+        assertThat(testCase.isStreaming()).isFalse();
+        assertThat(testCase.getContentLength()).isEqualTo(-1);
+        assertThat(testCase.getContentType().getValue()).startsWith("application/json");
+
+        String expected = "{\"query\":\"query\",\"variables\":{\"input\":\"input\"}}";
+        assertEquals(expected, EntityUtils.toString(testCase, StandardCharsets.UTF_8));
+        assertEquals(expected, EntityUtils.toString(testCase, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab;
+
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.Change;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChangedLineIndexTest {
+
+    @Test
+    public void testAddedLinesAreChanged() {
+        ChangedLineIndex underTest = ChangedLineIndex.of(Arrays.asList(
+                new Change("src/File.java", false, "@@ -1,4 +1,6 @@\n line1\n+line2\n+line3\n line4\n-removed\n line5\n+line6\n", false, false)));
+
+        assertThat(underTest.isChanged("src/File.java", 1)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 2)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 3)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 4)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 5)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 6)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 7)).isFalse();
+    }
+
+    @Test
+    public void testMultipleHunksUseTheirOwnStartLine() {
+        ChangedLineIndex underTest = ChangedLineIndex.of(Arrays.asList(
+                new Change("src/File.java", false, "@@ -1,2 +1,3 @@\n line1\n+line2\n line3\n" +
+                                                   "@@ -40,2 +41,3 @@ public void method() {\n line41\n+line42\n line43\n" +
+                                                   "\\ No newline at end of file", false, false)));
+
+        assertThat(underTest.isChanged("src/File.java", 2)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 4)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 41)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 42)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 43)).isFalse();
+    }
+
+    @Test
+    public void testHeaderLinesBeforeFirstHunkIgnored() {
+        ChangedLineIndex underTest = ChangedLineIndex.of(Arrays.asList(
+                new Change("src/File.java", false, "--- a/src/File.java\n+++ b/src/File.java\n@@ -0,0 +1 @@\n+line1", false, false)));
+
+        assertThat(underTest.isChanged("src/File.java", 1)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 2)).isFalse();
+    }
+
+    @Test
+    public void testDeletedAndUnknownFilesHaveNoChangedLines() {
+        ChangedLineIndex underTest = ChangedLineIndex.of(Arrays.asList(
+                new Change("src/Deleted.java", true, "@@ -1,1 +0,0 @@\n-line1\n", false, false),
+                new Change("src/Binary.png", false, null, false, false)));
+
+        assertThat(underTest.isChanged("src/Deleted.java", 1)).isFalse();
+        assertThat(underTest.isChanged("src/Binary.png", 1)).isFalse();
+        assertThat(underTest.isChanged("src/Other.java", 1)).isFalse();
+    }
+
+    @Test
+    public void testNullChangesGiveEmptyIndex() {
+        assertThat(ChangedLineIndex.of(null).isChanged("src/File.java", 1)).isFalse();
+    }
+
+    @Test
+    public void testAllLinesChangedWhenDiffTooLarge() {
+        ChangedLineIndex underTest = ChangedLineIndex.of(Arrays.asList(
+                new Change("src/Large.java", false, "", true, false),
+                new Change("src/File.java", false, "@@ -1,1 +1,2 @@\n line1\n+line2\n", false, false)));
+
+        assertThat(underTest.isChanged("src/Large.java", 1)).isTrue();
+        assertThat(underTest.isChanged("src/Large.java", 100000)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 1)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 2)).isTrue();
+    }
+
+    @Test
+    public void testAllLinesChangedWhenDiffCollapsed() {
+        ChangedLineIndex underTest = ChangedLineIndex.of(Arrays.asList(
+                new Change("src/Collapsed.java", false, "", false, true),
+                new Change("src/Deleted.java", true, "", false, true)));
+
+        assertThat(underTest.isChanged("src/Collapsed.java", 1)).isTrue();
+        assertThat(underTest.isChanged("src/Collapsed.java", 5000)).isTrue();
+        assertThat(underTest.isChanged("src/Deleted.java", 1)).isFalse();
+        assertThat(underTest.isChanged("src/Other.java", 1)).isFalse();
+    }
+
+    @Test
+    public void testUnlistedFilesChangedWhenIncomplete() {
+        ChangedLineIndex underTest = ChangedLineIndex.builder().incomplete(true)
+                .add(new Change("src/File.java", false, "@@ -1,1 +1,2 @@\n line1\n+line2\n", false, false))
+                .build();
+
+        assertThat(underTest.isChanged("src/File.java", 1)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 2)).isTrue();
+        assertThat(underTest.isChanged("src/Unlisted.java", 1)).isTrue();
+    }
+
+    @Test
+    public void testChangesForSamePathAddedOutOfOrderAreMerged() {
+        ChangedLineIndex underTest = ChangedLineIndex.builder()
+                .add(new Change("src/File.java", false, "@@ -20,1 +20,3 @@\n line20\n+line21\n+line22\n", false, false))
+                .add(new Change("src/File.java", false, "@@ -1,1 +1,3 @@\n+line1\n+line2\n line3\n", false, false))
+                .add(new Change("src/File.java", false, "@@ -21,1 +22,2 @@\n line22\n+line23\n", false, false))
+                .build();
+
+        assertThat(underTest.isChanged("src/File.java", 1)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 2)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 3)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 20)).isFalse();
+        assertThat(underTest.isChanged("src/File.java", 21)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 22)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 23)).isTrue();
+        assertThat(underTest.isChanged("src/File.java", 24)).isFalse();
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GitlabRateLimiterTest {
+
+    private final Clock clock = mock(Clock.class);
+    private final List<Long> sleeps = new ArrayList<>();
+    private final GitlabRateLimiter testCase = new GitlabRateLimiter(clock, sleeps::add);
+
+    @Test
+    public void testNoDelayWithoutRateLimitHeaders() {
+        when(clock.millis()).thenReturn(1000L);
+
+        assertThat(testCase.update(response(200))).isFalse();
+        testCase.acquire();
+        testCase.acquire();
+
+        assertThat(sleeps).isEmpty();
+    }
+
+    @Test
+    public void testNoDelayWhilstAllowanceIsHigh() {
+        when(clock.millis()).thenReturn(1000L);
+
+        HttpResponse response = response(200);
+        response.addHeader("RateLimit-Limit", "600");
+        response.addHeader("RateLimit-Remaining", "500");
+        response.addHeader("RateLimit-Reset", "61");
+        testCase.update(response);
+        testCase.acquire();
+        testCase.acquire();
+
+        assertThat(sleeps).isEmpty();
+    }
+
+    @Test
+    public void testRequestsSpreadWhenAllowanceIsLow() {
+        when(clock.millis()).thenReturn(1000L);
+
+        HttpResponse response = response(200);
+        response.addHeader("RateLimit-Limit", "600");
+        response.addHeader("RateLimit-Remaining", "10");
+        response.addHeader("RateLimit-Reset", "11");
+        testCase.update(response);
+        testCase.acquire();
+        testCase.acquire();
+        testCase.acquire();
+
+        assertThat(sleeps).containsExactly(1000L, 2000L);
+    }
+
+    @Test
+    public void testRequestsPausedUntilResetWhenAllowanceExhausted() {
+        when(clock.millis()).thenReturn(1000L);
+
+        HttpResponse response = response(200);
+        response.addHeader("RateLimit-Limit", "600");
+        response.addHeader("RateLimit-Remaining", "0");
+        response.addHeader("RateLimit-Reset", "5");
+        testCase.update(response);
+        testCase.acquire();
+
+        assertThat(sleeps).containsExactly(4000L);
+    }
+
+    @Test
+    public void testRetryAfterHonouredForRejectedRequest() {
+        when(clock.millis()).thenReturn(Instant.EPOCH.plusSeconds(100).toEpochMilli());
+
+        HttpResponse response = response(429);
+        response.addHeader("Retry-After", "3");
+
+        assertThat(testCase.update(response)).isTrue();
+        testCase.acquire();
+
+        assertThat(sleeps).containsExactly(3000L);
+    }
+
+    @Test
+    public void testDefaultPauseForRejectedRequestWithoutHeaders() {
+        when(clock.millis()).thenReturn(1000L);
+
+        assertThat(testCase.update(response(429))).isTrue();
+        testCase.acquire();
+
+        assertThat(sleeps).containsExactly(1000L);
+    }
+
+    @Test
+    public void testDefaultConstructorUsesSystemClock() {
+        GitlabRateLimiter rateLimiter = new GitlabRateLimiter();
+        rateLimiter.acquire();
+        assertThat(rateLimiter.reserve()).isEqualTo(0);
+    }
+
+    private static HttpResponse response(int status) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "status");
+    }
+}
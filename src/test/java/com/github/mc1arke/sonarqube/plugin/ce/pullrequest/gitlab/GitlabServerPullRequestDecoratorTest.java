@@ -3,13 +3,22 @@ package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.AnalysisDetails;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.AnalysisIssues;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PostAnalysisIssueVisitor;
 import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.PullRequestBuildStatusDecorator;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.HttpClientProvider;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http.JsonCodec;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation.CommentFingerprint;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
+import org.apache.http.impl.client.HttpClients;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -19,22 +28,24 @@ import org.sonar.api.issue.Issue;
 import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.platform.Server;
 import org.sonar.ce.task.projectanalysis.component.Component;
-import org.sonar.ce.task.projectanalysis.component.ConfigurationRepository;
-import org.sonar.ce.task.projectanalysis.scm.Changeset;
-import org.sonar.ce.task.projectanalysis.scm.ScmInfo;
-import org.sonar.ce.task.projectanalysis.scm.ScmInfoRepository;
-import org.sonar.core.issue.DefaultIssue;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
 import static com.github.tomakehurst.wiremock.client.WireMock.created;
 import static com.github.tomakehurst.wiremock.client.WireMock.delete;
+import static com.github.tomakehurst.wiremock.client.WireMock.deleteRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.noContent;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
 import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
 import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.serverError;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
-import static org.mockito.ArgumentMatchers.anyInt;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -56,10 +67,8 @@ public class GitlabServerPullRequestDecoratorTest {
         String filePath = "/path/to/file";
         int lineNumber = 5;
 
-        ConfigurationRepository configurationRepository = mock(ConfigurationRepository.class);
         Configuration configuration = mock(Configuration.class);
 
-        when(configurationRepository.getConfiguration()).thenReturn(configuration);
         when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_URL)).thenReturn(Optional.of(wireMockRule.baseUrl()));
         when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_TOKEN)).thenReturn(Optional.of("token"));
         when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_REPOSITORY_SLUG)).thenReturn(Optional.of(repositorySlug));
@@ -72,29 +81,25 @@ public class GitlabServerPullRequestDecoratorTest {
         when(coverage.getValue()).thenReturn("10");
 
         AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
+        when(analysisDetails.getConfiguration()).thenReturn(configuration);
         when(analysisDetails.getAnalysisProjectKey()).thenReturn(projectKey);
         when(analysisDetails.getBranchName()).thenReturn(branchName);
         when(analysisDetails.getCommitSha()).thenReturn(commitSHA);
         when(analysisDetails.findQualityGateCondition(CoreMetrics.NEW_COVERAGE_KEY)).thenReturn(Optional.of(coverage));
-        PostAnalysisIssueVisitor issueVisitor = mock(PostAnalysisIssueVisitor.class);
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
         PostAnalysisIssueVisitor.ComponentIssue componentIssue = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
-        DefaultIssue defaultIssue = mock(DefaultIssue.class);
-        when(defaultIssue.getStatus()).thenReturn(Issue.STATUS_OPEN);
-        when(defaultIssue.getLine()).thenReturn(lineNumber);
-        when(componentIssue.getIssue()).thenReturn(defaultIssue);
+        PostAnalysisIssueVisitor.LightIssue lightIssue = mock(PostAnalysisIssueVisitor.LightIssue.class);
+        when(lightIssue.status()).thenReturn(Issue.STATUS_OPEN);
+        when(lightIssue.getLine()).thenReturn(lineNumber);
+        when(componentIssue.getIssue()).thenReturn(lightIssue);
         Component component = mock(Component.class);
         when(componentIssue.getComponent()).thenReturn(component);
-        when(issueVisitor.getIssues()).thenReturn(Collections.singletonList(componentIssue));
-        when(analysisDetails.getPostAnalysisIssueVisitor()).thenReturn(issueVisitor);
+        when(analysisIssues.getOpenIssues()).thenReturn(Collections.singletonList(componentIssue));
+        when(analysisDetails.getAnalysisIssues()).thenReturn(analysisIssues);
         when(analysisDetails.createAnalysisSummary(Mockito.any())).thenReturn("summary");
         when(analysisDetails.createAnalysisIssueSummary(Mockito.any(), Mockito.any())).thenReturn("issue");
         when(analysisDetails.getSCMPathForIssue(componentIssue)).thenReturn(Optional.of(filePath));
 
-        ScmInfoRepository scmInfoRepository = mock(ScmInfoRepository.class);
-        ScmInfo scmInfo = mock(ScmInfo.class);
-        when(scmInfo.hasChangesetForLine(anyInt())).thenReturn(true);
-        when(scmInfo.getChangesetForLine(anyInt())).thenReturn(Changeset.newChangesetBuilder().setDate(0L).setRevision(commitSHA).build());
-        when(scmInfoRepository.getScmInfo(component)).thenReturn(Optional.of(scmInfo));
         wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/user")).withHeader("PRIVATE-TOKEN", equalTo("token")).willReturn(okJson("{\n" +
                 "  \"id\": 1,\n" +
                 "  \"username\": \"" + user + "\"}")));
@@ -108,12 +113,17 @@ public class GitlabServerPullRequestDecoratorTest {
                 "    \"start_sha\":\"d6a420d043dfe85e7c240fd136fc6e197998b10a\"}\n" +
                 "}")));
 
-        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/commits")).willReturn(okJson("[\n" +
-                "  {\n" +
-                "    \"id\": \"" + commitSHA + "\"\n" +
-                "  }]")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/changes")).willReturn(okJson("{\n" +
+                "  \"changes\": [\n" +
+                "    {\n" +
+                "      \"new_path\": \"" + filePath + "\",\n" +
+                "      \"deleted_file\": false,\n" +
+                "      \"diff\": \"@@ -1,4 +1,5 @@\\n line1\\n line2\\n line3\\n line4\\n+line5\\n\"\n" +
+                "    }]}")));
 
-        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions")).willReturn(okJson("[\n" +
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions"))
+                .withQueryParam("per_page", equalTo("100"))
+                .willReturn(okJson("[\n" +
                 "  {\n" +
                 "    \"id\": \"" + discussionId + "\",\n" +
                 "    \"individual_note\": false,\n" +
@@ -126,9 +136,40 @@ public class GitlabServerPullRequestDecoratorTest {
                 "        \"author\": {\n" +
                 "          \"id\": 1,\n" +
                 "          \"username\": \"" + user + "\"\n" +
+                "        }}]}]")
+                        .withHeader("Link", "<" + wireMockRule.baseUrl() + "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions?page=2&per_page=100>; rel=\"next\", " +
+                                "<" + wireMockRule.baseUrl() + "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions?page=2&per_page=100>; rel=\"last\"")));
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions"))
+                .withQueryParam("page", equalTo("2"))
+                .willReturn(okJson("[\n" +
+                "  {\n" +
+                "    \"id\": \"" + discussionId + "2\",\n" +
+                "    \"individual_note\": false,\n" +
+                "    \"notes\": [\n" +
+                "      {\n" +
+                "        \"id\": " + noteId + "2,\n" +
+                "        \"type\": \"DiscussionNote\",\n" +
+                "        \"body\": \"discussion text\",\n" +
+                "        \"author\": {\n" +
+                "          \"id\": 1,\n" +
+                "          \"username\": \"" + user + "\"\n" +
+                "        }}]},\n" +
+                "  {\n" +
+                "    \"id\": \"" + discussionId + "3\",\n" +
+                "    \"individual_note\": false,\n" +
+                "    \"notes\": [\n" +
+                "      {\n" +
+                "        \"id\": " + noteId + "3,\n" +
+                "        \"type\": \"DiscussionNote\",\n" +
+                "        \"body\": \"" + CommentFingerprint.forSummary("summary").mark("summary") + "\",\n" +
+                "        \"author\": {\n" +
+                "          \"id\": 1,\n" +
+                "          \"username\": \"" + user + "\"\n" +
                 "        }}]}]")));
 
         wireMockRule.stubFor(delete(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions/" + discussionId + "/notes/" + noteId)).willReturn(noContent()));
+        wireMockRule.stubFor(delete(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions/" + discussionId + "2/notes/" + noteId + "2")).willReturn(noContent()));
 
         wireMockRule.stubFor(post(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/statuses/" + commitSHA))
                 .withQueryParam("name", equalTo("SonarQube"))
@@ -138,11 +179,11 @@ public class GitlabServerPullRequestDecoratorTest {
                 .willReturn(created()));
 
         wireMockRule.stubFor(post(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions"))
-                .withRequestBody(equalTo("body=summary"))
+                .withRequestBody(matching("body=.*summary"))
                 .willReturn(created()));
 
         wireMockRule.stubFor(post(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions"))
-                .withRequestBody(equalTo("body=issue&" +
+                .withRequestBody(containing("issue&" +
                         urlEncode("position[base_sha]") + "=d6a420d043dfe85e7c240fd136fc6e197998b10a&" +
                         urlEncode("position[start_sha]") + "=d6a420d043dfe85e7c240fd136fc6e197998b10a&" +
                         urlEncode("position[head_sha]") + "=" + commitSHA + "&" +
@@ -153,10 +194,352 @@ public class GitlabServerPullRequestDecoratorTest {
 
         Server server = mock(Server.class);
         when(server.getPublicRootUrl()).thenReturn(sonarRootUrl);
-        GitlabServerPullRequestDecorator pullRequestDecorator = new GitlabServerPullRequestDecorator(server, configurationRepository, scmInfoRepository);
+        HttpClientProvider httpClientProvider = mock(HttpClientProvider.class);
+        when(httpClientProvider.getHttpClient()).thenReturn(HttpClients.createDefault());
+        GitlabServerPullRequestDecorator pullRequestDecorator = new GitlabServerPullRequestDecorator(server, httpClientProvider, new JsonCodec());
 
 
         pullRequestDecorator.decorateQualityGateStatus(analysisDetails);
+
+        wireMockRule.verify(deleteRequestedFor(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions/" + discussionId + "/notes/" + noteId)));
+        wireMockRule.verify(deleteRequestedFor(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions/" + discussionId + "2/notes/" + noteId + "2")));
+        wireMockRule.verify(0, deleteRequestedFor(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions/" + discussionId + "3/notes/" + noteId + "3")));
+        wireMockRule.verify(0, postRequestedFor(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions"))
+                .withRequestBody(matching("body=.*summary")));
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusFailsWhenMergeRequestDetailsNotRetrievedInTime() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_URL)).thenReturn(Optional.of(wireMockRule.baseUrl()));
+        when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_TOKEN)).thenReturn(Optional.of("token"));
+        when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_REPOSITORY_SLUG)).thenReturn(Optional.of(repositorySlug));
+        when(configuration.get(PullRequestBuildStatusDecorator.PULL_REQUEST_COMMENT_SUMMARY_ENABLED)).thenReturn(Optional.of("true"));
+        when(configuration.get(PullRequestBuildStatusDecorator.PULL_REQUEST_DELETE_COMMENTS_ENABLED)).thenReturn(Optional.of("true"));
+        when(configuration.get(PullRequestBuildStatusDecorator.PULL_REQUEST_FILE_COMMENT_ENABLED)).thenReturn(Optional.of("true"));
+        when(configuration.getInt(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_FETCH_TIMEOUT)).thenReturn(Optional.of(200));
+
+        AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
+        when(analysisDetails.getConfiguration()).thenReturn(configuration);
+        when(analysisDetails.getBranchName()).thenReturn(branchName);
+        when(analysisDetails.getCommitSha()).thenReturn("commitSHA");
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/user")).willReturn(okJson("{\"id\": 1, \"username\": \"sonar_user\"}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName))
+                .willReturn(okJson("{\"id\": 15235}").withFixedDelay(5000)));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/changes")).willReturn(okJson("{\"changes\": []}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName + "/discussions")).willReturn(okJson("[]")));
+
+        HttpClientProvider httpClientProvider = mock(HttpClientProvider.class);
+        when(httpClientProvider.getHttpClient()).thenReturn(HttpClients.createDefault());
+        GitlabServerPullRequestDecorator pullRequestDecorator = new GitlabServerPullRequestDecorator(mock(Server.class), httpClientProvider, new JsonCodec());
+
+        assertThatThrownBy(() -> pullRequestDecorator.decorateQualityGateStatus(analysisDetails))
+                .isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessage("Could not retrieve Merge Request from the Gitlab API within 200ms");
+    }
+
+    @Test
+    public void decorateQualityGateStatusDoesNotCountTimeQueuedForThreadAgainstFetchTimeout() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/user"))
+                .willReturn(okJson("{\"id\": 1, \"username\": \"sonar_user\"}").withFixedDelay(700)));
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl)).willReturn(okJson("{\"id\": 15235, \"diff_refs\": " +
+                "{\"base_sha\": \"baseSHA\", \"head_sha\": \"commitSHA\", \"start_sha\": \"baseSHA\"}}").withFixedDelay(700)));
+
+        createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> {
+            when(configuration.getInt(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_CONCURRENCY)).thenReturn(Optional.of(1));
+            when(configuration.getInt(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_FETCH_TIMEOUT)).thenReturn(Optional.of(1000));
+        }).decorateQualityGateStatus(analysisDetails);
+
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(mergeRequestUrl)));
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo("/api/v4/projects/" + urlEncode(repositorySlug) + "/statuses/commitSHA")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusPublishesIssueCommentsAsDraftNotes() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 5, 6);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl + "/draft_notes")).willReturn(okJson("[{\"id\": 3, \"note\": \"stale\"}]")));
+        wireMockRule.stubFor(delete(urlPathEqualTo(mergeRequestUrl + "/draft_notes/3")).willReturn(noContent()));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/draft_notes"))
+                .withRequestBody(containing(urlEncode("position[new_line]") + "=5"))
+                .willReturn(okJson("{\"id\": 7}").withStatus(201)));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/draft_notes"))
+                .withRequestBody(containing(urlEncode("position[new_line]") + "=6"))
+                .willReturn(okJson("{\"id\": 8}").withStatus(201)));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/draft_notes/bulk_publish")).willReturn(noContent()));
+
+        createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> when(configuration.getBoolean(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_DRAFT_NOTES)).thenReturn(Optional.of(true))).decorateQualityGateStatus(analysisDetails);
+
+        wireMockRule.verify(deleteRequestedFor(urlPathEqualTo(mergeRequestUrl + "/draft_notes/3")));
+        wireMockRule.verify(2, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/draft_notes"))
+                .withRequestBody(matching("note=.*issue.*")));
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/draft_notes/bulk_publish")));
+        wireMockRule.verify(0, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/discussions")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusCompletesEveryStageOnSingleRequestThread() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 5, 6);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl + "/draft_notes")).willReturn(okJson("[{\"id\": 3, \"note\": \"stale\"}]")));
+        wireMockRule.stubFor(delete(urlPathEqualTo(mergeRequestUrl + "/draft_notes/3")).willReturn(noContent()));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/draft_notes")).willReturn(okJson("{\"id\": 7}").withStatus(201)));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/draft_notes/bulk_publish")).willReturn(noContent()));
+
+        createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> {
+            when(configuration.getInt(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_CONCURRENCY)).thenReturn(Optional.of(1));
+            when(configuration.getBoolean(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_DRAFT_NOTES)).thenReturn(Optional.of(true));
+        }).decorateQualityGateStatus(analysisDetails);
+
+        wireMockRule.verify(deleteRequestedFor(urlPathEqualTo(mergeRequestUrl + "/draft_notes/3")));
+        wireMockRule.verify(2, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/draft_notes")));
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/draft_notes/bulk_publish")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusRecreatesIssueNoteAnchoredToOlderHeadCommit() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 5, 6);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl + "/discussions")).willReturn(okJson("[" +
+                "{\"id\": \"d1\", \"notes\": [{\"id\": 11, \"author\": {\"username\": \"sonar_user\"}, \"body\": \"" +
+                CommentFingerprint.forIssue("issue5", filePath, 5, "olderSHA", "issue").mark("issue") + "\"}]}, " +
+                "{\"id\": \"d2\", \"notes\": [{\"id\": 12, \"author\": {\"username\": \"sonar_user\"}, \"body\": \"" +
+                CommentFingerprint.forIssue("issue6", filePath, 6, "commitSHA", "issue").mark("issue") + "\"}]}]")));
+        wireMockRule.stubFor(delete(urlPathEqualTo(mergeRequestUrl + "/discussions/d1/notes/11")).willReturn(noContent()));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/discussions")).willReturn(created()));
+
+        createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> {}).decorateQualityGateStatus(analysisDetails);
+
+        wireMockRule.verify(1, deleteRequestedFor(urlPathEqualTo(mergeRequestUrl + "/discussions/d1/notes/11")));
+        wireMockRule.verify(0, deleteRequestedFor(urlPathEqualTo(mergeRequestUrl + "/discussions/d2/notes/12")));
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/discussions"))
+                .withRequestBody(containing(urlEncode("position[new_line]") + "=5")));
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/discussions")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusCommentsOnAllLinesOfFileWithOmittedDiff() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 1, 2);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl + "/changes")).willReturn(okJson("{\"changes\": [{\"new_path\": \"" + filePath +
+                "\", \"diff\": \"\", \"too_large\": true}]}")));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/discussions")).willReturn(created()));
+
+        createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> {}).decorateQualityGateStatus(analysisDetails);
+
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo(mergeRequestUrl + "/changes")).withQueryParam("access_raw_diffs", equalTo("true")));
+        wireMockRule.verify(2, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/discussions")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusCommentsOnFilesUnlistedInOverflowingChanges() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 1, 2);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl + "/changes")).willReturn(okJson("{\"overflow\": true, \"changes\": [{\"new_path\": \"other/file\", " +
+                "\"diff\": \"@@ -1,1 +1,2 @@\\n line1\\n+line2\\n\"}]}")));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/discussions")).willReturn(created()));
+
+        createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> {}).decorateQualityGateStatus(analysisDetails);
+
+        wireMockRule.verify(2, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/discussions")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusRemovesCreatedDraftNotesWhenDraftNoteFails() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 5, 6);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl + "/draft_notes")).willReturn(okJson("[]")));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/draft_notes"))
+                .withRequestBody(containing(urlEncode("position[new_line]") + "=5"))
+                .willReturn(okJson("{\"id\": 7}").withStatus(201)));
+        wireMockRule.stubFor(post(urlPathEqualTo(mergeRequestUrl + "/draft_notes"))
+                .withRequestBody(containing(urlEncode("position[new_line]") + "=6"))
+                .willReturn(serverError()));
+        wireMockRule.stubFor(delete(urlPathEqualTo(mergeRequestUrl + "/draft_notes/7")).willReturn(noContent()));
+
+        GitlabServerPullRequestDecorator pullRequestDecorator = createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> when(configuration.getBoolean(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_DRAFT_NOTES)).thenReturn(Optional.of(true)));
+
+        assertThatThrownBy(() -> pullRequestDecorator.decorateQualityGateStatus(analysisDetails))
+                .isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessage("An error was returned in the response from the Gitlab API. See the previous log messages for details");
+
+        wireMockRule.verify(deleteRequestedFor(urlPathEqualTo(mergeRequestUrl + "/draft_notes/7")));
+        wireMockRule.verify(0, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/draft_notes/bulk_publish")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusCreatesIssueCommentsInGraphqlBatches() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 5, 6, 7);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(post(urlPathEqualTo("/api/graphql"))
+                .willReturn(okJson("{\"data\": {\"note0\": {\"errors\": []}, \"note1\": {\"errors\": []}}}")));
+
+        createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> {
+            when(configuration.getBoolean(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_GRAPHQL)).thenReturn(Optional.of(true));
+            when(configuration.getInt(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_GRAPHQL_BATCH_SIZE)).thenReturn(Optional.of(2));
+        }).decorateQualityGateStatus(analysisDetails);
+
+        wireMockRule.verify(2, postRequestedFor(urlPathEqualTo("/api/graphql"))
+                .withHeader("Authorization", equalTo("Bearer token")));
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo("/api/graphql"))
+                .withRequestBody(containing("note0: createDiffNote(input: $note0) { errors } note1: createDiffNote(input: $note1) { errors }"))
+                .withRequestBody(containing("\"noteableId\":\"gid://gitlab/MergeRequest/15235\""))
+                .withRequestBody(containing("\"paths\":{\"newPath\":\"" + filePath + "\"},\"newLine\":6")));
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo("/api/graphql"))
+                .withRequestBody(containing("\"newLine\":7")));
+        wireMockRule.verify(0, postRequestedFor(urlPathEqualTo(mergeRequestUrl + "/discussions")));
+    }
+
+    @Test
+    public void decorateQualityGateStatusSendsGraphqlBatchesForFileInLineOrder() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 5, 6, 7);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(post(urlPathEqualTo("/api/graphql"))
+                .willReturn(okJson("{\"data\": {\"note0\": {\"errors\": []}}}")));
+        wireMockRule.stubFor(post(urlPathEqualTo("/api/graphql")).withRequestBody(containing("\"newLine\":5"))
+                .willReturn(okJson("{\"data\": {\"note0\": {\"errors\": []}, \"note1\": {\"errors\": []}}}").withFixedDelay(500)));
+
+        createFileCommentDecorator(repositorySlug, analysisDetails, configuration -> {
+            when(configuration.getBoolean(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_GRAPHQL)).thenReturn(Optional.of(true));
+            when(configuration.getInt(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_GRAPHQL_BATCH_SIZE)).thenReturn(Optional.of(2));
+            when(configuration.getInt(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_CONCURRENCY)).thenReturn(Optional.of(4));
+        }).decorateQualityGateStatus(analysisDetails);
+
+        List<LoggedRequest> requests = wireMockRule.findAll(postRequestedFor(urlPathEqualTo("/api/graphql")));
+        assertThat(requests).hasSize(2);
+        assertThat(requests.get(0).getBodyAsString()).contains("\"newLine\":5", "\"newLine\":6");
+        assertThat(requests.get(1).getBodyAsString()).contains("\"newLine\":7");
+        assertThat(requests.get(1).getLoggedDate().getTime() - requests.get(0).getLoggedDate().getTime()).isGreaterThanOrEqualTo(500);
+    }
+
+    @Test
+    public void decorateQualityGateStatusReportsEachRejectedGraphqlDiffNote() {
+        String repositorySlug = "repo/slug";
+        String branchName = "1";
+        String filePath = "path/to/file";
+        String mergeRequestUrl = "/api/v4/projects/" + urlEncode(repositorySlug) + "/merge_requests/" + branchName;
+
+        AnalysisDetails analysisDetails = mockFileCommentAnalysis(branchName, filePath, 5, 6, 7);
+        stubFileCommentMergeRequest(mergeRequestUrl, filePath);
+        wireMockRule.stubFor(post(urlPathEqualTo("/api/graphql"))
+                .willReturn(okJson("{\"data\": {\"note0\": {\"errors\": [\"Line code can't be blank\"]}, \"note1\": null, \"note2\": {\"errors\": []}}, " +
+                        "\"errors\": [{\"message\": \"Internal server error\", \"path\": [\"note1\"]}]}")));
+
+        GitlabServerPullRequestDecorator pullRequestDecorator = createFileCommentDecorator(repositorySlug, analysisDetails, configuration ->
+                when(configuration.getBoolean(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_GRAPHQL)).thenReturn(Optional.of(true)));
+
+        assertThatThrownBy(() -> pullRequestDecorator.decorateQualityGateStatus(analysisDetails))
+                .isExactlyInstanceOf(IllegalStateException.class)
+                .hasMessage("2 of 3 diff notes could not be created through the Gitlab GraphQL API. See the previous log messages for details");
+
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo("/api/graphql")));
+    }
+
+    private static AnalysisDetails mockFileCommentAnalysis(String branchName, String filePath, int... lineNumbers) {
+        QualityGate.Condition coverage = mock(QualityGate.Condition.class);
+        when(coverage.getStatus()).thenReturn(QualityGate.EvaluationStatus.NO_VALUE);
+
+        List<PostAnalysisIssueVisitor.ComponentIssue> componentIssues = new ArrayList<>();
+        AnalysisDetails analysisDetails = mock(AnalysisDetails.class);
+        for (int lineNumber : lineNumbers) {
+            PostAnalysisIssueVisitor.LightIssue lightIssue = mock(PostAnalysisIssueVisitor.LightIssue.class);
+            when(lightIssue.key()).thenReturn("issue" + lineNumber);
+            when(lightIssue.getLine()).thenReturn(lineNumber);
+            PostAnalysisIssueVisitor.ComponentIssue componentIssue = mock(PostAnalysisIssueVisitor.ComponentIssue.class);
+            when(componentIssue.getIssue()).thenReturn(lightIssue);
+            when(analysisDetails.getSCMPathForIssue(componentIssue)).thenReturn(Optional.of(filePath));
+            componentIssues.add(componentIssue);
+        }
+        AnalysisIssues analysisIssues = mock(AnalysisIssues.class);
+        when(analysisIssues.getOpenIssues()).thenReturn(componentIssues);
+
+        when(analysisDetails.getAnalysisProjectKey()).thenReturn("projectKey");
+        when(analysisDetails.getBranchName()).thenReturn(branchName);
+        when(analysisDetails.getCommitSha()).thenReturn("commitSHA");
+        when(analysisDetails.findQualityGateCondition(CoreMetrics.NEW_COVERAGE_KEY)).thenReturn(Optional.of(coverage));
+        when(analysisDetails.getAnalysisIssues()).thenReturn(analysisIssues);
+        when(analysisDetails.createAnalysisIssueSummary(Mockito.any(), Mockito.any())).thenReturn("issue");
+        return analysisDetails;
+    }
+
+    private void stubFileCommentMergeRequest(String mergeRequestUrl, String filePath) {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v4/user")).willReturn(okJson("{\"id\": 1, \"username\": \"sonar_user\"}")));
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl)).willReturn(okJson("{\"id\": 15235, \"diff_refs\": " +
+                "{\"base_sha\": \"baseSHA\", \"head_sha\": \"commitSHA\", \"start_sha\": \"baseSHA\"}}")));
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl + "/changes")).willReturn(okJson("{\"changes\": [{\"new_path\": \"" + filePath +
+                "\", \"diff\": \"@@ -1,4 +1,7 @@\\n line1\\n line2\\n line3\\n line4\\n+line5\\n+line6\\n+line7\\n\"}]}")));
+        wireMockRule.stubFor(get(urlPathEqualTo(mergeRequestUrl + "/discussions")).willReturn(okJson("[]")));
+        wireMockRule.stubFor(post(urlPathEqualTo("/api/v4/projects/" + urlEncode("repo/slug") + "/statuses/commitSHA")).willReturn(created()));
+    }
+
+    private GitlabServerPullRequestDecorator createFileCommentDecorator(String repositorySlug, AnalysisDetails analysisDetails, Consumer<Configuration> settings) {
+        Configuration configuration = mock(Configuration.class);
+        when(analysisDetails.getConfiguration()).thenReturn(configuration);
+        when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_URL)).thenReturn(Optional.of(wireMockRule.baseUrl()));
+        when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_TOKEN)).thenReturn(Optional.of("token"));
+        when(configuration.get(GitlabServerPullRequestDecorator.PULLREQUEST_GITLAB_REPOSITORY_SLUG)).thenReturn(Optional.of(repositorySlug));
+        when(configuration.get(PullRequestBuildStatusDecorator.PULL_REQUEST_COMMENT_SUMMARY_ENABLED)).thenReturn(Optional.of("false"));
+        when(configuration.get(PullRequestBuildStatusDecorator.PULL_REQUEST_DELETE_COMMENTS_ENABLED)).thenReturn(Optional.of("true"));
+        when(configuration.get(PullRequestBuildStatusDecorator.PULL_REQUEST_FILE_COMMENT_ENABLED)).thenReturn(Optional.of("true"));
+        settings.accept(configuration);
+
+        Server server = mock(Server.class);
+        when(server.getPublicRootUrl()).thenReturn("http://sonar:9000/sonar");
+        HttpClientProvider httpClientProvider = mock(HttpClientProvider.class);
+        when(httpClientProvider.getHttpClient()).thenReturn(HttpClients.createDefault());
+        return new GitlabServerPullRequestDecorator(server, httpClientProvider, new JsonCodec());
     }
 
     private String urlEncode(String value) {
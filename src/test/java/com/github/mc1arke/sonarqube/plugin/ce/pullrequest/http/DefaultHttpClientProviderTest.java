@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.sonar.api.config.Configuration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.ok;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DefaultHttpClientProviderTest {
+
+    @Rule
+    public final WireMockRule wireMockRule = new WireMockRule(wireMockConfig().dynamicPort());
+
+    @Test
+    public void testConnectionReusedAcrossRequests() throws IOException {
+        wireMockRule.stubFor(get(urlEqualTo("/ping")).willReturn(ok("pong")));
+
+        DefaultHttpClientProvider testCase = new DefaultHttpClientProvider(mock(Configuration.class));
+
+        for (int i = 0; i < 3; i++) {
+            try (CloseableHttpResponse response = testCase.getHttpClient()
+                    .execute(new HttpGet(wireMockRule.baseUrl() + "/ping"))) {
+                assertThat(EntityUtils.toString(response.getEntity())).isEqualTo("pong");
+            }
+        }
+
+        assertThat(testCase.getRequestsExecuted()).isEqualTo(3);
+        assertThat(testCase.getConnectionsEstablished()).isEqualTo(1);
+        assertThat(testCase.getLeasedConnections()).isEqualTo(0);
+        assertThat(testCase.getAvailableConnections()).isEqualTo(1);
+
+        testCase.stop();
+    }
+
+    @Test
+    public void testPoolSizeReadFromConfiguration() {
+        Configuration configuration = mock(Configuration.class);
+        when(configuration.getInt(DefaultHttpClientProvider.HTTP_MAX_CONNECTIONS)).thenReturn(Optional.of(7));
+
+        DefaultHttpClientProvider testCase = new DefaultHttpClientProvider(configuration);
+
+        assertThat(testCase.getMaxConnections()).isEqualTo(7);
+        assertThat(testCase.getPendingConnectionRequests()).isEqualTo(0);
+
+        testCase.stop();
+    }
+
+    @Test
+    public void testMBeanRegisteredOnStartAndRemovedOnStop() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("com.github.mc1arke.sonarqube.plugin:type=HttpConnectionPool");
+
+        DefaultHttpClientProvider testCase = new DefaultHttpClientProvider(mock(Configuration.class));
+        testCase.start();
+
+        assertThat(mBeanServer.isRegistered(objectName)).isTrue();
+        assertThat(mBeanServer.getAttribute(objectName, "MaxConnections")).isEqualTo(50);
+
+        testCase.stop();
+
+        assertThat(mBeanServer.isRegistered(objectName)).isFalse();
+    }
+
+}
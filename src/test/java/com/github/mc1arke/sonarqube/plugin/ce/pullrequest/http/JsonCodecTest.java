@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.http;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.bitbucket.SummaryComment;
+import com.github.mc1arke.sonarqube.plugin.ce.pullrequest.gitlab.response.User;
+import org.junit.Test;
+import org.sonar.api.utils.log.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class JsonCodecTest {
+
+    private final JsonCodec testCase = new JsonCodec();
+
+    @Test
+    public void testReadersAndWritersReusedForType() {
+        assertThat(testCase.readerFor(User.class)).isSameAs(testCase.readerFor(User.class));
+        assertThat(testCase.writerFor(SummaryComment.class)).isSameAs(testCase.writerFor(SummaryComment.class));
+        assertThat(testCase.readerFor(User.class)).isNotSameAs(testCase.readerFor(SummaryComment.class));
+    }
+
+    @Test
+    public void testReadIgnoresUnknownProperties() throws IOException {
+        User user = testCase.read(inputStream("{\"username\": \"dummy\", \"state\": \"active\"}"), User.class);
+        assertThat(user.getUsername()).isEqualTo("dummy");
+
+        user = testCase.read(new StringReader("{\"id\": 1, \"username\": \"other\"}"), User.class);
+        assertThat(user.getUsername()).isEqualTo("other");
+    }
+
+    @Test
+    public void testReadValuesStreamsArrayElements() throws IOException {
+        List<String> usernames = new ArrayList<>();
+        try (MappingIterator<User> iterator = testCase
+                .readValues(inputStream("[{\"username\": \"one\"}, {\"username\": \"two\"}]"), User.class)) {
+            while (iterator.hasNext()) {
+                usernames.add(iterator.next().getUsername());
+            }
+        }
+        assertThat(usernames).containsExactly("one", "two");
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        assertThat(testCase.write(new SummaryComment("summary"))).isEqualTo("{\"text\":\"summary\"}");
+    }
+
+    @Test
+    public void testReadTreeAndConvert() throws IOException {
+        User user = testCase.convert(testCase.readTree("{\"username\": \"dummy\"}"), User.class);
+        assertThat(user.getUsername()).isEqualTo("dummy");
+    }
+
+    @Test
+    public void testDebugNotSerialisedWhenDebugDisabled() {
+        Logger logger = mock(Logger.class);
+        SummaryComment summaryComment = mock(SummaryComment.class);
+
+        testCase.debug(logger, summaryComment);
+
+        verify(logger, never()).debug(anyString());
+        verify(summaryComment, never()).getText();
+    }
+
+    @Test
+    public void testDebugSerialisedWhenDebugEnabled() {
+        Logger logger = mock(Logger.class);
+        doReturn(true).when(logger).isDebugEnabled();
+
+        testCase.debug(logger, new SummaryComment("summary"));
+
+        verify(logger).debug(String.format("{%n  \"text\" : \"summary\"%n}"));
+    }
+
+    private static InputStream inputStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
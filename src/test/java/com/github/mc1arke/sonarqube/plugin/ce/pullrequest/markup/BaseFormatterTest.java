@@ -20,11 +20,14 @@ package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.Collections;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -33,60 +36,66 @@ public class BaseFormatterTest {
 
 
     @Test
-    public void checkChildContentsDocument() {
+    public void checkChildContentsDocument() throws IOException {
         verify(checkFormatInvocation(new Document())).documentFormatter();
     }
 
     @Test
-    public void checkChildContentsHeading() {
+    public void checkChildContentsHeading() throws IOException {
         verify(checkFormatInvocation(new Heading(1))).headingFormatter();
     }
 
     @Test
-    public void checkChildContentImage() {
+    public void checkChildContentImage() throws IOException {
         verify(checkFormatInvocation(new Image("", ""))).imageFormatter();
     }
 
     @Test
-    public void checkChildContentList() {
+    public void checkChildContentList() throws IOException {
         verify(checkFormatInvocation(new List(List.Style.BULLET))).listFormatter();
     }
 
     @Test
-    public void checkChildContentListItem() {
+    public void checkChildContentListItem() throws IOException {
         verify(checkFormatInvocation(new ListItem())).listItemFormatter();
     }
 
     @Test
-    public void checkChildContentParagraph() {
+    public void checkChildContentParagraph() throws IOException {
         verify(checkFormatInvocation(new Paragraph())).paragraphFormatter();
     }
 
     @Test
-    public void checkChildContentText() {
+    public void checkChildContentText() throws IOException {
         verify(checkFormatInvocation(new Text(""))).textFormatter();
     }
 
     @Test
     public void checkChildContentUnkownType() {
-        Node node = mock(Node.class);
-        assertThatThrownBy(() -> checkFormatInvocation(mock(Node.class)))
+        Node node = new Node() {
+            @Override
+            boolean isValidChild(Node child) {
+                return false;
+            }
+        };
+        assertThatThrownBy(() -> checkFormatInvocation(node))
                 .isExactlyInstanceOf(IllegalArgumentException.class)
                 .hasMessage("Unknown node type: " + node.getClass().getName());
     }
 
 
-    private static FormatterFactory checkFormatInvocation(Node node) {
+    private static FormatterFactory checkFormatInvocation(Node node) throws IOException {
         BaseFormatterImpl baseFormatter = new BaseFormatterImpl();
         Formatter formatter = mock(Formatter.class);
         FormatterFactory formatterFactory = mock(FormatterFactory.class, invocation -> formatter);
 
         Node wrapperNode = mock(Node.class);
         doReturn(Collections.singletonList(node)).when(wrapperNode).getChildren();
-        doReturn("dummy").when(formatter).format(eq(node), eq(formatterFactory));
+        doAnswer(invocation -> invocation.<Appendable>getArgument(2).append("dummy")).when(formatter)
+                .format(eq(node), eq(formatterFactory), any(Appendable.class));
 
         assertEquals("dummy", baseFormatter.format(wrapperNode, formatterFactory));
-        verify(formatter).format(node, formatterFactory);
+        verify(formatter).format(eq(node), eq(formatterFactory), any(Appendable.class));
         return formatterFactory;
     }
 
@@ -94,8 +103,8 @@ public class BaseFormatterTest {
     private static class BaseFormatterImpl extends BaseFormatter<Node> {
 
         @Override
-        public String format(Node node, FormatterFactory formatterFactory) {
-            return childContents(node, formatterFactory);
+        public void format(Node node, FormatterFactory formatterFactory, Appendable output) throws IOException {
+            formatChildren(node, formatterFactory, output);
         }
     }
 
@@ -20,6 +20,9 @@ package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
 
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
+
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
 
@@ -84,4 +87,27 @@ public class MarkdownFormatterFactoryTest {
         MarkdownFormatterFactory testCase = new MarkdownFormatterFactory();
         assertEquals("Text", testCase.textFormatter().format(new Text("Text"), testCase));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDocumentFormattedIntoSingleOutput() throws IOException {
+        MarkdownFormatterFactory testCase = new MarkdownFormatterFactory();
+        StringWriter output = new StringWriter();
+        output.append("existing ");
+        testCase.documentFormatter().format(new Document(new Heading(1, new Text("Title")), new Paragraph(
+                new Image("alt", "source"), new Link("http://url", new Text("Text"))), new List(List.Style.BULLET,
+                new ListItem(new Text("Item")))), testCase, output);
+        assertEquals("existing # Title" + System.lineSeparator() + "![alt](source)[Text](http://url)" +
+                     System.lineSeparator() + System.lineSeparator() + "- Item" + System.lineSeparator() +
+                     System.lineSeparator(), output.toString());
+    }
+
+    @Test
+    public void testOutputFailurePropagatedFromStringFormat() {
+        Formatter<Text> formatter = (node, formatterFactory, output) -> {
+            throw new IOException("dummy");
+        };
+        assertThatThrownBy(() -> formatter.format(new Text("Text"), new MarkdownFormatterFactory()))
+                .isExactlyInstanceOf(IllegalStateException.class).hasMessage("Could not format Text")
+                .hasCauseExactlyInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.markup;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TemplateTest {
+
+    @Test
+    public void testSlotsFilledWithValues() {
+        MarkdownFormatterFactory formatterFactory = new MarkdownFormatterFactory();
+        Template testCase = Template.compile(new Document(
+                new Paragraph(new Text("**Type:** " + Template.slot(0) + " "),
+                              new Image(Template.slot(0), "http://host/" + Template.slot(1) + ".svg")),
+                new Text(Template.slot(2)), new Link("http://host/issues?id=" + Template.slot(3), new Text("View"))),
+                                             formatterFactory);
+
+        String expected = "**Type:** BUG ![BUG](http://host/bug.svg)" + System.lineSeparator() +
+                          System.lineSeparator() + "[View](http://host/issues?id=key)";
+        assertThat(testCase.render("BUG", "bug", "", "key")).isEqualTo(expected);
+        assertThat(testCase.render("BUG", "bug", null, "key")).isEqualTo(expected);
+        assertThat(testCase.render(new StringBuilder("prefix "), "BUG", "bug", "", "key").toString())
+                .isEqualTo("prefix " + expected);
+    }
+
+    @Test
+    public void testTemplateWithoutSlots() {
+        Template testCase = Template.compile(new Document(new Text("static")), new MarkdownFormatterFactory());
+        assertThat(testCase.render()).isEqualTo("static");
+    }
+
+    @Test
+    public void testMissingValuesRejected() {
+        Template testCase = Template.compile(new Document(new Text(Template.slot(0) + Template.slot(1))),
+                                             new MarkdownFormatterFactory());
+        assertThatThrownBy(() -> testCase.render("value")).isExactlyInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Template requires 2 values but 1 were provided");
+    }
+
+    @Test
+    public void testNegativeSlotRejected() {
+        assertThatThrownBy(() -> Template.slot(-1)).isExactlyInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Slot index must not be negative: -1");
+    }
+
+    @Test
+    public void testUnterminatedSlotRejected() {
+        Document document = new Document(new Text(Template.slot(0).substring(0, 2)));
+        assertThatThrownBy(() -> Template.compile(document, new MarkdownFormatterFactory()))
+                .isExactlyInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unterminated slot in formatted template");
+    }
+}
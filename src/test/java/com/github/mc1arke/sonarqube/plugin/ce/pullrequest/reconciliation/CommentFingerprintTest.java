@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommentFingerprintTest {
+
+    @Test
+    public void testMarkedBodyCanBeParsed() {
+        CommentFingerprint fingerprint = CommentFingerprint.forIssue("AXc-1_2", "src/File.java", 12, "body");
+
+        String markedBody = fingerprint.mark("body");
+
+        assertThat(markedBody).startsWith("[](#sonarqube:AXc-1_2:").endsWith(")body");
+        assertThat(CommentFingerprint.parse(markedBody)).contains(fingerprint);
+        assertThat(CommentFingerprint.parse("[](https://[SONAR])" + markedBody)).contains(fingerprint);
+    }
+
+    @Test
+    public void testUnmarkedBodyHasNoFingerprint() {
+        assertThat(CommentFingerprint.parse("some comment")).isEmpty();
+        assertThat(CommentFingerprint.parse(null)).isEmpty();
+    }
+
+    @Test
+    public void testLocationAndContentComparedSeparately() {
+        CommentFingerprint original = CommentFingerprint.forIssue("key", "src/File.java", 12, "body");
+
+        assertThat(original).isEqualTo(CommentFingerprint.forIssue("key", "src/File.java", 12, "body"))
+                .hasSameHashCodeAs(CommentFingerprint.forIssue("key", "src/File.java", 12, "body"));
+
+        CommentFingerprint newContent = CommentFingerprint.forIssue("key", "src/File.java", 12, "other body");
+        assertThat(original.hasSameLocation(newContent)).isTrue();
+        assertThat(original).isNotEqualTo(newContent);
+
+        assertThat(original.hasSameLocation(CommentFingerprint.forIssue("key", "src/File.java", 13, "body"))).isFalse();
+        assertThat(original.hasSameLocation(CommentFingerprint.forIssue("other", "src/File.java", 12, "body"))).isFalse();
+    }
+
+    @Test
+    public void testRevisionIncludedInLocation() {
+        CommentFingerprint original = CommentFingerprint.forIssue("key", "src/File.java", 12, "revision1", "body");
+
+        assertThat(original.hasSameLocation(CommentFingerprint.forIssue("key", "src/File.java", 12, "revision1", "other body"))).isTrue();
+        assertThat(original.hasSameLocation(CommentFingerprint.forIssue("key", "src/File.java", 12, "revision2", "body"))).isFalse();
+        assertThat(original.hasSameLocation(CommentFingerprint.forIssue("key", "src/File.java", 12, "body"))).isFalse();
+    }
+
+    @Test
+    public void testSummaryFingerprintsShareKey() {
+        assertThat(CommentFingerprint.forSummary("one").getKey()).isEqualTo(CommentFingerprint.forSummary("two").getKey());
+        assertThat(CommentFingerprint.forSummary("one").hasSameLocation(CommentFingerprint.forSummary("two"))).isTrue();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2020 Michael Clarke
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+package com.github.mc1arke.sonarqube.plugin.ce.pullrequest.reconciliation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommentReconcilerTest {
+
+    private static final CommentFingerprint UNCHANGED = CommentFingerprint.forIssue("unchanged", "a.java", 1, "body");
+    private static final CommentFingerprint CHANGED = CommentFingerprint.forIssue("changed", "a.java", 2, "new body");
+    private static final CommentFingerprint MOVED = CommentFingerprint.forIssue("moved", "a.java", 4, "body");
+    private static final CommentFingerprint CREATED = CommentFingerprint.forIssue("created", "b.java", 1, "body");
+
+    @Test
+    public void testOnlyDeltaReturned() {
+        String unchangedComment = UNCHANGED.mark("body");
+        String changedComment = CommentFingerprint.forIssue("changed", "a.java", 2, "old body").mark("old body");
+        String movedComment = CommentFingerprint.forIssue("moved", "a.java", 3, "body").mark("body");
+        String resolvedComment = CommentFingerprint.forIssue("resolved", "a.java", 5, "body").mark("body");
+        String legacyComment = "comment from an older version";
+        String duplicateComment = UNCHANGED.mark("body");
+
+        CommentReconciliation<String, CommentFingerprint> reconciliation =
+                CommentReconciler.reconcile(Arrays.asList(UNCHANGED, CHANGED, MOVED, CREATED), Function.identity(),
+                                            Arrays.asList(unchangedComment, changedComment, movedComment,
+                                                          resolvedComment, legacyComment, duplicateComment),
+                                            Function.identity());
+
+        assertThat(reconciliation.getCommentsToCreate()).containsExactly(MOVED, CREATED);
+        assertThat(reconciliation.getCommentsToUpdate()).hasSize(1);
+        assertThat(reconciliation.getCommentsToUpdate().get(0).getExistingComment()).isEqualTo(changedComment);
+        assertThat(reconciliation.getCommentsToUpdate().get(0).getComment()).isEqualTo(CHANGED);
+        assertThat(reconciliation.getCommentsToDelete())
+                .containsExactly(legacyComment, duplicateComment, movedComment, resolvedComment);
+        assertThat(reconciliation.getUnchangedComments()).isEqualTo(1);
+        assertThat(reconciliation.toString()).isEqualTo("2 comments to create, 1 to update, 4 to delete and 1 unchanged");
+    }
+
+    @Test
+    public void testEverythingCreatedWithoutExistingComments() {
+        CommentReconciliation<String, CommentFingerprint> reconciliation =
+                CommentReconciler.reconcile(Arrays.asList(UNCHANGED, CREATED), Function.identity(),
+                                            Collections.emptyList(), Function.identity());
+
+        assertThat(reconciliation.getCommentsToCreate()).containsExactly(UNCHANGED, CREATED);
+        assertThat(reconciliation.getCommentsToUpdate()).isEmpty();
+        assertThat(reconciliation.getCommentsToDelete()).isEmpty();
+    }
+}